@@ -0,0 +1,166 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.crypto.ECKeys;
+import ee.cyber.cdoc2.crypto.KeyLabelTools;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Synthetic payload and key material shared by benchmarks. Data is generated with fixed seed, so that
+ * results between runs (and versions) are comparable.
+ */
+public final class BenchmarkData {
+
+    private static final long SEED = 0xCD0C2L;
+
+    private static final byte[] TEXT = ("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+        + "tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation "
+        + "ullamco laboris nisi ut aliquip ex ea commodo consequat.\n").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * How well generated payload compresses with deflate
+     */
+    public enum Compressibility {
+        /** repeating text, compresses well (ratio ~ 1:100) */
+        TEXT,
+        /** random bytes, does not compress (like jpeg, pdf, zip) */
+        RANDOM,
+        /** half text, half random bytes */
+        MIXED
+    }
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generate payload data
+     * @param size data size in bytes
+     * @param compressibility how well generated data compresses
+     * @param random random used to generate RANDOM data
+     * @return generated data
+     */
+    public static byte[] generateData(int size, Compressibility compressibility, Random random) {
+        byte[] data = new byte[size];
+        switch (compressibility) {
+            case TEXT -> fillText(data, 0, size);
+            case RANDOM -> random.nextBytes(data);
+            case MIXED -> {
+                fillText(data, 0, size / 2);
+                byte[] rnd = new byte[size - size / 2];
+                random.nextBytes(rnd);
+                System.arraycopy(rnd, 0, data, size / 2, rnd.length);
+            }
+            default -> throw new IllegalArgumentException("Unknown compressibility " + compressibility);
+        }
+        return data;
+    }
+
+    private static void fillText(byte[] data, int off, int len) {
+        for (int i = 0; i < len; i += TEXT.length) {
+            System.arraycopy(TEXT, 0, data, off + i, Math.min(TEXT.length, len - i));
+        }
+    }
+
+    /**
+     * Create fileCount payload files into dir. Total size of files is totalSize bytes.
+     * @param dir directory where files are created
+     * @param fileCount number of files
+     * @param totalSize total size of all files in bytes
+     * @param compressibility how well file contents compress
+     * @return created files
+     * @throws IOException if an I/O error has occurred
+     */
+    public static List<File> createPayloadFiles(Path dir, int fileCount, long totalSize,
+                                                Compressibility compressibility) throws IOException {
+        Random random = new Random(SEED);
+        long fileSize = totalSize / fileCount;
+        int chunkSize = (int) Math.min(fileSize, 1024 * 1024);
+        byte[] chunk = generateData(Math.max(chunkSize, 1), compressibility, random);
+
+        List<File> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            Path file = dir.resolve("payload_" + i + ".bin");
+            try (OutputStream os = Files.newOutputStream(file)) {
+                long remaining = fileSize;
+                while (remaining > 0) {
+                    int len = (int) Math.min(remaining, chunk.length);
+                    os.write(chunk, 0, len);
+                    remaining -= len;
+                }
+            }
+            files.add(file.toFile());
+        }
+        return files;
+    }
+
+    /**
+     * Generate recipientCount secp384r1 key pairs
+     * @param recipientCount number of key pairs
+     * @return generated key pairs
+     * @throws GeneralSecurityException if key generation has failed
+     */
+    public static List<KeyPair> generateEcKeyPairs(int recipientCount) throws GeneralSecurityException {
+        List<KeyPair> keyPairs = new ArrayList<>(recipientCount);
+        for (int i = 0; i < recipientCount; i++) {
+            keyPairs.add(ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1));
+        }
+        return keyPairs;
+    }
+
+    /**
+     * Create encryption key material for public keys
+     * @param keyPairs recipient key pairs
+     * @return EncryptionKeyMaterial for each public key
+     */
+    public static List<EncryptionKeyMaterial> toEncryptionKeyMaterial(List<KeyPair> keyPairs) {
+        List<EncryptionKeyMaterial> result = new ArrayList<>(keyPairs.size());
+        for (int i = 0; i < keyPairs.size(); i++) {
+            result.add(EncryptionKeyMaterial.fromPublicKey(keyPairs.get(i).getPublic(),
+                KeyLabelTools.createPublicKeyLabelParams("benchmark_" + i, null)));
+        }
+        return result;
+    }
+
+    /**
+     * Recursively delete dir and its contents
+     * @param dir directory to delete
+     */
+    public static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                    Files.delete(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * JMH auxiliary counter for processed payload bytes. Reported by JMH as "payloadBytes" rate next to ops/s, so
+ * throughput in MB/s can be read directly from results.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class ByteCounter {
+
+    public long payloadBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        payloadBytes = 0;
+    }
+
+    void add(long bytes) {
+        payloadBytes += bytes;
+    }
+}
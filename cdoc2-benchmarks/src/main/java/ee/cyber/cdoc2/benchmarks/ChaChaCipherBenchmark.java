@@ -0,0 +1,126 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.crypto.ChaChaCipher;
+import ee.cyber.cdoc2.crypto.Crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks ChaCha20-Poly1305 payload streams. CIPHER_STREAM are javax.crypto streams created by
+ * {@link ChaChaCipher#initChaChaOutputStream} and {@link ChaChaCipher#initChaChaInputStream}, CHACHA_POLY1305_STREAM
+ * are large buffer streams created by {@link ChaChaCipher#initChaChaPoly1305OutputStream} and
+ * {@link ChaChaCipher#initChaChaPoly1305InputStream}. CHUNKED and CHUNKED_PARALLEL are chunked ChaCha20-Poly1305
+ * streams ({@link ChaChaCipher#initChaChaStreamOutputStream} and {@link ChaChaCipher#initChaChaStreamInputStream})
+ * with one worker and with worker per available processor. Data is written and read with writeBufferSize chunks, to
+ * show the effect of caller buffer size on cipher stream throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChaChaCipherBenchmark {
+
+    @Param({"1048576", "67108864"})
+    private int payloadSize;
+
+    @Param({"8192", "1048576"})
+    private int writeBufferSize;
+
+    @Param({"CIPHER_STREAM", "CHACHA_POLY1305_STREAM", "CHUNKED", "CHUNKED_PARALLEL"})
+    private StreamType streamType;
+
+    private SecretKey cek;
+    private byte[] additionalData;
+    private byte[] plain;
+    private byte[] encrypted;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException, IOException {
+        cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        additionalData = "CDOC20payload benchmark".getBytes(StandardCharsets.UTF_8);
+        plain = BenchmarkData.generateData(payloadSize, BenchmarkData.Compressibility.RANDOM, new Random(1));
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream(payloadSize + 64);
+        try (OutputStream os = openEncrypting(dst)) {
+            os.write(plain);
+        }
+        encrypted = dst.toByteArray();
+    }
+
+    @Benchmark
+    public void encrypt(ByteCounter counter) throws GeneralSecurityException, IOException {
+        try (OutputStream os = openEncrypting(NullOutputStream.INSTANCE)) {
+            for (int off = 0; off < plain.length; off += writeBufferSize) {
+                os.write(plain, off, Math.min(writeBufferSize, plain.length - off));
+            }
+        }
+        counter.add(payloadSize);
+    }
+
+    @Benchmark
+    public long decrypt(ByteCounter counter) throws GeneralSecurityException, IOException {
+        long total = 0;
+        byte[] buf = new byte[writeBufferSize];
+        try (InputStream is = openDecrypting(new ByteArrayInputStream(encrypted))) {
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                total += read;
+            }
+        }
+        counter.add(total);
+        return total;
+    }
+
+    private OutputStream openEncrypting(OutputStream dst) throws GeneralSecurityException, IOException {
+        return switch (streamType) {
+            case CIPHER_STREAM -> ChaChaCipher.initChaChaOutputStream(dst, cek, additionalData);
+            case CHACHA_POLY1305_STREAM -> ChaChaCipher.initChaChaPoly1305OutputStream(dst, cek, additionalData);
+            case CHUNKED -> ChaChaCipher.initChaChaStreamOutputStream(dst, cek, additionalData, 1);
+            case CHUNKED_PARALLEL -> ChaChaCipher.initChaChaStreamOutputStream(dst, cek, additionalData,
+                Runtime.getRuntime().availableProcessors());
+        };
+    }
+
+    private InputStream openDecrypting(InputStream src) throws GeneralSecurityException, IOException {
+        return switch (streamType) {
+            case CIPHER_STREAM -> ChaChaCipher.initChaChaInputStream(src, cek, additionalData);
+            case CHACHA_POLY1305_STREAM -> ChaChaCipher.initChaChaPoly1305InputStream(src, cek, additionalData);
+            case CHUNKED -> ChaChaCipher.initChaChaStreamInputStream(src, cek, additionalData, 1);
+            case CHUNKED_PARALLEL -> ChaChaCipher.initChaChaStreamInputStream(src, cek, additionalData,
+                Runtime.getRuntime().availableProcessors());
+        };
+    }
+
+    public enum StreamType {
+        CIPHER_STREAM,
+        CHACHA_POLY1305_STREAM,
+        CHUNKED,
+        CHUNKED_PARALLEL
+    }
+}
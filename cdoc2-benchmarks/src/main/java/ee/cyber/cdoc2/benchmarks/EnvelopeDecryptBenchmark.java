@@ -0,0 +1,169 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks {@link Envelope#decrypt(java.io.InputStream, DecryptionKeyMaterial, Path,
+ * ee.cyber.cdoc2.client.KeyCapsuleClientFactory)}, {@link Envelope#list} and {@link Envelope#parseHeader}.
+ * Container is created once per trial and kept in memory and in a file. File based benchmarks compare
+ * {@link FileInputStream} input with Path based {@code Envelope.decrypt} (FileChannel and memory-mapped
+ * header). Decryption key is the last recipient in the header,
+ * so recipient matching cost grows with recipientCount. Compression ratio threshold is disabled, as TEXT payload
+ * compresses over default threshold.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+    "-D" + CDocConfiguration.OVERWRITE_PROPERTY + "=true",
+    "-D" + CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY + "=1000000"
+})
+@State(Scope.Benchmark)
+public class EnvelopeDecryptBenchmark {
+
+    @Param({"1048576", "67108864"})
+    private long payloadSize;
+
+    @Param({"1", "100"})
+    private int fileCount;
+
+    @Param({"TEXT", "RANDOM"})
+    private BenchmarkData.Compressibility compressibility;
+
+    @Param({"1", "10"})
+    private int recipientCount;
+
+    private Path workDir;
+    private Path outputDir;
+    private byte[] container;
+    private Path containerFile;
+    private DecryptionKeyMaterial decryptionKeyMaterial;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, GeneralSecurityException, CDocException {
+        workDir = Files.createTempDirectory("cdoc2-bench-decrypt");
+        Path payloadDir = Files.createDirectory(workDir.resolve("payload"));
+        outputDir = Files.createDirectory(workDir.resolve("out"));
+
+        List<File> payloadFiles = BenchmarkData.createPayloadFiles(payloadDir, fileCount, payloadSize,
+            compressibility);
+        List<KeyPair> keyPairs = BenchmarkData.generateEcKeyPairs(recipientCount);
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(BenchmarkData.toEncryptionKeyMaterial(keyPairs), null).encrypt(payloadFiles, dst);
+        container = dst.toByteArray();
+        containerFile = Files.write(workDir.resolve("container.cdoc"), container);
+        decryptionKeyMaterial = DecryptionKeyMaterial.fromKeyPair(keyPairs.get(keyPairs.size() - 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(workDir);
+    }
+
+    /**
+     * Decrypt and extract all files to disk
+     */
+    @Benchmark
+    public List<String> decrypt(ByteCounter counter)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        List<String> files = Envelope.decrypt(new ByteArrayInputStream(container), decryptionKeyMaterial,
+            outputDir, null);
+        counter.add(payloadSize);
+        return files;
+    }
+
+    /**
+     * Decrypt container file read through FileInputStream and extract all files to disk
+     */
+    @Benchmark
+    public List<String> decryptFileStream(ByteCounter counter)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        try (InputStream is = new FileInputStream(containerFile.toFile())) {
+            List<String> files = Envelope.decrypt(is, decryptionKeyMaterial, outputDir, null);
+            counter.add(payloadSize);
+            return files;
+        }
+    }
+
+    /**
+     * Decrypt container file read through FileChannel and extract all files to disk
+     */
+    @Benchmark
+    public List<String> decryptFileChannel(ByteCounter counter)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        List<String> files = Envelope.decrypt(containerFile, decryptionKeyMaterial, outputDir, null, null);
+        counter.add(payloadSize);
+        return files;
+    }
+
+    /**
+     * Decrypt and list entries from container file read through FileChannel, nothing is written to disk
+     */
+    @Benchmark
+    public List<ArchiveEntry> listFileChannel(ByteCounter counter)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        List<ArchiveEntry> entries = Envelope.list(containerFile, decryptionKeyMaterial, null);
+        counter.add(payloadSize);
+        return entries;
+    }
+
+    /**
+     * Decrypt and list entries, nothing is written to disk
+     */
+    @Benchmark
+    public List<ArchiveEntry> list(ByteCounter counter)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        List<ArchiveEntry> entries = Envelope.list(new ByteArrayInputStream(container), decryptionKeyMaterial,
+            null);
+        counter.add(payloadSize);
+        return entries;
+    }
+
+    /**
+     * Parse header and deserialize all recipients, scales with recipientCount
+     */
+    @Benchmark
+    public List<Recipient> parseHeader() throws GeneralSecurityException, IOException, CDocException {
+        return Envelope.parseHeader(new ByteArrayInputStream(container));
+    }
+}
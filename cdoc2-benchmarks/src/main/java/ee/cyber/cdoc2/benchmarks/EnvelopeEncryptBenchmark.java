@@ -0,0 +1,97 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.container.EncryptionOptions;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks {@link Envelope#prepare(List, ee.cyber.cdoc2.client.KeyCapsuleClient)} and
+ * {@link Envelope#encrypt(List, java.io.OutputStream, EncryptionOptions)}. Encrypted container is discarded, so
+ * results measure tar, deflate and ChaCha20-Poly1305 layers without destination I/O.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvelopeEncryptBenchmark {
+
+    @Param({"1048576", "67108864"})
+    private long payloadSize;
+
+    @Param({"1", "100"})
+    private int fileCount;
+
+    @Param({"TEXT", "RANDOM"})
+    private BenchmarkData.Compressibility compressibility;
+
+    @Param({"1", "10"})
+    private int recipientCount;
+
+    @Param({"false", "true"})
+    private boolean pipelined;
+
+    private Path payloadDir;
+    private List<File> payloadFiles;
+    private List<EncryptionKeyMaterial> recipients;
+    private Envelope envelope;
+    private EncryptionOptions encryptionOptions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, GeneralSecurityException, CDocException {
+        payloadDir = Files.createTempDirectory("cdoc2-bench-encrypt");
+        payloadFiles = BenchmarkData.createPayloadFiles(payloadDir, fileCount, payloadSize, compressibility);
+        recipients = BenchmarkData.toEncryptionKeyMaterial(BenchmarkData.generateEcKeyPairs(recipientCount));
+        envelope = Envelope.prepare(recipients, null);
+        encryptionOptions = EncryptionOptions.defaults().withPipelining(pipelined);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(payloadDir);
+    }
+
+    /**
+     * FMK generation and recipient capsule creation, scales with recipientCount
+     */
+    @Benchmark
+    public Envelope prepare() throws GeneralSecurityException, CDocException {
+        return Envelope.prepare(recipients, null);
+    }
+
+    /**
+     * Payload encryption with already prepared Envelope, scales with payloadSize. With pipelined=true
+     * file reading, tar+deflate and encryption run in separate threads
+     */
+    @Benchmark
+    public void encrypt(ByteCounter counter) throws GeneralSecurityException, IOException {
+        envelope.encrypt(payloadFiles, NullOutputStream.INSTANCE, encryptionOptions);
+        counter.add(payloadSize);
+    }
+}
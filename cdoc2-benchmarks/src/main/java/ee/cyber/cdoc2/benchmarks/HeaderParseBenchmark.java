@@ -0,0 +1,94 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.recipients.HeaderRecipients;
+import ee.cyber.cdoc2.container.recipients.Recipient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks header parsing and recipient matching with large number of EC recipients. Compares eager
+ * {@link Envelope#parseHeader} (all recipients deserialized) with lazy {@link Envelope#parseHeaderRecipients}
+ * and {@link HeaderRecipients#findRecipient}, which looks up recipient from index built from FlatBuffers bytes and
+ * deserializes only matching recipient. Searched recipient is the last one in the header.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeaderParseBenchmark {
+
+    @Param({"1", "100", "2000"})
+    private int recipientCount;
+
+    private byte[] container;
+    private PublicKey recipientId;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException, IOException, CDocException {
+        List<KeyPair> keyPairs = BenchmarkData.generateEcKeyPairs(recipientCount);
+
+        Path payload = Files.createTempFile("cdoc2-bench-header", ".txt");
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        try {
+            Files.writeString(payload, "Header benchmark");
+            Envelope.prepare(BenchmarkData.toEncryptionKeyMaterial(keyPairs), null)
+                .encrypt(List.of(payload.toFile()), dst);
+        } finally {
+            Files.deleteIfExists(payload);
+        }
+        container = dst.toByteArray();
+        recipientId = keyPairs.get(keyPairs.size() - 1).getPublic();
+    }
+
+    /**
+     * Parse header and deserialize all recipients
+     */
+    @Benchmark
+    public List<Recipient> parseHeader() throws GeneralSecurityException, IOException, CDocException {
+        return Envelope.parseHeader(new ByteArrayInputStream(container));
+    }
+
+    /**
+     * Parse header into lazy view, no recipients are deserialized
+     */
+    @Benchmark
+    public HeaderRecipients parseHeaderRecipients() throws IOException, CDocException {
+        return Envelope.parseHeaderRecipients(new ByteArrayInputStream(container));
+    }
+
+    /**
+     * Parse header into lazy view and find recipient for decryption key
+     */
+    @Benchmark
+    public Optional<Recipient> findRecipient() throws GeneralSecurityException, IOException, CDocException {
+        return Envelope.parseHeaderRecipients(new ByteArrayInputStream(container)).findRecipient(recipientId);
+    }
+}
@@ -0,0 +1,138 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.recipients.EccPubKeyRecipient;
+import ee.cyber.cdoc2.container.recipients.PBKDF2Recipient;
+import ee.cyber.cdoc2.container.recipients.RSAPubKeyRecipient;
+import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.container.recipients.SymmetricKeyRecipient;
+import ee.cyber.cdoc2.crypto.ECKeys;
+import ee.cyber.cdoc2.crypto.KekTools;
+import ee.cyber.cdoc2.crypto.KeyLabelTools;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.decrypt.KeyPairDecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.decrypt.PasswordDecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.decrypt.SecretDecryptionKeyMaterial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks KEK derivation for each locally derivable recipient type (KekTools). Recipients are parsed from
+ * a real CDOC2 header, so that key material is exactly as it would be during decryption.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KekDerivationBenchmark {
+
+    private static final String SECRET_LABEL = "benchmark_secret";
+    private static final String PASSWORD_LABEL = "benchmark_password";
+    private static final char[] PASSWORD = "Benchmark-Passw0rd".toCharArray();
+
+    private EccPubKeyRecipient eccRecipient;
+    private RSAPubKeyRecipient rsaRecipient;
+    private SymmetricKeyRecipient symmetricKeyRecipient;
+    private PBKDF2Recipient pbkdf2Recipient;
+
+    private KeyPairDecryptionKeyMaterial ecKeyMaterial;
+    private KeyPairDecryptionKeyMaterial rsaKeyMaterial;
+    private SecretDecryptionKeyMaterial secretKeyMaterial;
+    private PasswordDecryptionKeyMaterial passwordKeyMaterial;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException, IOException, CDocException {
+        KeyPair ecKeyPair = ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1);
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(3072);
+        KeyPair rsaKeyPair = rsaGenerator.generateKeyPair();
+        SecretKey secretKey = new SecretKeySpec(new byte[32], "");
+
+        List<EncryptionKeyMaterial> encryptionKeyMaterial = List.of(
+            EncryptionKeyMaterial.fromPublicKey(ecKeyPair.getPublic(),
+                KeyLabelTools.createPublicKeyLabelParams("benchmark_ec", null)),
+            EncryptionKeyMaterial.fromPublicKey(rsaKeyPair.getPublic(),
+                KeyLabelTools.createPublicKeyLabelParams("benchmark_rsa", null)),
+            EncryptionKeyMaterial.fromSecret(secretKey, SECRET_LABEL),
+            EncryptionKeyMaterial.fromPassword(PASSWORD, PASSWORD_LABEL)
+        );
+
+        Path payload = Files.createTempFile("cdoc2-bench-kek", ".txt");
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        try {
+            Files.writeString(payload, "KEK benchmark");
+            Envelope.prepare(encryptionKeyMaterial, null).encrypt(List.of(payload.toFile()), dst);
+        } finally {
+            Files.deleteIfExists(payload);
+        }
+
+        for (Recipient recipient : Envelope.parseHeader(new ByteArrayInputStream(dst.toByteArray()))) {
+            if (recipient instanceof EccPubKeyRecipient ecc) {
+                eccRecipient = ecc;
+            } else if (recipient instanceof RSAPubKeyRecipient rsa) {
+                rsaRecipient = rsa;
+            } else if (recipient instanceof SymmetricKeyRecipient symmetric) {
+                symmetricKeyRecipient = symmetric;
+            } else if (recipient instanceof PBKDF2Recipient pbkdf2) {
+                pbkdf2Recipient = pbkdf2;
+            }
+        }
+
+        ecKeyMaterial = new KeyPairDecryptionKeyMaterial(ecKeyPair);
+        rsaKeyMaterial = new KeyPairDecryptionKeyMaterial(rsaKeyPair);
+        secretKeyMaterial = new SecretDecryptionKeyMaterial(secretKey, SECRET_LABEL);
+        passwordKeyMaterial = new PasswordDecryptionKeyMaterial(PASSWORD, PASSWORD_LABEL);
+    }
+
+    /** ECDH + HKDF */
+    @Benchmark
+    public byte[] deriveKekForEcc() throws GeneralSecurityException {
+        return KekTools.deriveKekForEcc(eccRecipient, ecKeyMaterial);
+    }
+
+    /** RSA-OAEP decrypt */
+    @Benchmark
+    public byte[] deriveKekForRsa() throws GeneralSecurityException {
+        return KekTools.deriveKekForRsa(rsaRecipient, rsaKeyMaterial);
+    }
+
+    /** HKDF */
+    @Benchmark
+    public byte[] deriveKekForSymmetricKey() {
+        return KekTools.deriveKekForSymmetricKey(symmetricKeyRecipient, secretKeyMaterial);
+    }
+
+    /** PBKDF2 + HKDF */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] deriveKekForPasswordDerivedKey() throws GeneralSecurityException {
+        return KekTools.deriveKekForPasswordDerivedKey(pbkdf2Recipient, passwordKeyMaterial);
+    }
+}
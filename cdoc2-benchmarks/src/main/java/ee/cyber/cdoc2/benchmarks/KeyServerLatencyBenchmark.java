@@ -0,0 +1,105 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.client.Cdoc2KeyCapsuleApiClient;
+import ee.cyber.cdoc2.client.ExtApiException;
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
+import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.client.api.ApiException;
+import ee.cyber.cdoc2.client.model.Capsule;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Key server request latency with default (HttpURLConnection) and pooled (Apache HttpClient 5) connector of
+ * {@link Cdoc2KeyCapsuleApiClient}, measured against local {@link KeyServerStub}. Stub server responds immediately,
+ * so results show client side overhead of connection handling (TCP and TLS handshakes) and serialization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyServerLatencyBenchmark {
+
+    private static final int BATCH_SIZE = 16;
+
+    @Param({"default", "pooled"})
+    private String connector;
+
+    private KeyServerStub server;
+    private Cdoc2KeyCapsuleApiClient apiClient;
+    private KeyCapsuleClient capsuleClient;
+    private Capsule capsule;
+    private List<Capsule> batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException, IOException {
+        server = KeyServerStub.start(8);
+        apiClient = Cdoc2KeyCapsuleApiClient.builder()
+            .withBaseUrl(server.getBaseUrl())
+            .withTrustKeyStore(server.getTrustStore())
+            .withPooledConnections("pooled".equals(connector))
+            .build();
+        capsuleClient = KeyCapsuleClientImpl.create("stub", apiClient, apiClient);
+
+        capsule = new Capsule()
+            .capsuleType(Capsule.CapsuleTypeEnum.ECC_SECP384R1)
+            .recipientId(new byte[97])
+            .ephemeralKeyMaterial(new byte[97]);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(capsule);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        apiClient.close();
+        server.close();
+    }
+
+    /**
+     * Single capsule creation request (POST)
+     */
+    @Benchmark
+    public String createCapsule() throws ApiException {
+        return apiClient.createCapsule(capsule);
+    }
+
+    /**
+     * Single capsule download request (GET)
+     */
+    @Benchmark
+    public Optional<Capsule> getCapsule() throws ApiException {
+        return apiClient.getCapsule("KC1");
+    }
+
+    /**
+     * Batch of capsules created with concurrent requests ({@link KeyCapsuleClient#storeCapsules(List)})
+     */
+    @Benchmark
+    public List<String> storeCapsules() throws ExtApiException {
+        return capsuleClient.storeCapsules(batch);
+    }
+}
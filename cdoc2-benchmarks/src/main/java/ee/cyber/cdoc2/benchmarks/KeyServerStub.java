@@ -0,0 +1,174 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+
+/**
+ * Minimal HTTPS key capsule server on loopback interface for client latency benchmarks. Implements
+ * "POST /key-capsules" and "GET /key-capsules/{transactionId}" from cdoc2-key-capsules OpenAPI, every capsule
+ * request returns the same capsule. Server certificate is self-signed and generated on start.
+ */
+public final class KeyServerStub implements AutoCloseable {
+
+    private static final char[] PASSWORD = "passwd".toCharArray();
+    private static final String CAPSULES_PATH = "/key-capsules";
+
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final X509Certificate certificate;
+    private final byte[] capsuleJson;
+    private final AtomicLong transactionCounter = new AtomicLong();
+
+    private KeyServerStub(HttpsServer server, ExecutorService executor, X509Certificate certificate) {
+        this.server = server;
+        this.executor = executor;
+        this.certificate = certificate;
+        Base64.Encoder base64 = Base64.getEncoder();
+        this.capsuleJson = ("{\"recipient_id\":\"" + base64.encodeToString(new byte[97])
+            + "\",\"ephemeral_key_material\":\"" + base64.encodeToString(new byte[97])
+            + "\",\"capsule_type\":\"ecc_secp384r1\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start stub server on random free port of loopback interface
+     * @param threads number of server threads
+     * @return started server
+     * @throws GeneralSecurityException if server certificate generation has failed
+     * @throws IOException if server start has failed
+     */
+    public static KeyServerStub start(int threads) throws GeneralSecurityException, IOException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate cert = generateCertificate(keyPair);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), PASSWORD, new Certificate[] {cert});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLSv1.3");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+
+        // disable Nagle's algorithm, otherwise responses written in several packets are delayed by client
+        // delayed ACK (~40 ms). Read once, when first server is created
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpsServer httpsServer = HttpsServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        httpsServer.setExecutor(executor);
+
+        KeyServerStub stub = new KeyServerStub(httpsServer, executor, cert);
+        httpsServer.createContext(CAPSULES_PATH, stub::handle);
+        httpsServer.start();
+        return stub;
+    }
+
+    /**
+     * @return server base url, example https://127.0.0.1:34567
+     */
+    public String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "https://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * @return trust store containing server self-signed certificate
+     * @throws GeneralSecurityException if key store creation has failed
+     * @throws IOException if key store initialization has failed
+     */
+    public KeyStore getTrustStore() throws GeneralSecurityException, IOException {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("server", certificate);
+        return trustStore;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if ("POST".equals(method) && CAPSULES_PATH.equals(path)) {
+                exchange.getResponseHeaders()
+                    .add("Location", CAPSULES_PATH + "/KC" + transactionCounter.incrementAndGet());
+                exchange.sendResponseHeaders(201, -1);
+            } else if ("GET".equals(method) && path.startsWith(CAPSULES_PATH + "/")) {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, capsuleJson.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(capsuleJson);
+                }
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private static X509Certificate generateCertificate(KeyPair keyPair) throws GeneralSecurityException {
+        X500Name name = new X500Name("CN=localhost");
+        Instant now = Instant.now();
+        try {
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                name,
+                BigInteger.valueOf(now.toEpochMilli()),
+                Date.from(now.minus(Duration.ofDays(1))),
+                Date.from(now.plus(Duration.ofDays(1))),
+                name,
+                keyPair.getPublic())
+                .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[] {
+                    new GeneralName(GeneralName.dNSName, "localhost"),
+                    new GeneralName(GeneralName.iPAddress, InetAddress.getLoopbackAddress().getHostAddress())
+                }));
+            return new JcaX509CertificateConverter()
+                .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+                    .build(keyPair.getPrivate())));
+        } catch (OperatorCreationException | IOException e) {
+            throw new GeneralSecurityException("Failed to generate server certificate", e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.container.EncryptionOptions;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.FileNameValidator;
+import ee.cyber.cdoc2.container.Tar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks encryption of payloads consisting of very many small files, where per file costs (file name
+ * validation, reading file attributes for tar headers) dominate over tar, deflate and encryption of file data.
+ * metadataWorkers over 1 reads file attributes ahead of archiving on worker threads
+ * ({@link EncryptionOptions#withMetadataWorkers(int)}).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManyFilesBenchmark {
+
+    @Param({"10000", "100000"})
+    private int fileCount;
+
+    @Param({"1024"})
+    private int fileSize;
+
+    @Param({"1", "4"})
+    private int metadataWorkers;
+
+    private Path payloadDir;
+    private List<File> payloadFiles;
+    private Envelope envelope;
+    private EncryptionOptions options;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, GeneralSecurityException, CDocException {
+        payloadDir = Files.createTempDirectory("cdoc2-bench-many-files");
+        payloadFiles = BenchmarkData.createPayloadFiles(payloadDir, fileCount, (long) fileCount * fileSize,
+            BenchmarkData.Compressibility.RANDOM);
+        envelope = Envelope.prepare(BenchmarkData.toEncryptionKeyMaterial(BenchmarkData.generateEcKeyPairs(1)),
+            null);
+        options = EncryptionOptions.defaults().withMetadataWorkers(metadataWorkers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(payloadDir);
+    }
+
+    /**
+     * Payload file name validation and duplicate check
+     */
+    @Benchmark
+    public List<File> validate() {
+        FileNameValidator.ensureNoFileDuplicates(payloadFiles);
+        return payloadFiles;
+    }
+
+    /**
+     * tar+zlib without encryption, scales with fileCount
+     */
+    @Benchmark
+    public void archive(ByteCounter counter) throws IOException {
+        Tar.archiveFiles(NullOutputStream.INSTANCE, payloadFiles, options);
+        counter.add((long) fileCount * fileSize);
+    }
+
+    /**
+     * Payload encryption with already prepared Envelope
+     */
+    @Benchmark
+    public void encrypt(ByteCounter counter) throws GeneralSecurityException, IOException {
+        envelope.encrypt(payloadFiles, NullOutputStream.INSTANCE, options);
+        counter.add((long) fileCount * fileSize);
+    }
+}
@@ -0,0 +1,68 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.client.ExtApiException;
+import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.container.recipients.RecipientFactory;
+import ee.cyber.cdoc2.crypto.Crypto;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks {@link RecipientFactory#buildRecipients} for EC recipients, sequentially (threads=1) and in parallel
+ * with fixed thread pool. Each EC recipient generates sender key pair and derives KEK with ECDH and HKDF.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecipientBuildBenchmark {
+
+    @Param({"100", "1000"})
+    private int recipientCount;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    private List<EncryptionKeyMaterial> recipients;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        recipients = BenchmarkData.toEncryptionKeyMaterial(BenchmarkData.generateEcKeyPairs(recipientCount));
+        executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public Recipient[] buildRecipients() throws GeneralSecurityException, ExtApiException {
+        return RecipientFactory.buildRecipients(Crypto.generateFileMasterKey(), recipients, null, executor, null);
+    }
+}
@@ -0,0 +1,72 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.crypto.ChaChaCipher;
+import ee.cyber.cdoc2.crypto.Crypto;
+import ee.cyber.cdoc2.crypto.SecureRandomMode;
+import ee.cyber.cdoc2.crypto.SecureRandomSource;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares {@link SecureRandomMode}s under concurrent use. Each operation generates random bytes the same way as
+ * encryption does (FMK input keying material, ChaCha nonce). Runs with 4 threads by default, use {@code -t 1} and
+ * {@code -t <cores>} to see how each mode scales with thread count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SecureRandomBenchmark {
+
+    @Param({"SHARED", "POOLED", "THREAD_LOCAL"})
+    private SecureRandomMode mode;
+
+    @Param({"256"})
+    private int reseedInterval;
+
+    private SecureRandomSource source;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        source = SecureRandomSource.create(mode, reseedInterval);
+    }
+
+    /**
+     * Random bytes for ChaCha20-Poly1305 nonce
+     */
+    @Benchmark
+    public byte[] nonce() throws NoSuchAlgorithmException {
+        byte[] nonce = new byte[ChaChaCipher.NONCE_LEN_BYTES];
+        source.get().nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Random bytes for FMK input keying material, see {@link Crypto#generateFileMasterKey()}
+     */
+    @Benchmark
+    public byte[] fmkKeyingMaterial() throws NoSuchAlgorithmException {
+        byte[] ikm = new byte[64];
+        source.get().nextBytes(ikm);
+        return ikm;
+    }
+}
@@ -0,0 +1,118 @@
+package ee.cyber.cdoc2.benchmarks;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+import ee.cyber.cdoc2.container.EncryptionOptions;
+import ee.cyber.cdoc2.container.Tar;
+import ee.cyber.cdoc2.container.TarDeflate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks tar+zlib layer without encryption: {@link Tar#archiveFiles} and {@link TarDeflate#process} (list
+ * and extract). Compression ratio threshold is disabled, as TEXT payload compresses over default threshold.
+ * deflateWorkers over 1 uses parallel (block based) deflate, adaptiveCompression stores incompressible entries,
+ * fileChannelReading reads payload files through FileChannel (memory-mapped for big files).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+    "-D" + CDocConfiguration.OVERWRITE_PROPERTY + "=true",
+    "-D" + CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY + "=1000000"
+})
+@State(Scope.Benchmark)
+public class TarDeflateBenchmark {
+
+    @Param({"1048576", "67108864"})
+    private long payloadSize;
+
+    @Param({"1", "100"})
+    private int fileCount;
+
+    @Param({"TEXT", "RANDOM", "MIXED"})
+    private BenchmarkData.Compressibility compressibility;
+
+    @Param({"1", "4"})
+    private int deflateWorkers;
+
+    @Param({"false", "true"})
+    private boolean adaptiveCompression;
+
+    @Param({"false", "true"})
+    private boolean fileChannelReading;
+
+    private EncryptionOptions options;
+
+    private Path workDir;
+    private Path outputDir;
+    private List<File> payloadFiles;
+    private byte[] tarZ;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workDir = Files.createTempDirectory("cdoc2-bench-tar");
+        Path payloadDir = Files.createDirectory(workDir.resolve("payload"));
+        outputDir = Files.createDirectory(workDir.resolve("out"));
+        payloadFiles = BenchmarkData.createPayloadFiles(payloadDir, fileCount, payloadSize, compressibility);
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        options = EncryptionOptions.defaults()
+            .withDeflateWorkers(deflateWorkers)
+            .withAdaptiveCompression(adaptiveCompression)
+            .withFileChannelReading(fileChannelReading);
+        Tar.archiveFiles(dst, payloadFiles, options);
+        tarZ = dst.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void archive(ByteCounter counter) throws IOException {
+        Tar.archiveFiles(NullOutputStream.INSTANCE, payloadFiles, options);
+        counter.add(payloadSize);
+    }
+
+    @Benchmark
+    public List<String> list(ByteCounter counter) throws IOException {
+        List<String> names = TarDeflate.listFiles(new ByteArrayInputStream(tarZ));
+        counter.add(payloadSize);
+        return names;
+    }
+
+    @Benchmark
+    public List<ArchiveEntry> extract(ByteCounter counter) throws IOException {
+        try (TarDeflate tarDeflate = new TarDeflate(new ByteArrayInputStream(tarZ))) {
+            List<ArchiveEntry> entries = tarDeflate.extractToDir(outputDir);
+            counter.add(payloadSize);
+            return entries;
+        }
+    }
+}
@@ -25,6 +25,10 @@ import picocli.CommandLine.Option;
 
 import static ee.cyber.cdoc2.cli.util.CDocDecryptionHelper.getDecryptionKeyMaterial;
 
+/**
+ * List files in CDOC2 container. When container header contains table of contents, files are listed from it and
+ * payload is not decrypted, so payload MAC is not checked (see {@link CDocDecrypter#list()}).
+ */
 //S106 Standard outputs should not be used directly to log anything
 //CLI needs to interact with standard outputs
 @SuppressWarnings("java:S106")
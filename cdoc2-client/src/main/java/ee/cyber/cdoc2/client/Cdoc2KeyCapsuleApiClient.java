@@ -21,23 +21,31 @@ import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.KeyStoreBuilderParameters;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 import jakarta.annotation.Nullable;
 import jakarta.ws.rs.client.ClientBuilder;
+import org.glassfish.jersey.client.ClientConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
  * Client for creating and getting CDOC2 key capsules from key server. Provides Builder to initialize mutual TLS
- * from PKCS11 (smart-card) or PKCS12 (software) key stores.
+ * from PKCS11 (smart-card) or PKCS12 (software) key stores. Client must be closed to release connections (and
+ * connection pool with its idle connection evictor thread, when created {@link Builder#withPooledConnections(boolean)
+ * with pooled connections}).
  */
-public final class Cdoc2KeyCapsuleApiClient {
+public final class Cdoc2KeyCapsuleApiClient implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(Cdoc2KeyCapsuleApiClient.class);
 
     public static final int DEFAULT_CONNECT_TIMEOUT_MS = 1000;
     public static final int DEFAULT_READ_TIMEOUT_MS = 500;
+    /** Default max number of pooled connections to key server, same as JDK http.maxConnections default */
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+    public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT_MS = 30_000;
+    public static final int DEFAULT_KEEP_ALIVE_MS = 60_000;
 
     private final Cdoc2KeyCapsulesApi capsulesApi;
 
@@ -46,6 +54,14 @@ public final class Cdoc2KeyCapsuleApiClient {
         this.capsulesApi = capsuleApi;
     }
 
+    /**
+     * Close underlying HTTP client and its connections. Client can't be used after close.
+     */
+    @Override
+    public void close() {
+        capsulesApi.getApiClient().getHttpClient().close();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -72,6 +88,18 @@ public final class Cdoc2KeyCapsuleApiClient {
         private boolean debug = false;
         private String userAgent = "cdoc2-client";
 
+        @Nullable
+        private SSLContext sslContext;
+        @Nullable
+        private SecureRandom secureRandom;
+        private int sessionCacheSize = -1; // JSSE default
+        private int sessionTimeoutSec = -1; // JSSE default
+
+        private boolean pooledConnections = false;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private int idleConnectionTimeoutMs = DEFAULT_IDLE_CONNECTION_TIMEOUT_MS;
+        private int keepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+
 
         private Builder() {
         }
@@ -121,6 +149,49 @@ public final class Cdoc2KeyCapsuleApiClient {
             return this;
         }
 
+        /**
+         * Use already initialized SSLContext instead of creating new one from trust and client key stores. Same
+         * SSLContext can be shared between clients, so that TLS sessions cached in SSLContext are resumed by all
+         * clients and client key (smart-card) is used only for the first full handshake.
+         * See {@link #buildSslContext()}
+         * @param context initialized SSLContext or null to create new SSLContext when client is built
+         * @return client builder
+         */
+        public Builder withSslContext(@Nullable SSLContext context) {
+            this.sslContext = context;
+            return this;
+        }
+
+        /**
+         * SecureRandom used to initialize SSLContext. Default is non-blocking {@code new SecureRandom()}
+         * @param random SecureRandom
+         * @return client builder
+         */
+        public Builder withSecureRandom(SecureRandom random) {
+            this.secureRandom = random;
+            return this;
+        }
+
+        /**
+         * Max number of TLS sessions cached for resumption in client session context of created SSLContext
+         * @param size cache size, 0 means no limit
+         * @return client builder
+         */
+        public Builder withSessionCacheSize(int size) {
+            this.sessionCacheSize = size;
+            return this;
+        }
+
+        /**
+         * Time after which cached TLS session expires and full handshake (with client key signature) is required
+         * @param timeout session timeout in seconds, 0 means no limit
+         * @return client builder
+         */
+        public Builder withSessionTimeoutSec(int timeout) {
+            this.sessionTimeoutSec = timeout;
+            return this;
+        }
+
         public Builder withConnectTimeoutMs(int timeout) {
             this.connectTimeoutMs = timeout;
             return this;
@@ -141,12 +212,66 @@ public final class Cdoc2KeyCapsuleApiClient {
             return this;
         }
 
+        /**
+         * Use Apache HttpClient 5 connector with connection pool instead of default HttpURLConnection connector.
+         * Pooled connections are kept alive and reused between requests, so that TCP and TLS handshake is not
+         * repeated for every capsule request.
+         * @param enabled if true, then pooled connector is used
+         * @return client builder
+         */
+        public Builder withPooledConnections(boolean enabled) {
+            this.pooledConnections = enabled;
+            return this;
+        }
+
+        /**
+         * Max number of pooled connections to key server. Used only with {@link #withPooledConnections(boolean)}
+         * @param max max number of connections
+         * @return client builder
+         */
+        public Builder withMaxConnections(int max) {
+            this.maxConnections = max;
+            return this;
+        }
+
+        /**
+         * Pooled connections idle longer than timeout are closed by background evictor thread.
+         * Used only with {@link #withPooledConnections(boolean)}
+         * @param timeout idle connection timeout in milliseconds
+         * @return client builder
+         */
+        public Builder withIdleConnectionTimeoutMs(int timeout) {
+            this.idleConnectionTimeoutMs = timeout;
+            return this;
+        }
+
+        /**
+         * Max time connection is kept alive for reuse after request. Shorter Keep-Alive timeout sent by server is
+         * respected. Used only with {@link #withPooledConnections(boolean)}
+         * @param keepAlive keep-alive time in milliseconds
+         * @return client builder
+         */
+        public Builder withKeepAliveMs(int keepAlive) {
+            this.keepAliveMs = keepAlive;
+            return this;
+        }
+
         //basic validation
         private void validate() {
             if ((baseUrl == null) || (!baseUrl.startsWith("https://"))) {
                 throw new IllegalStateException("baseUrl " + baseUrl + " cannot be null and must start with https://");
             }
 
+            if (sslContext == null) {
+                validateSslContextParameters();
+            }
+
+            if (pooledConnections && (maxConnections < 1 || idleConnectionTimeoutMs < 1 || keepAliveMs < 1)) {
+                throw new IllegalStateException("Connection pool parameters must be positive");
+            }
+        }
+
+        private void validateSslContextParameters() {
             if (trustKeyStore == null) {
                 throw new IllegalStateException("TrustKeyStore cannot be null");
             }
@@ -154,13 +279,40 @@ public final class Cdoc2KeyCapsuleApiClient {
             if (clientKeyStore != null && clientKeyStoreProtectionParameter == null) {
                 throw new IllegalStateException("ClientKeyStoreProtectionParameter cannot be null");
             }
+
+            if (sessionCacheSize < -1 || sessionTimeoutSec < -1) {
+                throw new IllegalStateException("Session cache size and timeout cannot be negative");
+            }
+        }
+
+        /**
+         * Create SSLContext from trust key store, client key store and session cache parameters. Created SSLContext
+         * can be shared between clients with {@link #withSslContext(SSLContext)}.
+         * @return initialized SSLContext
+         * @throws GeneralSecurityException if SSLContext initialization has failed
+         */
+        public SSLContext buildSslContext() throws GeneralSecurityException {
+            validateSslContextParameters();
+            return createSslContext();
         }
 
         public Cdoc2KeyCapsuleApiClient build() throws GeneralSecurityException {
             validate();
 
-            final SSLContext finalSslContext = createSslContext();
+            final SSLContext finalSslContext = (sslContext != null) ? sslContext : createSslContext();
+            final PooledConnections finalPool = (pooledConnections)
+                ? new PooledConnections(finalSslContext, maxConnections, idleConnectionTimeoutMs, keepAliveMs)
+                : null;
             ApiClient apiClient = new ApiClient() {
+                @Override
+                public ClientConfig getDefaultClientConfig() {
+                    ClientConfig clientConfig = super.getDefaultClientConfig();
+                    if (finalPool != null) {
+                        finalPool.configure(clientConfig);
+                    }
+                    return clientConfig;
+                }
+
                 @Override
                 protected void customizeClientBuilder(ClientBuilder clientBuilder) {
                     if (finalSslContext != null) {
@@ -193,23 +345,35 @@ public final class Cdoc2KeyCapsuleApiClient {
         @SuppressWarnings("java:S2139")
         private SSLContext createSslContext() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException,
                 KeyStoreException, KeyManagementException {
-            SSLContext sslContext;
+            SSLContext ctx;
             try {
                 TrustManagerFactory trustManagerFactory =
                         TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
                 trustManagerFactory.init(trustKeyStore);
 
-                sslContext = SSLContext.getInstance("TLSv1.3");
-                sslContext.init(
+                ctx = SSLContext.getInstance("TLSv1.3");
+                ctx.init(
                     getClientKeyManager().orElse(null),
                     trustManagerFactory.getTrustManagers(),
-                    SecureRandom.getInstanceStrong()
+                    // SecureRandom.getInstanceStrong() may block on /dev/random, JSSE needs only non-blocking
+                    // random for handshake nonces and keys
+                    (secureRandom != null) ? secureRandom : new SecureRandom()
                 );
             } catch (GeneralSecurityException gse) {
                 log.error("Error initializing SSLContext", gse);
                 throw gse;
             }
-            return sslContext;
+
+            SSLSessionContext sessionContext = ctx.getClientSessionContext();
+            if (sessionCacheSize >= 0) {
+                sessionContext.setSessionCacheSize(sessionCacheSize);
+            }
+            if (sessionTimeoutSec >= 0) {
+                sessionContext.setSessionTimeout(sessionTimeoutSec);
+            }
+            log.debug("TLS session cache size {}, timeout {} s",
+                sessionContext.getSessionCacheSize(), sessionContext.getSessionTimeout());
+            return ctx;
         }
 
         private Optional<KeyManager[]> getClientKeyManager() throws NoSuchAlgorithmException,
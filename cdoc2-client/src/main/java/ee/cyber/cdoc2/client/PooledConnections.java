@@ -0,0 +1,80 @@
+package ee.cyber.cdoc2.client;
+
+import javax.net.ssl.SSLContext;
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.glassfish.jersey.apache5.connector.Apache5ClientProperties;
+import org.glassfish.jersey.apache5.connector.Apache5ConnectorProvider;
+import org.glassfish.jersey.apache5.connector.Apache5HttpClientBuilderConfigurator;
+import org.glassfish.jersey.client.ClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Configures Jersey client to use Apache HttpClient 5 connector with pool of keep-alive connections to key server.
+ * Connection pool is created once per {@link Cdoc2KeyCapsuleApiClient} and is used by all its requests. Pool and
+ * idle connection evictor thread are closed with the Jersey client, see {@link Cdoc2KeyCapsuleApiClient#close()}.
+ */
+final class PooledConnections {
+    private static final Logger log = LoggerFactory.getLogger(PooledConnections.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final TimeValue idleTimeout;
+    private final TimeValue keepAlive;
+
+    PooledConnections(SSLContext sslContext, int maxConnections, int idleTimeoutMs, int keepAliveMs) {
+        this.idleTimeout = TimeValue.ofMilliseconds(idleTimeoutMs);
+        this.keepAlive = TimeValue.ofMilliseconds(keepAliveMs);
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setSSLSocketFactory(SSLConnectionSocketFactoryBuilder.create()
+                .setSslContext(sslContext)
+                .build())
+            // client talks to single key server, so all connections are for the same route
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnections)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                // check that connection is not closed by server before reusing connection idle over 1 s
+                .setValidateAfterInactivity(TimeValue.ofSeconds(1))
+                .build())
+            .build();
+
+        log.debug("Pooled connections: max {}, idle timeout {}, keep-alive {}", maxConnections, idleTimeout, keepAlive);
+    }
+
+    /**
+     * Configure Jersey client to use pooled connections
+     * @param clientConfig Jersey client config
+     */
+    void configure(ClientConfig clientConfig) {
+        clientConfig.connectorProvider(new Apache5ConnectorProvider());
+        clientConfig.property(Apache5ClientProperties.CONNECTION_MANAGER, connectionManager);
+        // connection manager is closed with the client, idle connection evictor is started only for not shared
+        clientConfig.property(Apache5ClientProperties.CONNECTION_MANAGER_SHARED, false);
+        clientConfig.register((Apache5HttpClientBuilderConfigurator) httpClientBuilder -> httpClientBuilder
+            .setKeepAliveStrategy(keepAliveStrategy())
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeout)
+            // connections are established with the same client certificate, so mTLS connections can be reused
+            // without matching connection state (TLS client principal) to the request
+            .disableConnectionState());
+    }
+
+    /**
+     * Keep connection alive for server provided Keep-Alive timeout, but no longer than keepAlive
+     */
+    private ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (response, context) -> {
+            TimeValue serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                .getKeepAliveDuration(response, context);
+            return (TimeValue.isPositive(serverKeepAlive) && serverKeepAlive.compareTo(keepAlive) < 0)
+                ? serverKeepAlive
+                : keepAlive;
+        };
+    }
+}
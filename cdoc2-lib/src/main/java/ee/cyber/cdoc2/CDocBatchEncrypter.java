@@ -0,0 +1,310 @@
+package ee.cyber.cdoc2;
+
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
+import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.container.EncryptionOptions;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Encrypts many CDOC2 containers concurrently. Each {@link Job} encrypts a set of payload files for a set of
+ * recipients into a destination file.
+ * <p>
+ * Jobs run concurrently, at most {@link #withConcurrency(int) concurrency} jobs at the same time. When the
+ * runtime supports virtual threads (Java 21+), each job runs on its own virtual thread, otherwise jobs run on a
+ * platform thread pool of concurrency size.
+ * </p>
+ * <p>
+ * Key server client is created once and shared by all jobs. Recipient keys are validated once per distinct
+ * {@link EncryptionKeyMaterial}, so the same recipient in many jobs is validated only once. Failure of a single job
+ * does not abort the batch: each job has its own {@link JobResult} and partially written destination file of a
+ * failed job is deleted.
+ * </p>
+ */
+public class CDocBatchEncrypter {
+    private static final Logger log = LoggerFactory.getLogger(CDocBatchEncrypter.class);
+
+    /** Default number of concurrently running jobs */
+    public static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    private static final AtomicInteger BATCH_COUNT = new AtomicInteger();
+
+    private final List<Job> jobs = new ArrayList<>();
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private Duration keyCapsuleExpiryDuration;
+    private Properties serverProperties;
+    private KeyCapsuleClient keyCapsuleClient;
+    private EncryptionOptions encryptionOptions = EncryptionOptions.defaults();
+
+    /**
+     * Single container to create
+     * @param payloadFiles files to encrypt
+     * @param recipients recipients of the container
+     * @param destination CDOC2 container file to create
+     */
+    public record Job(List<File> payloadFiles, List<EncryptionKeyMaterial> recipients, File destination) {
+        public Job {
+            Objects.requireNonNull(payloadFiles);
+            Objects.requireNonNull(recipients);
+            Objects.requireNonNull(destination);
+            payloadFiles = List.copyOf(payloadFiles);
+            recipients = List.copyOf(recipients);
+        }
+    }
+
+    /**
+     * Result of single job
+     * @param job job
+     * @param failure exception that failed the job or {@code null}, when container was created
+     * @param duration time spent on the job (validation failures have zero duration)
+     */
+    public record JobResult(Job job, @Nullable Exception failure, Duration duration) {
+        public boolean isSuccess() {
+            return failure == null;
+        }
+    }
+
+    public CDocBatchEncrypter withJob(List<File> payloadFiles, List<EncryptionKeyMaterial> recipients,
+                                      File destination) {
+        return withJob(new Job(payloadFiles, recipients, destination));
+    }
+
+    public CDocBatchEncrypter withJob(Job job) {
+        this.jobs.add(Objects.requireNonNull(job));
+        return this;
+    }
+
+    public CDocBatchEncrypter withJobs(Collection<Job> batchJobs) {
+        batchJobs.forEach(this::withJob);
+        return this;
+    }
+
+    /**
+     * Max number of jobs running at the same time. Default {@link #DEFAULT_CONCURRENCY}
+     * @param maxConcurrentJobs at least 1
+     * @return this
+     */
+    public CDocBatchEncrypter withConcurrency(int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = maxConcurrentJobs;
+        return this;
+    }
+
+    public CDocBatchEncrypter withCapsuleExpiryDuration(Duration xExpiryDuration) {
+        this.keyCapsuleExpiryDuration = xExpiryDuration;
+        return this;
+    }
+
+    /**
+     * Key server properties, client created from these is shared by all jobs
+     * @param p key server properties
+     * @return this
+     */
+    public CDocBatchEncrypter withServerProperties(Properties p) {
+        this.serverProperties = p;
+        return this;
+    }
+
+    /**
+     * Already created key server client shared by all jobs. Takes precedence over
+     * {@link #withServerProperties(Properties)}
+     * @param client key capsule client
+     * @return this
+     */
+    public CDocBatchEncrypter withKeyCapsuleClient(KeyCapsuleClient client) {
+        this.keyCapsuleClient = client;
+        return this;
+    }
+
+    /**
+     * Encryption options used by all jobs
+     * @param options encryption options
+     * @return this
+     */
+    public CDocBatchEncrypter withEncryptionOptions(EncryptionOptions options) {
+        this.encryptionOptions = Objects.requireNonNull(options);
+        return this;
+    }
+
+    /**
+     * Run all jobs. Invalid jobs (missing payload files, invalid recipient keys, duplicate destination) fail
+     * without running. Failure of a job doesn't affect other jobs.
+     * @return job results in the same order as jobs were added
+     * @throws CDocValidationException if batch has no jobs
+     * @throws CDocException if key server client creation has failed or batch was interrupted
+     */
+    public List<JobResult> encrypt() throws CDocException, CDocValidationException {
+        if (jobs.isEmpty()) {
+            throw new CDocValidationException("Must provide at least one job");
+        }
+
+        KeyCapsuleClient client = createKeyCapsuleClient();
+        Map<EncryptionKeyMaterial, Optional<CDocValidationException>> validatedKeys = new HashMap<>();
+        Set<Path> destinations = new HashSet<>();
+
+        int batchId = BATCH_COUNT.incrementAndGet();
+        ExecutorService executor = createExecutor(batchId);
+        Semaphore running = new Semaphore(concurrency);
+        List<Future<JobResult>> futures = new ArrayList<>(jobs.size());
+        try {
+            for (Job job : jobs) {
+                try {
+                    validateJob(job, validatedKeys, destinations);
+                } catch (CDocValidationException ex) {
+                    log.info("Invalid job for {}: {}", job.destination(), ex.getMessage());
+                    futures.add(CompletableFuture.completedFuture(new JobResult(job, ex, Duration.ZERO)));
+                    continue;
+                }
+
+                running.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return runJob(job, client);
+                        } finally {
+                            running.release();
+                        }
+                    }));
+                } catch (RuntimeException ex) {
+                    running.release();
+                    throw ex;
+                }
+            }
+
+            List<JobResult> results = new ArrayList<>(futures.size());
+            for (Future<JobResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CDocException("Batch encryption interrupted", ex);
+        } catch (ExecutionException ex) { // runJob catches all exceptions, only Errors end up here
+            throw new CDocException("Batch encryption failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (client != null && client != this.keyCapsuleClient) {
+                // created from server properties for this batch
+                client.close();
+            }
+        }
+    }
+
+    private void validateJob(Job job, Map<EncryptionKeyMaterial, Optional<CDocValidationException>> validatedKeys,
+                             Set<Path> destinations) throws CDocValidationException {
+
+        if (job.recipients().isEmpty()) {
+            throw new CDocValidationException("Must provide at least one recipient");
+        }
+
+        for (EncryptionKeyMaterial keyMaterial : job.recipients()) {
+            Optional<CDocValidationException> keyError = validatedKeys.computeIfAbsent(keyMaterial, km -> {
+                try {
+                    CDocBuilder.validateEncryptionKey(km);
+                    return Optional.empty();
+                } catch (CDocValidationException ex) {
+                    return Optional.of(ex);
+                }
+            });
+            if (keyError.isPresent()) {
+                throw keyError.get();
+            }
+        }
+
+        CDocBuilder.validatePayloadFiles(job.payloadFiles());
+
+        Path destination = job.destination().toPath().toAbsolutePath().normalize();
+        if (!destinations.add(destination)) {
+            throw new CDocValidationException("Duplicate destination " + destination);
+        }
+    }
+
+    private JobResult runJob(Job job, @Nullable KeyCapsuleClient client) {
+        long start = System.nanoTime();
+        File destination = job.destination();
+        try {
+            CDocBuilder.ensureFileCanBeCreatedInOutputDir(destination);
+            try (OutputStream os = Files.newOutputStream(destination.toPath(), CDocBuilder.getOpenOption())) {
+                Envelope.prepare(job.recipients(), client).encrypt(job.payloadFiles(), os, encryptionOptions);
+            } catch (Exception ex) {
+                CDocBuilder.handleFileEncryptionError(ex, destination);
+                throw ex;
+            }
+            log.debug("Created {}", destination);
+            return new JobResult(job, null, Duration.ofNanos(System.nanoTime() - start));
+        } catch (GeneralSecurityException ex) {
+            return new JobResult(job, new CDocException(ex), Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception ex) {
+            return new JobResult(job, ex, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    @Nullable
+    private KeyCapsuleClient createKeyCapsuleClient() throws CDocException {
+        KeyCapsuleClient client = this.keyCapsuleClient;
+        if (client == null && serverProperties != null) {
+            try {
+                // for encryption, do not init mTLS client as this might require smart-card
+                client = KeyCapsuleClientImpl.create(serverProperties, false);
+            } catch (GeneralSecurityException | IOException ex) {
+                throw new CDocException("Failed to create key server client", ex);
+            }
+        }
+        if (client != null && keyCapsuleExpiryDuration != null) {
+            client.setExpiryDuration(keyCapsuleExpiryDuration);
+        }
+        return client;
+    }
+
+    /**
+     * Virtual thread per job executor when supported by the runtime (Java 21+), otherwise fixed platform thread pool
+     */
+    private ExecutorService createExecutor(int batchId) {
+        try {
+            Method newVirtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadExecutor.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            log.debug("Virtual threads not supported, using platform threads");
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "cdoc2-batch-" + batchId + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
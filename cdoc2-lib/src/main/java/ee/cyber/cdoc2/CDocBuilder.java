@@ -3,6 +3,7 @@ package ee.cyber.cdoc2;
 import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.container.EncryptionOptions;
 import ee.cyber.cdoc2.container.Envelope;
 import ee.cyber.cdoc2.crypto.Crypto;
 import ee.cyber.cdoc2.crypto.ECKeys;
@@ -12,6 +13,8 @@ import ee.cyber.cdoc2.crypto.KeyAlgorithm;
 import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.encrypt.PublicKeyEncryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.encrypt.SecretEncryptionKeyMaterial;
+import ee.cyber.cdoc2.metrics.CDocMetrics;
+import ee.cyber.cdoc2.metrics.CDocMetricsListener;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,6 +23,7 @@ import java.io.OutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
@@ -35,6 +39,7 @@ import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -47,6 +52,9 @@ public class CDocBuilder {
     private final List<EncryptionKeyMaterial> recipients = new LinkedList<>();
     private Duration keyCapsuleExpiryDuration;
     private Properties serverProperties;
+    private EncryptionOptions encryptionOptions = EncryptionOptions.defaults();
+    private Executor recipientExecutor;
+    private CDocMetricsListener metricsListener;
 
     public CDocBuilder withPayloadFiles(List<File> files) {
         this.payloadFiles = files;
@@ -73,6 +81,109 @@ public class CDocBuilder {
         return this;
     }
 
+    public CDocBuilder withEncryptionOptions(EncryptionOptions options) {
+        this.encryptionOptions = options;
+        return this;
+    }
+
+    /**
+     * Read, compress and encrypt payload in separate threads. See {@link EncryptionOptions#withPipelining(boolean)}
+     * @param pipelined if pipelined encryption is enabled
+     * @return this
+     */
+    public CDocBuilder withPipelinedEncryption(boolean pipelined) {
+        this.encryptionOptions.withPipelining(pipelined);
+        return this;
+    }
+
+    /**
+     * Deflate payload with several threads. See {@link EncryptionOptions#withDeflateWorkers(int)}
+     * @param workers number of deflate threads, 1 for single-threaded deflate
+     * @return this
+     */
+    public CDocBuilder withDeflateWorkers(int workers) {
+        this.encryptionOptions.withDeflateWorkers(workers);
+        return this;
+    }
+
+    /**
+     * Payload deflate compression level and strategy. See {@link EncryptionOptions#withCompressionLevel(int)} and
+     * {@link EncryptionOptions#withCompressionStrategy(int)}
+     * @param level 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * @param strategy {@link java.util.zip.Deflater#DEFAULT_STRATEGY}, {@link java.util.zip.Deflater#FILTERED} or
+     *                 {@link java.util.zip.Deflater#HUFFMAN_ONLY}
+     * @return this
+     */
+    public CDocBuilder withCompression(int level, int strategy) {
+        this.encryptionOptions.withCompressionLevel(level).withCompressionStrategy(strategy);
+        return this;
+    }
+
+    /**
+     * Choose compression level per payload file. See {@link EncryptionOptions#withAdaptiveCompression(boolean)}
+     * @param adaptive if adaptive compression is enabled
+     * @return this
+     */
+    public CDocBuilder withAdaptiveCompression(boolean adaptive) {
+        this.encryptionOptions.withAdaptiveCompression(adaptive);
+        return this;
+    }
+
+    /**
+     * Encrypt payload in independently authenticated segments. See
+     * {@link EncryptionOptions#withChunkedEncryption(boolean)} and {@link EncryptionOptions#withCipherWorkers(int)}
+     * @param chunked if payload is encrypted in segments
+     * @param cipherWorkers number of segment encryption threads
+     * @return this
+     */
+    public CDocBuilder withChunkedEncryption(boolean chunked, int cipherWorkers) {
+        this.encryptionOptions.withChunkedEncryption(chunked).withCipherWorkers(cipherWorkers);
+        return this;
+    }
+
+    /**
+     * Read payload files through FileChannel. See {@link EncryptionOptions#withFileChannelReading(boolean)}
+     * @param useFileChannel if payload files are read through FileChannel
+     * @return this
+     */
+    public CDocBuilder withFileChannelReading(boolean useFileChannel) {
+        this.encryptionOptions.withFileChannelReading(useFileChannel);
+        return this;
+    }
+
+    /**
+     * Read payload file metadata ahead of archiving. See {@link EncryptionOptions#withMetadataWorkers(int)}
+     * @param metadataWorkers number of metadata threads
+     * @return this
+     */
+    public CDocBuilder withMetadataWorkers(int metadataWorkers) {
+        this.encryptionOptions.withMetadataWorkers(metadataWorkers);
+        return this;
+    }
+
+    /**
+     * Build recipients (KEK derivation, FMK encryption, key server capsules) in parallel with executor. Recipients
+     * are written to CDOC header in the same order as added. If not set, then recipients are built as configured by
+     * {@link CDocConfiguration#RECIPIENT_BUILD_THREADS_PROPERTY}
+     * @param executor executor used to build recipients
+     * @return this
+     */
+    public CDocBuilder withRecipientExecutor(Executor executor) {
+        this.recipientExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Report metrics of envelope preparation and encryption to listener, instead of
+     * {@link CDocMetrics#getGlobalListener() global listener}
+     * @param listener metrics listener
+     * @return this
+     */
+    public CDocBuilder withMetricsListener(CDocMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
     public void buildToFile(File outputCDocFile)
         throws CDocException, IOException, CDocValidationException {
 
@@ -95,46 +206,61 @@ public class CDocBuilder {
         throws CDocException, CDocValidationException, IOException {
         validate();
 
-        try {
-            Envelope envelope = prepareEnvelope();
-            envelope.encrypt(this.payloadFiles, outputStream);
+        try (CDocMetrics.Scope scope = metricsScope(metricsListener);
+             KeyCapsuleClient client = createKeyCapsuleClient()) {
+            Envelope envelope = prepareEnvelope(client);
+            envelope.encrypt(this.payloadFiles, outputStream, this.encryptionOptions);
         } catch (GeneralSecurityException ex) {
             throw new CDocException(ex);
         }
     }
 
-    private void ensureFileCanBeCreatedInOutputDir(File outputCDocFile) throws FileAlreadyExistsException {
+    static void ensureFileCanBeCreatedInOutputDir(File outputCDocFile) throws FileAlreadyExistsException {
         if (!CDocConfiguration.isOverWriteAllowed() && Files.exists(outputCDocFile.toPath())) {
             log.info("File {} already exists.", outputCDocFile.toPath().toAbsolutePath());
             throw new FileAlreadyExistsException(outputCDocFile.toPath().toAbsolutePath().toString());
         }
     }
 
-    private OpenOption getOpenOption() {
+    /**
+     * @return scope using listener for operations in current thread, no-op scope if listener is null
+     */
+    static CDocMetrics.Scope metricsScope(CDocMetricsListener listener) {
+        return (listener != null) ? CDocMetrics.useListener(listener) : () -> { };
+    }
+
+    static OpenOption getOpenOption() {
         return (CDocConfiguration.isOverWriteAllowed())
             ? StandardOpenOption.CREATE
             : StandardOpenOption.CREATE_NEW;
     }
 
-    private Envelope prepareEnvelope()
-        throws ExtApiException, GeneralSecurityException, IOException {
-
-        if (serverProperties == null) {
-            return Envelope.prepare(recipients, null);
-        } else {
+    /**
+     * @return key server client created from server properties, null if server is not configured. Must be closed
+     *      after encryption
+     */
+    @Nullable
+    private KeyCapsuleClient createKeyCapsuleClient() throws GeneralSecurityException, IOException {
+        KeyCapsuleClient client = null;
+        if (serverProperties != null) {
             // for encryption, do not init mTLS client as this might require smart-card
-           KeyCapsuleClient client = KeyCapsuleClientImpl.create(serverProperties, false);
-           if (null != keyCapsuleExpiryDuration) {
-               client.setExpiryDuration(keyCapsuleExpiryDuration);
-           }
-            return Envelope.prepare(
-                recipients,
-                client
-            );
+            client = KeyCapsuleClientImpl.create(serverProperties, false);
+            if (null != keyCapsuleExpiryDuration) {
+                client.setExpiryDuration(keyCapsuleExpiryDuration);
+            }
         }
+        return client;
     }
 
-    private void handleFileEncryptionError(Exception ex, File outputCDocFile) {
+    private Envelope prepareEnvelope(@Nullable KeyCapsuleClient client)
+        throws ExtApiException, GeneralSecurityException {
+
+        return (recipientExecutor == null)
+            ? Envelope.prepare(recipients, client)
+            : Envelope.prepare(recipients, client, recipientExecutor, null);
+    }
+
+    static void handleFileEncryptionError(Exception ex, File outputCDocFile) {
         log.info("Failed to create {}. Exception: {}", outputCDocFile, ex.getMessage());
 
         try {
@@ -163,7 +289,7 @@ public class CDocBuilder {
         }
     }
 
-    private void validateEncryptionKey(EncryptionKeyMaterial keyMaterial)
+    static void validateEncryptionKey(EncryptionKeyMaterial keyMaterial)
         throws CDocValidationException {
 
         if (EncryptionKeyOrigin.PASSWORD.equals(keyMaterial.getKeyOrigin())) {
@@ -186,7 +312,7 @@ public class CDocBuilder {
         }
     }
 
-    private void validatePublicKeyMaterial(PublicKeyEncryptionKeyMaterial publicKeyMaterial)
+    private static void validatePublicKeyMaterial(PublicKeyEncryptionKeyMaterial publicKeyMaterial)
         throws CDocValidationException {
 
         PublicKey publicKey = publicKeyMaterial.getPublicKey();
@@ -206,14 +332,14 @@ public class CDocBuilder {
      * All RSA keys are considered good. Shorter will fail during encryption as OAEP takes some
      * space.
      */
-    private void validateRsaPublicKey(RSAPublicKey rsaPublicKey) throws CDocValidationException {
+    private static void validateRsaPublicKey(RSAPublicKey rsaPublicKey) throws CDocValidationException {
         // no good way to check RSA key length as BigInteger can start with 00 and that changes bit-length
         if (rsaPublicKey.getModulus().bitLength() <= 512) {
             throw new CDocValidationException("RSA key does not meet length requirements");
         }
     }
 
-    private void validateEcPublicKey(ECPublicKey ecPubKey) throws CDocValidationException {
+    private static void validateEcPublicKey(ECPublicKey ecPubKey) throws CDocValidationException {
         String encoded = Base64.getEncoder().encodeToString(ecPubKey.getEncoded());
         try {
             EllipticCurve curve = retrieveEllipticCurve(ecPubKey, encoded);
@@ -228,7 +354,7 @@ public class CDocBuilder {
         }
     }
 
-    private EllipticCurve retrieveEllipticCurve(
+    private static EllipticCurve retrieveEllipticCurve(
         ECPublicKey recipientPubKey,
         String encodedPublicKey
     ) throws GeneralSecurityException, CDocValidationException {
@@ -244,13 +370,18 @@ public class CDocBuilder {
     }
 
     void validatePayloadFiles() throws CDocValidationException {
+        validatePayloadFiles(this.payloadFiles);
+    }
+
+    static void validatePayloadFiles(List<File> payloadFiles) throws CDocValidationException {
         if (payloadFiles == null || payloadFiles.isEmpty()) {
             log.error("Must contain at least one payload file");
             throw new CDocValidationException("Must contain at least one payload file");
         }
 
         for (File file: payloadFiles) {
-            if (!(file.exists() && file.isFile() && file.canRead())) {
+            // isFile is false for not existing files
+            if (!(file.isFile() && file.canRead())) {
                 log.error("Invalid payload file {}", file);
                 throw new CDocValidationException("Invalid payload file " + file);
             }
@@ -35,6 +35,83 @@ public final class CDocConfiguration {
 
     public static final String DISK_USAGE_THRESHOLD_PROPERTY = "ee.cyber.cdoc2.maxDiskUsagePercentage";
 
+    /**
+     * High entry count mode for decryption and listing: processed tar entries are kept as compact records (name,
+     * size and modification time) instead of full tar headers. Use with raised {@link #TAR_ENTRIES_THRESHOLD_PROPERTY}
+     * for containers with very many files
+     */
+    public static final String COMPACT_TAR_ENTRIES_PROPERTY = "ee.cyber.cdoc2.tarEntries.compact";
+    // disabled by default
+    public static final boolean DEFAULT_COMPACT_TAR_ENTRIES = false;
+
+    /** Number of threads used for deflate compression during encryption, 1 is single-threaded deflate */
+    public static final String DEFLATE_WORKERS_PROPERTY = "ee.cyber.cdoc2.deflateWorkers";
+
+    /**
+     * Number of threads used for chunked payload encryption and decryption
+     * ({@link ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod#CHACHA20POLY1305_STREAM}), 1 is single-threaded
+     */
+    public static final String CIPHER_WORKERS_PROPERTY = "ee.cyber.cdoc2.cipherWorkers";
+
+    /**
+     * Number of threads reading payload file metadata (type, size, modification time, owner) ahead of archiving
+     * during encryption, 1 reads metadata in archiving thread. Speeds up encryption of very many small files
+     */
+    public static final String METADATA_WORKERS_PROPERTY = "ee.cyber.cdoc2.metadataWorkers";
+
+    /** Deflate compression level (0-9 or -1 for zlib default) used for payload compression */
+    public static final String COMPRESSION_LEVEL_PROPERTY = "ee.cyber.cdoc2.compressionLevel";
+
+    /**
+     * If compression level is chosen per tar entry by sampling entry data. Already compressed and high entropy files
+     * are stored without compression
+     */
+    public static final String ADAPTIVE_COMPRESSION_PROPERTY = "ee.cyber.cdoc2.compression.adaptive";
+    // disabled by default
+    public static final boolean DEFAULT_ADAPTIVE_COMPRESSION = false;
+
+    /** If payload files are read through FileChannel (memory-mapped for big files) during encryption */
+    public static final String FILE_CHANNEL_READING_PROPERTY = "ee.cyber.cdoc2.encrypt.fileChannel";
+    // disabled by default
+    public static final boolean DEFAULT_FILE_CHANNEL_READING = false;
+
+    /** If payload is read, compressed and encrypted in separate threads (pipelined) during encryption */
+    public static final String PIPELINED_ENCRYPTION_PROPERTY = "ee.cyber.cdoc2.encrypt.pipelined";
+    // disabled by default
+    public static final boolean DEFAULT_PIPELINED_ENCRYPTION = false;
+
+    /**
+     * If payload is encrypted in independently authenticated segments
+     * ({@link ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod#CHACHA20POLY1305_STREAM}). Containers with chunked
+     * payload can't be decrypted by readers that don't support it
+     */
+    public static final String CHUNKED_ENCRYPTION_PROPERTY = "ee.cyber.cdoc2.encrypt.chunked";
+    // disabled by default
+    public static final boolean DEFAULT_CHUNKED_ENCRYPTION = false;
+
+    /**
+     * If encrypted table of contents (payload entry names and sizes) is added to the header during encryption.
+     * Allows listing container without decrypting payload
+     */
+    public static final String TABLE_OF_CONTENTS_PROPERTY = "ee.cyber.cdoc2.encrypt.tableOfContents";
+    // disabled by default
+    public static final boolean DEFAULT_TABLE_OF_CONTENTS = false;
+
+    /**
+     * Number of threads used to build recipients (KEK derivation, FMK encryption and key server capsules) during
+     * encryption, 1 builds recipients sequentially
+     */
+    public static final String RECIPIENT_BUILD_THREADS_PROPERTY = "ee.cyber.cdoc2.encrypt.recipientBuildThreads";
+
+    /**
+     * How SecureRandom (DRBG) instances are shared between threads: shared (default), pooled or thread-local.
+     * See {@link ee.cyber.cdoc2.crypto.SecureRandomMode}
+     */
+    public static final String SECURE_RANDOM_MODE_PROPERTY = "ee.cyber.cdoc2.secureRandom.mode";
+
+    /** Number of uses after which pooled or thread-local DRBG is reseeded from entropy source */
+    public static final String SECURE_RANDOM_RESEED_INTERVAL_PROPERTY = "ee.cyber.cdoc2.secureRandom.reseedInterval";
+
     public static boolean isOverWriteAllowed() {
         return parseBooleanProperty(DEFAULT_OVERWRITE, OVERWRITE_PROPERTY);
     }
@@ -47,6 +124,30 @@ public final class CDocConfiguration {
         return parseBooleanProperty(DEFAULT_KEY_LABEL_FILE_NAME_ADDED, KEY_LABEL_FILE_NAME_PROPERTY);
     }
 
+    public static boolean isPipelinedEncryptionEnabled() {
+        return parseBooleanProperty(DEFAULT_PIPELINED_ENCRYPTION, PIPELINED_ENCRYPTION_PROPERTY);
+    }
+
+    public static boolean isAdaptiveCompressionEnabled() {
+        return parseBooleanProperty(DEFAULT_ADAPTIVE_COMPRESSION, ADAPTIVE_COMPRESSION_PROPERTY);
+    }
+
+    public static boolean isChunkedEncryptionEnabled() {
+        return parseBooleanProperty(DEFAULT_CHUNKED_ENCRYPTION, CHUNKED_ENCRYPTION_PROPERTY);
+    }
+
+    public static boolean isTableOfContentsEnabled() {
+        return parseBooleanProperty(DEFAULT_TABLE_OF_CONTENTS, TABLE_OF_CONTENTS_PROPERTY);
+    }
+
+    public static boolean isCompactTarEntriesEnabled() {
+        return parseBooleanProperty(DEFAULT_COMPACT_TAR_ENTRIES, COMPACT_TAR_ENTRIES_PROPERTY);
+    }
+
+    public static boolean isFileChannelReadingEnabled() {
+        return parseBooleanProperty(DEFAULT_FILE_CHANNEL_READING, FILE_CHANNEL_READING_PROPERTY);
+    }
+
     private static boolean parseBooleanProperty(boolean enabled, String propertyName) {
         boolean isEnabled = enabled;
         if (System.getProperties().containsKey(propertyName)) {
@@ -1,16 +1,25 @@
 package ee.cyber.cdoc2;
 
 import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
+import ee.cyber.cdoc2.container.ArchiveEntryPublisher;
 import ee.cyber.cdoc2.container.CDocParseException;
+import ee.cyber.cdoc2.container.DecryptedEntrySink;
 import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.Tar;
 import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+import ee.cyber.cdoc2.metrics.CDocMetrics;
+import ee.cyber.cdoc2.metrics.CDocMetricsListener;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 
 /**
@@ -19,11 +28,12 @@ import java.util.List;
 public class CDocDecrypter {
 
     private DecryptionKeyMaterial recipientKeyMaterial;
-    private InputStream cDocInputStream;
     private File destinationDirectory;
     private File cDocFile;
     private List<String> filesToExtract;
     private KeyCapsuleClientFactory keyServerClientFactory;
+    private CDocMetricsListener metricsListener;
+    private int cipherWorkers = Tar.getCipherWorkers();
 
     @SuppressWarnings("checkstyle:HiddenField")
     public CDocDecrypter withRecipient(KeyPair recipientKeyPair) {
@@ -38,8 +48,10 @@ public class CDocDecrypter {
 
     @SuppressWarnings("checkstyle:HiddenField")
     public CDocDecrypter withCDoc(File cDocFile) throws FileNotFoundException {
+        if (!cDocFile.isFile() || !cDocFile.canRead()) {
+            throw new FileNotFoundException(cDocFile + " is not a readable file");
+        }
         this.cDocFile = cDocFile;
-        this.cDocInputStream = new FileInputStream(cDocFile);
         return this;
     }
 
@@ -60,35 +72,122 @@ public class CDocDecrypter {
         return this;
     }
 
+    /**
+     * Report metrics of decryption and listing to listener, instead of
+     * {@link CDocMetrics#getGlobalListener() global listener}
+     * @param listener metrics listener
+     * @return this
+     */
+    public CDocDecrypter withMetricsListener(CDocMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
+    /**
+     * Decrypt chunked payload segments with cipherWorkers threads, see
+     * {@link Envelope#decrypt(java.nio.file.Path, DecryptionKeyMaterial, java.nio.file.Path, List,
+     * KeyCapsuleClientFactory, int)}. Default is {@link CDocConfiguration#CIPHER_WORKERS_PROPERTY}
+     * @param workers number of decryption threads, 1 decrypts in the reading thread
+     * @return this
+     */
+    public CDocDecrypter withCipherWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Cipher workers must be at least 1");
+        }
+        this.cipherWorkers = workers;
+        return this;
+    }
+
     public List<String> decrypt() throws IOException, CDocException, CDocValidationException {
         validate(true);
 
-        try {
-            if ((filesToExtract == null) || (filesToExtract.isEmpty())) {
-                return Envelope.decrypt(cDocInputStream, recipientKeyMaterial, destinationDirectory.toPath(),
-                        keyServerClientFactory);
-            } else {
-                return Envelope.decrypt(cDocInputStream, recipientKeyMaterial, destinationDirectory.toPath(),
-                        filesToExtract, keyServerClientFactory);
-            }
+        try (CDocMetrics.Scope scope = CDocBuilder.metricsScope(metricsListener)) {
+            List<String> extract = ((filesToExtract == null) || (filesToExtract.isEmpty())) ? null : filesToExtract;
+            return Envelope.decrypt(cDocFile.toPath(), recipientKeyMaterial, destinationDirectory.toPath(),
+                    extract, keyServerClientFactory, cipherWorkers);
         } catch (GeneralSecurityException | CDocParseException ex) {
             throw logDecryptionErrorAndThrow(ex);
         }
     }
 
     /**
-     * List file names in CDoc.
+     * Decrypt CDoc without writing decrypted files to the filesystem. Destination directory and files to extract
+     * are ignored, sink decides which files are written.
+     * @param sink supplies streams where decrypted files are written, rolled back when decryption fails
+     * @return List of files written into sink
+     */
+    public List<String> decrypt(DecryptedEntrySink sink)
+            throws IOException, CDocException, CDocValidationException {
+        validate(false);
+        if (sink == null) {
+            throw new CDocValidationException("Must provide decrypted entry sink");
+        }
+
+        try (CDocMetrics.Scope scope = CDocBuilder.metricsScope(metricsListener)) {
+            return Envelope.decrypt(cDocFile.toPath(), recipientKeyMaterial, sink, keyServerClientFactory,
+                cipherWorkers);
+        } catch (GeneralSecurityException | CDocParseException ex) {
+            throw logDecryptionErrorAndThrow(ex);
+        }
+    }
+
+    /**
+     * List file names in CDoc. When CDoc header contains table of contents, files are listed from it and payload
+     * MAC is not checked, see {@link Envelope#list(java.nio.file.Path, DecryptionKeyMaterial,
+     * KeyCapsuleClientFactory)}.
      * @return List of files in cDocFile
      */
     public List<ArchiveEntry> list() throws IOException, CDocException, CDocValidationException {
         validate(false);
-        try {
-            return Envelope.list(cDocInputStream, recipientKeyMaterial, keyServerClientFactory);
+        try (CDocMetrics.Scope scope = CDocBuilder.metricsScope(metricsListener)) {
+            return Envelope.list(cDocFile.toPath(), recipientKeyMaterial, keyServerClientFactory);
+        } catch (GeneralSecurityException | CDocParseException ex) {
+            throw logDecryptionErrorAndThrow(ex);
+        }
+    }
+
+    /**
+     * List files in CDoc without collecting them, see
+     * {@link Envelope#list(java.nio.file.Path, DecryptionKeyMaterial, KeyCapsuleClientFactory, Consumer)}.
+     * Payload is read and its MAC is checked, also when CDoc header contains table of contents. Entries are
+     * unverified until this method returns without exception.
+     * @param entryConsumer receives files found from cDocFile
+     * @return number of files in cDocFile
+     */
+    public long list(Consumer<ArchiveEntry> entryConsumer)
+            throws IOException, CDocException, CDocValidationException {
+        validate(false);
+        try (CDocMetrics.Scope scope = CDocBuilder.metricsScope(metricsListener)) {
+            return Envelope.list(cDocFile.toPath(), recipientKeyMaterial, keyServerClientFactory, entryConsumer);
         } catch (GeneralSecurityException | CDocParseException ex) {
             throw logDecryptionErrorAndThrow(ex);
         }
     }
 
+    /**
+     * Publish files in CDoc as they are found, with subscriber controlled backpressure, see
+     * {@link ArchiveEntryPublisher}. Files are unverified until completion is signalled. Decryption errors are
+     * signalled as {@link CDocException}, payload MAC check failure as IOException (see
+     * {@link ArchiveEntryPublisher#isMacCheckFailure(Throwable)}).
+     * @param executor runs listing, if null then new daemon thread is started for listing
+     * @return publisher of files in cDocFile
+     */
+    public ArchiveEntryPublisher listPublisher(@Nullable Executor executor) throws CDocValidationException {
+        validate(false);
+        Path cdocPath = cDocFile.toPath();
+        DecryptionKeyMaterial keyMaterial = recipientKeyMaterial;
+        KeyCapsuleClientFactory clientFactory = keyServerClientFactory;
+        CDocMetricsListener listener = metricsListener;
+        return new ArchiveEntryPublisher(entryConsumer -> {
+            // listing runs in publisher thread
+            try (CDocMetrics.Scope scope = CDocBuilder.metricsScope(listener)) {
+                return Envelope.list(cdocPath, keyMaterial, clientFactory, entryConsumer);
+            } catch (GeneralSecurityException | CDocParseException ex) {
+                throw logDecryptionErrorAndThrow(ex);
+            }
+        }, executor);
+    }
+
     public void validate(boolean extract) throws CDocValidationException {
         if (cDocFile == null) {
             throw new CDocValidationException("Must provide CDOC input file");
@@ -0,0 +1,234 @@
+package ee.cyber.cdoc2.client;
+
+import ee.cyber.cdoc2.client.model.Capsule;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * In-memory LRU cache of key capsules downloaded from key server, keyed by (serverId, transactionId). Avoids
+ * repeated mTLS requests, when the same CDOC2 container is opened several times (for example
+ * {@link ee.cyber.cdoc2.CDocDecrypter#list()} followed by {@link ee.cyber.cdoc2.CDocDecrypter#decrypt()}).
+ * <p>
+ * Entries are evicted when cache size exceeds maxSize (least recently used first) or when entry time-to-live has
+ * passed. Key server deletes capsules after their expiry time, so an entry never outlives capsule expiry time known
+ * to this cache (see {@link #putExpiryTime(String, String, OffsetDateTime)}). Known capsule expiry times are kept
+ * separately from cached capsules (up to maxSize most recent), so they don't take capsule cache capacity. Capsules
+ * not found from server are not cached. Thread-safe, single instance can be shared between several
+ * {@link KeyCapsuleClientImpl} instances.
+ * </p>
+ */
+public final class CapsuleCache {
+    private static final Logger log = LoggerFactory.getLogger(CapsuleCache.class);
+
+    /** Default maximum number of cached capsules */
+    public static final int DEFAULT_MAX_SIZE = 128;
+    /** Default time-to-live of cached capsule */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final int maxSize;
+    private final Duration ttl;
+    private final Clock clock;
+    private final LinkedHashMap<Key, Entry> entries;
+    /** capsule expiry times recorded when capsules were created */
+    private final LinkedHashMap<Key, Instant> expiryTimes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of cached capsules
+     * @param ttl time-to-live of cached capsule
+     */
+    public CapsuleCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * @param maxSize maximum number of cached capsules
+     * @param ttl time-to-live of cached capsule
+     * @param clock clock used for entry expiry
+     */
+    public CapsuleCache(int maxSize, Duration ttl, Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.clock = Objects.requireNonNull(clock);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > CapsuleCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.expiryTimes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Instant> eldest) {
+                return size() > CapsuleCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get cached capsule. Counts cache hit or miss.
+     * @param serverId key server identifier
+     * @param transactionId capsule transaction id
+     * @return cached capsule or empty Optional if capsule is not cached or cache entry has expired
+     */
+    public synchronized Optional<Capsule> get(String serverId, String transactionId) {
+        Key key = new Key(serverId, transactionId);
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            log.debug("Cached capsule {} from {} expired", transactionId, serverId);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.capsule);
+    }
+
+    /**
+     * Cache capsule downloaded from key server. Entry expires after TTL or at capsule expiry time, if it is known
+     * and earlier.
+     * @param serverId key server identifier
+     * @param transactionId capsule transaction id
+     * @param capsule capsule
+     */
+    public synchronized void put(String serverId, String transactionId, Capsule capsule) {
+        Objects.requireNonNull(capsule);
+        Key key = new Key(serverId, transactionId);
+        Instant expiresAt = clock.instant().plus(ttl);
+        Instant capsuleExpiry = expiryTimes.get(key);
+        if (capsuleExpiry != null && capsuleExpiry.isBefore(expiresAt)) {
+            expiresAt = capsuleExpiry;
+        }
+        entries.put(key, new Entry(capsule, expiresAt));
+    }
+
+    /**
+     * Record capsule expiry time requested when capsule was created. Cached capsule entry is expired no later than
+     * capsule expiry time.
+     * @param serverId key server identifier
+     * @param transactionId capsule transaction id
+     * @param expiryTime capsule expiry time on key server
+     */
+    public synchronized void putExpiryTime(String serverId, String transactionId, OffsetDateTime expiryTime) {
+        Key key = new Key(serverId, transactionId);
+        Instant capsuleExpiry = expiryTime.toInstant();
+        expiryTimes.put(key, capsuleExpiry);
+        Entry existing = entries.get(key);
+        if (existing != null && capsuleExpiry.isBefore(existing.expiresAt)) {
+            entries.put(key, new Entry(existing.capsule, capsuleExpiry));
+        }
+    }
+
+    /**
+     * Remove capsule from cache
+     * @param serverId key server identifier
+     * @param transactionId capsule transaction id
+     */
+    public synchronized void invalidate(String serverId, String transactionId) {
+        Key key = new Key(serverId, transactionId);
+        entries.remove(key);
+        expiryTimes.remove(key);
+    }
+
+    /**
+     * Remove all capsules from cache. Counters are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        expiryTimes.clear();
+    }
+
+    /**
+     * @return number of cached capsules
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of {@link #get(String, String)} calls that returned cached capsule
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of {@link #get(String, String)} calls that did not find cached capsule
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries removed, because cache was full or entry had expired
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public String toString() {
+        return "CapsuleCache{"
+            + "maxSize=" + maxSize
+            + ", ttl=" + ttl
+            + ", hits=" + hits
+            + ", misses=" + misses
+            + ", evictions=" + evictions
+            + '}';
+    }
+
+    private boolean isExpired(Entry entry) {
+        return !clock.instant().isBefore(entry.expiresAt);
+    }
+
+    private record Key(String serverId, String transactionId) {
+        Key {
+            Objects.requireNonNull(serverId);
+            Objects.requireNonNull(transactionId);
+        }
+    }
+
+    /**
+     * @param capsule cached capsule
+     * @param expiresAt time when cache entry expires
+     */
+    private record Entry(Capsule capsule, Instant expiresAt) {
+    }
+}
@@ -29,6 +29,18 @@ public class EcCapsuleClientImpl implements EcCapsuleClient {
         ECPublicKey senderKey
     ) throws ExtApiException {
 
+        return keyCapsulesClient.storeCapsule(createCapsule(receiverKey, senderKey));
+    }
+
+    /**
+     * Create key capsule for storing senderKey in server
+     * @param receiverKey recipient key
+     * @param senderKey sender key
+     * @return key capsule
+     * @throws ExtApiException if key curve can't be determined
+     * @throws IllegalArgumentException if keys are not on secp384r1 curve
+     */
+    public static Capsule createCapsule(ECPublicKey receiverKey, ECPublicKey senderKey) throws ExtApiException {
         EllipticCurve curve;
         try {
             curve = EllipticCurve.forPubKey(receiverKey);
@@ -47,12 +59,10 @@ public class EcCapsuleClientImpl implements EcCapsuleClient {
             throw new IllegalArgumentException("Unsupported EC curve " + curve);
         }
 
-        Capsule capsule = new Capsule()
+        return new Capsule()
                 .capsuleType(Capsule.CapsuleTypeEnum.ECC_SECP384R1)
                 .recipientId(ECKeys.encodeEcPubKeyForTls(curve, receiverKey))
                 .ephemeralKeyMaterial(ECKeys.encodeEcPubKeyForTls(curve, senderKey));
-
-        return keyCapsulesClient.storeCapsule(capsule);
     }
 
     @Override
@@ -3,13 +3,15 @@ package ee.cyber.cdoc2.client;
 import ee.cyber.cdoc2.client.model.Capsule;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 
 /**
- * Generic capsule client
+ * Generic capsule client. Clients holding network resources (connection pool) release them on {@link #close()}.
  */
-public interface KeyCapsuleClient extends ServerClient {
+public interface KeyCapsuleClient extends ServerClient, AutoCloseable {
 
     /**
      * When set, then client sends X-ExpiryTime header
@@ -20,6 +22,30 @@ public interface KeyCapsuleClient extends ServerClient {
 
     String storeCapsule(Capsule capsule) throws ExtApiException;
 
+    /**
+     * Store several capsules. Default implementation calls {@link #storeCapsule(Capsule)} sequentially,
+     * implementations may send requests concurrently. If storing any capsule fails, then capsules stored before
+     * failure are not removed from the server.
+     * @param capsules capsules to store
+     * @return transaction ids in the same order as capsules
+     * @throws ExtApiException if storing any capsule has failed
+     */
+    default List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+        List<String> transactionIds = new ArrayList<>(capsules.size());
+        for (Capsule capsule : capsules) {
+            transactionIds.add(storeCapsule(capsule));
+        }
+        return transactionIds;
+    }
+
     Optional<Capsule> getCapsule(String id) throws ExtApiException;
 
+    /**
+     * Release resources held by the client. Default implementation does nothing.
+     */
+    @Override
+    default void close() {
+        // nothing to release by default
+    }
+
 }
@@ -6,20 +6,38 @@ import ee.cyber.cdoc2.CDocConfiguration;
 import ee.cyber.cdoc2.CDocUserException;
 import ee.cyber.cdoc2.UserErrorCode;
 import ee.cyber.cdoc2.client.model.Capsule;
+import ee.cyber.cdoc2.metrics.KeyServerEvent;
 import ee.cyber.cdoc2.util.Resources;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +50,28 @@ import static ee.cyber.cdoc2.util.DurationUtil.getExpiryTime;
 public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleClientFactory {
     private static final Logger log = LoggerFactory.getLogger(KeyCapsuleClientImpl.class);
 
+    /**
+     * Default maximum number of concurrent capsule creation requests in {@link #storeCapsules(List)}. Kept below
+     * default size of JDK HTTP keep-alive connection cache (http.maxConnections=5) and
+     * {@link Cdoc2KeyCapsuleApiClient#DEFAULT_MAX_CONNECTIONS}, so that connections are reused
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Max number of mTLS contexts shared between clients, least recently used context is removed first */
+    private static final int MAX_SHARED_TLS_CONTEXTS = 16;
+
+    /** Per-process random salt for key store password fingerprints in shared mTLS context keys */
+    private static final byte[] TLS_CONTEXT_KEY_SALT = randomSalt();
+
+    /** mTLS contexts shared between clients, keyed by key store configuration without plain passwords */
+    private static final Map<TlsContextKey, MutualTlsContext> SHARED_TLS_CONTEXTS =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TlsContextKey, MutualTlsContext> eldest) {
+                return size() > MAX_SHARED_TLS_CONTEXTS;
+            }
+        };
+
     private final String serverId;
     private final Cdoc2KeyCapsuleApiClient postClient; // TLS client
     private final Cdoc2KeyCapsuleApiClient getClient; // mTLS client
@@ -39,6 +79,9 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
     private KeyStore clientKeyStore; //initialised only from #create(Properties)
     @Nullable
     private Duration capsuleExpiryDuration; //initialised only when #setExpiryDuration() was called
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    @Nullable
+    private CapsuleCache capsuleCache; //capsules are not cached, when null
 
     private KeyCapsuleClientImpl(
         String serverIdentifier,
@@ -92,6 +135,18 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
             .ifPresent(builder::withReadTimeoutMs);
         getBoolean(p, "cdoc2.client.server.debug")
             .ifPresent(builder::withDebuggingEnabled);
+        getBoolean(p, "cdoc2.client.server.connection-pool.enabled")
+            .ifPresent(builder::withPooledConnections);
+        getInteger(p, "cdoc2.client.server.connection-pool.max-connections")
+            .ifPresent(builder::withMaxConnections);
+        getInteger(p, "cdoc2.client.server.connection-pool.idle-timeout")
+            .ifPresent(builder::withIdleConnectionTimeoutMs);
+        getInteger(p, "cdoc2.client.server.connection-pool.keep-alive")
+            .ifPresent(builder::withKeepAliveMs);
+        getInteger(p, "cdoc2.client.ssl.session-cache-size")
+            .ifPresent(builder::withSessionCacheSize);
+        getInteger(p, "cdoc2.client.ssl.session-timeout")
+            .ifPresent(builder::withSessionTimeoutSec);
 
         String postBaseUrl = p.getProperty("cdoc2.client.server.base-url.post");
         String getBaseUrl = p.getProperty("cdoc2.client.server.base-url.get");
@@ -105,15 +160,149 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         Cdoc2KeyCapsuleApiClient getClient = null;
         KeyStore clientKeyStore = null;
         if (initMutualTlsClient) {
-            clientKeyStore = loadClientKeyStore(p);
-            getClient = builder
-                .withClientKeyStore(clientKeyStore)
-                .withClientKeyStoreProtectionParameter(loadClientKeyStoreProtectionParameter(p))
-                .withBaseUrl(getBaseUrl)
-                .build();
+            try {
+                MutualTlsContext tlsContext = getBoolean(p, "cdoc2.client.ssl.shared-context").orElse(false)
+                    ? getSharedMutualTlsContext(p, builder)
+                    : createMutualTlsContext(p, builder);
+                clientKeyStore = tlsContext.clientKeyStore();
+                getClient = builder
+                    .withSslContext(tlsContext.sslContext())
+                    .withBaseUrl(getBaseUrl)
+                    .build();
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                postClient.close();
+                throw e;
+            }
+        }
+
+        KeyCapsuleClientImpl client = new KeyCapsuleClientImpl(serverId, postClient, getClient, clientKeyStore);
+        getInteger(p, "cdoc2.client.server.max-concurrent-requests")
+            .ifPresent(client::setMaxConcurrentRequests);
+        if (initMutualTlsClient) {
+            client.setCapsuleCache(createCapsuleCache(p));
+        }
+        return client;
+    }
+
+    /**
+     * Create capsule cache configured by "cdoc2.client.server.capsule-cache.*" properties. Cache is disabled by
+     * default, as capsule deleted on the server is served from cache until cache entry expires. Cache is enabled
+     * with "cdoc2.client.server.capsule-cache.enabled=true".
+     * @param p properties
+     * @return CapsuleCache or null if caching is disabled
+     */
+    @Nullable
+    private static CapsuleCache createCapsuleCache(Properties p) {
+        boolean enabled = getBoolean(p, "cdoc2.client.server.capsule-cache.enabled").orElse(false);
+        int maxSize = getInteger(p, "cdoc2.client.server.capsule-cache.max-size")
+            .orElse(CapsuleCache.DEFAULT_MAX_SIZE);
+        Duration ttl = getInteger(p, "cdoc2.client.server.capsule-cache.ttl-seconds")
+            .map(Duration::ofSeconds)
+            .orElse(CapsuleCache.DEFAULT_TTL);
+
+        if (!enabled || maxSize <= 0 || ttl.isNegative() || ttl.isZero()) {
+            log.debug("Capsule cache disabled");
+            return null;
+        }
+        return new CapsuleCache(maxSize, ttl);
+    }
+
+    /**
+     * Get mutual TLS context shared between clients created from properties with the same key store
+     * configuration (key store types and locations, PKCS#11 library and TLS session parameters). Client key store is
+     * loaded (PIN entered) once and TLS sessions cached in SSLContext are resumed by all clients, so that smart-card
+     * signature is required only for full handshake.
+     * <p>
+     * Shared context is used only with the same client key store password (compared by salted fingerprint, so that
+     * secrets are not kept in static map) and while key store files are not replaced. PIN entered interactively
+     * ("cdoc2.client.ssl.client-store-password.prompt") is not compared.
+     * </p>
+     */
+    private static MutualTlsContext getSharedMutualTlsContext(Properties p, Cdoc2KeyCapsuleApiClient.Builder builder)
+            throws GeneralSecurityException, IOException {
+
+        String clientStore = p.getProperty("cdoc2.client.ssl.client-store");
+        String trustStore = p.getProperty("cdoc2.client.ssl.trust-store");
+        TlsContextKey key = new TlsContextKey(
+            p.getProperty("cdoc2.client.ssl.client-store.type"),
+            clientStore,
+            storeFileIdentity(clientStore),
+            passwordFingerprint(p.getProperty("cdoc2.client.ssl.client-store-password")),
+            p.getProperty("cdoc2.client.ssl.trust-store.type"),
+            trustStore,
+            storeFileIdentity(trustStore),
+            loadPkcs11LibPath(p),
+            p.getProperty("cdoc2.client.ssl.session-cache-size"),
+            p.getProperty("cdoc2.client.ssl.session-timeout")
+        );
+
+        synchronized (SHARED_TLS_CONTEXTS) {
+            MutualTlsContext tlsContext = SHARED_TLS_CONTEXTS.get(key);
+            if (tlsContext == null) {
+                tlsContext = createMutualTlsContext(p, builder);
+                SHARED_TLS_CONTEXTS.put(key, tlsContext);
+            } else {
+                log.debug("Using shared mTLS context");
+            }
+            return tlsContext;
         }
+    }
 
-        return new KeyCapsuleClientImpl(serverId, postClient, getClient, clientKeyStore);
+    /**
+     * @param store key store file or classpath resource
+     * @return real path, size, modification time and file key of key store file, null for classpath resources
+     * @throws IOException if key store file doesn't exist or can't be read
+     */
+    @Nullable
+    private static String storeFileIdentity(@Nullable String store) throws IOException {
+        if ((store == null) || store.startsWith("classpath:")) {
+            return null;
+        }
+        Path path = Path.of(store);
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return path.toRealPath() + ":" + attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":"
+            + attrs.fileKey();
+    }
+
+    private static byte[] randomSalt() {
+        byte[] salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * @param password key store password
+     * @return HMAC-SHA256 of password with per-process random salt, null if password is not set
+     */
+    @Nullable
+    private static String passwordFingerprint(@Nullable String password) throws GeneralSecurityException {
+        if (password == null) {
+            return null;
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(TLS_CONTEXT_KEY_SALT, "HmacSHA256"));
+        return HexFormat.of().formatHex(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MutualTlsContext createMutualTlsContext(Properties p, Cdoc2KeyCapsuleApiClient.Builder builder)
+            throws GeneralSecurityException, IOException {
+
+        KeyStore clientKeyStore = loadClientKeyStore(p);
+        SSLContext sslContext = builder
+            .withClientKeyStore(clientKeyStore)
+            .withClientKeyStoreProtectionParameter(loadClientKeyStoreProtectionParameter(p))
+            .buildSslContext();
+        return new MutualTlsContext(sslContext, clientKeyStore);
+    }
+
+    /**
+     * Remove mutual TLS contexts shared by clients created with "cdoc2.client.ssl.shared-context=true". Clients
+     * created after this will load client key store again (ex. after smart-card was removed).
+     */
+    public static void clearSharedTlsContexts() {
+        synchronized (SHARED_TLS_CONTEXTS) {
+            SHARED_TLS_CONTEXTS.clear();
+        }
     }
 
     public static KeyCapsuleClientFactory createFactory(Properties p) throws GeneralSecurityException, IOException {
@@ -232,13 +421,43 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         this.capsuleExpiryDuration = duration;
     }
 
+    /**
+     * Maximum number of concurrent capsule creation requests sent by {@link #storeCapsules(List)}. If 1, then
+     * capsules are created sequentially
+     * @param maxRequests maximum number of requests in flight
+     */
+    public void setMaxConcurrentRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Max concurrent requests must be at least 1");
+        }
+        this.maxConcurrentRequests = maxRequests;
+    }
+
+    /**
+     * Cache capsules downloaded by {@link #getCapsule(String)}. Same cache can be shared between clients.
+     * @param cache capsule cache or null to disable caching
+     */
+    public void setCapsuleCache(@Nullable CapsuleCache cache) {
+        this.capsuleCache = cache;
+    }
+
+    /**
+     * @return capsule cache or null if capsules are not cached
+     */
+    @Nullable
+    public CapsuleCache getCapsuleCache() {
+        return capsuleCache;
+    }
+
     @Override
     public String storeCapsule(Capsule capsule) throws ExtApiException {
         Objects.requireNonNull(postClient);
 
         String result = null;
         try {
-            result = createCapsule(capsule);
+            OffsetDateTime expiryTime = getCapsuleExpiryTime();
+            result = createCapsule(capsule, expiryTime);
+            cacheExpiryTime(result, expiryTime);
         } catch (Exception e) {
             log.error("Failed to create capsule", e);
             handleOpenApiException(e);
@@ -246,12 +465,84 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         return result;
     }
 
-    private String createCapsule(Capsule capsule) throws ApiException {
-        if (null != capsuleExpiryDuration) {
-            OffsetDateTime expiryTime = getExpiryTime(capsuleExpiryDuration);
-            return postClient.createCapsule(capsule, expiryTime);
-        } else {
-            return postClient.createCapsule(capsule);
+    /**
+     * Store capsules with up to {@link #setMaxConcurrentRequests(int) maxConcurrentRequests} requests in flight.
+     * Requests are sent from temporary threads over keep-alive connections, so that creating capsules for N
+     * recipients takes about N / maxConcurrentRequests round trips. If maxConcurrentRequests is 1, then capsules are
+     * stored sequentially. All capsules get the same expiry time.
+     * @param capsules capsules to store
+     * @return transaction ids in the same order as capsules
+     * @throws ExtApiException if storing any capsule has failed, remaining requests are cancelled
+     */
+    @Override
+    public List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+        Objects.requireNonNull(postClient);
+        Objects.requireNonNull(capsules);
+
+        int threads = Math.min(maxConcurrentRequests, capsules.size());
+        if (threads <= 1) {
+            return KeyCapsuleClient.super.storeCapsules(capsules);
+        }
+
+        OffsetDateTime expiryTime = getCapsuleExpiryTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "cdoc2-capsules-" + serverId);
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<String> result = null;
+        try {
+            List<Future<String>> futures = new ArrayList<>(capsules.size());
+            for (Capsule capsule : capsules) {
+                futures.add(executor.submit(() -> createCapsule(capsule, expiryTime)));
+            }
+            List<String> transactionIds = new ArrayList<>(capsules.size());
+            for (Future<String> future : futures) {
+                String transactionId = future.get();
+                cacheExpiryTime(transactionId, expiryTime);
+                transactionIds.add(transactionId);
+            }
+            result = transactionIds;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtApiException("Interrupted while creating capsules", e);
+        } catch (ExecutionException e) {
+            Exception cause = (e.getCause() instanceof Exception ex) ? ex : e;
+            log.error("Failed to create capsule", cause);
+            handleOpenApiException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    @Nullable
+    private OffsetDateTime getCapsuleExpiryTime() {
+        return (null != capsuleExpiryDuration) ? getExpiryTime(capsuleExpiryDuration) : null;
+    }
+
+    private void cacheExpiryTime(String transactionId, @Nullable OffsetDateTime expiryTime) {
+        CapsuleCache cache = capsuleCache;
+        if (cache != null && transactionId != null && expiryTime != null) {
+            cache.putExpiryTime(serverId, transactionId, expiryTime);
+        }
+    }
+
+    private String createCapsule(Capsule capsule, @Nullable OffsetDateTime expiryTime) throws ApiException {
+        KeyServerEvent event = KeyServerEvent.begin(KeyServerEvent.STORE_CAPSULE, serverId);
+        event.setCapsule(capsule);
+        try {
+            if (null != expiryTime) {
+                return postClient.createCapsule(capsule, expiryTime);
+            } else {
+                return postClient.createCapsule(capsule);
+            }
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            event.commit();
         }
     }
 
@@ -261,12 +552,36 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
             throw new IllegalStateException("get-server client not initialized");
         }
 
+        KeyServerEvent event = KeyServerEvent.begin(KeyServerEvent.GET_CAPSULE, serverId);
+        CapsuleCache cache = capsuleCache;
+        if (cache != null) {
+            Optional<Capsule> cached = cache.get(serverId, id);
+            if (cached.isPresent()) {
+                log.debug("Using cached capsule {}", id);
+                event.setCached(true);
+                event.setCapsule(cached.get());
+                event.commit();
+                return cached;
+            }
+        }
+
         Optional<Capsule> result = Optional.empty();
         try {
             result = getClient.getCapsule(id);
+            event.setCapsule(result.orElse(null));
+            if (cache != null) {
+                if (result.isPresent()) {
+                    cache.put(serverId, id, result.get());
+                } else {
+                    cache.invalidate(serverId, id);
+                }
+            }
         } catch (Exception e) {
             log.error("Failed to get capsule", e);
+            event.failed(e);
             handleOpenApiException(e);
+        } finally {
+            event.commit();
         }
         return result;
     }
@@ -276,6 +591,17 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         return serverId;
     }
 
+    /**
+     * Close TLS and mTLS clients and their connections. Client can't be used after close.
+     */
+    @Override
+    public void close() {
+        postClient.close();
+        if (getClient != null) {
+            getClient.close();
+        }
+    }
+
     /**
      * Get first certificate from clientKeyStore if its initialized
      * @return first certificate from clientKeyStore or null if not found
@@ -341,6 +667,29 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         }
     }
 
+    /**
+     * Non-secret identifiers of mTLS context configuration, PKCS#11 keys are always read from default slot
+     */
+    private record TlsContextKey(
+        @Nullable String clientStoreType,
+        @Nullable String clientStore,
+        @Nullable String clientStoreFile,
+        @Nullable String clientStorePasswordFingerprint,
+        @Nullable String trustStoreType,
+        @Nullable String trustStore,
+        @Nullable String trustStoreFile,
+        @Nullable String pkcs11Library,
+        @Nullable String sessionCacheSize,
+        @Nullable String sessionTimeout
+    ) {
+    }
+
+    /**
+     * SSLContext for mutual TLS and client key store it was initialized with
+     */
+    private record MutualTlsContext(SSLContext sslContext, @Nullable KeyStore clientKeyStore) {
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
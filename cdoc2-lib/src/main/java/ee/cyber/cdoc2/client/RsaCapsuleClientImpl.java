@@ -19,12 +19,20 @@ public class RsaCapsuleClientImpl implements RsaCapsuleClient {
         byte[] encryptedKek
 
     ) throws ExtApiException {
-        Capsule capsule = new Capsule()
+        return keyCapsulesClient.storeCapsule(createCapsule(recipient, encryptedKek));
+    }
+
+    /**
+     * Create key capsule for storing encrypted KEK in server
+     * @param recipient recipient RSA public key
+     * @param encryptedKek KEK encrypted with recipient public key
+     * @return key capsule
+     */
+    public static Capsule createCapsule(RSAPublicKey recipient, byte[] encryptedKek) {
+        return new Capsule()
             .capsuleType(Capsule.CapsuleTypeEnum.RSA)
             .recipientId(RsaUtils.encodeRsaPubKey(recipient))
             .ephemeralKeyMaterial(encryptedKek);
-
-        return keyCapsulesClient.storeCapsule(capsule);
     }
 
     @Override
@@ -0,0 +1,127 @@
+package ee.cyber.cdoc2.container;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+
+/**
+ * Chooses deflate compression level for a tar entry by sampling the first block of entry data. Data of already
+ * compressed formats (JPEG, PNG, ZIP based formats like DOCX/ASiC, gzip etc.) and high entropy data are stored
+ * without compression (level 0), PDF and medium entropy data is compressed with {@link Deflater#BEST_SPEED}.
+ * Other data is compressed with the configured level.
+ */
+final class AdaptiveCompression {
+
+    /** Bytes sampled from the beginning of each entry */
+    static final int SAMPLE_SIZE = Tar.DEFAULT_BUFFER_SIZE;
+
+    // samples smaller than that are too small for reliable entropy estimate and are cheap to compress anyway
+    static final int MIN_SAMPLE_SIZE = 512;
+
+    // bits per byte. Random/encrypted/compressed data is close to 8
+    static final double STORE_ENTROPY_THRESHOLD = 7.5;
+    static final double FAST_ENTROPY_THRESHOLD = 6.5;
+
+    private static final int MAX_BYTE_VALUES = 256;
+
+    /** Magic bytes of already compressed file formats */
+    private static final List<byte[]> COMPRESSED_SIGNATURES = List.of(
+        new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, // JPEG
+        new byte[] {(byte) 0x89, 'P', 'N', 'G'}, // PNG
+        new byte[] {'G', 'I', 'F', '8'}, // GIF
+        new byte[] {'P', 'K', 0x03, 0x04}, // ZIP, DOCX, XLSX, ODT, ASiC/BDOC, JAR
+        new byte[] {0x1F, (byte) 0x8B}, // gzip
+        new byte[] {'B', 'Z', 'h'}, // bzip2
+        new byte[] {(byte) 0xFD, '7', 'z', 'X', 'Z', 0x00}, // xz
+        new byte[] {'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C}, // 7z
+        new byte[] {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD}, // zstd
+        new byte[] {'R', 'a', 'r', '!'}, // RAR
+        new byte[] {'C', 'D', 'O', 'C'} // CDOC2 container (encrypted)
+    );
+
+    private static final byte[] PDF_SIGNATURE = {'%', 'P', 'D', 'F'};
+
+    private AdaptiveCompression() {
+    }
+
+    /**
+     * Choose compression level for entry
+     * @param sample first bytes of entry data
+     * @param len number of bytes in sample
+     * @param defaultLevel configured compression level, used for compressible data
+     * @return compression level for the entry
+     */
+    static int chooseLevel(byte[] sample, int len, int defaultLevel) {
+        if (len <= 0) {
+            return defaultLevel;
+        }
+
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (startsWith(sample, len, signature)) {
+                return Deflater.NO_COMPRESSION;
+            }
+        }
+
+        if (isIsoMediaFile(sample, len)) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        // PDF contains both compressed streams and uncompressed text objects
+        if (startsWith(sample, len, PDF_SIGNATURE)) {
+            return faster(defaultLevel, Deflater.BEST_SPEED);
+        }
+
+        if (len < MIN_SAMPLE_SIZE) {
+            return defaultLevel;
+        }
+
+        double entropy = entropy(sample, len);
+        if (entropy >= STORE_ENTROPY_THRESHOLD) {
+            return Deflater.NO_COMPRESSION;
+        } else if (entropy >= FAST_ENTROPY_THRESHOLD) {
+            return faster(defaultLevel, Deflater.BEST_SPEED);
+        }
+        return defaultLevel;
+    }
+
+    /**
+     * Shannon entropy of byte values in bits per byte (0-8)
+     */
+    static double entropy(byte[] data, int len) {
+        int[] counts = new int[MAX_BYTE_VALUES];
+        for (int i = 0; i < len; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / len;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    /** MP4, MOV, HEIC and other ISO base media files: "ftyp" box at offset 4 */
+    private static boolean isIsoMediaFile(byte[] sample, int len) {
+        return (len >= 8) && sample[4] == 'f' && sample[5] == 't' && sample[6] == 'y' && sample[7] == 'p';
+    }
+
+    private static boolean startsWith(byte[] sample, int len, byte[] signature) {
+        if (len < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (sample[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Don't increase level when configured level is already lower (faster) */
+    private static int faster(int defaultLevel, int level) {
+        return (defaultLevel != Deflater.DEFAULT_COMPRESSION && defaultLevel < level) ? defaultLevel : level;
+    }
+}
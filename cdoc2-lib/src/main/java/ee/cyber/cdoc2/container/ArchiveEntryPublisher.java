@@ -0,0 +1,215 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.CDocException;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * {@link Flow.Publisher} of ArchiveEntries found from CDOC2 payload, for listing large containers progressively
+ * (UI, API gateway). Entries are published as payload is decrypted, also when header contains table of contents, see
+ * {@link Envelope#list(java.nio.file.Path, ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial,
+ * ee.cyber.cdoc2.client.KeyCapsuleClientFactory, Consumer)}.
+ * <p>
+ * Payload Poly1305 MAC is verified after the last entry. Published entries must be considered unverified until
+ * {@link Flow.Subscriber#onComplete()} is received. {@link Flow.Subscriber#onError(Throwable)} is signalled, when
+ * listing fails, use {@link #isMacCheckFailure(Throwable)} to detect payload integrity errors (entries received
+ * before must be discarded).
+ * </p>
+ * <p>
+ * Payload is decrypted in a listing thread (executor or new daemon thread) that is blocked, while there is no
+ * demand from subscriber ({@link Flow.Subscription#request(long)}), so decryption doesn't get ahead of subscriber.
+ * Signals are sent from the listing thread. Publisher is cold and lists container once, so only single
+ * subscriber is supported. When subscription is cancelled, no more signals are sent, remaining payload is still
+ * read (and MAC checked) by the listing thread before it finishes.
+ * </p>
+ */
+public final class ArchiveEntryPublisher implements Flow.Publisher<ArchiveEntry> {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveEntryPublisher.class);
+
+    private static final AtomicInteger PUBLISHER_COUNT = new AtomicInteger();
+
+    private final EntryLister lister;
+    @Nullable
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param lister lists container entries, called from listing thread when subscriber subscribes
+     * @param executor runs listing, if null then new daemon thread is started
+     */
+    public ArchiveEntryPublisher(EntryLister lister, @Nullable Executor executor) {
+        this.lister = Objects.requireNonNull(lister);
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ArchiveEntry> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new ListingSubscription(subscriber));
+            subscriber.onError(new IllegalStateException("Publisher supports only single subscriber"));
+            return;
+        }
+
+        ListingSubscription subscription = new ListingSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            if (executor != null) {
+                executor.execute(subscription::run);
+            } else {
+                Thread t = new Thread(subscription::run, "cdoc2-list-" + PUBLISHER_COUNT.incrementAndGet());
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (RejectedExecutionException ex) {
+            subscription.cancel();
+            subscriber.onError(ex);
+        }
+    }
+
+    /**
+     * @param error error signalled with {@link Flow.Subscriber#onError(Throwable)}
+     * @return true if listing failed, because payload Poly1305 MAC check has failed (payload was modified)
+     */
+    public static boolean isMacCheckFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof AEADBadTagException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists container entries, passing them to entryConsumer as they are found
+     */
+    @FunctionalInterface
+    public interface EntryLister {
+        /**
+         * @param entryConsumer receives ArchiveEntries decrypted from CDOC
+         * @return number of entries listed
+         * @throws GeneralSecurityException if security/crypto error has occurred
+         * @throws IOException if an I/O error occurs (payload MAC check failure is IOException with
+         *          {@link AEADBadTagException} cause)
+         * @throws CDocException if decryption error has occurred
+         */
+        long list(Consumer<ArchiveEntry> entryConsumer) throws GeneralSecurityException, IOException, CDocException;
+    }
+
+    /**
+     * Thrown from entry consumer to stop listing, when subscription is cancelled
+     */
+    private static final class CancelledException extends RuntimeException {
+        CancelledException() {
+            super("Subscription cancelled", null, false, false);
+        }
+    }
+
+    private final class ListingSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ArchiveEntry> subscriber;
+
+        // guarded by this
+        private long demand;
+        private boolean cancelled;
+        @Nullable
+        private Throwable requestError;
+
+        ListingSubscription(Flow.Subscriber<? super ArchiveEntry> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                // Reactive Streams rule 3.9, error is signalled from listing thread
+                if (!cancelled) {
+                    requestError = new IllegalArgumentException("Requested " + n + " entries, must be positive");
+                }
+                cancelled = true;
+            } else {
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n; // overflow means unbounded
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until subscriber has requested more entries
+         * @throws CancelledException if subscription was cancelled
+         */
+        private synchronized void awaitDemand() {
+            while (demand == 0 && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+            }
+            if (cancelled) {
+                throw new CancelledException();
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+
+        private void run() {
+            Throwable failure = null;
+            long count = 0;
+            try {
+                count = lister.list(entry -> {
+                    awaitDemand();
+                    subscriber.onNext(entry);
+                });
+            } catch (Exception ex) {
+                failure = ex;
+            }
+
+            Throwable error;
+            synchronized (this) {
+                if (cancelled) {
+                    error = requestError;
+                    if (error == null) {
+                        log.debug("Listing cancelled");
+                        return;
+                    }
+                    // deliver request error only once
+                    requestError = null;
+                } else {
+                    cancelled = true;
+                    error = failure;
+                }
+            }
+
+            if (error != null) {
+                log.debug("Listing failed: {}", error.toString());
+                subscriber.onError(error);
+            } else {
+                log.debug("Listed {} entries", count);
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Destination for decrypted files, when files are not extracted to the filesystem (for example decrypted files
+ * are forwarded to object storage). Used by {@link Envelope} decrypt methods with {@link SinkDelegate}.
+ * <p>
+ * Decrypted data is written to the sink before payload Poly1305 MAC is verified (MAC is verified, when the whole
+ * payload has been decrypted). When MAC check or payload processing fails, {@link #rollback(List)} is called and
+ * the sink must discard all data written to it (delete uploaded objects etc.), same as extracted files are
+ * deleted by {@link ExtractDelegate}.
+ * </p>
+ */
+public interface DecryptedEntrySink {
+
+    /**
+     * Called when file is found from the payload. Returned stream is closed, when all file data is written.
+     * @param entry file entry, name is validated with {@link FileNameValidator}
+     * @return OutputStream where file data is written or null, if file is skipped
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable
+    OutputStream openEntry(ArchiveEntry entry) throws IOException;
+
+    /**
+     * Called when payload MAC check or processing has failed. Data written to the sink must not be used.
+     * @param entries entries opened by {@link #openEntry(ArchiveEntry)}, last entry may be incomplete
+     */
+    void rollback(List<ArchiveEntry> entries);
+
+    /**
+     * Create sink that writes files to channels.
+     * @param channelFactory opens channel for file entry
+     * @param rollback called with opened entries, when payload MAC check or processing has failed
+     * @return DecryptedEntrySink writing to channels
+     */
+    static DecryptedEntrySink ofChannels(ChannelFactory channelFactory, Consumer<List<ArchiveEntry>> rollback) {
+        Objects.requireNonNull(channelFactory);
+        Objects.requireNonNull(rollback);
+        return new DecryptedEntrySink() {
+            @Nullable
+            @Override
+            public OutputStream openEntry(ArchiveEntry entry) throws IOException {
+                WritableByteChannel channel = channelFactory.openEntry(entry);
+                return (channel == null) ? null : Channels.newOutputStream(channel);
+            }
+
+            @Override
+            public void rollback(List<ArchiveEntry> entries) {
+                rollback.accept(entries);
+            }
+        };
+    }
+
+    /**
+     * Opens {@link WritableByteChannel} for file entry
+     */
+    @FunctionalInterface
+    interface ChannelFactory {
+        /**
+         * @param entry file entry
+         * @return channel where file data is written or null, if file is skipped. Channel is closed, when all file
+         *          data is written
+         * @throws IOException if an I/O error occurs
+         */
+        @Nullable
+        WritableByteChannel openEntry(ArchiveEntry entry) throws IOException;
+    }
+}
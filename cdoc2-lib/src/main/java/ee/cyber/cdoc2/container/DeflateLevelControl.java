@@ -0,0 +1,15 @@
+package ee.cyber.cdoc2.container;
+
+
+/**
+ * Deflate stream that supports changing compression level in the middle of the stream. Used by adaptive
+ * compression to change compression level per tar entry.
+ */
+interface DeflateLevelControl {
+
+    /**
+     * Set compression level for data written after this call
+     * @param level deflate compression level (0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION})
+     */
+    void setLevel(int level);
+}
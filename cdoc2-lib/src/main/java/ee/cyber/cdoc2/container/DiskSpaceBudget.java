@@ -0,0 +1,108 @@
+package ee.cyber.cdoc2.container;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks disk space available for extraction, so that disk used percentage stays under threshold
+ * ({@link Tar#getDiskUsedPercentageThreshold()}).
+ * <p>
+ * Querying free space is a system call ({@code statfs}), so free space is not queried for every buffer written.
+ * Instead, free space is sampled and bytes written after the sample are subtracted from it. Free space is
+ * re-sampled after {@link #SAMPLE_BYTES} bytes or {@link #SAMPLE_INTERVAL_NANOS} have passed (other processes
+ * may use the same disk) and always before estimated budget would be exceeded, so an error is thrown only after
+ * real free space has been checked.
+ * </p>
+ */
+final class DiskSpaceBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskSpaceBudget.class);
+
+    /** Re-sample free space after this many bytes written */
+    static final long SAMPLE_BYTES = 64L * 1024 * 1024;
+
+    /** Re-sample free space after this time has passed */
+    static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier usableSpace;
+    private final double maxUsedPercentage;
+    /** bytes that must stay free, calculated from total space and threshold */
+    private final long minFreeBytes;
+
+    /** bytes that can be written after last sample */
+    private long available;
+    /** bytes written after last sample */
+    private long written;
+    private long sampledAtNanos;
+
+    /**
+     * @param usableSpace supplier of usable space in bytes (system call)
+     * @param totalSpace total space of the partition in bytes
+     * @param maxUsedPercentage disk used percentage threshold
+     */
+    DiskSpaceBudget(LongSupplier usableSpace, long totalSpace, double maxUsedPercentage) {
+        this.usableSpace = usableSpace;
+        this.maxUsedPercentage = maxUsedPercentage;
+        this.minFreeBytes = (long) Math.ceil(totalSpace * (100 - Math.min(100, maxUsedPercentage)) / 100);
+        sample();
+    }
+
+    /**
+     * Create budget for directory where output is written
+     * @param destDir output directory, when null or not existing, disk space is not checked
+     * @param maxUsedPercentage disk used percentage threshold
+     * @return DiskSpaceBudget for destDir partition
+     */
+    static DiskSpaceBudget forDirectory(@Nullable File destDir, double maxUsedPercentage) {
+        if ((destDir == null) || !destDir.exists()) {
+            // output is not written to disk, nothing to check
+            return new DiskSpaceBudget(() -> Long.MAX_VALUE, Long.MAX_VALUE, 100);
+        }
+        return new DiskSpaceBudget(destDir::getUsableSpace, destDir.getTotalSpace(), maxUsedPercentage);
+    }
+
+    /**
+     * Reserve space for tar entry before it is written. Fails early, when entry doesn't fit under threshold.
+     * @param size tar entry size
+     * @throws IllegalStateException if writing size bytes would exceed disk used percentage threshold
+     */
+    void reserve(long size) {
+        if (size > available - written) {
+            sample();
+            check(size);
+        }
+    }
+
+    /**
+     * Record bytes written
+     * @param len number of bytes written
+     * @throws IllegalStateException if disk used percentage threshold has been exceeded
+     */
+    void consume(int len) {
+        written += len;
+        if ((written >= available) || (written >= SAMPLE_BYTES)
+            || (System.nanoTime() - sampledAtNanos >= SAMPLE_INTERVAL_NANOS)) {
+            sample();
+            check(0);
+        }
+    }
+
+    private void sample() {
+        available = usableSpace.getAsLong() - minFreeBytes;
+        written = 0;
+        sampledAtNanos = System.nanoTime();
+    }
+
+    private void check(long required) {
+        if (available <= required) {
+            String err = String.format("More than  %.2f%% disk space used. Aborting", maxUsedPercentage);
+            log.error(err);
+            throw new IllegalStateException(err);
+        }
+    }
+}
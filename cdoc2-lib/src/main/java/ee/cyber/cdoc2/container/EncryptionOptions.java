@@ -0,0 +1,224 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+
+import java.util.zip.Deflater;
+
+
+/**
+ * Options for payload processing during encryption ({@link Envelope#encrypt(java.util.List, java.io.OutputStream,
+ * EncryptionOptions)}). Options only affect how the payload is produced, created CDOC2 payload format is the
+ * same for all options, except {@link #withChunkedEncryption(boolean)} that changes payload encryption method.
+ * {@link #withTableOfContents(boolean)} adds optional field to the header, that is ignored by readers without
+ * table of contents support. Default values are read from {@link CDocConfiguration} system
+ * properties.
+ */
+public final class EncryptionOptions {
+
+    private boolean pipelined = CDocConfiguration.isPipelinedEncryptionEnabled();
+    private int deflateWorkers = Tar.getDeflateWorkers();
+    private int compressionLevel = Tar.getCompressionLevel();
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    private boolean adaptiveCompression = CDocConfiguration.isAdaptiveCompressionEnabled();
+    private boolean fileChannelReading = CDocConfiguration.isFileChannelReadingEnabled();
+    private boolean tableOfContents = CDocConfiguration.isTableOfContentsEnabled();
+    private boolean chunkedEncryption = CDocConfiguration.isChunkedEncryptionEnabled();
+    private int cipherWorkers = Tar.getCipherWorkers();
+    private int metadataWorkers = Tar.getMetadataWorkers();
+
+    /**
+     * @return EncryptionOptions initialized from {@link CDocConfiguration} system properties
+     */
+    public static EncryptionOptions defaults() {
+        return new EncryptionOptions();
+    }
+
+    /**
+     * Run file reading, tar+deflate and encryption/output in separate threads connected with bounded
+     * buffers. Useful for large payloads, where single encryption uses up to three cores instead of one.
+     * @param pipelinedEncryption if pipelined encryption is enabled
+     * @return this
+     */
+    public EncryptionOptions withPipelining(boolean pipelinedEncryption) {
+        this.pipelined = pipelinedEncryption;
+        return this;
+    }
+
+    /**
+     * Compress payload with deflateWorkers threads. Payload is split into blocks that are deflated in parallel
+     * (see {@link ParallelDeflateOutputStream}). Created zlib stream is decompressed as usual, but compressed
+     * bytes are different from single-threaded deflate.
+     * @param workers number of deflate threads, 1 for single-threaded deflate
+     * @return this
+     */
+    public EncryptionOptions withDeflateWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Deflate workers must be at least 1");
+        }
+        this.deflateWorkers = workers;
+        return this;
+    }
+
+    /**
+     * Deflate compression level for payload
+     * @param level 0-9 ({@link Deflater#NO_COMPRESSION} - {@link Deflater#BEST_COMPRESSION}) or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     * @return this
+     */
+    public EncryptionOptions withCompressionLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.compressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Deflate compression strategy for payload
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}
+     * @return this
+     */
+    public EncryptionOptions withCompressionStrategy(int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+            && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Invalid compression strategy " + strategy);
+        }
+        this.compressionStrategy = strategy;
+        return this;
+    }
+
+    /**
+     * Choose compression level per payload file by sampling the first block of the file. Already compressed
+     * files (JPEG, PNG, ZIP, DOCX, ASiC etc.) and high entropy data are stored without compression, PDF and
+     * medium entropy data are compressed with fastest level. Payload is still a single zlib stream.
+     * @param adaptive if adaptive compression is enabled
+     * @return this
+     */
+    public EncryptionOptions withAdaptiveCompression(boolean adaptive) {
+        this.adaptiveCompression = adaptive;
+        return this;
+    }
+
+    /**
+     * Read payload files through {@link java.nio.channels.FileChannel}. Big files are memory-mapped, smaller files
+     * are read directly into tar buffers. Reduces copying and system calls for big payload files.
+     * @param useFileChannel if payload files are read through FileChannel
+     * @return this
+     */
+    public EncryptionOptions withFileChannelReading(boolean useFileChannel) {
+        this.fileChannelReading = useFileChannel;
+        return this;
+    }
+
+    /**
+     * Add encrypted table of contents (payload entry names and sizes) to the header. Container with table of
+     * contents is listed by {@code Envelope.list} from the header only, without decrypting the payload (streaming
+     * {@code Envelope.list} with entry consumer still reads the payload). Table of contents is not added, when it
+     * would take over half of max header size.
+     * @param toc if table of contents is added to the header
+     * @return this
+     */
+    public EncryptionOptions withTableOfContents(boolean toc) {
+        this.tableOfContents = toc;
+        return this;
+    }
+
+    /**
+     * Encrypt payload with chunked ChaCha20-Poly1305 ({@link ee.cyber.cdoc2.crypto.ChaChaStream}), payload
+     * encryption method {@link ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod#CHACHA20POLY1305_STREAM}. Payload
+     * segments are authenticated separately during decryption and can be encrypted and decrypted in parallel
+     * ({@link #withCipherWorkers(int)}). Created container can't be decrypted by readers without chunked payload
+     * support.
+     * @param chunked if payload is encrypted in segments
+     * @return this
+     */
+    public EncryptionOptions withChunkedEncryption(boolean chunked) {
+        this.chunkedEncryption = chunked;
+        return this;
+    }
+
+    /**
+     * Encrypt chunked payload segments with cipherWorkers threads. Encrypted payload is the same for any number of
+     * workers. Only used with {@link #withChunkedEncryption(boolean)}.
+     * @param workers number of encryption threads, 1 encrypts in the writing thread
+     * @return this
+     */
+    public EncryptionOptions withCipherWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Cipher workers must be at least 1");
+        }
+        this.cipherWorkers = workers;
+        return this;
+    }
+
+    /**
+     * Read payload file metadata (tar entry headers) ahead of archiving with metadataWorkers threads. Reading file
+     * attributes takes several system calls per file and dominates encryption time for very many small files.
+     * Created container is the same for any number of workers.
+     * @param workers number of metadata threads, 1 reads metadata in archiving thread
+     * @return this
+     */
+    public EncryptionOptions withMetadataWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Metadata workers must be at least 1");
+        }
+        this.metadataWorkers = workers;
+        return this;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public int getDeflateWorkers() {
+        return deflateWorkers;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getCompressionStrategy() {
+        return compressionStrategy;
+    }
+
+    public boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    public boolean isFileChannelReading() {
+        return fileChannelReading;
+    }
+
+    public boolean isTableOfContents() {
+        return tableOfContents;
+    }
+
+    public boolean isChunkedEncryption() {
+        return chunkedEncryption;
+    }
+
+    public int getCipherWorkers() {
+        return cipherWorkers;
+    }
+
+    public int getMetadataWorkers() {
+        return metadataWorkers;
+    }
+
+    @Override
+    public String toString() {
+        return "EncryptionOptions{"
+            + "pipelined=" + pipelined
+            + ", deflateWorkers=" + deflateWorkers
+            + ", compressionLevel=" + compressionLevel
+            + ", compressionStrategy=" + compressionStrategy
+            + ", adaptiveCompression=" + adaptiveCompression
+            + ", fileChannelReading=" + fileChannelReading
+            + ", tableOfContents=" + tableOfContents
+            + ", chunkedEncryption=" + chunkedEncryption
+            + ", cipherWorkers=" + cipherWorkers
+            + ", metadataWorkers=" + metadataWorkers
+            + '}';
+    }
+}
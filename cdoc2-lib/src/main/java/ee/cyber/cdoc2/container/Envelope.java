@@ -2,8 +2,9 @@ package ee.cyber.cdoc2.container;
 
 import com.google.flatbuffers.FlatBufferBuilder;
 
+import ee.cyber.cdoc2.container.recipients.HeaderRecipients;
 import ee.cyber.cdoc2.container.recipients.Recipient;
-import ee.cyber.cdoc2.container.recipients.RecipientDeserializer;
+import ee.cyber.cdoc2.container.recipients.RecipientBuildTiming;
 import ee.cyber.cdoc2.container.recipients.RecipientFactory;
 import ee.cyber.cdoc2.CDocException;
 import ee.cyber.cdoc2.client.ExtApiException;
@@ -16,7 +17,12 @@ import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
 import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.Header;
 import ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod;
-import ee.cyber.cdoc2.fbs.header.RecipientRecord;
+import ee.cyber.cdoc2.metrics.CDocOperation;
+import ee.cyber.cdoc2.metrics.ContainerEvent;
+import ee.cyber.cdoc2.metrics.KekDerivationEvent;
+import ee.cyber.cdoc2.metrics.PayloadEvent;
+import ee.cyber.cdoc2.metrics.Phase;
+import ee.cyber.cdoc2.metrics.PrepareEvent;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -25,20 +31,25 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HexFormat;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 
-import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.slf4j.Logger;
@@ -67,6 +78,8 @@ public final class Envelope {
 
     // see ChaChaCipherTest.findTarZChaChaCipherStreamMin() and TarGzTest.findZlibMinSize
     public static final int MIN_PAYLOAD_LEN = 45; // cha cha nonce 12 + min zlib compressed tar 17 + Poly1305 MAC 16
+    // chunked (CHACHA20POLY1305_STREAM) payload min is 40 (nonce prefix 7 + 17 + 16), the difference is covered by
+    // FBS overhead that MIN_HEADER_LEN doesn't include
 
     public static final int MAX_HEADER_LEN = 1024 * 1024; //1MB
 
@@ -78,6 +91,9 @@ public final class Envelope {
         + Crypto.HHK_LEN_BYTES
         + MIN_PAYLOAD_LEN;
 
+    /** Offset of FlatBuffers header from the start of the envelope (prelude, version and header length field) */
+    static final int FBS_HEADER_OFFSET = PRELUDE.length + Byte.BYTES + Integer.BYTES;
+
     // payload encryption method
     private static final byte PAYLOAD_ENC_BYTE = PayloadEncryptionMethod.CHACHA20POLY1305;
 
@@ -87,11 +103,13 @@ public final class Envelope {
     private final Recipient[] recipients;
     private final SecretKey hmacKey;
     private final SecretKey cekKey;
+    private final SecretKey tocKey;
 
     private Envelope(Recipient[] recipients, byte[] fmk) {
         this.recipients = recipients;
         this.hmacKey = Crypto.deriveHeaderHmacKey(fmk);
         this.cekKey = Crypto.deriveContentEncryptionKey(fmk);
+        this.tocKey = Crypto.deriveTocEncryptionKey(fmk);
     }
 
     /**
@@ -113,13 +131,69 @@ public final class Envelope {
         @Nullable KeyCapsuleClient capsuleClient
     ) throws GeneralSecurityException, ExtApiException {
 
+        return prepare(recipients, capsuleClient, RecipientFactory::buildRecipients);
+    }
+
+    /**
+     * Prepare Envelope for encryption as {@link #prepare(List, KeyCapsuleClient)}, but build recipients in parallel
+     * with recipientExecutor. Recipients are written to the header in the same order as recipients list.
+     * @param recipients encryption key material either with public key or symmetric key and key label
+     * @param capsuleClient if capsuleClient is provided then store generated ephemeral key material in the server.
+     *                      Capsules are stored from the calling thread, after recipients are built
+     * @param recipientExecutor executor used to build recipients, if null recipients are built sequentially
+     * @param timingListener if provided, then called with build time of each recipient
+     * @return Envelope that has key material prepared and can be used for
+     *          {@link #encrypt(List, OutputStream) encryption}
+     * @throws GeneralSecurityException if fmk generation has failed
+     * @throws ExtApiException if communication with capsuleClient to store ephemeral key material fails
+     */
+    public static Envelope prepare(
+        List<EncryptionKeyMaterial> recipients,
+        @Nullable KeyCapsuleClient capsuleClient,
+        @Nullable Executor recipientExecutor,
+        @Nullable Consumer<RecipientBuildTiming> timingListener
+    ) throws GeneralSecurityException, ExtApiException {
+
+        return prepare(recipients, capsuleClient, (fmk, keys, client) ->
+            RecipientFactory.buildRecipients(fmk, keys, client, recipientExecutor, timingListener));
+    }
+
+    private static Envelope prepare(
+        List<EncryptionKeyMaterial> recipients,
+        @Nullable KeyCapsuleClient capsuleClient,
+        RecipientsBuilder recipientsBuilder
+    ) throws GeneralSecurityException, ExtApiException {
+
         Objects.requireNonNull(recipients);
 
-        byte[] fmk = Crypto.generateFileMasterKey();
-        return new Envelope(
-            RecipientFactory.buildRecipients(fmk, recipients, capsuleClient),
-            fmk
-        );
+        OperationRecorder metrics = OperationRecorder.start(CDocOperation.PREPARE);
+        PrepareEvent event = PrepareEvent.begin(recipients, capsuleClient != null);
+        try {
+            byte[] fmk = Crypto.generateFileMasterKey();
+            long start = metrics.startPhase(Phase.KEK_DERIVATION, Phase.KEY_SERVER);
+            Recipient[] built = recipientsBuilder.build(fmk, recipients, metrics.meterKeyServer(capsuleClient));
+            metrics.endPhaseExcluding(Phase.KEK_DERIVATION, start, Phase.KEY_SERVER);
+
+            Envelope envelope = new Envelope(built, fmk);
+            metrics.completed();
+            return envelope;
+        } catch (Exception e) {
+            metrics.failed(e);
+            event.failed(e);
+            throw e;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Builds recipients for {@link #prepare(List, KeyCapsuleClient, RecipientsBuilder)}, see
+     * {@link RecipientFactory#buildRecipients(byte[], List, KeyCapsuleClient)}
+     */
+    @FunctionalInterface
+    private interface RecipientsBuilder {
+        Recipient[] build(byte[] fmk, List<EncryptionKeyMaterial> recipientKeys,
+                          @Nullable KeyCapsuleClient serverClient) throws GeneralSecurityException, ExtApiException;
     }
 
     /**
@@ -134,25 +208,43 @@ public final class Envelope {
             throw new CDocParseException("not enough bytes to read, expected min of " + MIN_ENVELOPE_SIZE);
         }
 
-        if (!Arrays.equals(PRELUDE, envelopeIs.readNBytes(PRELUDE.length))) {
+        int headerLen = parseFBSHeaderLength(ByteBuffer.wrap(envelopeIs.readNBytes(FBS_HEADER_OFFSET)),
+            envelopeIs.available());
+
+        return envelopeIs.readNBytes(headerLen);
+    }
+
+    /**
+     * Validate prelude and version and read FlatBuffers header length
+     * @param preamble buffer containing prelude, version and header length field
+     * @param remaining number of envelope bytes after header length field
+     * @return FlatBuffers header length
+     * @throws CDocParseException if preamble is invalid or header doesn't fit into remaining bytes
+     */
+    private static int parseFBSHeaderLength(ByteBuffer preamble, long remaining) throws CDocParseException {
+        if (preamble.remaining() < FBS_HEADER_OFFSET) {
+            throw new CDocParseException("stream is not CDOC");
+        }
+
+        byte[] prelude = new byte[PRELUDE.length];
+        preamble.get(prelude);
+        if (!Arrays.equals(PRELUDE, prelude)) {
             throw new CDocParseException("stream is not CDOC");
         }
 
-        byte version = (byte) envelopeIs.read();
+        byte version = preamble.get();
         if (VERSION != version) {
             throw new CDocParseException("Unsupported CDOC version " + version);
         }
 
-        ByteBuffer headerLenBuf = ByteBuffer.wrap(envelopeIs.readNBytes(Integer.BYTES));
-        headerLenBuf.order(ByteOrder.BIG_ENDIAN);
-        int headerLen = headerLenBuf.getInt();
+        preamble.order(ByteOrder.BIG_ENDIAN);
+        int headerLen = preamble.getInt();
 
-        if ((envelopeIs.available() < headerLen + Crypto.HHK_LEN_BYTES)
+        if ((remaining < (long) headerLen + Crypto.HHK_LEN_BYTES)
             || (headerLen < MIN_HEADER_LEN) || (headerLen > MAX_HEADER_LEN))  {
             throw new CDocParseException("invalid CDOC header length: " + headerLen);
         }
-
-        return envelopeIs.readNBytes(headerLen);
+        return headerLen;
     }
 
     /**
@@ -171,20 +263,26 @@ public final class Envelope {
         return getRecipients(header);
     }
 
+    /**
+     * Parse header section from CDOC2 into lazy recipients view. Recipients are deserialized only when accessed,
+     * so that headers with large number of recipients can be inspected without decoding all recipient keys.
+     * @param envelopeIs InputStream that contains CDOC2 file (envelope)
+     * @return lazy view of recipients in Header
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if parsing CDOC Envelope has failed
+     */
+    public static HeaderRecipients parseHeaderRecipients(InputStream envelopeIs)
+        throws IOException, CDocParseException {
+
+        byte[] fbsHeaderBytes = readFBSHeader(envelopeIs);
+        Header header = deserializeFBSHeader(fbsHeaderBytes);
+        return HeaderRecipients.of(header);
+    }
+
     private static List<Recipient> getRecipients(Header header)
         throws CDocParseException, GeneralSecurityException {
 
-        List<Recipient> recipientList = new LinkedList<>();
-        for (int i = 0; i < header.recipientsLength(); i++) {
-            RecipientRecord r = header.recipients(i);
-
-            try {
-                recipientList.add(RecipientDeserializer.deserialize(r));
-            } catch (UnknownFlatBufferTypeException e) { //ignore unknown recipients
-                log.warn("Unknown Capsule type {}. Ignoring.", r.capsuleType());
-            }
-        }
-        return recipientList;
+        return HeaderRecipients.of(header).getAll();
     }
 
     /**
@@ -210,6 +308,12 @@ public final class Envelope {
         return bb.array();
     }
 
+    private static byte[] getAdditionalData(ByteBuffer header, byte[] headerHMAC) {
+        byte[] headerBytes = new byte[header.remaining()];
+        header.duplicate().get(headerBytes);
+        return getAdditionalData(headerBytes, headerHMAC);
+    }
+
     /**
      * Encrypt payloadFiles. Create CDOC2 container and write it to OutputStream.
      * @param payloadFiles files to be encrypted and added to the container
@@ -221,9 +325,55 @@ public final class Envelope {
     public void encrypt(List<File> payloadFiles, OutputStream os)
         throws IOException, GeneralSecurityException {
 
-        log.trace("encrypt");
-        try (CipherOutputStream cipherOutputStream = prepareContainerForPayload(os)) {
-            Tar.archiveFiles(cipherOutputStream, payloadFiles);
+        encrypt(payloadFiles, os, EncryptionOptions.defaults());
+    }
+
+    /**
+     * Encrypt payloadFiles. Create CDOC2 container and write it to OutputStream.
+     * @param payloadFiles files to be encrypted and added to the container
+     * @param os           OutputStream to write CDOC2 container
+     * @param options      payload processing options. Payload format does not depend on options, with
+     *                     {@link EncryptionOptions#withTableOfContents(boolean)} encrypted table of contents
+     *                     is added to the header
+     * @throws IOException if an I/O error has occurred
+     * @throws GeneralSecurityException if HMAC calculation or CipherOutputStream initialization
+     *                                  has failed
+     */
+    public void encrypt(List<File> payloadFiles, OutputStream os, EncryptionOptions options)
+        throws IOException, GeneralSecurityException {
+
+        Objects.requireNonNull(options);
+        log.trace("encrypt {}", options);
+        OperationRecorder metrics = OperationRecorder.start(CDocOperation.ENCRYPT);
+        try {
+            // TOC and tar are created from the same entries, so that TOC matches archive even if files change
+            List<TarArchiveEntry> entries = options.isTableOfContents()
+                ? Tar.createEntries(payloadFiles, options)
+                : null;
+            byte[] toc = (entries != null)
+                ? TableOfContents.encrypt(entries, tocKey).orElse(null)
+                : null;
+            Consumer<ArchiveEntry> entryCounter = metrics.countEntries(entry -> { });
+            try (OutputStream cipherOutputStream = metrics.meterPayload(
+                    prepareContainerForPayload(metrics.meterContainer(os), toc, options))) {
+                long start = metrics.startPhase(Phase.DEFLATE, Phase.PAYLOAD_ENCRYPT);
+                if (options.isPipelined()) {
+                    if (entries != null) {
+                        TarPipeline.archiveEntries(cipherOutputStream, entries, options, entryCounter);
+                    } else {
+                        TarPipeline.archiveFiles(cipherOutputStream, payloadFiles, options, entryCounter);
+                    }
+                } else if (entries != null) {
+                    Tar.archiveEntries(cipherOutputStream, entries, options, entryCounter);
+                } else {
+                    Tar.archiveFiles(cipherOutputStream, payloadFiles, options, entryCounter);
+                }
+                metrics.endPhaseExcluding(Phase.DEFLATE, start, Phase.PAYLOAD_ENCRYPT);
+            }
+            metrics.completed();
+        } catch (Exception e) {
+            metrics.failed(e);
+            throw e;
         }
     }
 
@@ -267,13 +417,15 @@ public final class Envelope {
 
         Envelope newContainer = Envelope.prepare(List.of(reEncryptionKeyMaterial), null);
 
-        try (CipherOutputStream cipherOs = newContainer.prepareContainerForPayload(destReEncryptedCdoc);
+        try (OutputStream cipherOs = newContainer.prepareContainerForPayload(destReEncryptedCdoc, null,
+                EncryptionOptions.defaults());
             TarArchiveOutputStream transferToOs = Tar.createPosixTarZArchiveOutputStream(cipherOs)) {
 
             processContainer(cdocInputStream,
                 decryptionKeyMaterial,
                 new TranferToDelegate(transferToOs, destDir),
-                capsulesClientFac);
+                capsulesClientFac,
+                Tar.getCipherWorkers());
         }
     }
 
@@ -281,16 +433,22 @@ public final class Envelope {
      * Write CDOC header, HMAC to os and initialize cipher output stream for encryption.
      * Will use cekKey  created {@link Envelope#prepare(List, KeyCapsuleClient)}
      * @param os OutputStream to write CDOC2 container
-     * @return CipherOutputStream constructed from CEK and os.
-     *         Ready to write (encrypt) data. {@link CipherOutputStream#close()} must be called by caller.
+     * @param toc encrypted table of contents added to the header, if not null
+     * @param options payload encryption options, chunked or single ChaCha20-Poly1305 stream
+     * @return ChaChaPoly1305OutputStream or ChaChaStreamOutputStream (chunked) constructed from CEK and os.
+     *         Ready to write (encrypt) data. {@link OutputStream#close()} must be called by caller.
      */
-    private CipherOutputStream prepareContainerForPayload(OutputStream os)
+    private OutputStream prepareContainerForPayload(OutputStream os, @Nullable byte[] toc,
+                                                    EncryptionOptions options)
         throws IOException, GeneralSecurityException {
 
         os.write(PRELUDE);
         os.write(new byte[]{VERSION});
 
-        byte[] headerBytes = serializeHeader();
+        byte payloadEncryptionMethod = options.isChunkedEncryption()
+            ? PayloadEncryptionMethod.CHACHA20POLY1305_STREAM
+            : PAYLOAD_ENC_BYTE;
+        byte[] headerBytes = serializeHeader(this.recipients, payloadEncryptionMethod, toc);
 
         ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
         bb.order(ByteOrder.BIG_ENDIAN);
@@ -304,7 +462,10 @@ public final class Envelope {
         os.write(hmac);
         byte[] additionalData = getAdditionalData(headerBytes, hmac);
 
-        return ChaChaCipher.initChaChaOutputStream(os, cekKey, additionalData);
+        if (payloadEncryptionMethod == PayloadEncryptionMethod.CHACHA20POLY1305_STREAM) {
+            return ChaChaCipher.initChaChaStreamOutputStream(os, cekKey, additionalData, options.getCipherWorkers());
+        }
+        return ChaChaCipher.initChaChaPoly1305OutputStream(os, cekKey, additionalData);
     }
 
     /**
@@ -324,41 +485,262 @@ public final class Envelope {
         InputStream cdocInputStream,
         DecryptionKeyMaterial keyMaterial,
         TarEntryProcessingDelegate tarProcessingDelegate,
-        @Nullable KeyCapsuleClientFactory capsulesClientFac
+        @Nullable KeyCapsuleClientFactory capsulesClientFac,
+        int cipherWorkers
     ) throws GeneralSecurityException, IOException, CDocException {
 
-        CountingInputStream containerIs = new CountingInputStream(cdocInputStream);
-        byte[] fbsHeaderBytes = readFBSHeader(containerIs);
-        byte[] hmac = readHmac(containerIs);
-        Header header = deserializeFBSHeader(fbsHeaderBytes);
-        List<Recipient> recipients = getRecipients(header);
+        List<ArchiveEntry> entries = new ArrayList<>();
+        processContainer(cdocInputStream, keyMaterial, tarProcessingDelegate, entries::add, capsulesClientFac,
+            cipherWorkers);
+        return entries;
+    }
+
+    /**
+     * Process (decrypt) CDOC2 container and pass processed archive entries to entryConsumer as they are found.
+     * @param cdocInputStream contains CDOC2 container
+     * @param keyMaterial decryption key material
+     * @param tarProcessingDelegate how to process tar (output could be extract, transferto or list)
+     * @param entryConsumer receives processed archive entries
+     * @param capsulesClientFac configured key servers clients factory for decryption
+     * @return number of archive entries processed
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocInputStream is in invalid format and can not be parsed
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    private static long processContainer(
+        InputStream cdocInputStream,
+        DecryptionKeyMaterial keyMaterial,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        Consumer<ArchiveEntry> entryConsumer,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        OperationRecorder metrics = OperationRecorder.start(OperationRecorder.operationOf(tarProcessingDelegate));
+        try {
+            long start = metrics.startPhase(Phase.HEADER_PARSE);
+            BoundedInputStream containerIs = countingStream(cdocInputStream);
+            byte[] fbsHeaderBytes = readFBSHeader(containerIs);
+            byte[] hmac = readHmac(containerIs);
+            metrics.endPhase(Phase.HEADER_PARSE, start);
+
+            long count = processContainer(ByteBuffer.wrap(fbsHeaderBytes), hmac, containerIs, keyMaterial,
+                tarProcessingDelegate, entryConsumer, capsulesClientFac, cipherWorkers, metrics);
+            metrics.completed();
+            return count;
+        } catch (Exception e) {
+            metrics.failed(e);
+            throw e;
+        }
+    }
 
-        for (Recipient recipient : recipients) {
-            if (recipient.getRecipientId().equals(keyMaterial.getRecipientId())) {
-                byte[] kek = recipient.deriveKek(keyMaterial, capsulesClientFac);
+    /**
+     * Process (decrypt) CDOC2 container file. Container is read through {@link FileChannel}: sizes are validated
+     * against the real file size, header region is memory-mapped and parsed by FlatBuffers without copying and
+     * payload is read in large chunks from the channel (memory-mapped for big containers).
+     * @param cdocFile CDOC2 container file
+     * @param keyMaterial decryption key material
+     * @param tarProcessingDelegate how to process tar (output could be extract, transferto or list)
+     * @param capsulesClientFac configured key servers clients factory for decryption
+     * @return archive entries processed
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocFile is in invalid format and can not be parsed
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    private static List<ArchiveEntry> processContainer(
+        Path cdocFile,
+        DecryptionKeyMaterial keyMaterial,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        List<ArchiveEntry> entries = new ArrayList<>();
+        processContainer(cdocFile, keyMaterial, tarProcessingDelegate, entries::add, capsulesClientFac,
+            cipherWorkers);
+        return entries;
+    }
+
+    /**
+     * Process (decrypt) CDOC2 container file and pass processed archive entries to entryConsumer as they are found.
+     * See {@link #processContainer(Path, DecryptionKeyMaterial, TarEntryProcessingDelegate, KeyCapsuleClientFactory)}
+     * @return number of archive entries processed
+     */
+    private static long processContainer(
+        Path cdocFile,
+        DecryptionKeyMaterial keyMaterial,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        Consumer<ArchiveEntry> entryConsumer,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        Objects.requireNonNull(cdocFile);
+        OperationRecorder metrics = OperationRecorder.start(OperationRecorder.operationOf(tarProcessingDelegate));
+        long start = metrics.startPhase(Phase.HEADER_PARSE);
+        try (FileChannel channel = FileChannel.open(cdocFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MIN_ENVELOPE_SIZE) {
+                throw new CDocParseException("not enough bytes to read, expected min of " + MIN_ENVELOPE_SIZE);
+            }
+
+            ByteBuffer preamble = ByteBuffer.allocate(FBS_HEADER_OFFSET);
+            while (preamble.hasRemaining()) {
+                if (channel.read(preamble, preamble.position()) < 0) {
+                    throw new CDocParseException("not enough bytes to read, expected min of " + MIN_ENVELOPE_SIZE);
+                }
+            }
+            preamble.flip();
+            int headerLen = parseFBSHeaderLength(preamble, size - FBS_HEADER_OFFSET);
+
+            long payloadOffset = (long) FBS_HEADER_OFFSET + headerLen + Crypto.HHK_LEN_BYTES;
+            if (size <= payloadOffset) {
+                throw new CDocParseException("No hmac");
+            }
+
+            MappedByteBuffer headerRegion = channel.map(FileChannel.MapMode.READ_ONLY, FBS_HEADER_OFFSET,
+                (long) headerLen + Crypto.HHK_LEN_BYTES);
+            ByteBuffer fbsHeader = headerRegion.slice(0, headerLen);
+            byte[] hmac = new byte[Crypto.HHK_LEN_BYTES];
+            headerRegion.get(headerLen, hmac);
+
+            // channel is closed by try-with-resources and by payload stream, closing FileChannel twice is no-op
+            BoundedInputStream containerIs = countingStream(FileChannelInputStream.open(channel));
+            containerIs.skip(payloadOffset);
+            metrics.endPhase(Phase.HEADER_PARSE, start);
+
+            long count = processContainer(fbsHeader, hmac, containerIs, keyMaterial, tarProcessingDelegate,
+                entryConsumer, capsulesClientFac, cipherWorkers, metrics);
+            metrics.completed();
+            return count;
+        } catch (Exception e) {
+            metrics.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Process (decrypt) CDOC2 container, when header and hmac are already read.
+     * @param fbsHeader FlatBuffers header, remaining bytes of the buffer
+     * @param hmac header hmac
+     * @param containerIs CDOC2 container stream, positioned at the start of the payload
+     * @param keyMaterial decryption key material
+     * @param tarProcessingDelegate how to process tar
+     * @param entryConsumer receives processed archive entries
+     * @param capsulesClientFac configured key servers clients factory for decryption
+     * @param cipherWorkers number of threads decrypting chunked payload
+     * @param metrics operation metrics recorder
+     * @return number of archive entries processed
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    private static long processContainer(
+        ByteBuffer fbsHeader,
+        byte[] hmac,
+        BoundedInputStream containerIs,
+        DecryptionKeyMaterial keyMaterial,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        Consumer<ArchiveEntry> entryConsumer,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac,
+        int cipherWorkers,
+        OperationRecorder metrics
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        ContainerEvent event = ContainerEvent.begin(OperationRecorder.operationOf(tarProcessingDelegate));
+        try {
+            long start = metrics.startPhase(Phase.HEADER_PARSE);
+            Header header = Header.getRootAsHeader(fbsHeader.duplicate());
+            metrics.endPhase(Phase.HEADER_PARSE, start);
+
+            start = metrics.startPhase(Phase.RECIPIENT_MATCH);
+            Optional<Recipient> matching = HeaderRecipients.of(header).findRecipient(keyMaterial.getRecipientId());
+            metrics.endPhase(Phase.RECIPIENT_MATCH, start);
+            if (matching.isPresent()) {
+                Recipient recipient = matching.get();
+                event.setRecipientType(recipient.getClass().getSimpleName());
+                start = metrics.startPhase(Phase.KEK_DERIVATION, Phase.KEY_SERVER);
+                byte[] kek = deriveKek(recipient, keyMaterial, metrics.meterKeyServer(capsulesClientFac));
                 byte[] fmk = decryptRecipientFmk(recipient, kek);
 
                 SecretKey hmacKey = Crypto.deriveHeaderHmacKey(fmk);
                 SecretKey cekKey = Crypto.deriveContentEncryptionKey(fmk);
+                metrics.endPhaseExcluding(Phase.KEK_DERIVATION, start, Phase.KEY_SERVER);
 
-                checkHmac(hmac, fbsHeaderBytes, hmacKey);
+                start = metrics.startPhase(Phase.HEADER_PARSE);
+                checkHmac(hmac, fbsHeader, hmacKey);
+                metrics.endPhase(Phase.HEADER_PARSE, start);
 
-                log.debug("Processed {} header bytes", containerIs.getByteCount());
+                log.debug("Processed {} header bytes", containerIs.getCount());
                 log.debug("payload available (at least) {}", containerIs.available());
 
-                if (header.payloadEncryptionMethod() == PayloadEncryptionMethod.CHACHA20POLY1305) {
-                    return processPayload(
-                        containerIs, cekKey, getAdditionalData(fbsHeaderBytes, hmac), tarProcessingDelegate
+                byte payloadEncryptionMethod = header.payloadEncryptionMethod();
+                if (payloadEncryptionMethod == PayloadEncryptionMethod.CHACHA20POLY1305
+                    || payloadEncryptionMethod == PayloadEncryptionMethod.CHACHA20POLY1305_STREAM) {
+                    TarEntryProcessingDelegate delegate = tarProcessingDelegate;
+                    if (header.payloadTocLength() > 0) {
+                        List<ArchiveEntry> tocEntries = TableOfContents.decrypt(header.payloadTocAsByteBuffer(),
+                            Crypto.deriveTocEncryptionKey(fmk));
+                        if ((delegate instanceof ListDelegate listDelegate) && listDelegate.isTableOfContentsUsed()) {
+                            // list from table of contents in header, payload is not decrypted and payload MAC is
+                            // not checked
+                            log.debug("Listing entries from table of contents");
+                            tocEntries.forEach(metrics.countEntries(entryConsumer));
+                            event.setEntryCount(tocEntries.size());
+                            return tocEntries.size();
+                        }
+                        // payload must contain the same entries as shown from table of contents
+                        delegate = TableOfContents.verifying(delegate, tocEntries);
+                    }
+                    long count = processPayload(
+                        containerIs, payloadEncryptionMethod, cekKey, getAdditionalData(fbsHeader, hmac),
+                        cipherWorkers, metrics.meterOutput(delegate), metrics.countEntries(entryConsumer), metrics
                     );
+                    event.setEntryCount(count);
+                    return count;
                 } else {
                     throw new CDocParseException("Unknown payload encryption method "
                         + header.payloadEncryptionMethod());
                 }
             }
+
+            log.error("Recipient {} not present in CDOC. Cannot decrypt CDOC.", keyMaterial.getRecipientId());
+            throw new CDocParseException("Recipient " + keyMaterial.getRecipientId() + " not found, cannot decrypt");
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            metrics.addContainerBytes(containerIs.getCount());
+            event.setContainerBytes(containerIs.getCount());
+            event.commit();
         }
+    }
 
-        log.error("Recipient {} not present in CDOC. Cannot decrypt CDOC.", keyMaterial.getRecipientId());
-        throw new CDocParseException("Recipient " + keyMaterial.getRecipientId() + " not found, cannot decrypt");
+    /**
+     * Derive KEK for recipient, recorded as {@link KekDerivationEvent}
+     */
+    private static byte[] deriveKek(Recipient recipient, DecryptionKeyMaterial keyMaterial,
+                                    @Nullable KeyCapsuleClientFactory capsulesClientFac)
+        throws GeneralSecurityException, CDocException {
+
+        KekDerivationEvent event = KekDerivationEvent.begin(recipient);
+        try {
+            return recipient.deriveKek(keyMaterial, capsulesClientFac);
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * @return stream counting bytes read from container ({@link BoundedInputStream#getCount()}), not bounded
+     */
+    private static BoundedInputStream countingStream(InputStream containerIs) throws IOException {
+        return BoundedInputStream.builder()
+            .setInputStream(containerIs)
+            .get();
     }
 
     private static byte[] decryptRecipientFmk(Recipient recipient, byte[] keyEncryptionKey)
@@ -375,59 +757,103 @@ public final class Envelope {
     /**
      * Process payload (content).
      * @param containerIs InputStream containing CDOC2. InputStream position is just before payload.
+     * @param payloadEncryptionMethod {@link PayloadEncryptionMethod#CHACHA20POLY1305} or
+     *          {@link PayloadEncryptionMethod#CHACHA20POLY1305_STREAM}
      * @param cekKey content encryption key decrypted from header
      * @param additionalData used to initialize ChaChaCipher AAD
+     * @param cipherWorkers number of threads decrypting chunked payload
      * @param tarProcessingDelegate tar processing operation
-     * @return archive entries processed
+     * @param entryConsumer receives processed archive entries
+     * @param metrics operation metrics recorder
+     * @return number of archive entries processed
      * @throws GeneralSecurityException if security/crypto error has occurred
      * @throws IOException if an I/O error occurs
      */
-    private static List<ArchiveEntry> processPayload(
-        CountingInputStream containerIs,
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    private static long processPayload(
+        BoundedInputStream containerIs,
+        byte payloadEncryptionMethod,
         SecretKey cekKey,
         byte[] additionalData,
-        TarEntryProcessingDelegate tarProcessingDelegate
+        int cipherWorkers,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        Consumer<ArchiveEntry> entryConsumer,
+        OperationRecorder metrics
     ) throws GeneralSecurityException, IOException {
 
-        long headerSize = containerIs.getByteCount();
-        List<ArchiveEntry> result;
+        long headerSize = containerIs.getCount();
+        long result;
+        PayloadEvent event = PayloadEvent.begin(OperationRecorder.operationOf(tarProcessingDelegate),
+            PayloadEncryptionMethod.name(payloadEncryptionMethod));
 
         // lib must not report any exceptions before ChaCha Poly1305 mac is verified. Poly1305 MAC is
-        // automatically verified, when all bytes were read from CipherInputStream
-        try (CipherInputStream cis = ChaChaCipher.initChaChaInputStream(containerIs, cekKey, additionalData);
+        // automatically verified, when all bytes were read from ChaChaPoly1305InputStream. ChaChaStreamInputStream
+        // verifies every segment before returning its data, stream end is verified with the last segment
+        try (InputStream cis = metrics.meterPayload(initPayloadInputStream(containerIs, payloadEncryptionMethod,
+                cekKey, additionalData, cipherWorkers));
              TarDeflate tarDeflate = new TarDeflate(cis)) {
 
             try {
-                result = tarDeflate.process(tarProcessingDelegate);
+                long start = metrics.startPhase(Phase.INFLATE, Phase.PAYLOAD_DECRYPT, Phase.DISK_WRITE);
+                result = tarDeflate.process(tarProcessingDelegate, entryConsumer);
+                metrics.endPhaseExcluding(Phase.INFLATE, start, Phase.PAYLOAD_DECRYPT, Phase.DISK_WRITE);
             } catch (Exception tarException) { // any exception from tar processing must not be
                                               // reported before Poly1305 MAC check has been performed
                 // read remaining bytes to force Poly1305 MAC check
                 // only report caught exception after ChaCha stream is drained and MAC checked
-                long processedBytes = containerIs.getByteCount();
-                drainStream(cis, null); //may throw IOException, tarException won't be re-thrown
+                long processedBytes = containerIs.getCount();
+                try {
+                    drainStream(cis, null); //may throw IOException, tarException won't be re-thrown
+                } finally {
+                    // output not written to files (SinkDelegate) is discarded by delegate
+                    tarProcessingDelegate.rollback();
+                }
 
                 // since exception was thrown from TarDeflate, then created files are deleted by
                 // TarDeflate::close() when exiting try with resources block
-                if (containerIs.getByteCount() - processedBytes > 0) {
+                if (containerIs.getCount() - processedBytes > 0) {
                     log.debug("Decrypted {} unprocessed bytes after \"{}\"",
-                        containerIs.getByteCount() - processedBytes, tarException.toString());
+                        containerIs.getCount() - processedBytes, tarException.toString());
                 }
 
                 throw tarException; //no exception from drainStream, re-throw original exception
             } finally {
 
                 // read all bytes (if any) from ChaCha stream and check Poly1305 MAC
-                // delete all created files when MAC check fails
-                forcePoly1305MacCheck(containerIs, cis, tarDeflate::deleteCreatedFiles);
+                // delete all created files and roll back delegate output when MAC check fails
+                forcePoly1305MacCheck(containerIs, cis, () -> {
+                    tarDeflate.deleteCreatedFiles();
+                    tarProcessingDelegate.rollback();
+                });
             }
+            event.setEntryCount(result);
 
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
         } finally  {
             log.debug("Processed {} bytes from payload (total CDOC2 {}B )",
-                containerIs.getByteCount() - headerSize, containerIs.getByteCount());
+                containerIs.getCount() - headerSize, containerIs.getCount());
+            event.setPayloadBytes(containerIs.getCount() - headerSize);
+            event.commit();
         }
         return result;
     }
 
+    private static InputStream initPayloadInputStream(
+        InputStream containerIs,
+        byte payloadEncryptionMethod,
+        SecretKey cekKey,
+        byte[] additionalData,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException {
+
+        if (payloadEncryptionMethod == PayloadEncryptionMethod.CHACHA20POLY1305_STREAM) {
+            return ChaChaCipher.initChaChaStreamInputStream(containerIs, cekKey, additionalData, cipherWorkers);
+        }
+        return ChaChaCipher.initChaChaPoly1305InputStream(containerIs, cekKey, additionalData);
+    }
+
     /**
      * Read any remaining bytes from cipher input stream to force MAC check at the end of stream.
      * @param countingIs input stream
@@ -436,18 +862,18 @@ public final class Envelope {
      * @throws IOException if an I/O error occurs
      */
     private static void forcePoly1305MacCheck(
-        CountingInputStream countingIs,
-        CipherInputStream cis,
+        BoundedInputStream countingIs,
+        InputStream cis,
         @Nullable Runnable cleanUpFunc
     ) throws IOException {
         // deflate/tar stream processing is finished, drain any remaining bytes to force
         // ChaCha Poly1305 MAC check
-        long processedBytes = countingIs.getByteCount();
+        long processedBytes = countingIs.getCount();
         drainStream(cis, cleanUpFunc); //may throw IOException Poly1305 MAC check
 
-        if (countingIs.getByteCount() - processedBytes > 0) {
+        if (countingIs.getCount() - processedBytes > 0) {
             log.debug("Decrypted {} unprocessed bytes ",
-                countingIs.getByteCount() - processedBytes);
+                countingIs.getCount() - processedBytes);
         }
     }
 
@@ -458,7 +884,7 @@ public final class Envelope {
      * @throws IOException if an I/O error has occurred during draining
      */
     @SuppressWarnings("checkstyle:EmptyBlock")
-    private static void drainStream(CipherInputStream cis, @Nullable Runnable cleanUpFunc)
+    private static void drainStream(InputStream cis, @Nullable Runnable cleanUpFunc)
         throws IOException {
 
         byte[] ignored = new byte[1024];
@@ -482,7 +908,7 @@ public final class Envelope {
      * @throws GeneralSecurityException  if security/crypto error has occurred
      * @throws CDocParseException if calculated HMAC does not match with HMAC in header
      */
-    private static void checkHmac(byte[] hmac, byte[] headerBytes, SecretKey hmacKey)
+    private static void checkHmac(byte[] hmac, ByteBuffer headerBytes, SecretKey hmacKey)
         throws GeneralSecurityException, CDocParseException {
 
         Objects.requireNonNull(hmac);
@@ -531,7 +957,8 @@ public final class Envelope {
             cdocInputStream,
             recipientKeyMaterial,
             new ExtractDelegate(outputDir, null),
-            keyServerClientFac
+            keyServerClientFac,
+            Tar.getCipherWorkers()
         ).stream()
             .map(ArchiveEntry::getName)
             .toList();
@@ -558,19 +985,261 @@ public final class Envelope {
         @Nullable KeyCapsuleClientFactory keyServerClientFac
     ) throws GeneralSecurityException, IOException, CDocException {
 
+        return decrypt(cdocInputStream, recipientKeyMaterial, outputDir, filesToExtract, keyServerClientFac,
+            Tar.getCipherWorkers());
+    }
+
+    /**
+     * Decrypt CDOC2 container, read from cdocInputStream, see
+     * {@link #decrypt(InputStream, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)}.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param outputDir output directory where decrypted files are decrypted
+     * @param filesToExtract if not null, extract specified files otherwise all files.
+     * @param keyServerClientFac configured key servers client factory.
+     * @param cipherWorkers number of threads decrypting chunked payload, 1 decrypts in calling thread. Default is
+     *                      {@link ee.cyber.cdoc2.CDocConfiguration#CIPHER_WORKERS_PROPERTY}
+     * @return list of files decrypted and written into outputDir
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocInputStream is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        InputStream cdocInputStream,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        Path outputDir,
+        @Nullable List<String> filesToExtract,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
         log.trace("decrypt");
         return processContainer(
             cdocInputStream,
             recipientKeyMaterial,
             new ExtractDelegate(outputDir, filesToExtract),
-            keyServerClientFac
+            keyServerClientFac,
+            cipherWorkers
         ).stream()
             .map(ArchiveEntry::getName)
             .toList();
     }
 
     /**
-     * List ArchiveEntries in CDOC
+     * Decrypt CDOC2 container file. Container is read through {@link FileChannel}, header is validated against
+     * the real file size and parsed from memory-mapped file region, payload is read in large chunks.
+     * Prefer this over {@link #decrypt(InputStream, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)},
+     * when CDOC2 container is available as file.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param outputDir output directory where decrypted files are decrypted
+     * @param filesToExtract if not null, extract specified files otherwise all files.
+     * @param keyServerClientFac configured key servers client factory.
+     * @return list of files decrypted and written into outputDir
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocFile is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        Path cdocFile,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        Path outputDir,
+        @Nullable List<String> filesToExtract,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        return decrypt(cdocFile, recipientKeyMaterial, outputDir, filesToExtract, keyServerClientFac,
+            Tar.getCipherWorkers());
+    }
+
+    /**
+     * Decrypt CDOC2 container file, see
+     * {@link #decrypt(Path, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)}.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param outputDir output directory where decrypted files are decrypted
+     * @param filesToExtract if not null, extract specified files otherwise all files.
+     * @param keyServerClientFac configured key servers client factory.
+     * @param cipherWorkers number of threads decrypting chunked payload, 1 decrypts in calling thread. Default is
+     *                      {@link ee.cyber.cdoc2.CDocConfiguration#CIPHER_WORKERS_PROPERTY}
+     * @return list of files decrypted and written into outputDir
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocFile is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        Path cdocFile,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        Path outputDir,
+        @Nullable List<String> filesToExtract,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("decrypt {}", cdocFile);
+        return processContainer(
+            cdocFile,
+            recipientKeyMaterial,
+            new ExtractDelegate(outputDir, filesToExtract),
+            keyServerClientFac,
+            cipherWorkers
+        ).stream()
+            .map(ArchiveEntry::getName)
+            .toList();
+    }
+
+    /**
+     * Decrypt CDOC2 container, read from cdocInputStream, without writing decrypted files to the filesystem.
+     * Decrypted files are written to streams opened by sink. When payload processing or Poly1305 MAC check fails,
+     * {@link DecryptedEntrySink#rollback(List)} is called before exception is thrown.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param sink supplies streams where decrypted files are written
+     * @param keyServerClientFac configured key servers client factory.
+     * @return list of files decrypted and written into sink
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocInputStream is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        InputStream cdocInputStream,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        DecryptedEntrySink sink,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        return decrypt(cdocInputStream, recipientKeyMaterial, sink, keyServerClientFac, Tar.getCipherWorkers());
+    }
+
+    /**
+     * Decrypt CDOC2 container, read from cdocInputStream, without writing decrypted files to the filesystem, see
+     * {@link #decrypt(InputStream, DecryptionKeyMaterial, DecryptedEntrySink, KeyCapsuleClientFactory)}.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param sink supplies streams where decrypted files are written
+     * @param keyServerClientFac configured key servers client factory.
+     * @param cipherWorkers number of threads decrypting chunked payload, 1 decrypts in calling thread. Default is
+     *                      {@link ee.cyber.cdoc2.CDocConfiguration#CIPHER_WORKERS_PROPERTY}
+     * @return list of files decrypted and written into sink
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocInputStream is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        InputStream cdocInputStream,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        DecryptedEntrySink sink,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("decrypt to sink");
+        return processContainer(
+            cdocInputStream,
+            recipientKeyMaterial,
+            new SinkDelegate(sink),
+            keyServerClientFac,
+            cipherWorkers
+        ).stream()
+            .map(ArchiveEntry::getName)
+            .toList();
+    }
+
+    /**
+     * Decrypt CDOC2 container file without writing decrypted files to the filesystem, see
+     * {@link #decrypt(InputStream, DecryptionKeyMaterial, DecryptedEntrySink, KeyCapsuleClientFactory)}.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param sink supplies streams where decrypted files are written
+     * @param keyServerClientFac configured key servers client factory.
+     * @return list of files decrypted and written into sink
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocFile is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        Path cdocFile,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        DecryptedEntrySink sink,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        return decrypt(cdocFile, recipientKeyMaterial, sink, keyServerClientFac, Tar.getCipherWorkers());
+    }
+
+    /**
+     * Decrypt CDOC2 container file without writing decrypted files to the filesystem, see
+     * {@link #decrypt(InputStream, DecryptionKeyMaterial, DecryptedEntrySink, KeyCapsuleClientFactory)}.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param sink supplies streams where decrypted files are written
+     * @param keyServerClientFac configured key servers client factory.
+     * @param cipherWorkers number of threads decrypting chunked payload, 1 decrypts in calling thread. Default is
+     *                      {@link ee.cyber.cdoc2.CDocConfiguration#CIPHER_WORKERS_PROPERTY}
+     * @return list of files decrypted and written into sink
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if cdocFile is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        Path cdocFile,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        DecryptedEntrySink sink,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        int cipherWorkers
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("decrypt {} to sink", cdocFile);
+        return processContainer(
+            cdocFile,
+            recipientKeyMaterial,
+            new SinkDelegate(sink),
+            keyServerClientFac,
+            cipherWorkers
+        ).stream()
+            .map(ArchiveEntry::getName)
+            .toList();
+    }
+
+    /**
+     * List ArchiveEntries in CDOC2 container file. Container is read through {@link FileChannel}, see
+     * {@link #decrypt(Path, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)}. When header contains
+     * table of contents ({@link EncryptionOptions#withTableOfContents(boolean)}), entries are read from it and
+     * payload is not decrypted. Then payload Poly1305 MAC is not checked and corrupted payload is not detected,
+     * payload entries are verified against table of contents when container is decrypted.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @return List of ArchiveEntry decrypted from CDOC
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error occurs
+     * @throws CDocException if encryption/decryption error has occurred
+     */
+    public static List<ArchiveEntry> list(Path cdocFile, DecryptionKeyMaterial recipientKeyMaterial,
+                                          @Nullable KeyCapsuleClientFactory keyServerClientFac)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("list {}", cdocFile);
+        return processContainer(
+            cdocFile,
+            recipientKeyMaterial,
+            new ListDelegate(),
+            keyServerClientFac,
+            Tar.getCipherWorkers()
+        );
+    }
+
+    /**
+     * List ArchiveEntries in CDOC. When header contains table of contents, entries are read from it and payload
+     * is not read. Then payload Poly1305 MAC is not checked and corrupted payload is not detected, payload entries
+     * are verified against table of contents when container is decrypted.
      * @param cdocInputStream contains CDOC2 container
      * @param recipientKeyMaterial decryption key material
      * @param keyServerClientFac configured key servers client factory.
@@ -588,7 +1257,117 @@ public final class Envelope {
             cdocInputStream,
             recipientKeyMaterial,
             new ListDelegate(),
-            keyServerClientFac
+            keyServerClientFac,
+            Tar.getCipherWorkers()
+        );
+    }
+
+    /**
+     * List ArchiveEntries in CDOC2 container file without collecting them, entries are passed to entryConsumer as
+     * they are found from the payload. Memory use doesn't grow with number of entries (see also
+     * {@link ee.cyber.cdoc2.CDocConfiguration#COMPACT_TAR_ENTRIES_PROPERTY}).
+     * <p>
+     * Payload is always read, also when header contains table of contents (then payload entries are verified
+     * against it). Payload Poly1305 MAC is verified after all entries have been read, entries must be considered
+     * unverified until this method returns. If exception is thrown, entries already passed to entryConsumer must
+     * be discarded.
+     * </p>
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @param entryConsumer receives ArchiveEntries decrypted from CDOC
+     * @return number of entries listed
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error occurs
+     * @throws CDocException if encryption/decryption error has occurred
+     */
+    public static long list(Path cdocFile, DecryptionKeyMaterial recipientKeyMaterial,
+                            @Nullable KeyCapsuleClientFactory keyServerClientFac,
+                            Consumer<ArchiveEntry> entryConsumer)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("list {} streaming", cdocFile);
+        Objects.requireNonNull(entryConsumer);
+        return processContainer(
+            cdocFile,
+            recipientKeyMaterial,
+            new ListDelegate(false),
+            entryConsumer,
+            keyServerClientFac,
+            Tar.getCipherWorkers()
+        );
+    }
+
+    /**
+     * List ArchiveEntries in CDOC without collecting them, see
+     * {@link #list(Path, DecryptionKeyMaterial, KeyCapsuleClientFactory, Consumer)}.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @param entryConsumer receives ArchiveEntries decrypted from CDOC
+     * @return number of entries listed
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error occurs
+     * @throws CDocException if encryption/decryption error has occurred
+     */
+    public static long list(InputStream cdocInputStream, DecryptionKeyMaterial recipientKeyMaterial,
+                            @Nullable KeyCapsuleClientFactory keyServerClientFac,
+                            Consumer<ArchiveEntry> entryConsumer)
+        throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("list streaming");
+        Objects.requireNonNull(entryConsumer);
+        return processContainer(
+            cdocInputStream,
+            recipientKeyMaterial,
+            new ListDelegate(false),
+            entryConsumer,
+            keyServerClientFac,
+            Tar.getCipherWorkers()
+        );
+    }
+
+    /**
+     * Create {@link java.util.concurrent.Flow.Publisher} that publishes ArchiveEntries in CDOC2 container file as
+     * they are found from the payload, with subscriber controlled backpressure. Listing starts when subscriber
+     * subscribes and ends with completion signal after payload Poly1305 MAC is verified or error signal, see
+     * {@link ArchiveEntryPublisher}.
+     * @param cdocFile CDOC2 container file
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @param executor runs listing, if null then new daemon thread is started for listing
+     * @return publisher of ArchiveEntries decrypted from CDOC
+     */
+    public static ArchiveEntryPublisher listPublisher(Path cdocFile, DecryptionKeyMaterial recipientKeyMaterial,
+                                                      @Nullable KeyCapsuleClientFactory keyServerClientFac,
+                                                      @Nullable Executor executor) {
+        Objects.requireNonNull(cdocFile);
+        Objects.requireNonNull(recipientKeyMaterial);
+        return new ArchiveEntryPublisher(
+            entryConsumer -> list(cdocFile, recipientKeyMaterial, keyServerClientFac, entryConsumer),
+            executor
+        );
+    }
+
+    /**
+     * Create {@link java.util.concurrent.Flow.Publisher} that publishes ArchiveEntries in CDOC as they are found
+     * from the payload, see {@link #listPublisher(Path, DecryptionKeyMaterial, KeyCapsuleClientFactory, Executor)}.
+     * cdocInputStream is read from listing thread and must not be closed before terminal signal.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @param executor runs listing, if null then new daemon thread is started for listing
+     * @return publisher of ArchiveEntries decrypted from CDOC
+     */
+    public static ArchiveEntryPublisher listPublisher(InputStream cdocInputStream,
+                                                      DecryptionKeyMaterial recipientKeyMaterial,
+                                                      @Nullable KeyCapsuleClientFactory keyServerClientFac,
+                                                      @Nullable Executor executor) {
+        Objects.requireNonNull(cdocInputStream);
+        Objects.requireNonNull(recipientKeyMaterial);
+        return new ArchiveEntryPublisher(
+            entryConsumer -> list(cdocInputStream, recipientKeyMaterial, keyServerClientFac, entryConsumer),
+            executor
         );
     }
 
@@ -606,6 +1385,17 @@ public final class Envelope {
      * @return serialized flatbuffer header
      */
     static byte[] serializeHeader(Recipient[] recipients) {
+        return serializeHeader(recipients, PAYLOAD_ENC_BYTE, null);
+    }
+
+    /**
+     * Serialize flatbuffer part of the header
+     * @param recipients recipients to be serialized
+     * @param payloadEncryptionMethod {@link PayloadEncryptionMethod} of the payload
+     * @param toc encrypted payload table of contents, if not null
+     * @return serialized flatbuffer header
+     */
+    static byte[] serializeHeader(Recipient[] recipients, byte payloadEncryptionMethod, @Nullable byte[] toc) {
         Objects.requireNonNull(recipients);
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         FlatBufferBuilder builder = new FlatBufferBuilder(1024);
@@ -616,10 +1406,14 @@ public final class Envelope {
         }
 
         int recipientsVector = Header.createRecipientsVector(builder, recipientOffsets);
+        int tocVector = (toc != null) ? Header.createPayloadTocVector(builder, toc) : 0;
 
         Header.startHeader(builder);
         Header.addRecipients(builder, recipientsVector);
-        Header.addPayloadEncryptionMethod(builder, PAYLOAD_ENC_BYTE);
+        Header.addPayloadEncryptionMethod(builder, payloadEncryptionMethod);
+        if (toc != null) {
+            Header.addPayloadToc(builder, tocVector);
+        }
         int headerOffset = Header.endHeader(builder);
         Header.finishHeaderBuffer(builder, headerOffset);
 
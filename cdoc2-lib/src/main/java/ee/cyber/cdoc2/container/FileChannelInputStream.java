@@ -0,0 +1,182 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+
+/**
+ * InputStream for reading payload files through {@link FileChannel}. Replaces
+ * {@code new BufferedInputStream(Files.newInputStream(file))} for payload reading:
+ * <ul>
+ *     <li>Files smaller than {@link #MMAP_THRESHOLD} are read with {@link FileChannel#read(ByteBuffer)} directly
+ *     into caller's array, without intermediate buffer</li>
+ *     <li>Bigger files are memory-mapped in {@link #MAX_MAP_SIZE} windows ({@link MappedByteBuffer}) and copied
+ *     from page cache into caller's array, without read system calls</li>
+ * </ul>
+ * {@link #transferTo(OutputStream)} uses single buffer of up to {@link #TRANSFER_BUFFER_SIZE} bytes, so that
+ * data is written to tar in large chunks.
+ */
+final class FileChannelInputStream extends InputStream {
+
+    /** Files of this size or bigger are memory-mapped */
+    static final long MMAP_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Max size of single memory-mapped window */
+    static final int MAX_MAP_SIZE = 256 * 1024 * 1024;
+
+    static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final boolean mapped;
+    private final int maxMapSize;
+
+    // position in file
+    private long position;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean closed;
+
+    private FileChannelInputStream(FileChannel channel, long size, long mmapThreshold, int maxMapSize) {
+        this.channel = channel;
+        this.size = size;
+        this.mapped = size >= mmapThreshold;
+        this.maxMapSize = maxMapSize;
+    }
+
+    /**
+     * Open file for reading
+     * @param file regular file
+     * @return FileChannelInputStream for file
+     * @throws IOException if an I/O error has occurred
+     */
+    static FileChannelInputStream open(Path file) throws IOException {
+        return open(file, MMAP_THRESHOLD, MAX_MAP_SIZE);
+    }
+
+    /**
+     * Open file for reading with custom memory-mapping parameters
+     * @param file regular file
+     * @param mmapThreshold files of this size or bigger are memory-mapped
+     * @param maxMapSize max size of single memory-mapped window
+     */
+    static FileChannelInputStream open(Path file, long mmapThreshold, int maxMapSize) throws IOException {
+        if (maxMapSize <= 0) {
+            throw new IllegalArgumentException("Invalid maxMapSize " + maxMapSize);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new FileChannelInputStream(channel, channel.size(), mmapThreshold, maxMapSize);
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create stream for already opened channel. Stream starts reading from the beginning of the channel, use
+     * {@link #skip(long)} to move to another position. Channel is closed, when stream is closed.
+     * @param channel channel opened for reading
+     * @return FileChannelInputStream for channel
+     * @throws IOException if an I/O error has occurred
+     */
+    static FileChannelInputStream open(FileChannel channel) throws IOException {
+        Objects.requireNonNull(channel);
+        return new FileChannelInputStream(channel, channel.size(), MMAP_THRESHOLD, MAX_MAP_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return (n == -1) ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+
+        int n;
+        if (mapped) {
+            n = readMapped(b, off, len);
+        } else {
+            n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n == -1) { // file was truncated after open
+                return -1;
+            }
+        }
+        position += n;
+        return n;
+    }
+
+    private int readMapped(byte[] b, int off, int len) throws IOException {
+        if ((window == null) || (position >= windowStart + window.capacity())) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                Math.min(maxMapSize, size - windowStart));
+        }
+
+        int windowPos = (int) (position - windowStart);
+        int n = Math.min(len, window.capacity() - windowPos);
+        window.get(windowPos, b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long skipped = Math.max(0, Math.min(n, size - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size - position));
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        Objects.requireNonNull(out);
+        ensureOpen();
+
+        byte[] buf = new byte[(int) Math.max(1, Math.min(TRANSFER_BUFFER_SIZE, size - position))];
+        long transferred = 0;
+        int read;
+        while ((read = read(buf, 0, buf.length)) >= 0) {
+            out.write(buf, 0, read);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            window = null;
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
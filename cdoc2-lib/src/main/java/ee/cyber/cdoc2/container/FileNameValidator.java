@@ -2,9 +2,10 @@ package ee.cyber.cdoc2.container;
 
 import java.io.File;
 import java.nio.file.InvalidPathException;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -74,14 +75,17 @@ public final class FileNameValidator {
      * @throws IllegalArgumentException if there are files duplicates
      */
     public static void ensureNoFileDuplicates(Iterable<File> files) {
-        List<String> baseNameList = new LinkedList<>();
-        files.forEach(f -> baseNameList.add(validate(f.getName())));
-        List<String> distinctList = baseNameList.stream().distinct().toList();
-        if (baseNameList.size() != distinctList.size()) {
-            List<String> duplicates = baseNameList.stream()
-                .filter(str -> Collections.frequency(baseNameList, str) > 1)
-                .toList();
+        // single pass with hash sets, payload may contain very many files
+        Set<String> baseNames = new HashSet<>();
+        Set<String> duplicates = new HashSet<>();
+        files.forEach(f -> {
+            String baseName = validate(f.getName());
+            if (!baseNames.add(baseName)) {
+                duplicates.add(baseName);
+            }
+        });
 
+        if (!duplicates.isEmpty()) {
             List<File> duplicateFiles = new LinkedList<>();
             files.forEach(f -> {
                 if (duplicates.contains(f.getName())) {
@@ -8,6 +8,30 @@ import java.io.IOException;
 
 public class ListDelegate implements TarEntryProcessingDelegate {
 
+    private final boolean tableOfContentsUsed;
+
+    /**
+     * List entries from table of contents in header, when header contains it, otherwise from payload
+     */
+    public ListDelegate() {
+        this(true);
+    }
+
+    /**
+     * @param tableOfContentsUsed if entries are listed from table of contents in header, when header contains it.
+     *                            When false, payload is always read and its Poly1305 MAC is checked
+     */
+    public ListDelegate(boolean tableOfContentsUsed) {
+        this.tableOfContentsUsed = tableOfContentsUsed;
+    }
+
+    /**
+     * @return if entries are listed from table of contents in header without reading payload
+     */
+    public boolean isTableOfContentsUsed() {
+        return tableOfContentsUsed;
+    }
+
     @Override
     public OP getType() {
         return OP.LIST;
@@ -0,0 +1,507 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.client.ExtApiException;
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
+import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
+import ee.cyber.cdoc2.client.model.Capsule;
+import ee.cyber.cdoc2.metrics.CDocMetrics;
+import ee.cyber.cdoc2.metrics.CDocMetricsListener;
+import ee.cyber.cdoc2.metrics.CDocOperation;
+import ee.cyber.cdoc2.metrics.OperationMetrics;
+import ee.cyber.cdoc2.metrics.Phase;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * Measures single {@link CDocOperation} and reports {@link OperationMetrics} to {@link CDocMetricsListener}.
+ * Listener is resolved with {@link CDocMetrics#getListener()}, when operation starts. When no listener is
+ * registered, disabled recorder is returned: all methods return immediately and streams are not wrapped.
+ * <p>
+ * Counters are thread-safe, as phases may run in different threads (pipelined encryption, recipient build
+ * threads).
+ * </p>
+ */
+final class OperationRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(OperationRecorder.class);
+
+    private static final OperationRecorder DISABLED = new OperationRecorder(null, null);
+
+    private static final Phase[] PHASES = Phase.values();
+
+    @Nullable
+    private final CDocMetricsListener listener;
+    @Nullable
+    private final CDocOperation operation;
+    private final long startNanos;
+
+    @Nullable
+    private final LongAdder[] phaseNanos;
+    private final LongAdder containerBytes = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder entryCount = new LongAdder();
+    private final LongAdder entryBytes = new LongAdder();
+
+    @Nullable
+    private volatile Phase currentPhase;
+
+    private OperationRecorder(@Nullable CDocOperation operation, @Nullable CDocMetricsListener listener) {
+        this.operation = operation;
+        this.listener = listener;
+        this.startNanos = (listener != null) ? System.nanoTime() : 0;
+        if (listener != null) {
+            this.phaseNanos = new LongAdder[PHASES.length];
+            for (int i = 0; i < PHASES.length; i++) {
+                phaseNanos[i] = new LongAdder();
+            }
+        } else {
+            this.phaseNanos = null;
+        }
+    }
+
+    /**
+     * Start measuring operation
+     * @param operation operation started
+     * @return recorder reporting to current listener, disabled recorder if there is no listener
+     */
+    static OperationRecorder start(CDocOperation operation) {
+        CDocMetricsListener listener = CDocMetrics.getListener();
+        return (listener == CDocMetricsListener.NOOP) ? DISABLED : new OperationRecorder(operation, listener);
+    }
+
+    static CDocOperation operationOf(TarEntryProcessingDelegate delegate) {
+        return switch (delegate.getType()) {
+            case LIST -> CDocOperation.LIST;
+            case TRANSFER -> CDocOperation.RE_ENCRYPT;
+            case EXTRACT, STREAM -> CDocOperation.DECRYPT;
+        };
+    }
+
+    boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Mark phase as started, phase is reported as failed phase, when operation fails
+     * @return start time for {@link #endPhase(Phase, long)}
+     */
+    long startPhase(Phase phase) {
+        if (listener == null) {
+            return 0;
+        }
+        currentPhase = phase;
+        return System.nanoTime();
+    }
+
+    /**
+     * Add time since start to phase
+     * @param start value returned by {@link #startPhase(Phase)}
+     */
+    void endPhase(Phase phase, long start) {
+        endPhase(phase, start, null);
+    }
+
+    /**
+     * Add time since start to phase and continue outer phase. When phase doesn't end (exception is thrown),
+     * phase is reported as failed phase.
+     * @param start value returned by {@link #startPhase(Phase)}
+     * @param outer phase that continues, value of {@link #getCurrentPhase()} before phase was started
+     */
+    void endPhase(Phase phase, long start, @Nullable Phase outer) {
+        if (listener != null) {
+            addTime(phase, System.nanoTime() - start);
+            currentPhase = outer;
+        }
+    }
+
+    /**
+     * Mark phase that contains nested phases as started. Time spent in nested phases (measured by stream and
+     * client wrappers) is excluded from phase time.
+     * @return start value for {@link #endPhaseExcluding(Phase, long, Phase...)}
+     */
+    long startPhase(Phase phase, Phase... nested) {
+        if (listener == null) {
+            return 0;
+        }
+        currentPhase = phase;
+        return System.nanoTime() - getTime(nested);
+    }
+
+    /**
+     * Add time since start, excluding time spent in nested phases, to phase
+     * @param start value returned by {@link #startPhase(Phase, Phase...)} with the same nested phases
+     */
+    void endPhaseExcluding(Phase phase, long start, Phase... nested) {
+        if (listener != null) {
+            // nested phases may run in other threads concurrently, so their total time may exceed elapsed time
+            addTime(phase, Math.max(0, System.nanoTime() - getTime(nested) - start));
+            currentPhase = null;
+        }
+    }
+
+    @Nullable
+    Phase getCurrentPhase() {
+        return currentPhase;
+    }
+
+    void addTime(Phase phase, long nanos) {
+        if (phaseNanos != null) {
+            phaseNanos[phase.ordinal()].add(nanos);
+        }
+    }
+
+    long getTime(Phase phase) {
+        return (phaseNanos != null) ? phaseNanos[phase.ordinal()].sum() : 0;
+    }
+
+    private long getTime(Phase... phases) {
+        long nanos = 0;
+        for (Phase phase : phases) {
+            nanos += getTime(phase);
+        }
+        return nanos;
+    }
+
+    void addContainerBytes(long bytes) {
+        if (listener != null) {
+            containerBytes.add(bytes);
+        }
+    }
+
+    /**
+     * Count entry (file) encrypted, decrypted or listed
+     * @param size entry size
+     */
+    void addEntry(long size) {
+        if (listener != null) {
+            entryCount.increment();
+            entryBytes.add(Math.max(0, size));
+        }
+    }
+
+    /**
+     * @return entryConsumer that also counts entries, same consumer if recorder is disabled
+     */
+    Consumer<ArchiveEntry> countEntries(Consumer<ArchiveEntry> entryConsumer) {
+        if (listener == null) {
+            return entryConsumer;
+        }
+        return entry -> {
+            addEntry(entry.getSize());
+            entryConsumer.accept(entry);
+        };
+    }
+
+    /**
+     * Measure {@link Phase#PAYLOAD_DECRYPT} time and payload bytes read from payload cipher stream
+     */
+    InputStream meterPayload(InputStream cipherInputStream) {
+        return (listener == null) ? cipherInputStream : new MeteredInputStream(cipherInputStream, this);
+    }
+
+    /**
+     * Measure {@link Phase#PAYLOAD_ENCRYPT} time and payload bytes written to payload cipher stream
+     */
+    OutputStream meterPayload(OutputStream cipherOutputStream) {
+        return (listener == null) ? cipherOutputStream
+            : new MeteredOutputStream(cipherOutputStream, phaseNanos[Phase.PAYLOAD_ENCRYPT.ordinal()], payloadBytes);
+    }
+
+    /**
+     * Count container bytes written to os
+     */
+    OutputStream meterContainer(OutputStream os) {
+        return (listener == null) ? os : new MeteredOutputStream(os, null, containerBytes);
+    }
+
+    /**
+     * Measure {@link Phase#DISK_WRITE} time of delegate output
+     */
+    TarEntryProcessingDelegate meterOutput(TarEntryProcessingDelegate delegate) {
+        return ((listener == null) || (delegate.getType() == TarEntryProcessingDelegate.OP.LIST))
+            ? delegate
+            : new MeteredDelegate(delegate, this);
+    }
+
+    /**
+     * Measure {@link Phase#KEY_SERVER} time of key server requests
+     */
+    @Nullable
+    KeyCapsuleClient meterKeyServer(@Nullable KeyCapsuleClient client) {
+        return ((listener == null) || (client == null)) ? client : new MeteredKeyCapsuleClient(client, this);
+    }
+
+    /**
+     * Measure {@link Phase#KEY_SERVER} time of key server requests
+     */
+    @Nullable
+    KeyCapsuleClientFactory meterKeyServer(@Nullable KeyCapsuleClientFactory factory) {
+        if ((listener == null) || (factory == null)) {
+            return factory;
+        }
+        return serverId -> meterKeyServer(factory.getForId(serverId));
+    }
+
+    /**
+     * Report successful operation
+     */
+    void completed() {
+        if (listener != null) {
+            OperationMetrics metrics = snapshot(null, null);
+            try {
+                listener.onCompleted(metrics);
+            } catch (RuntimeException e) {
+                log.warn("Metrics listener failed: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Report failed operation
+     * @param cause failure cause
+     */
+    void failed(Throwable cause) {
+        if (listener != null) {
+            OperationMetrics metrics = snapshot(currentPhase, cause);
+            try {
+                listener.onFailed(metrics);
+            } catch (RuntimeException e) {
+                log.warn("Metrics listener failed: {}", e.toString());
+            }
+        }
+    }
+
+    private OperationMetrics snapshot(@Nullable Phase failedPhase, @Nullable Throwable failure) {
+        Map<Phase, Duration> phases = new EnumMap<>(Phase.class);
+        for (Phase phase : PHASES) {
+            long nanos = getTime(phase);
+            if (nanos > 0) {
+                phases.put(phase, Duration.ofNanos(nanos));
+            }
+        }
+        return new OperationMetrics(operation, Duration.ofNanos(System.nanoTime() - startNanos), phases,
+            containerBytes.sum(), payloadBytes.sum(), entryCount.sum(), entryBytes.sum(), failedPhase, failure);
+    }
+
+    /**
+     * Measures time spent and bytes read from decrypting payload stream
+     */
+    private static final class MeteredInputStream extends FilterInputStream {
+        private final OperationRecorder recorder;
+
+        MeteredInputStream(InputStream in, OperationRecorder recorder) {
+            super(in);
+            this.recorder = recorder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.PAYLOAD_DECRYPT);
+            int b = in.read();
+            recorder.endPhase(Phase.PAYLOAD_DECRYPT, start, outer);
+            if (b != -1) {
+                recorder.payloadBytes.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.PAYLOAD_DECRYPT);
+            int read = in.read(b, off, len);
+            recorder.endPhase(Phase.PAYLOAD_DECRYPT, start, outer);
+            if (read > 0) {
+                recorder.payloadBytes.add(read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Measures time spent (if phaseNanos is not null) and bytes written to underlying stream
+     */
+    private static final class MeteredOutputStream extends FilterOutputStream {
+        @Nullable
+        private final LongAdder nanos;
+        private final LongAdder bytes;
+        private boolean closed;
+
+        MeteredOutputStream(OutputStream out, @Nullable LongAdder nanos, LongAdder bytes) {
+            super(out);
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            addTime(start);
+            bytes.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            addTime(start);
+            bytes.add(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            addTime(start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // closing cipher stream encrypts buffered data and writes MAC
+            long start = System.nanoTime();
+            out.close();
+            addTime(start);
+        }
+
+        private void addTime(long start) {
+            if (nanos != null) {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Measures time spent on writing tar entries by delegate
+     */
+    private static final class MeteredDelegate implements TarEntryProcessingDelegate {
+        private final TarEntryProcessingDelegate delegate;
+        private final OperationRecorder recorder;
+
+        MeteredDelegate(TarEntryProcessingDelegate delegate, OperationRecorder recorder) {
+            this.delegate = delegate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public OP getType() {
+            return delegate.getType();
+        }
+
+        @Nullable
+        @Override
+        public File onTarEntry(TarArchiveEntry tarEntry) throws IOException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.DISK_WRITE);
+            File created = delegate.onTarEntry(tarEntry);
+            recorder.endPhase(Phase.DISK_WRITE, start, outer);
+            return created;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.DISK_WRITE);
+            delegate.write(buf, off, len);
+            recorder.endPhase(Phase.DISK_WRITE, start, outer);
+        }
+
+        @Override
+        public boolean onEndOfTarEntry() throws IOException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.DISK_WRITE);
+            boolean processed = delegate.onEndOfTarEntry();
+            recorder.endPhase(Phase.DISK_WRITE, start, outer);
+            return processed;
+        }
+
+        @Override
+        public void onEndOfTar() throws IOException {
+            delegate.onEndOfTar();
+        }
+
+        @Nullable
+        @Override
+        public File getOutputDir() {
+            return delegate.getOutputDir();
+        }
+
+        @Override
+        public void rollback() {
+            delegate.rollback();
+        }
+    }
+
+    /**
+     * Measures time spent on key server requests
+     */
+    private static final class MeteredKeyCapsuleClient implements KeyCapsuleClient {
+        private final KeyCapsuleClient client;
+        private final OperationRecorder recorder;
+
+        MeteredKeyCapsuleClient(KeyCapsuleClient client, OperationRecorder recorder) {
+            this.client = client;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void setExpiryDuration(Duration duration) {
+            client.setExpiryDuration(duration);
+        }
+
+        @Override
+        public String storeCapsule(Capsule capsule) throws ExtApiException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.KEY_SERVER);
+            String transactionId = client.storeCapsule(capsule);
+            recorder.endPhase(Phase.KEY_SERVER, start, outer);
+            return transactionId;
+        }
+
+        @Override
+        public List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.KEY_SERVER);
+            List<String> transactionIds = client.storeCapsules(capsules);
+            recorder.endPhase(Phase.KEY_SERVER, start, outer);
+            return transactionIds;
+        }
+
+        @Override
+        public Optional<Capsule> getCapsule(String id) throws ExtApiException {
+            Phase outer = recorder.getCurrentPhase();
+            long start = recorder.startPhase(Phase.KEY_SERVER);
+            Optional<Capsule> capsule = client.getCapsule(id);
+            recorder.endPhase(Phase.KEY_SERVER, start, outer);
+            return capsule;
+        }
+
+        @Override
+        public String getServerIdentifier() {
+            return client.getServerIdentifier();
+        }
+    }
+}
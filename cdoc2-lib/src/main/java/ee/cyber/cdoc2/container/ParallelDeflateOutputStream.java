@@ -0,0 +1,276 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+
+/**
+ * zlib (RFC 1950) compressing OutputStream that deflates input in blocks on a pool of worker threads (pigz style).
+ * <p>
+ * Input is split into {@link #BLOCK_SIZE} blocks. Each block is compressed independently with raw deflate, primed
+ * with the last 32 KiB of the previous block as dictionary, so that back-references across block boundary are kept
+ * and compression ratio stays close to single-threaded deflate. All blocks, except the last one, are ended with sync
+ * flush (empty stored block), so compressed blocks are byte aligned and can be concatenated into one deflate
+ * stream. Adler-32 checksum is calculated over uncompressed data in the calling thread.
+ * </p>
+ * Created stream is a standard zlib stream and can be decompressed with
+ * {@link org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream}. Compressed bytes differ
+ * from bytes created by {@link org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream}.
+ */
+final class ParallelDeflateOutputStream extends FilterOutputStream implements DeflateLevelControl {
+
+    static final int BLOCK_SIZE = 128 * 1024;
+
+    // deflate window size, max distance for back-references
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final AtomicInteger STREAM_COUNT = new AtomicInteger();
+
+    private final int strategy;
+    private final int maxBlocksInFlight;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final Adler32 adler32 = new Adler32();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int count;
+    private byte[] dictionary;
+    // level for blocks submitted after level change
+    private int level;
+    private final int headerLevel;
+    private boolean headerWritten;
+    private boolean closed;
+
+    /**
+     * @param out compressed zlib stream is written to out
+     * @param workers number of deflate worker threads, must be at least 1
+     * @param level deflate compression level (0-9 or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     *                 {@link Deflater#HUFFMAN_ONLY}
+     */
+    ParallelDeflateOutputStream(OutputStream out, int workers, int level, int strategy) {
+        super(out);
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        checkLevel(level);
+
+        this.level = level;
+        this.headerLevel = level;
+        this.strategy = strategy;
+        // keep workers busy while calling thread writes finished blocks
+        this.maxBlocksInFlight = 2 * workers;
+
+        int streamId = STREAM_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "cdoc2-deflate-" + streamId + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    ParallelDeflateOutputStream(OutputStream out, int workers) {
+        this(out, workers, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Set compression level for blocks submitted after this call. Partially filled block is compressed with level
+     * that is active when block is full.
+     */
+    @Override
+    public void setLevel(int newLevel) {
+        checkLevel(newLevel);
+        this.level = newLevel;
+    }
+
+    private static void checkLevel(int level) {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        adler32.update(b, off, len);
+
+        int remaining = len;
+        int pos = off;
+        while (remaining > 0) {
+            int n = Math.min(remaining, block.length - count);
+            System.arraycopy(b, pos, block, count, n);
+            count += n;
+            pos += n;
+            remaining -= n;
+            if (count == block.length) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Flushes blocks that have already been compressed. Data in partially filled block is not compressed until
+     * block is full or stream is closed, so flush does not change compression result.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeCompleted(false);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            submitBlock(true);
+            writeCompleted(true);
+            writeInt(adler32.getValue());
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] data = block;
+        final int len = count;
+        final byte[] dict = dictionary;
+        final int blockLevel = level;
+
+        pending.add(executor.submit(() -> deflateBlock(data, len, dict, last, blockLevel, strategy)));
+
+        if (!last) {
+            dictionary = Arrays.copyOfRange(data, len - Math.min(len, DICTIONARY_SIZE), len);
+            block = new byte[BLOCK_SIZE];
+            count = 0;
+        }
+
+        if (pending.size() >= maxBlocksInFlight) {
+            writeBlock(pending.poll());
+        }
+    }
+
+    /**
+     * Write compressed blocks in order.
+     * @param all if true, wait until all submitted blocks are compressed, otherwise write only blocks that are
+     *            already done
+     */
+    private void writeCompleted(boolean all) throws IOException {
+        while (!pending.isEmpty() && (all || pending.peek().isDone())) {
+            writeBlock(pending.poll());
+        }
+    }
+
+    private void writeBlock(Future<byte[]> compressed) throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+            headerWritten = true;
+        }
+
+        try {
+            out.write(compressed.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for deflate worker");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Deflate failed", e.getCause());
+        }
+    }
+
+    /**
+     * Write zlib header: deflate with 32K window, no preset dictionary
+     */
+    private void writeHeader() throws IOException {
+        final int cmf = 0x78;
+        final int flevel;
+        if (headerLevel == Deflater.DEFAULT_COMPRESSION || headerLevel == 6) {
+            flevel = 2;
+        } else if (headerLevel < 2) {
+            flevel = 0;
+        } else if (headerLevel < 6) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        int flg = flevel << 6;
+        flg += (31 - ((cmf << 8) + flg) % 31) % 31;
+
+        out.write(cmf);
+        out.write(flg);
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.write((int) (value >>> 24) & 0xFF);
+        out.write((int) (value >>> 16) & 0xFF);
+        out.write((int) (value >>> 8) & 0xFF);
+        out.write((int) value & 0xFF);
+    }
+
+    /**
+     * Compress single block with raw deflate. Non-last block is ended with sync flush, last block is finished.
+     */
+    private static byte[] deflateBlock(byte[] data, int len, byte[] dictionary, boolean last, int level,
+                                       int strategy) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setStrategy(strategy);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, len);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(len / 2 + 64);
+            byte[] buf = new byte[Tar.DEFAULT_BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    compressed.write(buf, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buf, 0, n);
+                } while (n == buf.length || !deflater.needsInput());
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
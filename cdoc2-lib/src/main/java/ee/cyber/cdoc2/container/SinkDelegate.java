@@ -0,0 +1,106 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * {@link TarEntryProcessingDelegate} that writes tar entries to streams supplied by {@link DecryptedEntrySink}.
+ * Nothing is written to the filesystem. When processing or payload MAC check fails, {@link #rollback()} closes
+ * currently open stream and calls {@link DecryptedEntrySink#rollback(List)}.
+ */
+public class SinkDelegate implements TarEntryProcessingDelegate {
+
+    private static final Logger log = LoggerFactory.getLogger(SinkDelegate.class);
+
+    private final DecryptedEntrySink sink;
+
+    /** entries opened by sink */
+    private final List<ArchiveEntry> openedEntries = new ArrayList<>();
+
+    @Nullable
+    private OutputStream entryOutputStream;
+
+    private boolean rolledBack;
+
+    public SinkDelegate(DecryptedEntrySink sink) {
+        this.sink = Objects.requireNonNull(sink);
+    }
+
+    @Override
+    public OP getType() {
+        return OP.STREAM;
+    }
+
+    @Nullable
+    @Override
+    public File onTarEntry(TarArchiveEntry tarEntry) throws IOException {
+        // same rules as for files extracted to directory, see TarDeflate.pathFromTarEntry
+        if (tarEntry.getName() == null) {
+            throw new IOException("Invalid tarEntry without name");
+        }
+        if (Path.of(FileNameValidator.validate(tarEntry.getName())).getParent() != null) {
+            throw new IOException("Entries with directories are not supported (" + tarEntry.getName() + ")");
+        }
+
+        entryOutputStream = sink.openEntry(tarEntry);
+        if (entryOutputStream != null) {
+            openedEntries.add(tarEntry);
+        }
+        return null;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (entryOutputStream != null) {
+            entryOutputStream.write(buf, off, len);
+        }
+    }
+
+    @Override
+    public boolean onEndOfTarEntry() throws IOException {
+        if (entryOutputStream != null) {
+            OutputStream os = entryOutputStream;
+            entryOutputStream = null;
+            os.close();
+            return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public File getOutputDir() {
+        return null;
+    }
+
+    @Override
+    public void rollback() {
+        if (rolledBack) {
+            return;
+        }
+        rolledBack = true;
+
+        if (entryOutputStream != null) {
+            try {
+                entryOutputStream.close();
+            } catch (IOException e) {
+                log.debug("Error closing entry stream: {}", e.toString());
+            }
+            entryOutputStream = null;
+        }
+
+        log.debug("Rollback {} entries", openedEntries.size());
+        sink.rollback(List.copyOf(openedEntries));
+    }
+}
@@ -0,0 +1,203 @@
+package ee.cyber.cdoc2.container;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+
+import ee.cyber.cdoc2.crypto.ChaChaCipher;
+import ee.cyber.cdoc2.fbs.header.PayloadToc;
+import ee.cyber.cdoc2.fbs.header.PayloadTocEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.crypto.SecretKey;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Encrypted table of contents (TOC) of payload archive, stored in optional {@code Header.payload_toc} field.
+ * TOC lists payload entry names and sizes, so that container can be listed without decrypting and inflating
+ * the payload. TOC is serialized as FlatBuffers {@link PayloadToc} and encrypted with ChaCha20-Poly1305 under key
+ * derived from FMK ({@link ee.cyber.cdoc2.crypto.Crypto#deriveTocEncryptionKey(byte[])}). TOC is part of the header,
+ * so it is also covered by header HMAC.
+ * <p>
+ * TOC is written by sender and is not verified against the payload, when container is listed from TOC (payload is
+ * not decrypted and payload Poly1305 MAC is not checked). When payload is extracted or streamed, every tar entry is
+ * compared with the TOC ({@link #verifying(TarEntryProcessingDelegate, List)}), so that TOC listing can't show
+ * different files than are decrypted.
+ * </p>
+ */
+final class TableOfContents {
+    private static final Logger log = LoggerFactory.getLogger(TableOfContents.class);
+
+    /**
+     * Max size of serialized TOC. TOC is part of the header and header size is limited to
+     * {@link Envelope#MAX_HEADER_LEN}, TOC is not created for payloads with bigger TOC.
+     */
+    static final int MAX_TOC_LEN = Envelope.MAX_HEADER_LEN / 2;
+
+    private static final byte[] TOC_AAD = "CDOC20toc".getBytes(StandardCharsets.UTF_8);
+
+    private TableOfContents() {
+    }
+
+    /**
+     * Create encrypted TOC for payload tar entries. Same entries must be used for creating the archive
+     * ({@link Tar#archiveEntries(java.io.OutputStream, List, EncryptionOptions, java.util.function.Consumer)}), so
+     * that TOC names and sizes are the same as in the archive, even if payload files are changed meanwhile.
+     * @param entries tar entries created by {@link Tar#createEntries(Iterable, EncryptionOptions)}
+     * @param tocKey TOC encryption key
+     * @return encrypted TOC or empty Optional, if TOC would exceed {@link #MAX_TOC_LEN}
+     * @throws GeneralSecurityException if TOC encryption has failed
+     */
+    static Optional<byte[]> encrypt(List<TarArchiveEntry> entries, SecretKey tocKey)
+        throws GeneralSecurityException {
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int[] entryOffsets = new int[entries.size()];
+        int i = 0;
+        for (TarArchiveEntry entry : entries) {
+            int nameOffset = builder.createString(entry.getName());
+            entryOffsets[i++] = PayloadTocEntry.createPayloadTocEntry(builder, nameOffset, entry.getSize());
+        }
+        int entriesVector = PayloadToc.createEntriesVector(builder, entryOffsets);
+        builder.finish(PayloadToc.createPayloadToc(builder, entriesVector));
+
+        byte[] toc = builder.sizedByteArray();
+        if (toc.length > MAX_TOC_LEN) {
+            log.info("Table of contents not created, {}B exceeds {}B", toc.length, MAX_TOC_LEN);
+            return Optional.empty();
+        }
+        return Optional.of(ChaChaCipher.encryptPayload(tocKey, toc, TOC_AAD));
+    }
+
+    /**
+     * Decrypt TOC and return listed entries. Entries are checked the same way as payload entries are checked by
+     * {@link TarDeflate}: duplicate names and number of entries over {@link Tar#getTarEntriesThresholdThreshold()}
+     * are not allowed.
+     * @param encryptedToc encrypted TOC from header
+     * @param tocKey TOC encryption key
+     * @return payload entries listed in TOC, in payload order
+     * @throws GeneralSecurityException if TOC decryption (Poly1305 MAC check) has failed
+     * @throws CDocParseException if decrypted TOC is invalid
+     * @throws IOException if TOC contains duplicate entry names
+     * @throws IllegalStateException if TOC entries exceed tar entries threshold
+     */
+    static List<ArchiveEntry> decrypt(ByteBuffer encryptedToc, SecretKey tocKey)
+        throws GeneralSecurityException, CDocParseException, IOException {
+
+        byte[] encrypted = new byte[encryptedToc.remaining()];
+        encryptedToc.duplicate().get(encrypted);
+        PayloadToc toc = PayloadToc.getRootAsPayloadToc(ByteBuffer.wrap(
+            ChaChaCipher.decryptPayload(tocKey, encrypted, TOC_AAD)));
+
+        int tarEntriesThreshold = Tar.getTarEntriesThresholdThreshold();
+        if (toc.entriesLength() > tarEntriesThreshold) {
+            log.error("Tar entries threshold ({}) exceeded.", tarEntriesThreshold);
+            throw new IllegalStateException("Tar entries threshold exceeded. Aborting.");
+        }
+
+        Set<String> names = new HashSet<>();
+        List<ArchiveEntry> entries = new ArrayList<>(toc.entriesLength());
+        for (int i = 0; i < toc.entriesLength(); i++) {
+            PayloadTocEntry tocEntry = toc.entries(i);
+            if (tocEntry.name() == null || tocEntry.size() < 0) {
+                throw new CDocParseException("Invalid table of contents entry " + i);
+            }
+            if (!names.add(tocEntry.name())) {
+                throw new IOException("Duplicate tar entry name found: " + tocEntry.name());
+            }
+            TarArchiveEntry entry = new TarArchiveEntry(tocEntry.name(), true);
+            entry.setSize(tocEntry.size());
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Wrap delegate to check that payload tar entries are the same (order, name and size) as listed in TOC. On
+     * mismatch, IOException is thrown from tar processing, so that created files are deleted and delegate output is
+     * rolled back.
+     * @param delegate delegate processing payload
+     * @param tocEntries entries decrypted from TOC
+     * @return delegate that verifies tar entries against TOC
+     */
+    static TarEntryProcessingDelegate verifying(TarEntryProcessingDelegate delegate, List<ArchiveEntry> tocEntries) {
+        return new VerifyingDelegate(delegate, tocEntries);
+    }
+
+    /**
+     * Compares tar entries with TOC entries before passing them to delegate
+     */
+    private static final class VerifyingDelegate implements TarEntryProcessingDelegate {
+        private final TarEntryProcessingDelegate delegate;
+        private final List<ArchiveEntry> tocEntries;
+        private int index;
+
+        VerifyingDelegate(TarEntryProcessingDelegate delegate, List<ArchiveEntry> tocEntries) {
+            this.delegate = delegate;
+            this.tocEntries = tocEntries;
+        }
+
+        @Override
+        public OP getType() {
+            return delegate.getType();
+        }
+
+        @Nullable
+        @Override
+        public File onTarEntry(TarArchiveEntry tarEntry) throws IOException {
+            if (index >= tocEntries.size()) {
+                throw new IOException("Payload has more entries than table of contents (" + tocEntries.size() + ")");
+            }
+            ArchiveEntry tocEntry = tocEntries.get(index);
+            if (!tocEntry.getName().equals(tarEntry.getName()) || (tocEntry.getSize() != tarEntry.getSize())) {
+                log.error("Payload entry {} doesn't match table of contents", index);
+                throw new IOException("Payload entry " + index + " doesn't match table of contents");
+            }
+            index++;
+            return delegate.onTarEntry(tarEntry);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            delegate.write(buf, off, len);
+        }
+
+        @Override
+        public boolean onEndOfTarEntry() throws IOException {
+            return delegate.onEndOfTarEntry();
+        }
+
+        @Override
+        public void onEndOfTar() throws IOException {
+            if (index != tocEntries.size()) {
+                throw new IOException("Payload has " + index + " entries, table of contents lists "
+                    + tocEntries.size());
+            }
+            delegate.onEndOfTar();
+        }
+
+        @Nullable
+        @Override
+        public File getOutputDir() {
+            return delegate.getOutputDir();
+        }
+
+        @Override
+        public void rollback() {
+            delegate.rollback();
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package ee.cyber.cdoc2.container;
 
+import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream; //zlib
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,10 +12,19 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.zip.Deflater;
+import javax.annotation.Nullable;
 
+import static ee.cyber.cdoc2.CDocConfiguration.COMPRESSION_LEVEL_PROPERTY;
+import static ee.cyber.cdoc2.CDocConfiguration.CIPHER_WORKERS_PROPERTY;
+import static ee.cyber.cdoc2.CDocConfiguration.DEFLATE_WORKERS_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.DISK_USAGE_THRESHOLD_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY;
+import static ee.cyber.cdoc2.CDocConfiguration.METADATA_WORKERS_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY;
 
 
@@ -37,27 +46,78 @@ public final class Tar {
 
     public static final int DEFAULT_TAR_ENTRIES_THRESHOLD = 1000;
 
+    // single-threaded deflate
+    public static final int DEFAULT_DEFLATE_WORKERS = 1;
+
     private Tar() {
     }
 
     static void addFileToTar(TarArchiveOutputStream outputStream, Path file, String entryName) throws IOException {
+        addFileToTar(outputStream, file, entryName, null, EncryptionOptions.defaults());
+    }
+
+    /**
+     * Add file to tar. When levelControl is provided, compression level for entry data is chosen by sampling the
+     * first block of the file, see {@link AdaptiveCompression}.
+     */
+    static void addFileToTar(TarArchiveOutputStream outputStream, Path file, String entryName,
+                             @Nullable DeflateLevelControl levelControl, EncryptionOptions options)
+            throws IOException {
+
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("Not a file: " + file);
+        }
+
+        addEntryToTar(outputStream, outputStream.createArchiveEntry(file.toFile(), entryName), levelControl,
+            options);
+    }
+
+    /**
+     * Add file to tar with entry created before, see {@link TarEntryPrefetch}. File data is read from
+     * {@link TarArchiveEntry#getPath()}.
+     */
+    static void addEntryToTar(TarArchiveOutputStream outputStream, TarArchiveEntry entry,
+                              @Nullable DeflateLevelControl levelControl, EncryptionOptions options)
+            throws IOException {
 
+        Path file = entry.getPath();
+        String entryName = entry.getName();
         log.debug("Adding file {} as {}", file.toAbsolutePath(), entryName);
-        if (Files.isRegularFile(file)) {
-            TarArchiveEntry tarArchiveEntry = outputStream.createArchiveEntry(file.toFile(),
-                    entryName);
-
-            outputStream.putArchiveEntry(tarArchiveEntry);
-            try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
-                long written = input.transferTo(outputStream);
-                log.debug("Added {}B", written);
+
+        outputStream.putArchiveEntry(entry);
+        try (InputStream input = openPayloadFile(file, options.isFileChannelReading())) {
+            long written;
+            if (levelControl == null) {
+                written = input.transferTo(outputStream);
+            } else {
+                byte[] sample = input.readNBytes(AdaptiveCompression.SAMPLE_SIZE);
+                int level = AdaptiveCompression.chooseLevel(sample, sample.length, options.getCompressionLevel());
+                log.debug("Compression level {} for {}", level, entryName);
+
+                levelControl.setLevel(level);
+                try {
+                    outputStream.write(sample);
+                    written = sample.length + input.transferTo(outputStream);
+                } finally {
+                    levelControl.setLevel(options.getCompressionLevel());
+                }
             }
-        } else {
-            throw new IOException("Not a file: " + file);
+            log.debug("Added {}B", written);
         }
         outputStream.closeArchiveEntry();
     }
 
+    /**
+     * Open payload file for reading
+     * @param file payload file
+     * @param useFileChannel if true, file is read through FileChannel (see {@link FileChannelInputStream}),
+     *                       otherwise through buffered InputStream
+     */
+    static InputStream openPayloadFile(Path file, boolean useFileChannel) throws IOException {
+        return useFileChannel
+            ? FileChannelInputStream.open(file)
+            : new BufferedInputStream(Files.newInputStream(file));
+    }
 
     /**
      * Create tar archive of files and compress that with zlib.
@@ -66,13 +126,97 @@ public final class Tar {
      * @throws IOException if an I/O error has occurred
      */
     public static void archiveFiles(OutputStream dest, Iterable<File> files) throws IOException {
+        archiveFiles(dest, files, getDeflateWorkers());
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib.
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param deflateWorkers number of deflate threads, 1 for single-threaded deflate
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFiles(OutputStream dest, Iterable<File> files, int deflateWorkers)
+            throws IOException {
+        archiveFiles(dest, files, EncryptionOptions.defaults().withDeflateWorkers(deflateWorkers));
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib. Compression is configured by options
+     * (deflate workers, compression level and strategy, adaptive compression).
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param options compression options
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFiles(OutputStream dest, Iterable<File> files, EncryptionOptions options)
+            throws IOException {
+        archiveFiles(dest, files, options, entry -> { });
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib.
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param options compression options
+     * @param entryConsumer receives tar entries, after entry data has been added to archive
+     * @throws IOException if an I/O error has occurred
+     */
+    static void archiveFiles(OutputStream dest, Iterable<File> files, EncryptionOptions options,
+                             Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        FileNameValidator.ensureNoFileDuplicates(files);
+        archive(dest, new TarEntryPrefetch(files, options.getMetadataWorkers()), options, entryConsumer);
+    }
+
+    /**
+     * Create tar archive of entries created by {@link #createEntries(Iterable, EncryptionOptions)} and compress
+     * that with zlib. Entry names and sizes in archive are the same as in entries.
+     * @param dest  Compressed tar is written to dest
+     * @param entries tar entries to archive, file data is read from {@link TarArchiveEntry#getPath()}
+     * @param options compression options
+     * @param entryConsumer receives tar entries, after entry data has been added to archive
+     * @throws IOException if an I/O error has occurred
+     */
+    static void archiveEntries(OutputStream dest, List<TarArchiveEntry> entries, EncryptionOptions options,
+                               Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        archive(dest, TarEntryPrefetch.of(entries), options, entryConsumer);
+    }
+
+    private static void archive(OutputStream dest, TarEntryPrefetch entries, EncryptionOptions options,
+                                Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        try (entries) {
+            OutputStream zOs = createZlibOutputStream(dest, options);
+            DeflateLevelControl levelControl = options.isAdaptiveCompression() ? (DeflateLevelControl) zOs : null;
+            try (TarArchiveOutputStream tos = createPosixTarArchiveOutputStream(zOs)) {
+                while (entries.hasNext()) {
+                    TarArchiveEntry entry = entries.next();
+                    addEntryToTar(tos, entry, levelControl, options);
+                    entryConsumer.accept(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create tar entries for payload files. Entries can be used to create table of contents and then archived
+     * with {@link #archiveEntries(OutputStream, List, EncryptionOptions, Consumer)}, so that table of contents
+     * and archive are created from the same file metadata.
+     * @param files payload files
+     * @param options encryption options, {@link EncryptionOptions#getMetadataWorkers()} is used
+     * @return tar entries in file order
+     * @throws IOException if files contain duplicate file names, a file is not a regular file or reading file
+     *      attributes failed
+     */
+    static List<TarArchiveEntry> createEntries(Iterable<File> files, EncryptionOptions options) throws IOException {
         FileNameValidator.ensureNoFileDuplicates(files);
 
-        try (TarArchiveOutputStream tos = createPosixTarZArchiveOutputStream(dest)) {
-            for (File file : files) {
-                addFileToTar(tos, file.toPath(), file.getName());
+        List<TarArchiveEntry> entries = new ArrayList<>();
+        try (TarEntryPrefetch prefetch = new TarEntryPrefetch(files, options.getMetadataWorkers())) {
+            while (prefetch.hasNext()) {
+                entries.add(prefetch.next());
             }
         }
+        return entries;
     }
 
 
@@ -100,8 +244,47 @@ public final class Tar {
      * filename and POSIX big file sizes (over 8GB) extensions enabled.
      */
     public static TarArchiveOutputStream createPosixTarZArchiveOutputStream(OutputStream dest) {
-        TarArchiveOutputStream tarZOs = new TarArchiveOutputStream(new DeflateCompressorOutputStream(
-                new BufferedOutputStream(dest)), StandardCharsets.UTF_8.name());
+        return createPosixTarZArchiveOutputStream(dest, DEFAULT_DEFLATE_WORKERS);
+    }
+
+    /**
+     * Create zlib/deflate compressed POSIX compliant TarArchiveOutputStream. Same as
+     * {@link #createPosixTarZArchiveOutputStream(OutputStream)}, but deflate is done by deflateWorkers threads
+     * when deflateWorkers is over 1 (see {@link ParallelDeflateOutputStream}).
+     * @param dest compressed tar is written to dest
+     * @param deflateWorkers number of deflate threads, 1 for single-threaded deflate
+     */
+    public static TarArchiveOutputStream createPosixTarZArchiveOutputStream(OutputStream dest, int deflateWorkers) {
+        if (deflateWorkers < 1) {
+            throw new IllegalArgumentException("deflateWorkers must be at least 1");
+        }
+
+        return createPosixTarArchiveOutputStream(createZlibOutputStream(dest, deflateWorkers,
+            Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+    }
+
+    /**
+     * Create zlib stream configured by options. Created stream implements {@link DeflateLevelControl}
+     */
+    static OutputStream createZlibOutputStream(OutputStream dest, EncryptionOptions options) {
+        return createZlibOutputStream(dest, options.getDeflateWorkers(), options.getCompressionLevel(),
+            options.getCompressionStrategy());
+    }
+
+    private static OutputStream createZlibOutputStream(OutputStream dest, int deflateWorkers, int level,
+                                                       int strategy) {
+        return (deflateWorkers == 1)
+            ? new ZlibOutputStream(new BufferedOutputStream(dest), level, strategy)
+            : new ParallelDeflateOutputStream(new BufferedOutputStream(dest), deflateWorkers, level, strategy);
+    }
+
+    /**
+     * Create POSIX compliant TarArchiveOutputStream with UTF-8 filenames and POSIX long filename and POSIX big file
+     * sizes (over 8GB) extensions enabled.
+     * @param zOs compressing stream where tar is written
+     */
+    static TarArchiveOutputStream createPosixTarArchiveOutputStream(OutputStream zOs) {
+        TarArchiveOutputStream tarZOs = new TarArchiveOutputStream(zOs, StandardCharsets.UTF_8.name());
         tarZOs.setAddPaxHeadersForNonAsciiNames(true);
         tarZOs.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
         tarZOs.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
@@ -145,6 +328,46 @@ public final class Tar {
         return getNumberPropertyValue(TAR_ENTRIES_THRESHOLD_PROPERTY, DEFAULT_TAR_ENTRIES_THRESHOLD, Integer::valueOf);
     }
 
+    /**
+     * @return number of deflate threads configured with {@link ee.cyber.cdoc2.CDocConfiguration
+     *     #DEFLATE_WORKERS_PROPERTY}, values less than 1 are replaced with 1
+     */
+    public static int getDeflateWorkers() {
+        return Math.max(1, getNumberPropertyValue(DEFLATE_WORKERS_PROPERTY, DEFAULT_DEFLATE_WORKERS,
+                Integer::valueOf));
+    }
+
+    /**
+     * @return number of chunked payload encryption/decryption threads configured with
+     *     {@link ee.cyber.cdoc2.CDocConfiguration#CIPHER_WORKERS_PROPERTY}, values less than 1 are replaced with 1
+     */
+    public static int getCipherWorkers() {
+        return Math.max(1, getNumberPropertyValue(CIPHER_WORKERS_PROPERTY, 1, Integer::valueOf));
+    }
+
+    /**
+     * @return number of threads reading payload file metadata configured with
+     *     {@link ee.cyber.cdoc2.CDocConfiguration#METADATA_WORKERS_PROPERTY}, values less than 1 are replaced with 1
+     */
+    public static int getMetadataWorkers() {
+        return Math.max(1, getNumberPropertyValue(METADATA_WORKERS_PROPERTY, 1, Integer::valueOf));
+    }
+
+    /**
+     * @return deflate compression level configured with {@link ee.cyber.cdoc2.CDocConfiguration
+     *     #COMPRESSION_LEVEL_PROPERTY}. Invalid values are replaced with {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static int getCompressionLevel() {
+        int level = getNumberPropertyValue(COMPRESSION_LEVEL_PROPERTY, Deflater.DEFAULT_COMPRESSION,
+                Integer::valueOf);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            log.warn("Invalid value {} for {}. Using default {}", level, COMPRESSION_LEVEL_PROPERTY,
+                    Deflater.DEFAULT_COMPRESSION);
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return level;
+    }
+
     public static double getCompressionRatioThreshold() {
         return getNumberPropertyValue(GZIP_COMPRESSION_THRESHOLD_PROPERTY,
                 DEFAULT_COMPRESSION_RATIO_THRESHOLD, Double::valueOf);
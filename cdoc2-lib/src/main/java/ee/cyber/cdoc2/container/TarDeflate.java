@@ -1,6 +1,7 @@
 package ee.cyber.cdoc2.container;
 
 import ee.cyber.cdoc2.CDocConfiguration;
+import ee.cyber.cdoc2.metrics.TarEntryEvent;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
@@ -17,8 +18,12 @@ import java.io.InputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * AutoCloseable tarDeflate stream extractor. If any exception is thrown
@@ -106,10 +111,29 @@ public class TarDeflate implements AutoCloseable {
         TarEntryProcessingDelegate tarEntryProcessingDelegate
     ) throws IOException {
 
+        List<ArchiveEntry> processedArchiveEntries = new ArrayList<>();
+        process(tarEntryProcessingDelegate, processedArchiveEntries::add);
+        return processedArchiveEntries;
+    }
+
+    /**
+     * Process archive and pass processed entries to entryConsumer as they are found, processed entries are not
+     * retained.
+     * @param tarEntryProcessingDelegate processing to be done with archive. Contains output type specific parameters
+     * @param entryConsumer receives processed entries (ignored entries are not passed), entries are
+     *      {@link TarEntryRecord} when {@link CDocConfiguration#isCompactTarEntriesEnabled()}
+     * @return number of entries processed
+     * @throws IOException if an I/O error has occurred
+     */
+    public long process(
+        TarEntryProcessingDelegate tarEntryProcessingDelegate,
+        Consumer<ArchiveEntry> entryConsumer
+    ) throws IOException {
+
         // wrap doProcess to record any thrown exception,
         // so that close() can delete created files or do other clean up when exception was thrown
         try {
-            return doProcess(tarEntryProcessingDelegate);
+            return doProcess(tarEntryProcessingDelegate, entryConsumer);
         } catch (Exception ex) {
             exception = ex;
             throw ex;
@@ -119,66 +143,72 @@ public class TarDeflate implements AutoCloseable {
     /**
      * Process tar deflate input stream and find entries in it. Process entries based on operation:
      * @param delegate TarEntryProcessingDelegate used to process tar entries in tar input stream
-     * @return List<ArchiveEntry> list of TarArchiveEntry processed in tarGZipInputStream (ignored entries are not
-     *      returned)
+     * @param entryConsumer receives entries processed in tarGZipInputStream (ignored entries are not passed)
+     * @return number of entries processed
      * @throws IOException if an I/O error has occurred
      */
-    private List<ArchiveEntry> doProcess(
-        TarEntryProcessingDelegate delegate
+    private long doProcess(
+        TarEntryProcessingDelegate delegate,
+        Consumer<ArchiveEntry> entryConsumer
     ) throws IOException {
 
         if (delegate.getType() == TarEntryProcessingDelegate.OP.EXTRACT) {
             log.info("Extracting to {}", delegate.getOutputDir().toPath().normalize());
         }
 
-        List<ArchiveEntry> processedArchiveEntries = new LinkedList<>();
+        // names of processed entries for duplicate detection
+        Set<String> processedNames = new HashSet<>();
+        long processedCount = 0;
 
         int tarEntriesThreshold = Tar.getTarEntriesThresholdThreshold();
+        boolean compactEntries = CDocConfiguration.isCompactTarEntriesEnabled();
+        DiskSpaceBudget diskSpaceBudget = DiskSpaceBudget.forDirectory(delegate.getOutputDir(),
+            Tar.getDiskUsedPercentageThreshold());
         TarArchiveEntry tarArchiveEntry;
         while ((tarArchiveEntry = tarIs.getNextEntry()) != null) {
 
-            checkExistingTarEntryName(processedArchiveEntries, tarArchiveEntry);
+            checkExistingTarEntryName(processedNames, tarArchiveEntry);
 
-            if (processTarEntry(delegate, tarArchiveEntry, tarIs, zLibIs)) {
-                processedArchiveEntries.add(tarArchiveEntry);
+            if (processTarEntry(delegate, tarArchiveEntry, tarIs, zLibIs, diskSpaceBudget)) {
+                processedNames.add(tarArchiveEntry.getName());
+                processedCount++;
+                entryConsumer.accept(compactEntries ? TarEntryRecord.of(tarArchiveEntry) : tarArchiveEntry);
             }
 
-            checkTarEntriesThreshold(processedArchiveEntries, tarEntriesThreshold);
+            checkTarEntriesThreshold(processedCount, tarEntriesThreshold);
         }
+        delegate.onEndOfTar();
 
         log.debug("Uncompressed {}B from {}B (compressed)",
             zLibIs.getUncompressedCount(), zLibIs.getCompressedCount());
 
         checkUnExpectedDataAfterTar();
 
-        return processedArchiveEntries;
+        return processedCount;
     }
 
     /**
      * Check whether entries in archive threshold has exceeded. Throws exception, when threshold has been exceeded.
-     * @param processedArchiveEntries entries already processed
+     * @param processedCount number of entries already processed
      * @param tarEntriesThreshold threshold to check
      */
-    private static void checkTarEntriesThreshold(List<ArchiveEntry> processedArchiveEntries, int tarEntriesThreshold) {
-        if (processedArchiveEntries.size() > tarEntriesThreshold) {
+    private static void checkTarEntriesThreshold(long processedCount, int tarEntriesThreshold) {
+        if (processedCount > tarEntriesThreshold) {
             log.error("Tar entries threshold ({}) exceeded.", tarEntriesThreshold);
             throw new IllegalStateException("Tar entries threshold exceeded. Aborting.");
         }
     }
 
     /**
-     * Throws exception if archive entry with the same name is already part of processedArchiveEntries.
-     * @param processedArchiveEntries list containing entries that have already been processed
+     * Throws exception if archive entry with the same name has already been processed.
+     * @param processedNames names of entries that have already been processed
      * @param tarArchiveEntry archive entry to check
      * @throws IOException
      */
-    private static void checkExistingTarEntryName(List<ArchiveEntry> processedArchiveEntries,
+    private static void checkExistingTarEntryName(Set<String> processedNames,
                                                   TarArchiveEntry tarArchiveEntry
     ) throws IOException {
-        if (processedArchiveEntries.stream()
-            .map(ArchiveEntry::getName)
-            .toList()
-            .contains(tarArchiveEntry.getName())) {
+        if (processedNames.contains(tarArchiveEntry.getName())) {
             throw new IOException("Duplicate tar entry name found: " + tarArchiveEntry.getName());
         }
     }
@@ -232,6 +262,7 @@ public class TarDeflate implements AutoCloseable {
      * @param delegate TarEntryProcessing that is used for tarArchiveEntry processing
      * @param fromTarInputStream tar input stream currently processed
      * @param inputStreamStatistics InputStreamStatistics that wraps fromTarInputStream
+     * @param diskSpaceBudget disk space available for output
      * @return if tarArchiveEntry was processed. If false and no exception, then tarArchive was ignored.
      * @throws IOException if an I/O error occurs
      */
@@ -239,40 +270,52 @@ public class TarDeflate implements AutoCloseable {
                                   TarEntryProcessingDelegate delegate,
                                   TarArchiveEntry tarArchiveEntry,
                                   TarArchiveInputStream fromTarInputStream,
-                                  InputStreamStatistics inputStreamStatistics
+                                  InputStreamStatistics inputStreamStatistics,
+                                  DiskSpaceBudget diskSpaceBudget
     ) throws IOException {
 
-        double diskUsageThreshold = Tar.getDiskUsedPercentageThreshold();
         long written = 0;
-        boolean processed;
+        boolean processed = false;
+        long compressedStart = inputStreamStatistics.getCompressedCount();
+        TarEntryEvent event = TarEntryEvent.begin(OperationRecorder.operationOf(delegate), tarArchiveEntry.getSize());
 
-        if (tarArchiveEntry.isFile()) {
-            log.debug("Found: {} {}B", tarArchiveEntry.getName(), tarArchiveEntry.getSize());
+        try {
+            if (tarArchiveEntry.isFile()) {
+                log.debug("Found: {} {}B", tarArchiveEntry.getName(), tarArchiveEntry.getSize());
 
-            File createdFile = delegate.onTarEntry(tarArchiveEntry);
-            if (createdFile != null) {
-                createdFiles.add(createdFile);
-            }
+                File createdFile = delegate.onTarEntry(tarArchiveEntry);
+                if (createdFile != null) {
+                    createdFiles.add(createdFile);
+                    // fail before writing, when entry doesn't fit on disk
+                    diskSpaceBudget.reserve(tarArchiveEntry.getSize());
+                }
 
-            byte[] buffer = new byte[Tar.DEFAULT_BUFFER_SIZE];
-            int read;
-            while ((read = fromTarInputStream.read(buffer, 0, Tar.DEFAULT_BUFFER_SIZE)) >= 0) {
+                byte[] buffer = new byte[Tar.DEFAULT_BUFFER_SIZE];
+                int read;
+                while ((read = fromTarInputStream.read(buffer, 0, Tar.DEFAULT_BUFFER_SIZE)) >= 0) {
 
-                //check available disk space
-                checkAvailableDiskSpace(delegate.getOutputDir(), diskUsageThreshold);
+                    //check available disk space, free space is sampled only periodically
+                    diskSpaceBudget.consume(read);
 
-                delegate.write(buffer, 0, read);
-                written += read;
+                    delegate.write(buffer, 0, read);
+                    written += read;
 
-                checkCompressionRatioThreshold(tarArchiveEntry, inputStreamStatistics);
-            }
+                    checkCompressionRatioThreshold(tarArchiveEntry, inputStreamStatistics);
+                }
 
-            processed = delegate.onEndOfTarEntry();
+                processed = delegate.onEndOfTarEntry();
 
-            log.debug("Transferred {} {}B", tarArchiveEntry.getName(), written);
+                log.debug("Transferred {} {}B", tarArchiveEntry.getName(), written);
 
-        } else {
-            throw Tar.logTarEntryIllegalTypeAndThrow(tarArchiveEntry.getName());
+            } else {
+                throw Tar.logTarEntryIllegalTypeAndThrow(tarArchiveEntry.getName());
+            }
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            event.setResult(written, inputStreamStatistics.getCompressedCount() - compressedStart, processed);
+            event.commit();
         }
 
         return processed;
@@ -297,24 +340,6 @@ public class TarDeflate implements AutoCloseable {
         }
     }
 
-    /**
-     * Throws exception when disk usage is above diskUsageThreshold
-     * @param destDir directory (and partition) where available disk space is checked
-     * @param diskUsageThreshold
-     */
-    private static void checkAvailableDiskSpace(File destDir, double diskUsageThreshold) {
-        if ((destDir != null) && (destDir.exists())) {
-            double usedPercentage = (double) destDir.getUsableSpace()
-                / (double) destDir.getTotalSpace() * 100;
-
-            if (usedPercentage >= diskUsageThreshold) {
-                String err = String.format("More than  %.2f%% disk space used. Aborting", diskUsageThreshold);
-                log.error(err);
-                throw new IllegalStateException(err);
-            }
-        }
-    }
-
     /**
      * After tar processing has finished (2 blocks of 0x00 bytes), then deflate will stop processing.
      * Throw exception when there is more bytes after tar end blocks.
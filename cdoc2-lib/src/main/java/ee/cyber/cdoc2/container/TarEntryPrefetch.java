@@ -0,0 +1,150 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates tar entries for payload files in file order. Creating {@link TarArchiveEntry} from a file queries file
+ * type, size, modification time, owner and permissions with several system calls, which dominates archiving time
+ * when payload consists of very many small files. With more than one worker, entries for following files are
+ * created ahead on worker threads, while current file is archived.
+ * <p>
+ * At most {@link #ENTRIES_PER_WORKER} * workers entries are created ahead, so memory use doesn't depend on number
+ * of files. Entries are returned in the same order as files, so created archive is the same for any number of
+ * workers.
+ * </p>
+ */
+final class TarEntryPrefetch implements Closeable {
+
+    /** entries created ahead per worker */
+    static final int ENTRIES_PER_WORKER = 16;
+
+    private static final AtomicInteger PREFETCH_COUNT = new AtomicInteger();
+
+    private final Iterator<File> files;
+    private final int maxEntriesInFlight;
+    @Nullable
+    private final ExecutorService executor;
+    private final Deque<Future<TarArchiveEntry>> pending = new ArrayDeque<>();
+
+    /**
+     * @param files payload files
+     * @param workers number of metadata threads, 1 creates entries in calling thread
+     */
+    TarEntryPrefetch(Iterable<File> files, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.files = files.iterator();
+
+        if (workers > 1) {
+            this.maxEntriesInFlight = ENTRIES_PER_WORKER * workers;
+            int prefetchId = PREFETCH_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "cdoc2-metadata-" + prefetchId + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.maxEntriesInFlight = 1;
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Returns entries created before by {@link Tar#createEntries(Iterable, EncryptionOptions)}
+     * @param entries tar entries, in archive order
+     */
+    private TarEntryPrefetch(List<TarArchiveEntry> entries) {
+        this.files = Collections.emptyIterator();
+        this.maxEntriesInFlight = 1;
+        this.executor = null;
+        entries.forEach(entry -> pending.add(CompletableFuture.completedFuture(entry)));
+    }
+
+    /**
+     * @param entries tar entries created before, in archive order
+     * @return TarEntryPrefetch returning entries without reading file attributes again
+     */
+    static TarEntryPrefetch of(List<TarArchiveEntry> entries) {
+        return new TarEntryPrefetch(entries);
+    }
+
+    boolean hasNext() {
+        return !pending.isEmpty() || files.hasNext();
+    }
+
+    /**
+     * @return tar entry for next file, named after file name. Use {@link TarArchiveEntry#getPath()} to read the
+     *      file
+     * @throws IOException if file is not a regular file or reading file attributes failed
+     */
+    TarArchiveEntry next() throws IOException {
+        while (files.hasNext() && pending.size() < maxEntriesInFlight) {
+            File file = files.next();
+            Callable<TarArchiveEntry> create = () -> createEntry(file);
+            if (executor != null) {
+                pending.add(executor.submit(create));
+            } else {
+                FutureTask<TarArchiveEntry> task = new FutureTask<>(create);
+                task.run();
+                pending.add(task);
+            }
+        }
+        if (pending.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for metadata worker");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Reading file attributes failed", e.getCause());
+        }
+    }
+
+    /**
+     * Create tar entry for a regular file
+     */
+    static TarArchiveEntry createEntry(File file) throws IOException {
+        Path path = file.toPath();
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("Not a file: " + path);
+        }
+        return new TarArchiveEntry(file, file.getName());
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
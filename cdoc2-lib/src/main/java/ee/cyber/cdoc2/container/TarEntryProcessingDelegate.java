@@ -14,6 +14,7 @@ import java.io.IOException;
  * * Extract - extract files from tar input stream to destination directory
  * * Transfer - copy tar entries from input tar stream to output tar stream. Useful for re-encryption.
  * * List - list tar entries found from tar input stream
+ * * Stream - write tar entries to caller supplied streams, see {@link SinkDelegate}
  * @see {@link TarDeflate#processTarEntry(TarEntryProcessingDelegate, TarArchiveEntry,
  * TarArchiveInputStream, InputStreamStatistics)}
  */
@@ -28,7 +29,9 @@ public interface TarEntryProcessingDelegate {
         /** No extraction, return list of files in archive*/
         LIST,
         /** Transfer (copy) files to other tar for re-encryption*/
-        TRANSFER
+        TRANSFER,
+        /** Write files to streams supplied by caller, no files are created*/
+        STREAM
     }
 
     OP getType();
@@ -58,10 +61,27 @@ public interface TarEntryProcessingDelegate {
      */
     boolean onEndOfTarEntry() throws IOException;
 
+    /**
+     * Called after all tar entries have been processed, before payload Poly1305 MAC check
+     * @throws IOException if tar entries were not valid for the delegate
+     */
+    default void onEndOfTar() throws IOException {
+        // no checks by default
+    }
+
     /**
      * Get directory where output is written. May be null
      * (for example for list or when output is not on filesystem)
      */
     @Nullable File getOutputDir();
 
+    /**
+     * Called when tar processing or payload Poly1305 MAC check has failed. Output written outside of
+     * {@link #getOutputDir()} (created files returned by {@link #onTarEntry(TarArchiveEntry)} are deleted by
+     * {@link TarDeflate}) must be discarded. May be called more than once.
+     */
+    default void rollback() {
+        // nothing to roll back by default
+    }
+
 }
@@ -0,0 +1,47 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Compact record of processed tar entry. {@link TarArchiveEntry} keeps all tar header fields (user, group, link
+ * name, PAX headers etc.), record keeps only fields used by library users. See
+ * {@link ee.cyber.cdoc2.CDocConfiguration#COMPACT_TAR_ENTRIES_PROPERTY}
+ * @param name entry name
+ * @param size entry size in bytes
+ * @param lastModifiedMillis entry modification time in milliseconds since the epoch
+ */
+record TarEntryRecord(String name, long size, long lastModifiedMillis) implements ArchiveEntry {
+
+    TarEntryRecord {
+        Objects.requireNonNull(name);
+    }
+
+    static TarEntryRecord of(TarArchiveEntry tarEntry) {
+        return new TarEntryRecord(tarEntry.getName(), tarEntry.getSize(), tarEntry.getModTime().getTime());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        // only regular files are supported
+        return false;
+    }
+
+    @Override
+    public Date getLastModifiedDate() {
+        return new Date(lastModifiedMillis);
+    }
+}
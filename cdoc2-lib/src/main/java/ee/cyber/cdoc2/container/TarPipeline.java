@@ -0,0 +1,392 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+
+/**
+ * Pipelined version of {@link Tar#archiveFiles(OutputStream, Iterable)}. Payload is processed by three stages,
+ * each running in its own thread:
+ * <ol>
+ *     <li>read - reads payload files into buffers</li>
+ *     <li>tar+deflate - creates tar entries and compresses them with zlib</li>
+ *     <li>output - writes compressed stream to dest (usually ChaCha20-Poly1305 cipher stream). Runs in calling
+ *     thread</li>
+ * </ol>
+ * Stages are connected with bounded hand-off buffers, so memory usage is limited to
+ * 2 * {@link #PIPELINE_DEPTH} * {@link #PIPELINE_BUFFER_SIZE} bytes. Created tar zlib stream is the same as created
+ * by {@link Tar#archiveFiles(OutputStream, Iterable, EncryptionOptions)}.
+ */
+final class TarPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(TarPipeline.class);
+
+    static final int PIPELINE_BUFFER_SIZE = 1024 * 1024;
+    static final int PIPELINE_DEPTH = 4;
+
+    private static final AtomicInteger PIPELINE_COUNT = new AtomicInteger();
+
+    private TarPipeline() {
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib. File reading and tar+deflate are run in separate
+     * threads, writing to dest is done by the calling thread.
+     * @param dest  Compressed tar is written to dest. dest is not closed.
+     * @param files to archive
+     * @param options compression options used by tar+deflate stage
+     * @throws IOException if an I/O error has occurred
+     */
+    static void archiveFiles(OutputStream dest, List<File> files, EncryptionOptions options) throws IOException {
+        archiveFiles(dest, files, options, entry -> { });
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib, see
+     * {@link #archiveFiles(OutputStream, List, EncryptionOptions)}.
+     * @param entryConsumer receives tar entries from the read stage, after entry data has been read
+     */
+    static void archiveFiles(OutputStream dest, List<File> files, EncryptionOptions options,
+                             Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        FileNameValidator.ensureNoFileDuplicates(files);
+        archive(dest, new TarEntryPrefetch(files, options.getMetadataWorkers()), options, entryConsumer);
+    }
+
+    /**
+     * Create tar archive of entries created by {@link Tar#createEntries(Iterable, EncryptionOptions)} and compress
+     * that with zlib, see {@link #archiveFiles(OutputStream, List, EncryptionOptions)}.
+     * @param entries tar entries to archive, file data is read from {@link TarArchiveEntry#getPath()}
+     * @param entryConsumer receives tar entries from the read stage, after entry data has been read
+     */
+    static void archiveEntries(OutputStream dest, List<TarArchiveEntry> entries, EncryptionOptions options,
+                               Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        archive(dest, TarEntryPrefetch.of(entries), options, entryConsumer);
+    }
+
+    private static void archive(OutputStream dest, TarEntryPrefetch entries, EncryptionOptions options,
+                                Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        Channel read = new Channel(PIPELINE_DEPTH, PIPELINE_BUFFER_SIZE);
+        Channel compressed = new Channel(PIPELINE_DEPTH, PIPELINE_BUFFER_SIZE);
+
+        int pipelineId = PIPELINE_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "cdoc2-encrypt-" + pipelineId + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            Future<Void> reader = executor.submit(() -> {
+                readFiles(entries, read, options, entryConsumer);
+                return null;
+            });
+            Future<Void> archiver = executor.submit(() -> {
+                tarAndDeflate(read, compressed, options);
+                return null;
+            });
+
+            boolean completed = false;
+            try {
+                completed = writeOutput(compressed, dest);
+            } finally {
+                if (!completed) {
+                    // unblock stages still waiting for hand-off buffers
+                    executor.shutdownNow();
+                }
+            }
+
+            rethrowStageFailure(List.of(reader, archiver));
+            if (!completed) {
+                throw new IOException("Pipelined encryption aborted");
+            }
+        } finally {
+            executor.shutdownNow();
+            entries.close();
+        }
+    }
+
+    /**
+     * Read stage. For each file, send entry, file contents and end of entry to out
+     */
+    private static void readFiles(TarEntryPrefetch entries, Channel out, EncryptionOptions options,
+                                  Consumer<ArchiveEntry> entryConsumer) throws IOException {
+        try (entries) {
+            while (entries.hasNext()) {
+                TarArchiveEntry entry = entries.next();
+                Path path = entry.getPath();
+                log.debug("Adding file {} as {}", path.toAbsolutePath(), entry.getName());
+
+                out.send(Item.entry(entry));
+                try (InputStream input = options.isFileChannelReading()
+                        ? FileChannelInputStream.open(path)
+                        : Files.newInputStream(path)) {
+                    long written = 0;
+                    byte[] buf = out.takeBuffer();
+                    int read;
+                    while ((read = input.readNBytes(buf, 0, buf.length)) > 0) {
+                        out.send(Item.data(buf, read));
+                        written += read;
+                        buf = out.takeBuffer();
+                    }
+                    out.returnBuffer(buf);
+                    log.debug("Added {}B", written);
+                }
+                out.send(Item.END_OF_ENTRY);
+                entryConsumer.accept(entry);
+            }
+            out.send(Item.END);
+        } catch (IOException | RuntimeException ex) {
+            out.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * tar+deflate stage. Create tar zlib stream from items received from in and send compressed bytes to out
+     */
+    private static void tarAndDeflate(Channel in, Channel out, EncryptionOptions options) throws IOException {
+        try {
+            OutputStream zOs = Tar.createZlibOutputStream(new ChannelOutputStream(out), options);
+            DeflateLevelControl levelControl = options.isAdaptiveCompression() ? (DeflateLevelControl) zOs : null;
+            TarArchiveOutputStream tos = Tar.createPosixTarArchiveOutputStream(zOs);
+            TarArchiveEntry entryStart = null;
+            Item item;
+            while ((item = in.receive()) != Item.END) {
+                if (item == Item.ABORTED) {
+                    // reader has failed, tar stream is left unfinished
+                    out.abort();
+                    return;
+                } else if (item == Item.END_OF_ENTRY) {
+                    tos.closeArchiveEntry();
+                    if (levelControl != null) {
+                        levelControl.setLevel(options.getCompressionLevel());
+                    }
+                } else if (item.entry() != null) {
+                    tos.putArchiveEntry(item.entry());
+                    entryStart = item.entry();
+                } else {
+                    if (entryStart != null && levelControl != null) {
+                        // same sample as Tar.addFileToTar
+                        int level = AdaptiveCompression.chooseLevel(item.buf(),
+                            Math.min(item.len(), AdaptiveCompression.SAMPLE_SIZE), options.getCompressionLevel());
+                        log.debug("Compression level {} for {}", level, entryStart.getName());
+                        levelControl.setLevel(level);
+                    }
+                    entryStart = null;
+                    // same write sizes as InputStream.transferTo in Tar.addFileToTar, deflate output depends on
+                    // write sizes and this keeps output identical to Tar.archiveFiles
+                    for (int off = 0; off < item.len(); off += Tar.DEFAULT_BUFFER_SIZE) {
+                        tos.write(item.buf(), off, Math.min(Tar.DEFAULT_BUFFER_SIZE, item.len() - off));
+                    }
+                    in.returnBuffer(item.buf());
+                }
+            }
+            tos.close(); // finish tar and zlib streams, sends END to out
+        } catch (IOException | RuntimeException ex) {
+            out.abort();
+            throw ex;
+        }
+    }
+
+    /**
+     * Output stage.
+     * @return true if all bytes were written to dest, false if pipeline was aborted by other stage
+     */
+    private static boolean writeOutput(Channel in, OutputStream dest) throws IOException {
+        Item item;
+        while ((item = in.receive()) != Item.END) {
+            if (item == Item.ABORTED) {
+                return false;
+            }
+            dest.write(item.buf(), 0, item.len());
+            in.returnBuffer(item.buf());
+        }
+        dest.flush();
+        return true;
+    }
+
+    /**
+     * Wait until stages have finished and re-throw first stage failure. Failure caused by interrupting
+     * (pipeline shutdown) is only reported when there is no other failure.
+     */
+    private static void rethrowStageFailure(List<Future<Void>> stages) throws IOException {
+        Throwable failure = null;
+        for (Future<Void> stage : stages) {
+            try {
+                stage.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for encryption pipeline");
+            } catch (ExecutionException e) {
+                if ((failure == null) || (failure instanceof InterruptedIOException)) {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        if (failure instanceof IOException ioException) {
+            throw ioException;
+        } else if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (failure instanceof Error error) {
+            throw error;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * Item passed between pipeline stages. Either tar entry start, data buffer or one of the markers
+     */
+    private record Item(@Nullable TarArchiveEntry entry, @Nullable byte[] buf, int len) {
+        static final Item END_OF_ENTRY = new Item(null, null, 0);
+        static final Item END = new Item(null, null, 0);
+        static final Item ABORTED = new Item(null, null, 0);
+
+        static Item entry(TarArchiveEntry tarEntry) {
+            return new Item(tarEntry, null, 0);
+        }
+
+        static Item data(byte[] data, int length) {
+            return new Item(null, data, length);
+        }
+    }
+
+    /**
+     * Bounded hand-off between two stages. Buffers are recycled through free buffers queue, producer blocks when
+     * all buffers are in use.
+     */
+    private static final class Channel {
+        private final BlockingQueue<Item> items;
+        private final BlockingQueue<byte[]> freeBuffers;
+
+        Channel(int depth, int bufferSize) {
+            // data items are limited by buffers, entry markers by items queue
+            this.items = new ArrayBlockingQueue<>(depth * 16);
+            this.freeBuffers = new ArrayBlockingQueue<>(depth);
+            for (int i = 0; i < depth; i++) {
+                freeBuffers.add(new byte[bufferSize]);
+            }
+        }
+
+        byte[] takeBuffer() throws InterruptedIOException {
+            try {
+                return freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Encryption pipeline interrupted");
+            }
+        }
+
+        void returnBuffer(byte[] buf) {
+            freeBuffers.offer(buf);
+        }
+
+        void send(Item item) throws InterruptedIOException {
+            try {
+                items.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Encryption pipeline interrupted");
+            }
+        }
+
+        Item receive() throws InterruptedIOException {
+            try {
+                return items.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Encryption pipeline interrupted");
+            }
+        }
+
+        /**
+         * Signal consumer that producer has failed. Does not block, if consumer is not reading anymore
+         * (has failed), then consumer thread is interrupted by pipeline shutdown
+         */
+        void abort() {
+            items.clear();
+            if (!items.offer(Item.ABORTED)) {
+                log.debug("Could not signal pipeline abort");
+            }
+        }
+    }
+
+    /**
+     * OutputStream that fills channel buffers and sends them to channel when full
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final Channel channel;
+        private byte[] buf;
+        private int count;
+        private boolean closed;
+
+        ChannelOutputStream(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int remaining = len;
+            int pos = off;
+            while (remaining > 0) {
+                if (buf == null) {
+                    buf = channel.takeBuffer();
+                    count = 0;
+                }
+                int n = Math.min(remaining, buf.length - count);
+                System.arraycopy(b, pos, buf, count, n);
+                count += n;
+                pos += n;
+                remaining -= n;
+                if (count == buf.length) {
+                    sendBuffer();
+                }
+            }
+        }
+
+        private void sendBuffer() throws InterruptedIOException {
+            channel.send(Item.data(buf, count));
+            buf = null;
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (buf != null && count > 0) {
+                    sendBuffer();
+                }
+                channel.send(Item.END);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * zlib (RFC 1950) compressing OutputStream, where compression level can be changed between writes. With default
+ * level and strategy, created stream is the same as created by
+ * {@link org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream}.
+ * <p>
+ * Level changes are applied by {@link Deflater#setLevel(int)}, which ends current deflate block on next write, so
+ * output is still a single standard zlib stream.
+ * </p>
+ */
+final class ZlibOutputStream extends DeflaterOutputStream implements DeflateLevelControl {
+
+    /**
+     * @param out compressed stream is written to out
+     * @param level deflate compression level (0-9 or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     *                 {@link Deflater#HUFFMAN_ONLY}
+     */
+    ZlibOutputStream(OutputStream out, int level, int strategy) {
+        super(out, createDeflater(level, strategy));
+    }
+
+    private static Deflater createDeflater(int level, int strategy) {
+        Deflater deflater = new Deflater(level, false);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    /**
+     * Finish compressed stream, close underlying stream and release deflater native resources
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            def.end();
+        }
+    }
+
+    @Override
+    public void setLevel(int level) {
+        def.setLevel(level);
+    }
+}
@@ -0,0 +1,298 @@
+package ee.cyber.cdoc2.container.recipients;
+
+import ee.cyber.cdoc2.container.CDocParseException;
+import ee.cyber.cdoc2.container.UnknownFlatBufferTypeException;
+import ee.cyber.cdoc2.crypto.ECKeys;
+import ee.cyber.cdoc2.crypto.KeyLabelTools;
+import ee.cyber.cdoc2.crypto.RsaUtils;
+import ee.cyber.cdoc2.fbs.header.Header;
+import ee.cyber.cdoc2.fbs.header.RecipientRecord;
+import ee.cyber.cdoc2.fbs.recipients.ECCPublicKeyCapsule;
+import ee.cyber.cdoc2.fbs.recipients.EccKeyDetails;
+import ee.cyber.cdoc2.fbs.recipients.KeyDetailsUnion;
+import ee.cyber.cdoc2.fbs.recipients.KeyServerCapsule;
+import ee.cyber.cdoc2.fbs.recipients.RSAPublicKeyCapsule;
+import ee.cyber.cdoc2.fbs.recipients.RsaKeyDetails;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_ECCPublicKeyCapsule;
+import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_KeyServerCapsule;
+import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_PBKDF2Capsule;
+import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_RSAPublicKeyCapsule;
+import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_SymmetricKeyCapsule;
+
+
+/**
+ * Lazy view of recipients in FlatBuffers {@link Header}. Recipient capsule is deserialized with
+ * {@link RecipientDeserializer} only when it is requested with {@link #get(int)} or matched by
+ * {@link #findRecipient(Object)}. Deserialized recipients are cached.
+ * <p>
+ * {@link #findRecipient(Object)} looks up recipient from hash index keyed by public key encoding or key label read
+ * directly from FlatBuffers buffer, so that only matching recipient is deserialized (EC public key decoding and
+ * validation is expensive). When index lookup doesn't find the recipient (key in header is encoded validly, but not
+ * canonically), recipient records of the same kind are deserialized and compared. Not thread-safe.
+ * </p>
+ */
+public final class HeaderRecipients {
+    private static final Logger log = LoggerFactory.getLogger(HeaderRecipients.class);
+
+    private final Header header;
+    private final Recipient[] deserialized;
+    @Nullable
+    private Map<Object, List<Integer>> recipientIndex;
+
+    private HeaderRecipients(Header header) {
+        this.header = header;
+        this.deserialized = new Recipient[header.recipientsLength()];
+    }
+
+    /**
+     * Create lazy recipients view
+     * @param header FlatBuffers header
+     * @return HeaderRecipients
+     */
+    public static HeaderRecipients of(Header header) {
+        return new HeaderRecipients(Objects.requireNonNull(header));
+    }
+
+    /**
+     * @return number of recipient records in header, including records of unknown capsule type
+     */
+    public int size() {
+        return deserialized.length;
+    }
+
+    /**
+     * @param index recipient record index
+     * @return capsule type ({@link ee.cyber.cdoc2.fbs.header.Capsule}) of the recipient record
+     */
+    public byte getCapsuleType(int index) {
+        return record(index).capsuleType();
+    }
+
+    /**
+     * @param index recipient record index
+     * @return key label of the recipient record, without deserializing the capsule
+     */
+    public String getKeyLabel(int index) {
+        return record(index).keyLabel();
+    }
+
+    /**
+     * Deserialize recipient record
+     * @param index recipient record index
+     * @return deserialized Recipient
+     * @throws UnknownFlatBufferTypeException if capsule type is not supported
+     * @throws CDocParseException if recipient record parsing has failed
+     * @throws GeneralSecurityException if decoding cryptographic keys from recipient record has failed
+     */
+    public Recipient get(int index) throws CDocParseException, GeneralSecurityException {
+        Objects.checkIndex(index, deserialized.length);
+        Recipient recipient = deserialized[index];
+        if (recipient == null) {
+            recipient = RecipientDeserializer.deserialize(record(index));
+            deserialized[index] = recipient;
+        }
+        return recipient;
+    }
+
+    /**
+     * Deserialize all recipients. Recipients with unknown capsule types are ignored.
+     * @return list of deserialized recipients
+     * @throws CDocParseException if recipient record parsing has failed
+     * @throws GeneralSecurityException if decoding cryptographic keys from recipient record has failed
+     */
+    public List<Recipient> getAll() throws CDocParseException, GeneralSecurityException {
+        List<Recipient> recipientList = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            try {
+                recipientList.add(get(i));
+            } catch (UnknownFlatBufferTypeException e) { //ignore unknown recipients
+                log.warn("Unknown Capsule type {}. Ignoring.", getCapsuleType(i));
+            }
+        }
+        return recipientList;
+    }
+
+    /**
+     * Find first recipient with {@link Recipient#getRecipientId()} equal to recipientId. For public key and key label
+     * recipient ids, recipient is looked up from index keyed by EC public key TLS encoding, RSA public key DER
+     * encoding or key label, read from FlatBuffers bytes. Only matching recipient records are deserialized.
+     * If index lookup misses, then records with the same recipient kind (EC, RSA public key or key label) are
+     * deserialized and compared in header order, as header may contain non-canonical key encoding that decodes to
+     * equal key. For other recipient id types, recipients are deserialized and compared in header order.
+     * @param recipientId recipient id from {@link ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial}
+     * @return matching recipient or empty Optional
+     * @throws CDocParseException if matching recipient record parsing has failed
+     * @throws GeneralSecurityException if decoding cryptographic keys from matching recipient record has failed
+     */
+    public Optional<Recipient> findRecipient(Object recipientId) throws CDocParseException, GeneralSecurityException {
+        Objects.requireNonNull(recipientId);
+
+        Object indexKey = getIndexKey(recipientId);
+        if (indexKey == null) {
+            for (int i = 0; i < size(); i++) {
+                Optional<Recipient> recipient = deserializeIfMatches(i, recipientId);
+                if (recipient.isPresent()) {
+                    return recipient;
+                }
+            }
+            return Optional.empty();
+        }
+
+        List<Integer> indexed = getIndex().getOrDefault(indexKey, List.of());
+        for (int i : indexed) {
+            Optional<Recipient> recipient = deserializeIfMatches(i, recipientId);
+            if (recipient.isPresent()) {
+                return recipient;
+            }
+        }
+
+        // non-canonical key encoding in header is not found from index
+        RecipientRecord r = new RecipientRecord();
+        for (int i = 0; i < size(); i++) {
+            if (!indexed.contains(i) && isSameKind(header.recipients(r, i), recipientId)) {
+                Optional<Recipient> recipient = deserializeIfMatches(i, recipientId);
+                if (recipient.isPresent()) {
+                    log.debug("Recipient {} found without index", i);
+                    return recipient;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return true if recipient record may contain recipientId: EC or RSA public key capsule (also key server
+     *      capsule) for public key and symmetric key or password capsule for key label
+     */
+    private static boolean isSameKind(RecipientRecord r, Object recipientId) {
+        byte capsuleType = r.capsuleType();
+        if (recipientId instanceof ECPublicKey) {
+            return capsuleType == recipients_ECCPublicKeyCapsule
+                || (capsuleType == recipients_KeyServerCapsule
+                    && getServerCapsuleKeyDetailsType(r) == KeyDetailsUnion.EccKeyDetails);
+        } else if (recipientId instanceof RSAPublicKey) {
+            return capsuleType == recipients_RSAPublicKeyCapsule
+                || (capsuleType == recipients_KeyServerCapsule
+                    && getServerCapsuleKeyDetailsType(r) == KeyDetailsUnion.RsaKeyDetails);
+        }
+        return capsuleType == recipients_SymmetricKeyCapsule || capsuleType == recipients_PBKDF2Capsule;
+    }
+
+    private static byte getServerCapsuleKeyDetailsType(RecipientRecord r) {
+        KeyServerCapsule capsule = (KeyServerCapsule) r.capsule(new KeyServerCapsule());
+        return (capsule != null) ? capsule.recipientKeyDetailsType() : KeyDetailsUnion.NONE;
+    }
+
+    private Optional<Recipient> deserializeIfMatches(int index, Object recipientId)
+        throws CDocParseException, GeneralSecurityException {
+
+        try {
+            Recipient recipient = get(index);
+            return recipient.getRecipientId().equals(recipientId) ? Optional.of(recipient) : Optional.empty();
+        } catch (UnknownFlatBufferTypeException e) { //ignore unknown recipients
+            log.debug("Unknown Capsule type {}. Ignoring.", getCapsuleType(index));
+            return Optional.empty();
+        }
+    }
+
+    private RecipientRecord record(int index) {
+        Objects.checkIndex(index, deserialized.length);
+        return header.recipients(index);
+    }
+
+    /**
+     * Index recipient records by recipient public key encoding or key label. Key encodings are read directly from
+     * FlatBuffers buffer (not copied), capsules are not deserialized. Built on first use.
+     */
+    private Map<Object, List<Integer>> getIndex() {
+        if (recipientIndex == null) {
+            Map<Object, List<Integer>> idx = new HashMap<>(size() * 4 / 3 + 1);
+            RecipientRecord r = new RecipientRecord();
+            for (int i = 0; i < size(); i++) {
+                Object key = getRecordIndexKey(header.recipients(r, i));
+                if (key != null) {
+                    idx.computeIfAbsent(key, k -> new ArrayList<>(1)).add(i);
+                }
+            }
+            recipientIndex = idx;
+        }
+        return recipientIndex;
+    }
+
+    /**
+     * Get index key for recipient id. Public keys are indexed by their canonical encoding as stored in header:
+     * EC public key in TLS format and RSA public key in DER format. Symmetric key and password recipients are
+     * indexed by key label.
+     * @param recipientId recipient id from {@link ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial}
+     * @return ByteBuffer with public key encoding, key label or null if recipientId type is not indexed
+     */
+    @Nullable
+    private static Object getIndexKey(Object recipientId) {
+        if (recipientId instanceof ECPublicKey ecPublicKey) {
+            try {
+                return ByteBuffer.wrap(ECKeys.encodeEcPubKeyForTls(ecPublicKey));
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                log.debug("Can't encode EC public key for matching: {}", e.toString());
+                return null;
+            }
+        } else if (recipientId instanceof RSAPublicKey rsaPublicKey) {
+            return ByteBuffer.wrap(RsaUtils.encodeRsaPubKey(rsaPublicKey));
+        } else if (recipientId instanceof String label) {
+            return label;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Object getRecordIndexKey(RecipientRecord r) {
+        byte capsuleType = r.capsuleType();
+        if (capsuleType == recipients_ECCPublicKeyCapsule) {
+            ECCPublicKeyCapsule capsule = (ECCPublicKeyCapsule) r.capsule(new ECCPublicKeyCapsule());
+            return (capsule != null) ? capsule.recipientPublicKeyAsByteBuffer() : null;
+        } else if (capsuleType == recipients_RSAPublicKeyCapsule) {
+            RSAPublicKeyCapsule capsule = (RSAPublicKeyCapsule) r.capsule(new RSAPublicKeyCapsule());
+            return (capsule != null) ? capsule.recipientPublicKeyAsByteBuffer() : null;
+        } else if (capsuleType == recipients_KeyServerCapsule) {
+            return getServerCapsuleIndexKey(r);
+        } else if (capsuleType == recipients_SymmetricKeyCapsule || capsuleType == recipients_PBKDF2Capsule) {
+            String label = r.keyLabel();
+            if (label != null && KeyLabelTools.isFormatted(label)) {
+                return KeyLabelTools.extractKeyLabel(label);
+            }
+            return label;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static ByteBuffer getServerCapsuleIndexKey(RecipientRecord r) {
+        KeyServerCapsule capsule = (KeyServerCapsule) r.capsule(new KeyServerCapsule());
+        if (capsule == null) {
+            return null;
+        }
+        if (capsule.recipientKeyDetailsType() == KeyDetailsUnion.EccKeyDetails) {
+            EccKeyDetails details = (EccKeyDetails) capsule.recipientKeyDetails(new EccKeyDetails());
+            return (details != null) ? details.recipientPublicKeyAsByteBuffer() : null;
+        } else if (capsule.recipientKeyDetailsType() == KeyDetailsUnion.RsaKeyDetails) {
+            RsaKeyDetails details = (RsaKeyDetails) capsule.recipientKeyDetails(new RsaKeyDetails());
+            return (details != null) ? details.recipientPublicKeyAsByteBuffer() : null;
+        }
+        return null;
+    }
+}
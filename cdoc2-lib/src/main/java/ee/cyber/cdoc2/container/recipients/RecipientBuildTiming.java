@@ -0,0 +1,17 @@
+package ee.cyber.cdoc2.container.recipients;
+
+import java.time.Duration;
+
+
+/**
+ * Time spent on building single recipient in
+ * {@link RecipientFactory#buildRecipients(byte[], java.util.List, ee.cyber.cdoc2.client.KeyCapsuleClient,
+ * java.util.concurrent.Executor, java.util.function.Consumer)}
+ * @param index index of recipient key material in recipient keys list (and of recipient in CDOC header)
+ * @param keyLabel recipient key label
+ * @param recipientType simple class name of created Recipient
+ * @param duration time spent on KEK derivation and FMK encryption. Key server capsules are stored after all
+ *                 recipients are built and are not included
+ */
+public record RecipientBuildTiming(int index, String keyLabel, String recipientType, Duration duration) {
+}
@@ -21,7 +21,6 @@ import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
-import java.util.Arrays;
 
 import static ee.cyber.cdoc2.fbs.header.Capsule.*;
 
@@ -32,6 +31,16 @@ public final class RecipientDeserializer {
 
     private RecipientDeserializer() { }
 
+    /**
+     * Copy remaining bytes of FlatBuffers vector. Works for heap and direct/memory-mapped buffers, buffer position
+     * is not changed.
+     */
+    private static byte[] toByteArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
     public static Recipient deserialize(RecipientRecord r)
         throws CDocParseException, GeneralSecurityException {
 
@@ -44,8 +53,7 @@ public final class RecipientDeserializer {
         }
 
         ByteBuffer encryptedFmkBuf = r.encryptedFmkAsByteBuffer();
-        byte[] encryptedFmkBytes = Arrays.copyOfRange(encryptedFmkBuf.array(),
-                encryptedFmkBuf.position(), encryptedFmkBuf.limit());
+        byte[] encryptedFmkBytes = toByteArray(encryptedFmkBuf);
         String keyLabel = r.keyLabel();
 
         return getDeserializedRecipientByKeyOrigin(r, encryptedFmkBytes, keyLabel);
@@ -84,7 +92,7 @@ public final class RecipientDeserializer {
         }
 
         ByteBuffer saltBuf = symmetricKeyCapsule.saltAsByteBuffer();
-        byte[] salt = Arrays.copyOfRange(saltBuf.array(), saltBuf.position(), saltBuf.limit());
+        byte[] salt = toByteArray(saltBuf);
         return new SymmetricKeyRecipient(salt, encryptedFmkBytes, keyLabel);
     }
 
@@ -98,12 +106,10 @@ public final class RecipientDeserializer {
         }
 
         ByteBuffer encSaltBuf = pbkdf2Capsule.saltAsByteBuffer();
-        byte[] encSalt
-            = Arrays.copyOfRange(encSaltBuf.array(), encSaltBuf.position(), encSaltBuf.limit());
+        byte[] encSalt = toByteArray(encSaltBuf);
 
         ByteBuffer pwSaltBuf = pbkdf2Capsule.passwordSaltAsByteBuffer();
-        byte[] pwSalt =
-            Arrays.copyOfRange(pwSaltBuf.array(), pwSaltBuf.position(), pwSaltBuf.limit());
+        byte[] pwSalt = toByteArray(pwSaltBuf);
 
         return new PBKDF2Recipient(
             encSalt,
@@ -187,8 +193,7 @@ public final class RecipientDeserializer {
             throw new CDocParseException("error parsing RSAPublicKeyCapsule.encryptedKek");
         }
 
-        byte[] rsaPubKeyBytes =
-                Arrays.copyOfRange(rsaPubKeyBuf.array(), rsaPubKeyBuf.position(), rsaPubKeyBuf.limit());
+        byte[] rsaPubKeyBytes = toByteArray(rsaPubKeyBuf);
         RSAPublicKey recipientRsaPublicKey;
 
         try {
@@ -197,7 +202,7 @@ public final class RecipientDeserializer {
             throw new CDocParseException("error decoding RSAPublicKey", ex);
         }
 
-        byte[] encKek = Arrays.copyOfRange(encKekBuf.array(), encKekBuf.position(), encKekBuf.limit());
+        byte[] encKek = toByteArray(encKekBuf);
 
         return new RSAPubKeyRecipient(recipientRsaPublicKey, encKek, encryptedFmkBytes, keyLabel);
     }
@@ -1,11 +1,10 @@
 package ee.cyber.cdoc2.container.recipients;
 
-import ee.cyber.cdoc2.client.EcCapsuleClient;
 import ee.cyber.cdoc2.client.EcCapsuleClientImpl;
 import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
-import ee.cyber.cdoc2.client.RsaCapsuleClient;
 import ee.cyber.cdoc2.client.RsaCapsuleClientImpl;
+import ee.cyber.cdoc2.client.model.Capsule;
 import ee.cyber.cdoc2.container.Envelope;
 import ee.cyber.cdoc2.crypto.Crypto;
 import ee.cyber.cdoc2.crypto.EllipticCurve;
@@ -18,6 +17,7 @@ import ee.cyber.cdoc2.crypto.keymaterial.encrypt.SecretEncryptionKeyMaterial;
 import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
 import ee.cyber.cdoc2.fbs.recipients.PBKDF2Capsule;
 import ee.cyber.cdoc2.fbs.recipients.SymmetricKeyCapsule;
+import ee.cyber.cdoc2.metrics.RecipientBuildEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,9 +32,21 @@ import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidParameterSpecException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static ee.cyber.cdoc2.CDocConfiguration.RECIPIENT_BUILD_THREADS_PROPERTY;
 
 
 /**
@@ -44,12 +56,14 @@ public final class RecipientFactory {
 
     private static final Logger log = LoggerFactory.getLogger(RecipientFactory.class);
     private static final String INVALID_FMK_LEN = "Invalid FMK len";
+    private static final int DEFAULT_RECIPIENT_BUILD_THREADS = 1;
 
     private RecipientFactory() { }
 
     /**
      * Build recipients. For each recipient KEK (key encryption key) key is derived from recipients key material and fmk
-     * is encrypted with KEK.
+     * is encrypted with KEK. If {@link ee.cyber.cdoc2.CDocConfiguration#RECIPIENT_BUILD_THREADS_PROPERTY} is greater
+     * than 1, then recipients are built in parallel by temporary thread pool.
      * @param fmk file master key generated per CDOC2 envelope
      * @param recipientKeys recipients key material used to derive KEK
      * @param serverClient if server client is provided, then key material for deriving KEK or encrypted KEK is stored
@@ -64,6 +78,47 @@ public final class RecipientFactory {
         @Nullable KeyCapsuleClient serverClient
     ) throws GeneralSecurityException, ExtApiException {
 
+        int threads = Math.min(getRecipientBuildThreads(), recipientKeys.size());
+        if (threads <= 1) {
+            return buildRecipients(fmk, recipientKeys, serverClient, null, null);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new RecipientBuildThreadFactory());
+        try {
+            return buildRecipients(fmk, recipientKeys, serverClient, executor, null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Build recipients. For each recipient KEK (key encryption key) key is derived from recipients key material and fmk
+     * is encrypted with KEK. If executor is provided, then recipients are built in parallel by executor. If
+     * serverClient is provided, then key capsules of all recipients are stored with single
+     * {@link KeyCapsuleClient#storeCapsules(List)} call after recipients are built. Order of
+     * created recipients is the same as order of recipientKeys, regardless of executor.
+     * @param fmk file master key generated per CDOC2 envelope
+     * @param recipientKeys recipients key material used to derive KEK
+     * @param serverClient if server client is provided, then key material for deriving KEK or encrypted KEK is stored
+     *                     in key server. Used only from calling thread, capsules are stored with
+     *                     {@link KeyCapsuleClient#storeCapsules(List)} after recipients are built
+     * @param executor executor used to build recipients in parallel, if null then recipients are built sequentially
+     *                 in calling thread
+     * @param timingListener if provided, then called with build time of each recipient (from building thread).
+     *                       Build time doesn't include storing key capsules in key server, as capsules for all
+     *                       recipients are stored together after recipients are built
+     * @return Recipients list created from provided key material
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws ExtApiException if communication with key server failed
+     */
+    public static Recipient[] buildRecipients(
+        byte[] fmk,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        @Nullable Executor executor,
+        @Nullable Consumer<RecipientBuildTiming> timingListener
+    ) throws GeneralSecurityException, ExtApiException {
+
         Objects.requireNonNull(fmk);
         Objects.requireNonNull(recipientKeys);
         if (fmk.length != Crypto.FMK_LEN_BYTES) {
@@ -74,14 +129,139 @@ public final class RecipientFactory {
             throw new IllegalArgumentException("At least one recipient required");
         }
 
-        List<Recipient> result = new ArrayList<>(recipientKeys.size());
-        for (EncryptionKeyMaterial encKeyMaterial : recipientKeys) {
-            addRecipientsByKeyOrigin(
-                result, serverClient, fmk, encKeyMaterial
-            );
+        RecipientBuildEvent event = RecipientBuildEvent.begin(recipientKeys, serverClient != null, executor != null);
+        try {
+            long start = System.nanoTime();
+            List<Recipient> result = new ArrayList<>(recipientKeys.size());
+            if (executor == null) {
+                for (int i = 0; i < recipientKeys.size(); i++) {
+                    result.addAll(buildTimed(i, recipientKeys.get(i), serverClient, fmk, timingListener));
+                }
+            } else {
+                buildParallel(result, recipientKeys, serverClient, fmk, executor, timingListener);
+            }
+
+            log.debug("Built {} recipients in {} ms", result.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            Recipient[] recipients = result.toArray(new Recipient[0]);
+            event.setRecipients(recipients);
+            if (serverClient != null) {
+                storeServerCapsules(recipients, serverClient);
+            }
+            return recipients;
+        } catch (Exception e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            event.commit();
         }
+    }
 
-        return result.toArray(new Recipient[0]);
+    /**
+     * @return number of threads configured with
+     *     {@link ee.cyber.cdoc2.CDocConfiguration#RECIPIENT_BUILD_THREADS_PROPERTY}, invalid values are replaced with 1
+     */
+    public static int getRecipientBuildThreads() {
+        String threadsStr = System.getProperty(RECIPIENT_BUILD_THREADS_PROPERTY);
+        if (threadsStr == null) {
+            return DEFAULT_RECIPIENT_BUILD_THREADS;
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(threadsStr.trim());
+        } catch (NumberFormatException nfe) {
+            threads = 0;
+        }
+        if (threads >= 1) {
+            return threads;
+        }
+        log.warn("Invalid value {} for {}. Using default {}",
+            threadsStr, RECIPIENT_BUILD_THREADS_PROPERTY, DEFAULT_RECIPIENT_BUILD_THREADS);
+        return DEFAULT_RECIPIENT_BUILD_THREADS;
+    }
+
+    private static void buildParallel(
+        List<Recipient> result,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        byte[] fmk,
+        Executor executor,
+        @Nullable Consumer<RecipientBuildTiming> timingListener
+    ) throws GeneralSecurityException {
+
+        List<FutureTask<List<Recipient>>> tasks = new ArrayList<>(recipientKeys.size());
+        for (int i = 0; i < recipientKeys.size(); i++) {
+            final int index = i;
+            FutureTask<List<Recipient>> task = new FutureTask<>(
+                () -> buildTimed(index, recipientKeys.get(index), serverClient, fmk, timingListener));
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        try {
+            // wait in submission order, so that header recipient order is deterministic
+            for (FutureTask<List<Recipient>> task : tasks) {
+                result.addAll(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException("Interrupted while building recipients", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException gse) {
+                throw gse;
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            } else if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new GeneralSecurityException(cause);
+        } finally {
+            for (FutureTask<List<Recipient>> task : tasks) {
+                task.cancel(true); // no-op for completed tasks
+            }
+        }
+    }
+
+    private static List<Recipient> buildTimed(
+        int index,
+        EncryptionKeyMaterial encKeyMaterial,
+        @Nullable KeyCapsuleClient serverClient,
+        byte[] fmk,
+        @Nullable Consumer<RecipientBuildTiming> timingListener
+    ) throws GeneralSecurityException {
+
+        long start = System.nanoTime();
+        List<Recipient> built = new ArrayList<>(1);
+        addRecipientsByKeyOrigin(built, serverClient, fmk, encKeyMaterial);
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+        String recipientType = built.isEmpty() ? "none" : built.get(0).getClass().getSimpleName();
+        if (log.isTraceEnabled()) {
+            log.trace("Built recipient {} {} in {} us", index, recipientType, duration.toNanos() / 1000);
+        }
+        if (timingListener != null) {
+            timingListener.accept(
+                new RecipientBuildTiming(index, encKeyMaterial.getLabel(), recipientType, duration));
+        }
+        return built;
+    }
+
+    /**
+     * Daemon threads for temporary recipient build thread pool
+     */
+    private static final class RecipientBuildThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+        private final int poolId = POOL_COUNTER.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "cdoc2-recipients-" + poolId + "-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
     }
 
     private static void addRecipientsByKeyOrigin(
@@ -89,12 +269,10 @@ public final class RecipientFactory {
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
         EncryptionKeyMaterial encKeyMaterial
-    ) throws GeneralSecurityException, ExtApiException {
+    ) throws GeneralSecurityException {
 
         if (encKeyMaterial instanceof PublicKeyEncryptionKeyMaterial publicKeyMaterial) {
-            addPublicKeyRecipient(
-                recipients, serverClient, fileMasterKey, publicKeyMaterial
-            );
+            addPublicKeyRecipient(recipients, fileMasterKey, publicKeyMaterial);
         } else {
             addSymmetricKeyRecipient(
                 recipients,
@@ -105,62 +283,21 @@ public final class RecipientFactory {
         }
     }
 
-    private static void addEccRecipient(
-        List<Recipient> recipients,
-        KeyCapsuleClient serverClient,
-        byte[] fileMasterKey,
-        ECPublicKey ecPublicKey,
-        String keyLabel
-    ) throws ExtApiException, GeneralSecurityException {
-        if (serverClient != null) {
-            recipients.add(buildEccServerKeyRecipient(fileMasterKey, ecPublicKey, keyLabel,
-                new EcCapsuleClientImpl(serverClient)));
-        } else {
-            recipients.add(buildEccRecipient(fileMasterKey, ecPublicKey, keyLabel));
-        }
-    }
-
-    private static void addRsaRecipient(
-        List<Recipient> recipients,
-        KeyCapsuleClient serverClient,
-        byte[] fileMasterKey,
-        RSAPublicKey rsaPublicKey,
-        String keyLabel
-    ) throws ExtApiException, GeneralSecurityException {
-        if (serverClient != null) {
-            RsaCapsuleClient rsaCapsuleClient = new RsaCapsuleClientImpl(serverClient);
-            recipients.add(buildRsaServerKeyRecipient(
-                fileMasterKey, rsaPublicKey, keyLabel, rsaCapsuleClient)
-            );
-        } else {
-            recipients.add(buildRsaRecipient(fileMasterKey, rsaPublicKey, keyLabel));
-        }
-    }
-
+    /**
+     * Add EC or RSA recipient. If key server is used, then key capsule is stored later by
+     * {@link #storeServerCapsules(Recipient[], KeyCapsuleClient)} and recipient is replaced with server recipient.
+     */
     private static void addPublicKeyRecipient(
         List<Recipient> recipients,
-        KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
         PublicKeyEncryptionKeyMaterial publicKeyMaterial
-    ) throws GeneralSecurityException, ExtApiException {
+    ) throws GeneralSecurityException {
 
         PublicKey publicKey = publicKeyMaterial.getPublicKey();
         if (KeyAlgorithm.isRsaKeysAlgorithm(publicKey.getAlgorithm())) {
-            addRsaRecipient(
-                recipients,
-                serverClient,
-                fileMasterKey,
-                (RSAPublicKey) publicKey,
-                publicKeyMaterial.getLabel()
-            );
+            recipients.add(buildRsaRecipient(fileMasterKey, (RSAPublicKey) publicKey, publicKeyMaterial.getLabel()));
         } else if (KeyAlgorithm.isEcKeysAlgorithm(publicKey.getAlgorithm())) {
-            addEccRecipient(
-                recipients,
-                serverClient,
-                fileMasterKey,
-                (ECPublicKey) publicKey,
-                publicKeyMaterial.getLabel()
-            );
+            recipients.add(buildEccRecipient(fileMasterKey, (ECPublicKey) publicKey, publicKeyMaterial.getLabel()));
         }
     }
 
@@ -267,66 +404,54 @@ public final class RecipientFactory {
     }
 
     /**
-     * Fill EccServerKeyRecipient POJO, so that they are ready to be serialized into CDOC header. Calls
-     * {@link #buildEccRecipient(byte[], ECPublicKey, String)} to generate sender key pair and encrypt FMK.
-     * Stores sender public key in key server and gets corresponding transactionId from server.
-     * @param fmk file master key (plain)
-     * @param recipientPubKey  list of recipients public keys
-     * @param serverClient used to store sender public key and get transactionId
-     * @return For each recipient create EccServerKeyRecipient with fields filled
+     * Store key capsules of EC and RSA recipients in key server and replace them with server recipients. Capsules
+     * are stored with single {@link KeyCapsuleClient#storeCapsules(List)} call, so that client can send requests
+     * concurrently.
+     * @param recipients built recipients, EccPubKeyRecipient and RSAPubKeyRecipient elements are replaced with
+     *                   EccServerKeyRecipient and RSAServerKeyRecipient
+     * @param serverClient used to store key capsules and get transactionIds from server
+     * @throws ExtApiException if storing capsules has failed
      */
-    static EccServerKeyRecipient buildEccServerKeyRecipient(
-        byte[] fmk,
-        ECPublicKey recipientPubKey,
-        String keyLabel,
-        EcCapsuleClient serverClient
-    ) throws GeneralSecurityException, ExtApiException {
-
-        Objects.requireNonNull(fmk);
-        Objects.requireNonNull(recipientPubKey);
-        Objects.requireNonNull(serverClient);
-        if (fmk.length != Crypto.CEK_LEN_BYTES) {
-            throw new IllegalArgumentException(INVALID_FMK_LEN);
+    static void storeServerCapsules(Recipient[] recipients, KeyCapsuleClient serverClient) throws ExtApiException {
+        List<Integer> serverRecipientIndexes = new ArrayList<>();
+        List<Capsule> capsules = new ArrayList<>();
+        for (int i = 0; i < recipients.length; i++) {
+            if (recipients[i] instanceof EccPubKeyRecipient ecc) {
+                capsules.add(EcCapsuleClientImpl.createCapsule(ecc.getRecipientPubKey(), ecc.getSenderPubKey()));
+                serverRecipientIndexes.add(i);
+            } else if (recipients[i] instanceof RSAPubKeyRecipient rsa) {
+                capsules.add(RsaCapsuleClientImpl.createCapsule(rsa.getRecipientPubKey(), rsa.getEncryptedKek()));
+                serverRecipientIndexes.add(i);
+            }
         }
 
-        EccPubKeyRecipient eccPubKeyRecipient = buildEccRecipient(fmk, recipientPubKey, keyLabel);
-
-        String transactionId = serverClient.storeSenderKey(
-            eccPubKeyRecipient.getRecipientPubKey(),
-            eccPubKeyRecipient.getSenderPubKey()
-        );
-        String serverId = serverClient.getServerIdentifier();
-
-        return new EccServerKeyRecipient(eccPubKeyRecipient.getEllipticCurve(),
-            eccPubKeyRecipient.getRecipientPubKey(), serverId, transactionId,
-            eccPubKeyRecipient.getEncryptedFileMasterKey(), keyLabel);
-    }
-
-    static RSAServerKeyRecipient buildRsaServerKeyRecipient(
-        byte[] fmk,
-        RSAPublicKey recipientPubKey,
-        String keyLabel,
-        RsaCapsuleClient serverClient
-    ) throws GeneralSecurityException, ExtApiException {
-
-        Objects.requireNonNull(fmk);
-        Objects.requireNonNull(recipientPubKey);
-        Objects.requireNonNull(serverClient);
-
-        if (fmk.length != Crypto.CEK_LEN_BYTES) {
-            throw new IllegalArgumentException(INVALID_FMK_LEN);
+        if (capsules.isEmpty()) {
+            return;
         }
 
-        RSAPubKeyRecipient rsaPubKeyRecipient = buildRsaRecipient(fmk, recipientPubKey, keyLabel);
-
-        String transactionId = serverClient.storeRsaCapsule(
-            recipientPubKey, rsaPubKeyRecipient.getEncryptedKek()
-        );
+        long start = System.nanoTime();
+        List<String> transactionIds = (capsules.size() == 1)
+            ? List.of(serverClient.storeCapsule(capsules.get(0)))
+            : serverClient.storeCapsules(capsules);
+        if (transactionIds.size() != capsules.size()) {
+            throw new ExtApiException("Expected " + capsules.size() + " transactionIds, got "
+                + transactionIds.size());
+        }
+        log.debug("Stored {} capsules in {} ms", capsules.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 
         String serverId = serverClient.getServerIdentifier();
-
-        return new RSAServerKeyRecipient(recipientPubKey, serverId, transactionId,
-                rsaPubKeyRecipient.getEncryptedFileMasterKey(), keyLabel);
+        for (int j = 0; j < serverRecipientIndexes.size(); j++) {
+            int i = serverRecipientIndexes.get(j);
+            String transactionId = transactionIds.get(j);
+            if (recipients[i] instanceof EccPubKeyRecipient ecc) {
+                recipients[i] = new EccServerKeyRecipient(ecc.getEllipticCurve(), ecc.getRecipientPubKey(),
+                    serverId, transactionId, ecc.getEncryptedFileMasterKey(), ecc.getRecipientKeyLabel());
+            } else if (recipients[i] instanceof RSAPubKeyRecipient rsa) {
+                recipients[i] = new RSAServerKeyRecipient(rsa.getRecipientPubKey(), serverId, transactionId,
+                    rsa.getEncryptedFileMasterKey(), rsa.getRecipientKeyLabel());
+            }
+        }
     }
 
     /**
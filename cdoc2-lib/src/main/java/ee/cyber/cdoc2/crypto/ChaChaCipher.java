@@ -172,4 +172,155 @@ public final class ChaChaCipher {
         return new CipherInputStream(is, cipher);
     }
 
+    /**
+     * Constructs a ChaChaPoly1305OutputStream with {@link ChaChaPoly1305OutputStream#DEFAULT_BUFFER_SIZE} buffer.
+     * Created stream is compatible with {@link #initChaChaOutputStream(OutputStream, SecretKey, byte[])}, but
+     * encrypts data in bigger chunks.
+     * @param os the OutputStream object
+     * @param contentEncryptionKey  cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @return ChaChaPoly1305OutputStream
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public static ChaChaPoly1305OutputStream initChaChaPoly1305OutputStream(OutputStream os,
+                                                                            SecretKey contentEncryptionKey,
+                                                                            byte[] additionalData)
+            throws GeneralSecurityException, IOException {
+
+        return initChaChaPoly1305OutputStream(os, contentEncryptionKey, additionalData,
+            ChaChaPoly1305OutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a ChaChaPoly1305OutputStream from an OutputStream and ChaChaCipher
+     * @param os the OutputStream object
+     * @param contentEncryptionKey  cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @param bufferSize max bytes encrypted with single Cipher update call
+     * @return ChaChaPoly1305OutputStream
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public static ChaChaPoly1305OutputStream initChaChaPoly1305OutputStream(OutputStream os,
+                                                                            SecretKey contentEncryptionKey,
+                                                                            byte[] additionalData,
+                                                                            int bufferSize)
+            throws GeneralSecurityException, IOException {
+
+        if ((additionalData == null) || (additionalData.length == 0)) {
+            throw new IllegalArgumentException(INVALID_ADDITIONAL_DATA);
+        }
+
+        byte[] nonce = generateNonce();
+        Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, contentEncryptionKey, nonce);
+        cipher.updateAAD(additionalData);
+        os.write(nonce); //prepend plaintext nonce
+        return new ChaChaPoly1305OutputStream(os, cipher, bufferSize);
+    }
+
+    /**
+     * Constructs a ChaChaPoly1305InputStream with {@link ChaChaPoly1305InputStream#DEFAULT_BUFFER_SIZE} buffer.
+     * Poly1305 MAC check semantics are the same as for
+     * {@link #initChaChaInputStream(InputStream, SecretKey, byte[])}.
+     * @param is the to-be-processed input stream
+     * @param contentEncryptionKey contentEncryptionKey  cek content encryption key CEK,
+     *          {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @return ChaChaPoly1305InputStream
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static ChaChaPoly1305InputStream initChaChaPoly1305InputStream(InputStream is,
+                                                                          SecretKey contentEncryptionKey,
+                                                                          byte[] additionalData)
+            throws IOException, GeneralSecurityException {
+
+        return initChaChaPoly1305InputStream(is, contentEncryptionKey, additionalData,
+            ChaChaPoly1305InputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a ChaChaPoly1305InputStream from an InputStream and a ChaChaCipher.
+     * @param is the to-be-processed input stream
+     * @param contentEncryptionKey contentEncryptionKey  cek content encryption key CEK,
+     *          {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @param bufferSize bytes read from is and decrypted with single Cipher update call
+     * @return ChaChaPoly1305InputStream
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static ChaChaPoly1305InputStream initChaChaPoly1305InputStream(InputStream is,
+                                                                          SecretKey contentEncryptionKey,
+                                                                          byte[] additionalData,
+                                                                          int bufferSize)
+            throws IOException, GeneralSecurityException {
+
+        log.trace("initChaChaPoly1305InputStream()");
+        if ((additionalData == null) || (additionalData.length == 0)) {
+            throw new IllegalArgumentException(INVALID_ADDITIONAL_DATA);
+        }
+
+        byte[] nonce = is.readNBytes(NONCE_LEN_BYTES);
+        Cipher cipher = initCipher(Cipher.DECRYPT_MODE, contentEncryptionKey, nonce);
+        cipher.updateAAD(additionalData);
+        return new ChaChaPoly1305InputStream(is, cipher, bufferSize);
+    }
+
+    /**
+     * Constructs chunked ChaCha20-Poly1305 ({@link ChaChaStream}) encrypting stream with
+     * {@link ChaChaStream#SEGMENT_SIZE} segments. Random nonce prefix is written to os.
+     * @param os the OutputStream object
+     * @param contentEncryptionKey cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) {@link Envelope#getAdditionalData(byte[], byte[])},
+     *                       segments are authenticated with {@link ChaChaStream#segmentAad(byte[])}
+     * @param workers number of encryption threads, 1 encrypts in calling thread
+     * @return ChaChaStreamOutputStream
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public static ChaChaStreamOutputStream initChaChaStreamOutputStream(OutputStream os,
+                                                                        SecretKey contentEncryptionKey,
+                                                                        byte[] additionalData,
+                                                                        int workers)
+            throws GeneralSecurityException, IOException {
+
+        byte[] segmentAad = ChaChaStream.segmentAad(additionalData);
+        byte[] noncePrefix = new byte[ChaChaStream.NONCE_PREFIX_LEN_BYTES];
+        Crypto.getSecureRandom().nextBytes(noncePrefix);
+        os.write(noncePrefix);
+        return new ChaChaStreamOutputStream(os, contentEncryptionKey, noncePrefix, segmentAad,
+            ChaChaStream.SEGMENT_SIZE, workers);
+    }
+
+    /**
+     * Constructs chunked ChaCha20-Poly1305 ({@link ChaChaStream}) decrypting stream. Nonce prefix is read from is.
+     * @param is the to-be-processed input stream
+     * @param contentEncryptionKey cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @param workers number of decryption threads, 1 decrypts in calling thread
+     * @return ChaChaStreamInputStream
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public static ChaChaStreamInputStream initChaChaStreamInputStream(InputStream is,
+                                                                      SecretKey contentEncryptionKey,
+                                                                      byte[] additionalData,
+                                                                      int workers)
+            throws GeneralSecurityException, IOException {
+
+        log.trace("initChaChaStreamInputStream()");
+        byte[] segmentAad = ChaChaStream.segmentAad(additionalData);
+        byte[] noncePrefix = is.readNBytes(ChaChaStream.NONCE_PREFIX_LEN_BYTES);
+        if (noncePrefix.length != ChaChaStream.NONCE_PREFIX_LEN_BYTES) {
+            throw new IOException("Invalid nonce prefix");
+        }
+        return new ChaChaStreamInputStream(is, contentEncryptionKey, noncePrefix, segmentAad,
+            ChaChaStream.SEGMENT_SIZE, workers);
+    }
 }
@@ -0,0 +1,164 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+
+
+/**
+ * ChaCha20-Poly1305 decrypting InputStream. Replacement for {@link javax.crypto.CipherInputStream} that reads
+ * encrypted data in large chunks and decrypts those with {@link Cipher#update(ByteBuffer, ByteBuffer)} into single
+ * reused output buffer.
+ * <p>
+ * MAC check semantics are the same as for {@link javax.crypto.CipherInputStream}: Poly1305 MAC is verified, when
+ * end of underlying stream is reached. MAC check failure is thrown from {@code read} as IOException with
+ * {@link javax.crypto.AEADBadTagException} as cause. Data returned before end of stream is not authenticated.
+ * {@link #close()} does not report MAC errors, stream must be read until end (-1) to verify MAC.
+ * </p>
+ */
+public final class ChaChaPoly1305InputStream extends FilterInputStream {
+
+    /** Default size of encrypted chunk read from underlying stream and decrypted with single update call */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final Cipher cipher;
+    private final byte[] inBuf;
+    private ByteBuffer outBuf;
+    private boolean done;
+    private boolean closed;
+
+    /**
+     * @param in encrypted data is read from in
+     * @param cipher ChaCha20-Poly1305 cipher initialized for decryption (with AAD already set)
+     * @param bufferSize bytes read from in and decrypted with single {@link Cipher#update(ByteBuffer, ByteBuffer)}
+     *                   call
+     */
+    ChaChaPoly1305InputStream(InputStream in, Cipher cipher, int bufferSize) {
+        super(in);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.cipher = cipher;
+        this.inBuf = new byte[bufferSize];
+        this.outBuf = ByteBuffer.allocate(cipher.getOutputSize(bufferSize));
+        this.outBuf.flip(); // empty, ready for reading
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return (read == -1) ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (!outBuf.hasRemaining()) {
+            if (done) {
+                return -1;
+            }
+            decryptMore();
+        }
+
+        int n = Math.min(len, outBuf.remaining());
+        outBuf.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Read next chunk from underlying stream and decrypt it into outBuf. When end of underlying stream is reached,
+     * Poly1305 MAC is verified.
+     */
+    private void decryptMore() throws IOException {
+        int read = in.read(inBuf);
+        try {
+            if (read == -1) {
+                done = true;
+                ensureCapacity(cipher.getOutputSize(0));
+                cipher.doFinal(ByteBuffer.allocate(0), outBuf);
+            } else {
+                ensureCapacity(cipher.getOutputSize(read));
+                cipher.update(ByteBuffer.wrap(inBuf, 0, read), outBuf);
+            }
+        } catch (GeneralSecurityException e) {
+            // same as CipherInputStream, AEADBadTagException is reported as IOException cause
+            throw new IOException(e);
+        } finally {
+            outBuf.flip();
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        outBuf.clear();
+        if (outBuf.capacity() < required) {
+            outBuf = ByteBuffer.allocate(required);
+        }
+    }
+
+    /**
+     * Skips over decrypted bytes. Skipped bytes are decrypted, so that MAC is calculated over all data.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (!outBuf.hasRemaining()) {
+                if (done) {
+                    break;
+                }
+                decryptMore();
+                continue;
+            }
+            int s = (int) Math.min(n - skipped, outBuf.remaining());
+            outBuf.position(outBuf.position() + s);
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        return outBuf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // mark/reset not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Closes underlying stream. Same as {@link javax.crypto.CipherInputStream#close()}, MAC is not verified
+     * when stream was not read until the end.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        in.close();
+    }
+}
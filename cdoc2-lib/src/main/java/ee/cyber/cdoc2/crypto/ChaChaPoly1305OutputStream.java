@@ -0,0 +1,109 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+
+
+/**
+ * ChaCha20-Poly1305 encrypting OutputStream. Replacement for {@link javax.crypto.CipherOutputStream} that
+ * encrypts data in large chunks with {@link Cipher#update(ByteBuffer, ByteBuffer)} and reuses single output
+ * buffer, instead of allocating new array for every write. Poly1305 MAC is appended to the stream, when stream is
+ * closed.
+ * <p>
+ * Unlike {@link javax.crypto.CipherOutputStream}, errors from {@link Cipher#doFinal} are not ignored, but thrown
+ * as IOException from {@link #close()}.
+ * </p>
+ */
+public final class ChaChaPoly1305OutputStream extends FilterOutputStream {
+
+    /** Default size of plaintext chunk passed to single {@link Cipher#update(ByteBuffer, ByteBuffer)} call */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final Cipher cipher;
+    private final int bufferSize;
+    private ByteBuffer outBuf;
+    private boolean closed;
+
+    /**
+     * @param out encrypted data is written to out
+     * @param cipher ChaCha20-Poly1305 cipher initialized for encryption (with AAD already set)
+     * @param bufferSize max bytes encrypted with single {@link Cipher#update(ByteBuffer, ByteBuffer)} call
+     */
+    ChaChaPoly1305OutputStream(OutputStream out, Cipher cipher, int bufferSize) {
+        super(out);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.cipher = cipher;
+        this.bufferSize = bufferSize;
+        this.outBuf = ByteBuffer.allocate(cipher.getOutputSize(bufferSize));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        int pos = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int n = Math.min(remaining, bufferSize);
+            ByteBuffer in = ByteBuffer.wrap(b, pos, n);
+            ensureCapacity(cipher.getOutputSize(n));
+            try {
+                cipher.update(in, outBuf);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            writeOutBuf();
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Encrypt any buffered bytes, write Poly1305 MAC and close underlying stream.
+     * @throws IOException if an I/O error has occurred or finishing encryption failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try (OutputStream os = out) {
+            ensureCapacity(cipher.getOutputSize(0));
+            try {
+                cipher.doFinal(ByteBuffer.allocate(0), outBuf);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            writeOutBuf();
+            os.flush();
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        outBuf.clear();
+        if (outBuf.capacity() < required) {
+            outBuf = ByteBuffer.allocate(required);
+        }
+    }
+
+    private void writeOutBuf() throws IOException {
+        if (outBuf.position() > 0) {
+            out.write(outBuf.array(), outBuf.arrayOffset(), outBuf.position());
+        }
+    }
+}
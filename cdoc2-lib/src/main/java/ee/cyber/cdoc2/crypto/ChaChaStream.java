@@ -0,0 +1,257 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+
+/**
+ * Chunked ChaCha20-Poly1305 (nonce-based STREAM construction, Hoang, Reyhanitabar, Rogaway and Vizár, "Online
+ * Authenticated-Encryption and its Nonce-Reuse Misuse-Resistance"). Used for
+ * {@link ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod#CHACHA20POLY1305_STREAM} payload.
+ * <p>
+ * Plaintext is split into segments of {@link #SEGMENT_SIZE} bytes, last segment can be shorter (or empty, when
+ * plaintext is empty). Each segment is encrypted separately with ChaCha20-Poly1305 and has its own 16 byte tag.
+ * Encrypted stream:
+ * <pre>
+ *   nonce_prefix (7 bytes, secure random) || segment_0 || segment_1 || ... || segment_n
+ * </pre>
+ * Nonce of segment i is {@code nonce_prefix || uint32_be(i) || last}, where last is 0x01 for the last segment and
+ * 0x00 for other segments. Nonce binds segment to its position, so segments can't be reordered, dropped or
+ * appended without failing tag verification. All segments share the same AAD.
+ * </p>
+ * Segments are independent, so they can be encrypted and decrypted in parallel and decrypted in random order
+ * ({@link #decryptSegment(SeekableByteChannel, long, SecretKey, byte[], long)}). Every segment is authenticated
+ * before its plaintext is returned.
+ */
+public final class ChaChaStream {
+
+    /** Plaintext segment size of CDOC2 payload */
+    public static final int SEGMENT_SIZE = 64 * 1024;
+
+    public static final int NONCE_PREFIX_LEN_BYTES = 7;
+
+    /** Poly1305 tag length */
+    public static final int TAG_LEN_BYTES = 16;
+
+    private static final long MAX_SEGMENTS = 1L << 32;
+
+    private ChaChaStream() {
+    }
+
+    /**
+     * Get AAD used for every segment. Payload AAD ({@link ee.cyber.cdoc2.container.Envelope#getAdditionalData(
+     * byte[], byte[])}) contains the whole header, to avoid authenticating it for every segment, segments use
+     * SHA-256 digest of it.
+     * @param additionalData payload additional data
+     * @return segment AAD
+     * @throws GeneralSecurityException if SHA-256 is not available
+     */
+    public static byte[] segmentAad(byte[] additionalData) throws GeneralSecurityException {
+        if ((additionalData == null) || (additionalData.length == 0)) {
+            throw new IllegalArgumentException("Invalid Additional Authentication Data (AAD)");
+        }
+        return MessageDigest.getInstance("SHA-256").digest(additionalData);
+    }
+
+    /**
+     * @param noncePrefix {@link #NONCE_PREFIX_LEN_BYTES} bytes nonce prefix
+     * @param index segment index
+     * @param last if segment is the last segment of the stream
+     * @return 12 byte ChaCha20-Poly1305 nonce of segment
+     */
+    public static byte[] segmentNonce(byte[] noncePrefix, long index, boolean last) {
+        if ((noncePrefix == null) || (noncePrefix.length != NONCE_PREFIX_LEN_BYTES)) {
+            throw new IllegalArgumentException("Invalid nonce prefix");
+        }
+        if (index < 0 || index >= MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Invalid segment index " + index);
+        }
+        return ByteBuffer.allocate(ChaChaCipher.NONCE_LEN_BYTES)
+            .put(noncePrefix)
+            .putInt((int) index)
+            .put(last ? (byte) 1 : (byte) 0)
+            .array();
+    }
+
+    /**
+     * Encrypt single segment
+     * @param key content encryption key
+     * @param nonce segment nonce, {@link #segmentNonce(byte[], long, boolean)}
+     * @param aad segment AAD
+     * @param src plaintext
+     * @param off plaintext offset in src
+     * @param len plaintext length, at most segment size
+     * @return encrypted segment (ciphertext with tag)
+     * @throws GeneralSecurityException if encryption has failed
+     */
+    public static byte[] encryptSegment(SecretKey key, byte[] nonce, byte[] aad, byte[] src, int off, int len)
+            throws GeneralSecurityException {
+        return initCipher(newCipher(), Cipher.ENCRYPT_MODE, key, nonce, aad).doFinal(src, off, len);
+    }
+
+    /**
+     * Decrypt and verify single segment
+     * @param key content encryption key
+     * @param nonce segment nonce, {@link #segmentNonce(byte[], long, boolean)}
+     * @param aad segment AAD
+     * @param src encrypted segment (ciphertext with tag)
+     * @param off encrypted segment offset in src
+     * @param len encrypted segment length
+     * @return plaintext of segment
+     * @throws GeneralSecurityException if decryption has failed ({@link javax.crypto.AEADBadTagException}, when
+     *          segment is modified, not at its index or last flag doesn't match)
+     */
+    public static byte[] decryptSegment(SecretKey key, byte[] nonce, byte[] aad, byte[] src, int off, int len)
+            throws GeneralSecurityException {
+        checkEncryptedSegmentLength(len);
+        return initCipher(newCipher(), Cipher.DECRYPT_MODE, key, nonce, aad).doFinal(src, off, len);
+    }
+
+    private static void checkEncryptedSegmentLength(int len) {
+        if (len < TAG_LEN_BYTES) {
+            throw new IllegalArgumentException("Encrypted segment too short " + len);
+        }
+    }
+
+    /**
+     * @param segmentSize plaintext segment size
+     * @return encrypted segment size (segment with tag)
+     */
+    public static int encryptedSegmentSize(int segmentSize) {
+        return segmentSize + TAG_LEN_BYTES;
+    }
+
+    /**
+     * Number of segments in encrypted stream
+     * @param encryptedLen length of encrypted stream, including nonce prefix
+     * @param segmentSize plaintext segment size
+     * @return number of segments
+     * @throws IllegalArgumentException if encryptedLen is not valid encrypted stream length
+     */
+    public static long segmentCount(long encryptedLen, int segmentSize) {
+        long segmentsLen = encryptedLen - NONCE_PREFIX_LEN_BYTES;
+        if (segmentsLen < TAG_LEN_BYTES) {
+            throw new IllegalArgumentException("Encrypted stream too short " + encryptedLen);
+        }
+        int encSegmentSize = encryptedSegmentSize(segmentSize);
+        long count = (segmentsLen + encSegmentSize - 1) / encSegmentSize;
+        long lastLen = segmentsLen - (count - 1) * encSegmentSize;
+        if (lastLen < TAG_LEN_BYTES) {
+            throw new IllegalArgumentException("Invalid encrypted stream length " + encryptedLen);
+        }
+        return count;
+    }
+
+    /**
+     * Random access decryption. Read and decrypt single {@link #SEGMENT_SIZE} segment from encrypted stream.
+     * Segment plaintext starts at plaintext offset {@code index * SEGMENT_SIZE}.
+     * @param channel channel containing encrypted stream, channel position is changed
+     * @param streamOffset offset of encrypted stream (nonce prefix) in channel, encrypted stream ends at the end of
+     *                     the channel
+     * @param key content encryption key
+     * @param aad segment AAD, see {@link #segmentAad(byte[])}
+     * @param index segment index
+     * @return plaintext of segment
+     * @throws IOException if an I/O error has occurred or index is out of range
+     * @throws GeneralSecurityException if segment decryption has failed
+     */
+    public static byte[] decryptSegment(SeekableByteChannel channel, long streamOffset, SecretKey key, byte[] aad,
+                                        long index) throws IOException, GeneralSecurityException {
+        Objects.requireNonNull(channel);
+        long count;
+        try {
+            count = segmentCount(channel.size() - streamOffset, SEGMENT_SIZE);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (index < 0 || index >= count) {
+            throw new IOException("Segment index " + index + " out of range, segments " + count);
+        }
+
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LEN_BYTES];
+        readFully(channel, streamOffset, ByteBuffer.wrap(noncePrefix));
+
+        int encSegmentSize = encryptedSegmentSize(SEGMENT_SIZE);
+        long segmentOffset = streamOffset + NONCE_PREFIX_LEN_BYTES + index * encSegmentSize;
+        int len = (int) Math.min(encSegmentSize, channel.size() - segmentOffset);
+        byte[] segment = new byte[len];
+        readFully(channel, segmentOffset, ByteBuffer.wrap(segment));
+
+        return decryptSegment(key, segmentNonce(noncePrefix, index, index == count - 1), aad, segment, 0, len);
+    }
+
+    private static void readFully(SeekableByteChannel channel, long position, ByteBuffer dst) throws IOException {
+        channel.position(position);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static Cipher newCipher() throws GeneralSecurityException {
+        // see ChaChaCipher.initCipher, ChaCha20 has no block mode and padding
+        return Cipher.getInstance("ChaCha20-Poly1305", ChaChaCipher.BC); //NOSONAR - S5542
+    }
+
+    private static Cipher initCipher(Cipher cipher, int mode, SecretKey key, byte[] nonce, byte[] aad)
+            throws GeneralSecurityException {
+        cipher.init(mode, key, new IvParameterSpec(nonce)); //NOSONAR - S3329, nonce prefix is secure random
+        cipher.updateAAD(aad);
+        return cipher;
+    }
+
+    /**
+     * Ciphers of single encrypting or decrypting stream. Cipher is re-initialized for every segment, so ciphers are
+     * reused between segments of the stream (at most one cipher per worker). Ciphers are initialized with content
+     * encryption key, so they are not cached beyond the stream and are dropped by {@link #clear()}, when stream is
+     * closed.
+     */
+    static final class SegmentCiphers {
+        private final Queue<Cipher> idle = new ConcurrentLinkedQueue<>();
+        private volatile boolean cleared;
+
+        byte[] encrypt(SecretKey key, byte[] nonce, byte[] aad, byte[] src, int off, int len)
+                throws GeneralSecurityException {
+            return doFinal(Cipher.ENCRYPT_MODE, key, nonce, aad, src, off, len);
+        }
+
+        byte[] decrypt(SecretKey key, byte[] nonce, byte[] aad, byte[] src, int off, int len)
+                throws GeneralSecurityException {
+            checkEncryptedSegmentLength(len);
+            return doFinal(Cipher.DECRYPT_MODE, key, nonce, aad, src, off, len);
+        }
+
+        private byte[] doFinal(int mode, SecretKey key, byte[] nonce, byte[] aad, byte[] src, int off, int len)
+                throws GeneralSecurityException {
+            Cipher cipher = idle.poll();
+            if (cipher == null) {
+                cipher = newCipher();
+            }
+            byte[] result = initCipher(cipher, mode, key, nonce, aad).doFinal(src, off, len);
+            // cipher is reused only after successful segment, failed cipher is dropped
+            if (!cleared) {
+                idle.offer(cipher);
+            }
+            return result;
+        }
+
+        /**
+         * Drop ciphers, called when stream is closed
+         */
+        void clear() {
+            cleared = true;
+            idle.clear();
+        }
+    }
+}
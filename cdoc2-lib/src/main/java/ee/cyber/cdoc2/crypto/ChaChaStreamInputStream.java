@@ -0,0 +1,262 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+
+/**
+ * Decrypting InputStream for chunked ChaCha20-Poly1305 ({@link ChaChaStream}). Nonce prefix must be read from
+ * underlying stream before, see {@link ChaChaCipher#initChaChaStreamInputStream(InputStream, SecretKey, byte[],
+ * int)}. With more than one worker, segments are read ahead and decrypted in parallel on worker threads.
+ * <p>
+ * Unlike {@link ChaChaPoly1305InputStream}, data is authenticated per segment: plaintext of a segment is returned
+ * only after segment tag is verified, so modified data is never returned. Truncation, reordering and data appended
+ * after the last segment are detected by tag verification. Verification failure is thrown from {@code read} as
+ * IOException with {@link AEADBadTagException} as cause. Failure is terminal: the same exception is thrown from all
+ * following {@code read}, {@code skip} and {@code available} calls, so data following a failed segment is never
+ * returned. Stream must be read until end (-1) to verify that stream was not truncated.
+ * </p>
+ */
+public final class ChaChaStreamInputStream extends FilterInputStream {
+
+    private static final AtomicInteger STREAM_COUNT = new AtomicInteger();
+
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final byte[] aad;
+    private final int encryptedSegmentSize;
+    private final int maxSegmentsInFlight;
+    @Nullable
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final ChaChaStream.SegmentCiphers ciphers = new ChaChaStream.SegmentCiphers();
+
+    // encrypted segment read ahead, submitted when it is known if it is the last segment
+    @Nullable
+    private byte[] nextSegment;
+    private long segmentIndex;
+    private boolean lastSubmitted;
+
+    private byte[] plain = new byte[0];
+    private int plainPos;
+    private boolean closed;
+    // first decryption or verification failure, rethrown by all following reads
+    @Nullable
+    private IOException failure;
+
+    /**
+     * @param in encrypted segments are read from in
+     * @param key content encryption key
+     * @param noncePrefix nonce prefix of the stream
+     * @param aad segment AAD, see {@link ChaChaStream#segmentAad(byte[])}
+     * @param segmentSize plaintext segment size
+     * @param workers number of decryption threads, 1 decrypts in calling thread
+     */
+    ChaChaStreamInputStream(InputStream in, SecretKey key, byte[] noncePrefix, byte[] aad, int segmentSize,
+                            int workers) {
+        super(in);
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.aad = aad.clone();
+        this.encryptedSegmentSize = ChaChaStream.encryptedSegmentSize(segmentSize);
+
+        if (workers > 1) {
+            this.maxSegmentsInFlight = 2 * workers;
+            int streamId = STREAM_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "cdoc2-decrypt-" + streamId + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.maxSegmentsInFlight = 1;
+            this.executor = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return (read == -1) ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureReadable();
+        if (len == 0) {
+            return 0;
+        }
+
+        while (plainPos == plain.length) {
+            if (!nextPlainSegment()) {
+                return -1;
+            }
+        }
+
+        int n = Math.min(len, plain.length - plainPos);
+        System.arraycopy(plain, plainPos, b, off, n);
+        plainPos += n;
+        return n;
+    }
+
+    private void ensureReadable() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Decrypt next segment into plain buffer. Failure is recorded, so that stream can't be read past failed segment
+     * @return false if all segments are already decrypted
+     */
+    private boolean nextPlainSegment() throws IOException {
+        try {
+            return decryptNextSegment();
+        } catch (IOException e) {
+            failure = e;
+            plain = new byte[0];
+            plainPos = 0;
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+            throw e;
+        }
+    }
+
+    private boolean decryptNextSegment() throws IOException {
+        while (!lastSubmitted && pending.size() < maxSegmentsInFlight) {
+            submitNextSegment();
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+
+        try {
+            plain = pending.poll().get();
+            plainPos = 0;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decryption worker");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Decryption failed", e.getCause());
+        }
+    }
+
+    private void submitNextSegment() throws IOException {
+        byte[] current = (nextSegment != null) ? nextSegment : in.readNBytes(encryptedSegmentSize);
+        if (current.length < ChaChaStream.TAG_LEN_BYTES) {
+            // same as MAC check failure, AEADBadTagException is reported as IOException cause
+            throw new IOException(new AEADBadTagException("Truncated segment " + segmentIndex));
+        }
+
+        // segment is last, when it is shorter than full segment or no data follows it
+        byte[] following = (current.length == encryptedSegmentSize)
+            ? in.readNBytes(encryptedSegmentSize)
+            : new byte[0];
+        boolean last = following.length == 0;
+        long index = segmentIndex++;
+
+        Callable<byte[]> decrypt = () -> decrypt(current, index, last);
+        if (executor != null) {
+            pending.add(executor.submit(decrypt));
+        } else {
+            FutureTask<byte[]> task = new FutureTask<>(decrypt);
+            task.run();
+            pending.add(task);
+        }
+
+        nextSegment = last ? null : following;
+        lastSubmitted = last;
+    }
+
+    private byte[] decrypt(byte[] segment, long index, boolean last) throws IOException {
+        try {
+            return ciphers.decrypt(key, ChaChaStream.segmentNonce(noncePrefix, index, last), aad,
+                segment, 0, segment.length);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            // same as CipherInputStream, AEADBadTagException is reported as IOException cause
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureReadable();
+        return plain.length - plainPos;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureReadable();
+        long skipped = 0;
+        while (skipped < n) {
+            if (plainPos == plain.length && !nextPlainSegment()) {
+                break;
+            }
+            int s = (int) Math.min(n - skipped, plain.length - plainPos);
+            plainPos += s;
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // mark/reset not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            in.close();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            ciphers.clear();
+        }
+    }
+}
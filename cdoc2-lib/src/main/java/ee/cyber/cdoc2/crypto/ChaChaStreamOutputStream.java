@@ -0,0 +1,192 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.crypto.SecretKey;
+
+
+/**
+ * Encrypting OutputStream for chunked ChaCha20-Poly1305 ({@link ChaChaStream}). Nonce prefix must be written to
+ * underlying stream before, see {@link ChaChaCipher#initChaChaStreamOutputStream(OutputStream, SecretKey, byte[],
+ * int)}. With more than one worker, segments are encrypted in parallel on worker threads and written in order.
+ * <p>
+ * Full segment is encrypted only when more data is written, so that the last segment can be marked. Last segment
+ * is encrypted and written, when stream is closed. Encryption errors are thrown as IOException.
+ * </p>
+ */
+public final class ChaChaStreamOutputStream extends FilterOutputStream {
+
+    private static final AtomicInteger STREAM_COUNT = new AtomicInteger();
+
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final byte[] aad;
+    private final int segmentSize;
+    private final int maxSegmentsInFlight;
+    @Nullable
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final ChaChaStream.SegmentCiphers ciphers = new ChaChaStream.SegmentCiphers();
+
+    private byte[] segment;
+    private int count;
+    private long segmentIndex;
+    private boolean closed;
+
+    /**
+     * @param out encrypted segments are written to out
+     * @param key content encryption key
+     * @param noncePrefix nonce prefix of the stream
+     * @param aad segment AAD, see {@link ChaChaStream#segmentAad(byte[])}
+     * @param segmentSize plaintext segment size
+     * @param workers number of encryption threads, 1 encrypts in calling thread
+     */
+    ChaChaStreamOutputStream(OutputStream out, SecretKey key, byte[] noncePrefix, byte[] aad, int segmentSize,
+                             int workers) {
+        super(out);
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.aad = aad.clone();
+        this.segmentSize = segmentSize;
+        this.segment = new byte[segmentSize];
+        // keep workers busy while calling thread writes encrypted segments
+        this.maxSegmentsInFlight = 2 * workers;
+
+        if (workers > 1) {
+            int streamId = STREAM_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "cdoc2-encrypt-" + streamId + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        int pos = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (count == segmentSize) {
+                // more data follows, so full segment is not the last one
+                submitSegment(false);
+            }
+            int n = Math.min(remaining, segmentSize - count);
+            System.arraycopy(b, pos, segment, count, n);
+            count += n;
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Writes segments that are already encrypted. Buffered plaintext is not encrypted until segment is full and
+     * more data is written or stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeSegment(pending.poll());
+        }
+        out.flush();
+    }
+
+    /**
+     * Encrypt and write the last segment and close underlying stream.
+     * @throws IOException if an I/O error has occurred or encryption has failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try (OutputStream os = out) {
+            submitSegment(true);
+            while (!pending.isEmpty()) {
+                writeSegment(pending.poll());
+            }
+            os.flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            ciphers.clear();
+        }
+    }
+
+    private void submitSegment(boolean last) throws IOException {
+        final byte[] data = segment;
+        final int len = count;
+        final long index = segmentIndex++;
+
+        if (executor == null) {
+            out.write(encrypt(data, len, index, last));
+        } else {
+            pending.add(executor.submit(() -> encrypt(data, len, index, last)));
+            // segment buffer is owned by worker until encrypted
+            segment = new byte[segmentSize];
+
+            if (pending.size() >= maxSegmentsInFlight) {
+                writeSegment(pending.poll());
+            }
+        }
+        count = 0;
+    }
+
+    private byte[] encrypt(byte[] data, int len, long index, boolean last) throws IOException {
+        try {
+            return ciphers.encrypt(key, ChaChaStream.segmentNonce(noncePrefix, index, last), aad,
+                data, 0, len);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("Segment " + index + " encryption failed", e);
+        }
+    }
+
+    private void writeSegment(Future<byte[]> encrypted) throws IOException {
+        try {
+            out.write(encrypted.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for encryption worker");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Encryption failed", e.getCause());
+        }
+    }
+}
@@ -7,8 +7,8 @@ import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
 import ee.cyber.cdoc2.fbs.recipients.KDFAlgorithmIdentifier;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.DrbgParameters;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
@@ -27,15 +27,14 @@ import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static java.security.DrbgParameters.Capability.PR_AND_RESEED;
-
 public final class Crypto {
     private static final Logger log = LoggerFactory.getLogger(Crypto.class);
 
     /**
-     * SecureRandom instance not to "run out of entropy"
+     * SecureRandom source not to "run out of entropy", configured by
+     * {@link ee.cyber.cdoc2.CDocConfiguration#SECURE_RANDOM_MODE_PROPERTY}
      */
-    private static SecureRandom secureRandomInstance = null;
+    private static volatile SecureRandomSource secureRandomSource = null;
 
     /**
      * File Master Key length in octets
@@ -69,35 +68,28 @@ public final class Crypto {
     }
 
     /**
-     * Get SecureRandom instance
+     * Get SecureRandom instance for the current thread. Depending on {@link SecureRandomMode}, this is single shared
+     * DRBG, DRBG from pool or thread-local DRBG. Returned instance should be used right away and not cached.
      * @return SecureRandom secure random
      * @throws NoSuchAlgorithmException if SecureRandom initialization failed
      */
-    public static synchronized SecureRandom getSecureRandom() throws NoSuchAlgorithmException {
-        if (secureRandomInstance == null) {
-            secureRandomInstance = createSecureRandom();
-        }
-        return secureRandomInstance;
+    public static SecureRandom getSecureRandom() throws NoSuchAlgorithmException {
+        return getSecureRandomSource().get();
     }
 
-    /**
-     * Create SecureRandom
-     * @return SecureRandom secure random
-     * @throws NoSuchAlgorithmException if SecureRandom initialization failed
-     */
-    private static SecureRandom createSecureRandom() throws NoSuchAlgorithmException {
-        log.debug("Initializing SecureRandom");
-
-        //https://www.veracode.com/blog/research/java-crypto-catchup
-        SecureRandom sRnd = SecureRandom.getInstance("DRBG", //NIST SP 800-90Ar1
-            DrbgParameters.instantiation(
-                256, // Required security strength
-                PR_AND_RESEED, // configure algorithm to provide prediction resistance and reseeding facilities
-                "CDOC20".getBytes() // personalization string, used to derive seed
-            )
-        );
-        log.info("Initialized SecureRandom.");
-        return sRnd;
+    private static SecureRandomSource getSecureRandomSource() {
+        SecureRandomSource source = secureRandomSource;
+        if (source == null) {
+            synchronized (Crypto.class) {
+                source = secureRandomSource;
+                if (source == null) {
+                    source = SecureRandomSource.fromConfiguration();
+                    secureRandomSource = source;
+                    log.info("Initialized SecureRandom source {}.", source.getMode());
+                }
+            }
+        }
+        return source;
     }
 
     public static byte[] generateFileMasterKey() throws NoSuchAlgorithmException {
@@ -113,6 +105,17 @@ public final class Crypto {
         return new SecretKeySpec(cekBytes, "ChaCha20");
     }
 
+    /**
+     * Derive key for encrypting payload table of contents, stored in the header
+     * @param fmk file master key
+     * @return ChaCha20 key for table of contents
+     */
+    public static SecretKey deriveTocEncryptionKey(byte[] fmk) {
+        byte[] tocKeyBytes = HKDF.fromHmacSha256()
+                .expand(fmk, "CDOC20toc".getBytes(StandardCharsets.UTF_8), CEK_LEN_BYTES);
+        return new SecretKeySpec(tocKeyBytes, "ChaCha20");
+    }
+
     public static SecretKey deriveHeaderHmacKey(byte[] fmk) {
         byte[] hhk = HKDF.fromHmacSha256().expand(
             fmk, "CDOC20hmac".getBytes(StandardCharsets.UTF_8), HHK_LEN_BYTES
@@ -312,6 +315,23 @@ public final class Crypto {
         return mac.doFinal(data);
     }
 
+    /**
+     * Calculate HMAC over remaining bytes of ByteBuffer. Buffer position is not changed.
+     * @param hhk  HMAC header key. For CDOC2 {@link Crypto#deriveHeaderHmacKey(byte[])}
+     * @param data input – data in buffer (can be memory-mapped). For CDOC2 this is header FlatBuffers bytes
+     * @return the MAC result
+     * @throws NoSuchAlgorithmException if no Provider supports a MacSpi implementation for the specified algorithm
+     * @throws InvalidKeyException if Mac initialization has failed
+     */
+    public static byte[] calcHmacSha256(SecretKey hhk, ByteBuffer data)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Mac mac = Mac.getInstance(HMAC_SHA_256);
+        mac.init(hhk);
+        mac.update(data.duplicate());
+        return mac.doFinal();
+    }
+
     /**
      * XOR two byte arrays
      * @param x1 byte array
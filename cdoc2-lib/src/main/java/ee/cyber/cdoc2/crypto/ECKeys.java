@@ -116,8 +116,9 @@ public final class ECKeys {
     }
 
     static ECPublicKey decodeSecP384R1EcPublicKeyFromTls(ByteBuffer encoded) throws GeneralSecurityException {
-        return decodeSecP384R1EcPublicKeyFromTls(
-                Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit()));
+        byte[] encodedBytes = new byte[encoded.remaining()];
+        encoded.duplicate().get(encodedBytes); // works also for direct and memory-mapped buffers
+        return decodeSecP384R1EcPublicKeyFromTls(encodedBytes);
     }
 
     /**
@@ -9,7 +9,6 @@ import java.security.PrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.RSAPublicKeySpec;
-import java.util.Arrays;
 import java.util.Objects;
 import javax.crypto.Cipher;
 import javax.crypto.spec.OAEPParameterSpec;
@@ -137,6 +136,8 @@ public final class RsaUtils {
     }
 
     public static RSAPublicKey decodeRsaPubKey(ByteBuffer asn1BB) throws GeneralSecurityException, IOException {
-        return decodeRsaPubKey(Arrays.copyOfRange(asn1BB.array(), asn1BB.position(), asn1BB.limit()));
+        byte[] asn1Bytes = new byte[asn1BB.remaining()];
+        asn1BB.duplicate().get(asn1Bytes); // works also for direct and memory-mapped buffers
+        return decodeRsaPubKey(asn1Bytes);
     }
 }
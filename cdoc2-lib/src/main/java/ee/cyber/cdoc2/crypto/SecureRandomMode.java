@@ -0,0 +1,21 @@
+package ee.cyber.cdoc2.crypto;
+
+
+/**
+ * How DRBG instances returned by {@link Crypto#getSecureRandom()} are shared between threads
+ */
+public enum SecureRandomMode {
+    /**
+     * Single DRBG shared by all threads, prediction resistance is requested on every call (reseed from entropy
+     * source for each {@code nextBytes}). Default
+     */
+    SHARED,
+    /**
+     * Fixed size pool of DRBGs, thread picks DRBG by thread id. DRBGs are reseeded periodically
+     */
+    POOLED,
+    /**
+     * DRBG per thread, reseeded periodically
+     */
+    THREAD_LOCAL
+}
@@ -0,0 +1,201 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.security.DrbgParameters.Capability.PR_AND_RESEED;
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+
+/**
+ * Source of DRBG (NIST SP 800-90Ar1) SecureRandom instances, see {@link SecureRandomMode}.
+ * <p>
+ * {@link SecureRandomMode#SHARED} DRBG requests prediction resistance, so every {@code nextBytes} call reads
+ * from the entropy source and all threads serialise on the single DRBG. {@link SecureRandomMode#POOLED} and
+ * {@link SecureRandomMode#THREAD_LOCAL} DRBGs are instantiated without prediction resistance and are explicitly
+ * reseeded from the entropy source after every {@code reseedInterval} {@link #get()} calls on the same DRBG.
+ * </p>
+ */
+public final class SecureRandomSource {
+    private static final Logger log = LoggerFactory.getLogger(SecureRandomSource.class);
+
+    /** Default number of {@link #get()} calls after which pooled and thread-local DRBG is reseeded */
+    public static final int DEFAULT_RESEED_INTERVAL = 256;
+
+    private static final int SECURITY_STRENGTH = 256;
+    private static final byte[] PERSONALIZATION_STRING = "CDOC20".getBytes(StandardCharsets.UTF_8);
+
+    private final SecureRandomMode mode;
+    private final int reseedInterval;
+
+    // SHARED
+    private volatile SecureRandom shared;
+    // POOLED
+    private final AtomicReferenceArray<ReseedingDrbg> pool;
+    // THREAD_LOCAL
+    private final ThreadLocal<ReseedingDrbg> threadLocal = new ThreadLocal<>();
+
+    private SecureRandomSource(SecureRandomMode mode, int poolSize, int reseedInterval) {
+        this.mode = Objects.requireNonNull(mode);
+        this.reseedInterval = reseedInterval;
+        this.pool = new AtomicReferenceArray<>(poolSize);
+    }
+
+    /**
+     * Create SecureRandomSource
+     * @param mode how DRBGs are shared between threads
+     * @param reseedInterval number of {@link #get()} calls after which pooled or thread-local DRBG is reseeded
+     * @return SecureRandomSource
+     */
+    public static SecureRandomSource create(SecureRandomMode mode, int reseedInterval) {
+        return create(mode, Runtime.getRuntime().availableProcessors(), reseedInterval);
+    }
+
+    /**
+     * Create SecureRandomSource
+     * @param mode how DRBGs are shared between threads
+     * @param poolSize number of DRBGs in pool, used only by {@link SecureRandomMode#POOLED}
+     * @param reseedInterval number of {@link #get()} calls after which pooled or thread-local DRBG is reseeded
+     * @return SecureRandomSource
+     */
+    public static SecureRandomSource create(SecureRandomMode mode, int poolSize, int reseedInterval) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        if (reseedInterval < 1) {
+            throw new IllegalArgumentException("Reseed interval must be at least 1");
+        }
+        return new SecureRandomSource(mode, poolSize, reseedInterval);
+    }
+
+    /**
+     * Create SecureRandomSource configured by {@link CDocConfiguration#SECURE_RANDOM_MODE_PROPERTY} and
+     * {@link CDocConfiguration#SECURE_RANDOM_RESEED_INTERVAL_PROPERTY}
+     * @return SecureRandomSource
+     */
+    public static SecureRandomSource fromConfiguration() {
+        SecureRandomMode mode = SecureRandomMode.SHARED;
+        String modeStr = System.getProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY);
+        if (modeStr != null) {
+            try {
+                mode = SecureRandomMode.valueOf(modeStr.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException iae) {
+                log.warn("Invalid value {} for {}. Using default {}",
+                    modeStr, CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY, mode);
+            }
+        }
+
+        int interval = DEFAULT_RESEED_INTERVAL;
+        String intervalStr = System.getProperty(CDocConfiguration.SECURE_RANDOM_RESEED_INTERVAL_PROPERTY);
+        if (intervalStr != null) {
+            try {
+                interval = Integer.parseInt(intervalStr.trim());
+            } catch (NumberFormatException nfe) {
+                log.warn("Invalid value {} for {}. Using default {}",
+                    intervalStr, CDocConfiguration.SECURE_RANDOM_RESEED_INTERVAL_PROPERTY, interval);
+            }
+            if (interval < 1) {
+                log.warn("Invalid value {} for {}. Using default {}",
+                    intervalStr, CDocConfiguration.SECURE_RANDOM_RESEED_INTERVAL_PROPERTY, DEFAULT_RESEED_INTERVAL);
+                interval = DEFAULT_RESEED_INTERVAL;
+            }
+        }
+        return create(mode, interval);
+    }
+
+    public SecureRandomMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Get SecureRandom for the current thread. Returned instance is thread-safe, but for {@link
+     * SecureRandomMode#POOLED} and {@link SecureRandomMode#THREAD_LOCAL} it should be used right away and not
+     * cached, as DRBGs are reseeded by this method.
+     * @return SecureRandom
+     * @throws NoSuchAlgorithmException if DRBG initialization failed
+     */
+    public SecureRandom get() throws NoSuchAlgorithmException {
+        return switch (mode) {
+            case SHARED -> getShared();
+            case POOLED -> getPooled();
+            case THREAD_LOCAL -> getThreadLocal();
+        };
+    }
+
+    private SecureRandom getShared() throws NoSuchAlgorithmException {
+        SecureRandom sRnd = shared;
+        if (sRnd == null) {
+            synchronized (this) {
+                sRnd = shared;
+                if (sRnd == null) {
+                    // configure algorithm to provide prediction resistance and reseeding facilities
+                    sRnd = createDrbg(PR_AND_RESEED);
+                    shared = sRnd;
+                }
+            }
+        }
+        return sRnd;
+    }
+
+    private SecureRandom getPooled() throws NoSuchAlgorithmException {
+        int slot = (int) Math.floorMod(Thread.currentThread().getId(), (long) pool.length());
+        ReseedingDrbg drbg = pool.get(slot);
+        if (drbg == null) {
+            ReseedingDrbg created = new ReseedingDrbg(createDrbg(RESEED_ONLY));
+            drbg = pool.compareAndSet(slot, null, created) ? created : pool.get(slot);
+        }
+        return drbg.next(reseedInterval);
+    }
+
+    private SecureRandom getThreadLocal() throws NoSuchAlgorithmException {
+        ReseedingDrbg drbg = threadLocal.get();
+        if (drbg == null) {
+            drbg = new ReseedingDrbg(createDrbg(RESEED_ONLY));
+            threadLocal.set(drbg);
+        }
+        return drbg.next(reseedInterval);
+    }
+
+    private static SecureRandom createDrbg(DrbgParameters.Capability capability) throws NoSuchAlgorithmException {
+        log.debug("Initializing SecureRandom {}", capability);
+
+        //https://www.veracode.com/blog/research/java-crypto-catchup
+        return SecureRandom.getInstance("DRBG", //NIST SP 800-90Ar1
+            DrbgParameters.instantiation(
+                SECURITY_STRENGTH, // Required security strength
+                capability,
+                PERSONALIZATION_STRING // personalization string, used to derive seed
+            )
+        );
+    }
+
+    /**
+     * DRBG that is reseeded from entropy source after every reseedInterval uses
+     */
+    private static final class ReseedingDrbg {
+        private final SecureRandom drbg;
+        private final AtomicInteger uses = new AtomicInteger();
+
+        ReseedingDrbg(SecureRandom drbg) {
+            this.drbg = drbg;
+        }
+
+        SecureRandom next(int reseedInterval) {
+            if (uses.incrementAndGet() % reseedInterval == 0) {
+                drbg.reseed();
+            }
+            return drbg;
+        }
+    }
+}
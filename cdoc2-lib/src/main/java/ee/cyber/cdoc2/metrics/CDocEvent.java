@@ -0,0 +1,62 @@
+package ee.cyber.cdoc2.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Base class of CDOC2 Java Flight Recorder events. Events are enabled by default and recorded, when JFR recording
+ * is running (for example {@code -XX:StartFlightRecording}). When no recording is running, events are not
+ * committed and JIT removes event creation, so instrumented code doesn't slow down.
+ * <p>
+ * Events are used as
+ * <pre>
+ * XxxEvent event = XxxEvent.begin(...);
+ * try {
+ *     ...
+ * } catch (Exception e) {
+ *     event.failed(e);
+ *     throw e;
+ * } finally {
+ *     event.commit();
+ * }
+ * </pre>
+ * Events don't contain file names, key labels or other recipient identifiers.
+ * </p>
+ */
+@Category("CDOC2")
+public abstract class CDocEvent extends Event {
+
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILURE = "FAILURE";
+
+    // JFR records only non-private fields of event super classes
+    @Label("Outcome")
+    @Description("SUCCESS or FAILURE")
+    String outcome = SUCCESS;
+
+    @Label("Failure")
+    @Description("Exception class, when operation failed")
+    String failure;
+
+    /**
+     * Mark operation failed
+     * @param cause failure cause
+     */
+    public void failed(Throwable cause) {
+        outcome = FAILURE;
+        failure = cause.getClass().getName();
+    }
+
+    /**
+     * @return distinct values joined with ','
+     */
+    static String joinDistinct(Stream<String> values) {
+        return values.distinct().collect(Collectors.joining(","));
+    }
+}
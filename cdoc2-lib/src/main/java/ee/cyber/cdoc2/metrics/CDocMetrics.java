@@ -0,0 +1,73 @@
+package ee.cyber.cdoc2.metrics;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+
+/**
+ * Registry of {@link CDocMetricsListener}. Global listener receives metrics of all operations, unless listener is
+ * set for the current thread with {@link #useListener(CDocMetricsListener)}.
+ */
+public final class CDocMetrics {
+
+    private static volatile CDocMetricsListener globalListener = CDocMetricsListener.NOOP;
+
+    private static final ThreadLocal<CDocMetricsListener> THREAD_LISTENER = new ThreadLocal<>();
+
+    private CDocMetrics() {
+    }
+
+    /**
+     * Set listener for all operations
+     * @param listener metrics listener, null removes global listener
+     */
+    public static void setGlobalListener(@Nullable CDocMetricsListener listener) {
+        globalListener = (listener != null) ? listener : CDocMetricsListener.NOOP;
+    }
+
+    public static CDocMetricsListener getGlobalListener() {
+        return globalListener;
+    }
+
+    /**
+     * @return listener for operations started from the current thread: listener set by
+     *      {@link #useListener(CDocMetricsListener)} or global listener
+     */
+    public static CDocMetricsListener getListener() {
+        CDocMetricsListener listener = THREAD_LISTENER.get();
+        return (listener != null) ? listener : globalListener;
+    }
+
+    /**
+     * Use listener for operations started from the current thread, until returned scope is closed. Operation
+     * metrics are reported to listener also when operation uses other threads.
+     * <pre>
+     * try (CDocMetrics.Scope scope = CDocMetrics.useListener(listener)) {
+     *     Envelope.decrypt(...);
+     * }
+     * </pre>
+     * @param listener metrics listener
+     * @return scope that restores previous listener, when closed
+     */
+    public static Scope useListener(CDocMetricsListener listener) {
+        Objects.requireNonNull(listener);
+        CDocMetricsListener previous = THREAD_LISTENER.get();
+        THREAD_LISTENER.set(listener);
+        return () -> {
+            if (previous != null) {
+                THREAD_LISTENER.set(previous);
+            } else {
+                THREAD_LISTENER.remove();
+            }
+        };
+    }
+
+    /**
+     * Scope of thread listener, see {@link #useListener(CDocMetricsListener)}
+     */
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,36 @@
+package ee.cyber.cdoc2.metrics;
+
+
+/**
+ * Receives metrics of CDOC2 operations (for example to export them to monitoring). Register globally with
+ * {@link CDocMetrics#setGlobalListener(CDocMetricsListener)} or per operation with
+ * {@link ee.cyber.cdoc2.CDocBuilder#withMetricsListener(CDocMetricsListener)} and
+ * {@link ee.cyber.cdoc2.CDocDecrypter#withMetricsListener(CDocMetricsListener)}.
+ * <p>
+ * Listener is called from the thread that performed the operation, after the operation has finished, and must be
+ * thread-safe when operations run concurrently. Exceptions thrown by listener are logged and ignored. When no
+ * listener is registered ({@link #NOOP}), operations are not measured.
+ * </p>
+ */
+public interface CDocMetricsListener {
+
+    /** Listener that ignores all events. Operations are not measured, when this listener is used */
+    CDocMetricsListener NOOP = new CDocMetricsListener() { };
+
+    /**
+     * Called when operation has completed successfully
+     * @param metrics operation metrics
+     */
+    default void onCompleted(OperationMetrics metrics) {
+        // ignored by default
+    }
+
+    /**
+     * Called when operation has failed. {@link OperationMetrics#failure()} contains the cause and
+     * {@link OperationMetrics#failedPhase()} the phase in progress
+     * @param metrics operation metrics measured until failure
+     */
+    default void onFailed(OperationMetrics metrics) {
+        // ignored by default
+    }
+}
@@ -0,0 +1,18 @@
+package ee.cyber.cdoc2.metrics;
+
+
+/**
+ * CDOC2 operation reported to {@link CDocMetricsListener}
+ */
+public enum CDocOperation {
+    /** FMK generation and recipient building, see {@link ee.cyber.cdoc2.container.Envelope#prepare} */
+    PREPARE,
+    /** Payload encryption, see {@link ee.cyber.cdoc2.container.Envelope#encrypt} */
+    ENCRYPT,
+    /** Payload decryption to files or to sink, see {@link ee.cyber.cdoc2.container.Envelope#decrypt} */
+    DECRYPT,
+    /** Listing entries, see {@link ee.cyber.cdoc2.container.Envelope#list} */
+    LIST,
+    /** Decryption of CDOC for re-encryption, see {@link ee.cyber.cdoc2.container.Envelope#reEncrypt} */
+    RE_ENCRYPT
+}
@@ -0,0 +1,61 @@
+package ee.cyber.cdoc2.metrics;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * JFR event for processing CDOC2 container (decrypt, list or re-encrypt), from header parsing until payload MAC
+ * check
+ */
+@Name("ee.cyber.cdoc2.Container")
+@Label("CDOC2 Container")
+public final class ContainerEvent extends CDocEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Recipient Type")
+    String recipientType;
+
+    @Label("Container Size")
+    @DataAmount
+    long containerBytes;
+
+    @Label("Entries")
+    long entryCount;
+
+    /**
+     * Create and begin event
+     * @param operation operation performed
+     * @return started event
+     */
+    public static ContainerEvent begin(CDocOperation operation) {
+        ContainerEvent event = new ContainerEvent();
+        event.operation = operation.name();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param recipientType type of the recipient matching decryption key material
+     */
+    public void setRecipientType(String recipientType) {
+        this.recipientType = recipientType;
+    }
+
+    /**
+     * @param containerBytes bytes read from container
+     */
+    public void setContainerBytes(long containerBytes) {
+        this.containerBytes = containerBytes;
+    }
+
+    /**
+     * @param entryCount number of entries processed
+     */
+    public void setEntryCount(long entryCount) {
+        this.entryCount = entryCount;
+    }
+}
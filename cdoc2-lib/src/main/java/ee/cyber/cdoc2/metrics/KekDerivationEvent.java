@@ -0,0 +1,37 @@
+package ee.cyber.cdoc2.metrics;
+
+import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.container.recipients.ServerRecipient;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * JFR event for KEK derivation for decryption ({@code Recipient.deriveKek}), including key server request for
+ * server recipients
+ */
+@Name("ee.cyber.cdoc2.KekDerivation")
+@Label("CDOC2 KEK Derivation")
+public final class KekDerivationEvent extends CDocEvent {
+
+    @Label("Recipient Type")
+    String recipientType;
+
+    @Label("Key Server")
+    boolean keyServer;
+
+    /**
+     * Create and begin event
+     * @param recipient recipient that KEK is derived for
+     * @return started event
+     */
+    public static KekDerivationEvent begin(Recipient recipient) {
+        KekDerivationEvent event = new KekDerivationEvent();
+        if (event.isEnabled()) {
+            event.recipientType = recipient.getClass().getSimpleName();
+            event.keyServer = recipient instanceof ServerRecipient;
+        }
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,68 @@
+package ee.cyber.cdoc2.metrics;
+
+import ee.cyber.cdoc2.client.model.Capsule;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.annotation.Nullable;
+
+
+/**
+ * JFR event for key server request ({@code KeyCapsuleClientImpl} storeCapsule and getCapsule)
+ */
+@Name("ee.cyber.cdoc2.KeyServer")
+@Label("CDOC2 Key Server Request")
+public final class KeyServerEvent extends CDocEvent {
+
+    public static final String STORE_CAPSULE = "storeCapsule";
+    public static final String GET_CAPSULE = "getCapsule";
+
+    @Label("Request")
+    String request;
+
+    @Label("Server Id")
+    String serverId;
+
+    @Label("Capsule Type")
+    String capsuleType;
+
+    @Label("Capsule Key Material Size")
+    @DataAmount
+    int capsuleBytes;
+
+    @Label("Cached")
+    boolean cached;
+
+    /**
+     * Create and begin event
+     * @param request {@link #STORE_CAPSULE} or {@link #GET_CAPSULE}
+     * @param serverId key server identifier
+     * @return started event
+     */
+    public static KeyServerEvent begin(String request, String serverId) {
+        KeyServerEvent event = new KeyServerEvent();
+        event.request = request;
+        event.serverId = serverId;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param capsule capsule stored or received, null if capsule was not found
+     */
+    public void setCapsule(@Nullable Capsule capsule) {
+        if ((capsule != null) && isEnabled()) {
+            capsuleType = String.valueOf(capsule.getCapsuleType());
+            byte[] keyMaterial = capsule.getEphemeralKeyMaterial();
+            capsuleBytes = (keyMaterial != null) ? keyMaterial.length : 0;
+        }
+    }
+
+    /**
+     * @param cached whether capsule was returned from capsule cache without request
+     */
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+}
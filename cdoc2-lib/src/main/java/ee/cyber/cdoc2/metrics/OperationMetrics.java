@@ -0,0 +1,60 @@
+package ee.cyber.cdoc2.metrics;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Map;
+
+
+/**
+ * Metrics of a single {@link CDocOperation}, reported to {@link CDocMetricsListener}.
+ * <p>
+ * Phase durations are measured in threads doing the work. When work is done in parallel (recipient build threads,
+ * pipelined encryption), sum of phase durations may exceed operation duration.
+ * </p>
+ * @param operation operation
+ * @param duration total duration of the operation
+ * @param phaseDurations time spent in each phase, phases not performed are missing
+ * @param containerBytes CDOC2 container bytes written (encryption) or read (decryption)
+ * @param payloadBytes compressed payload (tar zlib stream) bytes encrypted or decrypted, before encryption overhead
+ * @param entryCount number of files encrypted, decrypted or listed
+ * @param entryBytes sum of file sizes encrypted, decrypted or listed
+ * @param failedPhase phase in progress, when operation failed. null if operation succeeded or failed outside of
+ *                    measured phases
+ * @param failure cause of failure, null if operation succeeded
+ */
+public record OperationMetrics(
+    CDocOperation operation,
+    Duration duration,
+    Map<Phase, Duration> phaseDurations,
+    long containerBytes,
+    long payloadBytes,
+    long entryCount,
+    long entryBytes,
+    @Nullable Phase failedPhase,
+    @Nullable Throwable failure
+) {
+
+    public OperationMetrics {
+        phaseDurations = Map.copyOf(phaseDurations);
+    }
+
+    /**
+     * @param phase processing phase
+     * @return time spent in phase, {@link Duration#ZERO} if phase was not performed
+     */
+    public Duration phaseDuration(Phase phase) {
+        return phaseDurations.getOrDefault(phase, Duration.ZERO);
+    }
+
+    /**
+     * @return payload compression ratio (entryBytes / payloadBytes), {@link Double#NaN} if payload was not
+     *      processed (prepare, listing from table of contents)
+     */
+    public double compressionRatio() {
+        return (payloadBytes > 0) ? (double) entryBytes / payloadBytes : Double.NaN;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
@@ -0,0 +1,55 @@
+package ee.cyber.cdoc2.metrics;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * JFR event for processing CDOC2 payload: decryption, inflate, tar parsing and writing entries, payload MAC check
+ */
+@Name("ee.cyber.cdoc2.Payload")
+@Label("CDOC2 Payload")
+public final class PayloadEvent extends CDocEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Encryption Method")
+    String encryptionMethod;
+
+    @Label("Payload Size")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Entries")
+    long entryCount;
+
+    /**
+     * Create and begin event
+     * @param operation operation performed
+     * @param encryptionMethod payload encryption method name
+     * @return started event
+     */
+    public static PayloadEvent begin(CDocOperation operation, String encryptionMethod) {
+        PayloadEvent event = new PayloadEvent();
+        event.operation = operation.name();
+        event.encryptionMethod = encryptionMethod;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param payloadBytes encrypted payload bytes read from container
+     */
+    public void setPayloadBytes(long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    /**
+     * @param entryCount number of entries processed
+     */
+    public void setEntryCount(long entryCount) {
+        this.entryCount = entryCount;
+    }
+}
@@ -0,0 +1,27 @@
+package ee.cyber.cdoc2.metrics;
+
+
+/**
+ * Processing phase of {@link CDocOperation}. Payload phases are streamed: payload is decrypted, inflated and
+ * written in small blocks, time of each phase is the sum of time spent on its blocks.
+ */
+public enum Phase {
+    /** Reading and parsing CDOC2 header, header HMAC check */
+    HEADER_PARSE,
+    /** Finding recipient for decryption key material from header */
+    RECIPIENT_MATCH,
+    /** KEK derivation and FMK encryption/decryption, without key server requests */
+    KEK_DERIVATION,
+    /** Key server requests (storing and querying key capsules) */
+    KEY_SERVER,
+    /** Payload encryption (ChaCha20-Poly1305) and writing encrypted container to output */
+    PAYLOAD_ENCRYPT,
+    /** Creating tar and deflate compression, including reading payload files */
+    DEFLATE,
+    /** Reading encrypted container and payload decryption (ChaCha20-Poly1305) */
+    PAYLOAD_DECRYPT,
+    /** Inflate and tar parsing */
+    INFLATE,
+    /** Writing decrypted files (to disk, to sink or to re-encrypted container) */
+    DISK_WRITE
+}
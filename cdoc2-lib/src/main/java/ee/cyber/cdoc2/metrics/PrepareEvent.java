@@ -0,0 +1,42 @@
+package ee.cyber.cdoc2.metrics;
+
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.List;
+
+
+/**
+ * JFR event for {@code Envelope.prepare}: file master key generation and building recipients
+ */
+@Name("ee.cyber.cdoc2.Prepare")
+@Label("CDOC2 Envelope Prepare")
+public final class PrepareEvent extends CDocEvent {
+
+    @Label("Recipients")
+    int recipientCount;
+
+    @Label("Key Origins")
+    String keyOrigins;
+
+    @Label("Key Server")
+    boolean keyServer;
+
+    /**
+     * Create and begin event
+     * @param recipients recipients key material
+     * @param keyServer whether key capsules are stored in key server
+     * @return started event
+     */
+    public static PrepareEvent begin(List<EncryptionKeyMaterial> recipients, boolean keyServer) {
+        PrepareEvent event = new PrepareEvent();
+        if (event.isEnabled()) {
+            event.recipientCount = recipients.size();
+            event.keyOrigins = joinDistinct(recipients.stream().map(r -> String.valueOf(r.getKeyOrigin())));
+            event.keyServer = keyServer;
+        }
+        event.begin();
+        return event;
+    }
+}
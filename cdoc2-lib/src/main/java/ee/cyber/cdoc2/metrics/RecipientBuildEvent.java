@@ -0,0 +1,63 @@
+package ee.cyber.cdoc2.metrics;
+
+import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * JFR event for {@code RecipientFactory.buildRecipients}: KEK derivation and FMK encryption for all recipients,
+ * storing key capsules in key server
+ */
+@Name("ee.cyber.cdoc2.RecipientBuild")
+@Label("CDOC2 Recipient Build")
+public final class RecipientBuildEvent extends CDocEvent {
+
+    @Label("Recipients")
+    int recipientCount;
+
+    @Label("Key Origins")
+    String keyOrigins;
+
+    @Label("Recipient Types")
+    String recipientTypes;
+
+    @Label("Key Server")
+    boolean keyServer;
+
+    @Label("Parallel")
+    boolean parallel;
+
+    /**
+     * Create and begin event
+     * @param recipientKeys recipients key material
+     * @param keyServer whether key capsules are stored in key server
+     * @param parallel whether recipients are built in parallel
+     * @return started event
+     */
+    public static RecipientBuildEvent begin(List<EncryptionKeyMaterial> recipientKeys, boolean keyServer,
+                                            boolean parallel) {
+        RecipientBuildEvent event = new RecipientBuildEvent();
+        if (event.isEnabled()) {
+            event.recipientCount = recipientKeys.size();
+            event.keyOrigins = joinDistinct(recipientKeys.stream().map(r -> String.valueOf(r.getKeyOrigin())));
+            event.keyServer = keyServer;
+            event.parallel = parallel;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param recipients recipients built
+     */
+    public void setRecipients(Recipient[] recipients) {
+        if (isEnabled()) {
+            recipientTypes = joinDistinct(Arrays.stream(recipients).map(r -> r.getClass().getSimpleName()));
+        }
+    }
+}
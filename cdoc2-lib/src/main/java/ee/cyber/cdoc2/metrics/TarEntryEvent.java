@@ -0,0 +1,60 @@
+package ee.cyber.cdoc2.metrics;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * JFR event for processing single tar entry of decrypted payload: inflate and writing entry data. Recorded without
+ * stack trace, as payload may contain very many entries.
+ */
+@Name("ee.cyber.cdoc2.TarEntry")
+@Label("CDOC2 Tar Entry")
+@StackTrace(false)
+public final class TarEntryEvent extends CDocEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Entry Size")
+    @DataAmount
+    long entrySize;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Processed")
+    boolean processed;
+
+    /**
+     * Create and begin event
+     * @param operation operation performed
+     * @param entrySize entry size from tar header
+     * @return started event
+     */
+    public static TarEntryEvent begin(CDocOperation operation, long entrySize) {
+        TarEntryEvent event = new TarEntryEvent();
+        event.operation = operation.name();
+        event.entrySize = entrySize;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param written entry bytes written by delegate
+     * @param compressed compressed bytes read for entry
+     * @param entryProcessed whether entry was processed (not ignored) by delegate
+     */
+    public void setResult(long written, long compressed, boolean entryProcessed) {
+        this.bytesWritten = written;
+        this.compressedBytes = compressed;
+        this.processed = entryProcessed;
+    }
+}
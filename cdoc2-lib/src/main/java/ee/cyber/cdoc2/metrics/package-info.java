@@ -0,0 +1,9 @@
+/**
+ * Metrics SPI for observing CDOC2 operations: phase timings, byte counters, compression ratio and failure causes.
+ * See {@link ee.cyber.cdoc2.metrics.CDocMetricsListener}
+ * <p>
+ * Java Flight Recorder events ({@link ee.cyber.cdoc2.metrics.CDocEvent} subclasses, category "CDOC2") for
+ * correlating CDOC2 processing with CPU, GC and I/O events in JFR recordings.
+ * </p>
+ */
+package ee.cyber.cdoc2.metrics;
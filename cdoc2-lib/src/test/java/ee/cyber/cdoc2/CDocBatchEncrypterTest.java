@@ -0,0 +1,117 @@
+package ee.cyber.cdoc2;
+
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static ee.cyber.cdoc2.KeyUtil.createKeyPair;
+import static ee.cyber.cdoc2.KeyUtil.getKeyPairRsaInstance;
+import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class CDocBatchEncrypterTest {
+
+    @Test
+    void testBatchEncryption(@TempDir Path tempDir) throws Exception {
+        KeyPair aliceKeyPair = createKeyPair();
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial alice = EncryptionKeyMaterial.fromPublicKey(aliceKeyPair.getPublic(),
+            getPublicKeyLabelParams("alice"));
+        EncryptionKeyMaterial bob = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            getPublicKeyLabelParams("bob"));
+
+        int jobCount = 12;
+        CDocBatchEncrypter batch = new CDocBatchEncrypter().withConcurrency(3);
+        for (int i = 0; i < jobCount; i++) {
+            File payload = Files.writeString(tempDir.resolve("payload-" + i + ".txt"), "payload " + i).toFile();
+            List<EncryptionKeyMaterial> recipients = (i % 2 == 0) ? List.of(alice, bob) : List.of(bob);
+            batch.withJob(List.of(payload), recipients, tempDir.resolve("container-" + i + ".cdoc").toFile());
+        }
+
+        List<CDocBatchEncrypter.JobResult> results = batch.encrypt();
+
+        assertEquals(jobCount, results.size());
+        for (int i = 0; i < jobCount; i++) {
+            CDocBatchEncrypter.JobResult result = results.get(i);
+            assertTrue(result.isSuccess(), () -> "Job failed " + result.failure());
+            assertEquals(tempDir.resolve("container-" + i + ".cdoc").toFile(), result.job().destination());
+
+            Path outDir = Files.createDirectory(tempDir.resolve("out-" + i));
+            List<String> decrypted = new CDocDecrypter()
+                .withCDoc(result.job().destination())
+                .withRecipient(DecryptionKeyMaterial.fromKeyPair(bobKeyPair))
+                .withDestinationDirectory(outDir.toFile())
+                .decrypt();
+            assertEquals(List.of("payload-" + i + ".txt"), decrypted);
+            assertEquals("payload " + i, Files.readString(outDir.resolve("payload-" + i + ".txt")));
+        }
+    }
+
+    @Test
+    void testFailedJobsDontAbortBatch(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial bob = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            getPublicKeyLabelParams("bob"));
+
+        KeyPairGenerator rsaGenerator = getKeyPairRsaInstance();
+        rsaGenerator.initialize(512);
+        EncryptionKeyMaterial weakRsa = EncryptionKeyMaterial.fromPublicKey(
+            rsaGenerator.generateKeyPair().getPublic(), getPublicKeyLabelParams("weak"));
+
+        File payload = Files.writeString(tempDir.resolve("payload.txt"), "payload").toFile();
+        File missingPayload = tempDir.resolve("missing.txt").toFile();
+        File duplicateDestination = tempDir.resolve("duplicate.cdoc").toFile();
+
+        List<CDocBatchEncrypter.Job> jobs = new ArrayList<>();
+        jobs.add(new CDocBatchEncrypter.Job(List.of(payload), List.of(bob), tempDir.resolve("ok.cdoc").toFile()));
+        jobs.add(new CDocBatchEncrypter.Job(List.of(missingPayload), List.of(bob),
+            tempDir.resolve("missing.cdoc").toFile()));
+        jobs.add(new CDocBatchEncrypter.Job(List.of(payload), List.of(bob, weakRsa),
+            tempDir.resolve("weak.cdoc").toFile()));
+        jobs.add(new CDocBatchEncrypter.Job(List.of(payload), List.of(bob), duplicateDestination));
+        jobs.add(new CDocBatchEncrypter.Job(List.of(payload), List.of(bob), duplicateDestination));
+        jobs.add(new CDocBatchEncrypter.Job(List.of(payload), List.of(bob),
+            tempDir.resolve("no-such-dir").resolve("out.cdoc").toFile()));
+
+        List<CDocBatchEncrypter.JobResult> results = new CDocBatchEncrypter()
+            .withJobs(jobs)
+            .withConcurrency(2)
+            .encrypt();
+
+        assertEquals(jobs.size(), results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertNull(results.get(0).failure());
+        assertTrue(Files.size(tempDir.resolve("ok.cdoc")) > 0);
+
+        assertInstanceOf(CDocValidationException.class, results.get(1).failure());
+        assertInstanceOf(CDocValidationException.class, results.get(2).failure());
+        assertTrue(results.get(3).isSuccess());
+        assertInstanceOf(CDocValidationException.class, results.get(4).failure());
+        assertFalse(results.get(5).isSuccess()); // destination directory doesn't exist
+
+        assertFalse(Files.exists(tempDir.resolve("missing.cdoc")));
+        assertFalse(Files.exists(tempDir.resolve("weak.cdoc")));
+    }
+
+    @Test
+    void testInvalidBatch() {
+        assertThrows(CDocValidationException.class, () -> new CDocBatchEncrypter().encrypt());
+        assertThrows(IllegalArgumentException.class, () -> new CDocBatchEncrypter().withConcurrency(0));
+    }
+}
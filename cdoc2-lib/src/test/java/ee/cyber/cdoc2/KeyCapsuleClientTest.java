@@ -1,27 +1,58 @@
 package ee.cyber.cdoc2;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import javax.net.ssl.SSLContext;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Isolated;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import ee.cyber.cdoc2.client.CapsuleCache;
 import ee.cyber.cdoc2.client.Cdoc2KeyCapsuleApiClient;
+import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.client.api.ApiException;
 import ee.cyber.cdoc2.client.model.Capsule;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 @Isolated
 @ExtendWith(MockitoExtension.class)
 class KeyCapsuleClientTest {
 
+    private static final String TRUST_STORE = "../cdoc2-cli/config/localhost/clienttruststore.jks"; //cdoc2-lib
+
     @InjectMocks
     KeyCapsuleClientImpl capsuleClient;
 
@@ -49,11 +80,273 @@ class KeyCapsuleClientTest {
         verify(capsuleApiClient, times(1)).createCapsule(any(), any());
     }
 
+    @Test
+    void testStoreCapsulesConcurrently() throws Exception {
+        int capsuleCount = 20;
+        int maxRequests = 3;
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(capsuleApiClient.createCapsule(any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20); // simulate network round trip
+                Capsule capsule = invocation.getArgument(0);
+                return "KC" + capsule.getRecipientId()[0];
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        List<Capsule> capsules = new ArrayList<>();
+        for (int i = 0; i < capsuleCount; i++) {
+            capsules.add(createCapsule((byte) i));
+        }
+
+        capsuleClient.setMaxConcurrentRequests(maxRequests);
+        List<String> transactionIds = capsuleClient.storeCapsules(capsules);
+
+        assertEquals(IntStream.range(0, capsuleCount).mapToObj(i -> "KC" + i).toList(), transactionIds);
+        assertTrue(maxInFlight.get() > 1, "Expected concurrent requests");
+        assertTrue(maxInFlight.get() <= maxRequests, "Too many concurrent requests " + maxInFlight.get());
+        verify(capsuleApiClient, times(capsuleCount)).createCapsule(any());
+    }
+
+    @Test
+    void testStoreCapsulesSequentially() throws Exception {
+        when(capsuleApiClient.createCapsule(any())).thenReturn("KC1", "KC2");
+
+        capsuleClient.setMaxConcurrentRequests(1);
+        List<String> transactionIds = capsuleClient.storeCapsules(List.of(createCapsule(), createCapsule()));
+
+        assertEquals(List.of("KC1", "KC2"), transactionIds);
+        assertThrows(IllegalArgumentException.class, () -> capsuleClient.setMaxConcurrentRequests(0));
+    }
+
+    @Test
+    void testStoreCapsulesFailure() throws Exception {
+        when(capsuleApiClient.createCapsule(any())).thenReturn("KC1")
+            .thenThrow(new ApiException(500, "Internal server error"));
+
+        List<Capsule> capsules = List.of(createCapsule(), createCapsule(), createCapsule());
+        assertThrows(ExtApiException.class, () -> capsuleClient.storeCapsules(capsules));
+    }
+
+    @Test
+    void testGetCapsuleCached() throws Exception {
+        MutableClock clock = new MutableClock();
+        CapsuleCache cache = new CapsuleCache(10, Duration.ofMinutes(5), clock);
+        KeyCapsuleClientImpl client = createClient(cache);
+        Capsule capsule = createCapsule();
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.of(capsule));
+
+        assertEquals(Optional.of(capsule), client.getCapsule("KC1"));
+        assertEquals(Optional.of(capsule), client.getCapsule("KC1"));
+        verify(capsuleApiClient, times(1)).getCapsule("KC1");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        clock.advance(Duration.ofMinutes(5));
+        assertEquals(Optional.of(capsule), client.getCapsule("KC1"));
+        verify(capsuleApiClient, times(2)).getCapsule("KC1");
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testCapsuleNotFoundNotCached() throws Exception {
+        CapsuleCache cache = new CapsuleCache(10, Duration.ofMinutes(5));
+        KeyCapsuleClientImpl client = createClient(cache);
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.empty());
+
+        assertTrue(client.getCapsule("KC1").isEmpty());
+        assertTrue(client.getCapsule("KC1").isEmpty());
+        verify(capsuleApiClient, times(2)).getCapsule("KC1");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testCachedCapsuleDoesNotOutliveCapsuleExpiry() throws Exception {
+        MutableClock clock = new MutableClock();
+        CapsuleCache cache = new CapsuleCache(10, Duration.ofDays(1), clock);
+        KeyCapsuleClientImpl client = createClient(cache);
+        client.setExpiryDuration(Duration.ofMinutes(1));
+        Capsule capsule = createCapsule();
+        when(capsuleApiClient.createCapsule(any(), any())).thenReturn("KC1");
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.of(capsule));
+
+        String transactionId = client.storeCapsule(capsule);
+        client.getCapsule(transactionId);
+        client.getCapsule(transactionId);
+        verify(capsuleApiClient, times(1)).getCapsule(transactionId);
+
+        clock.advance(Duration.ofMinutes(2));
+        client.getCapsule(transactionId);
+        verify(capsuleApiClient, times(2)).getCapsule(transactionId);
+    }
+
+    @Test
+    void testCapsuleCacheLruEviction() {
+        CapsuleCache cache = new CapsuleCache(2, Duration.ofMinutes(5));
+        cache.put("server", "KC1", createCapsule());
+        cache.put("server", "KC2", createCapsule());
+        assertTrue(cache.get("server", "KC1").isPresent()); // KC2 is now least recently used
+        cache.put("server", "KC3", createCapsule());
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.get("server", "KC1").isPresent());
+        assertTrue(cache.get("server", "KC2").isEmpty());
+        assertTrue(cache.get("other-server", "KC1").isEmpty());
+        assertTrue(cache.get("server", "KC3").isPresent());
+    }
+
+    @Test
+    void testCapsuleExpiryTimesDoNotEvictCapsules() {
+        CapsuleCache cache = new CapsuleCache(2, Duration.ofMinutes(5));
+        cache.put("server", "KC1", createCapsule());
+        cache.put("server", "KC2", createCapsule());
+        for (int i = 0; i < 10; i++) {
+            cache.putExpiryTime("server", "created-" + i, OffsetDateTime.now().plusMinutes(1));
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertTrue(cache.get("server", "KC1").isPresent());
+        assertTrue(cache.get("server", "KC2").isPresent());
+    }
+
+    @Test
+    void testCapsuleCacheDisabledByDefault(@TempDir Path tempDir) throws Exception {
+        Path clientStore = tempDir.resolve("cdoc2client.p12");
+        Files.copy(Path.of("../cdoc2-cli/keys/cdoc2client.p12"), clientStore);
+        Properties p = createMutualTlsProperties(clientStore);
+        try (KeyCapsuleClientImpl client = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create(p)) {
+            assertNull(client.getCapsuleCache());
+        }
+
+        p.setProperty("cdoc2.client.server.capsule-cache.enabled", "true");
+        try (KeyCapsuleClientImpl client = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create(p)) {
+            assertNotNull(client.getCapsuleCache());
+        }
+    }
+
+    @Test
+    void testSharedTlsContext(@TempDir Path tempDir) throws Exception {
+        Path clientStore = tempDir.resolve("cdoc2client.p12");
+        Files.copy(Path.of("../cdoc2-cli/keys/cdoc2client.p12"), clientStore);
+        Properties p = createMutualTlsProperties(clientStore);
+        p.setProperty("cdoc2.client.ssl.shared-context", "true");
+        try (KeyCapsuleClientImpl first = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create(p)) {
+            assertNotNull(first.getClientCertificate());
+
+            try (KeyCapsuleClientImpl second = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create(p)) {
+                assertEquals(first.getClientCertificate(), second.getClientCertificate());
+            }
+
+            // shared context is not used with wrong password
+            p.setProperty("cdoc2.client.ssl.client-store-password", "wrong");
+            assertThrows(IOException.class, () -> KeyCapsuleClientImpl.create(p));
+            p.setProperty("cdoc2.client.ssl.client-store-password", "passwd");
+
+            // replaced key store is loaded again, replacement has additional certificate
+            KeyStore replacement = KeyStore.getInstance("PKCS12");
+            try (InputStream is = Files.newInputStream(clientStore)) {
+                replacement.load(is, "passwd".toCharArray());
+            }
+            try (InputStream is = Files.newInputStream(Path.of("../cdoc2-cli/keys/37101010021_cert.pem"))) {
+                replacement.setCertificateEntry("replaced",
+                    CertificateFactory.getInstance("X.509").generateCertificate(is));
+            }
+            try (OutputStream os = Files.newOutputStream(clientStore)) {
+                replacement.store(os, "passwd".toCharArray());
+            }
+            try (KeyCapsuleClientImpl replaced = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create(p)) {
+                assertNotNull(replaced.getClientCertificate("replaced"));
+                assertNull(first.getClientCertificate("replaced"));
+            }
+
+            Files.delete(clientStore);
+            assertThrows(IOException.class, () -> KeyCapsuleClientImpl.create(p));
+        } finally {
+            KeyCapsuleClientImpl.clearSharedTlsContexts();
+        }
+    }
+
+    @Test
+    void testSslContextSessionCache() throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        try (InputStream is = Files.newInputStream(Path.of(TRUST_STORE))) {
+            trustStore.load(is, "passwd".toCharArray());
+        }
+
+        SSLContext sslContext = Cdoc2KeyCapsuleApiClient.builder()
+            .withTrustKeyStore(trustStore)
+            .withSessionCacheSize(10)
+            .withSessionTimeoutSec(3600)
+            .buildSslContext();
+
+        assertEquals(10, sslContext.getClientSessionContext().getSessionCacheSize());
+        assertEquals(3600, sslContext.getClientSessionContext().getSessionTimeout());
+    }
+
+    private KeyCapsuleClientImpl createClient(CapsuleCache cache) {
+        KeyCapsuleClientImpl client =
+            (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create("server", capsuleApiClient, capsuleApiClient);
+        client.setCapsuleCache(cache);
+        return client;
+    }
+
+    private static Properties createMutualTlsProperties(Path clientStore) {
+        Properties p = new Properties();
+        p.setProperty("cdoc2.client.server.id", "localhost");
+        p.setProperty("cdoc2.client.server.base-url.post", "https://localhost:8443");
+        p.setProperty("cdoc2.client.server.base-url.get", "https://localhost:8444");
+        p.setProperty("cdoc2.client.ssl.trust-store.type", "JKS");
+        p.setProperty("cdoc2.client.ssl.trust-store", TRUST_STORE);
+        p.setProperty("cdoc2.client.ssl.trust-store-password", "passwd");
+        p.setProperty("cdoc2.client.ssl.client-store.type", "PKCS12");
+        p.setProperty("cdoc2.client.ssl.client-store", clientStore.toString());
+        p.setProperty("cdoc2.client.ssl.client-store-password", "passwd");
+        return p;
+    }
+
     private Capsule createCapsule() {
+        return createCapsule((byte) 0);
+    }
+
+    private Capsule createCapsule(byte recipientIdPrefix) {
+        byte[] recipientId = new byte[1024];
+        recipientId[0] = recipientIdPrefix;
         return new Capsule()
             .capsuleType(Capsule.CapsuleTypeEnum.ECC_SECP384R1)
-            .recipientId(new byte[1024])
+            .recipientId(recipientId)
             .ephemeralKeyMaterial(new byte[1024]);
     }
 
+    /**
+     * Clock that is moved forward by test
+     */
+    private static final class MutableClock extends Clock {
+        private Instant instant = Instant.now();
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
 }
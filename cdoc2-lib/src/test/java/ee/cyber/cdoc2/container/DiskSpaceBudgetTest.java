@@ -0,0 +1,65 @@
+package ee.cyber.cdoc2.container;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskSpaceBudgetTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    void testFreeSpaceIsSampledPeriodically() {
+        AtomicInteger samples = new AtomicInteger();
+        DiskSpaceBudget budget = new DiskSpaceBudget(() -> {
+            samples.incrementAndGet();
+            return 500 * GB;
+        }, 1000 * GB, 98);
+
+        long bytes = 4 * GB;
+        for (long written = 0; written < bytes; written += Tar.DEFAULT_BUFFER_SIZE) {
+            budget.consume(Tar.DEFAULT_BUFFER_SIZE);
+        }
+
+        // free space is sampled after SAMPLE_BYTES or SAMPLE_INTERVAL_NANOS, not for every buffer
+        long bufferCount = bytes / Tar.DEFAULT_BUFFER_SIZE;
+        assertTrue(samples.get() < bufferCount / 100, "Too many samples: " + samples.get());
+    }
+
+    @Test
+    void testThresholdExceeded() {
+        long total = 100 * GB;
+        AtomicLong usable = new AtomicLong(10 * GB);
+        // 90% used, 8 GB can be written under 98% threshold
+        DiskSpaceBudget budget = new DiskSpaceBudget(usable::get, total, 98);
+
+        assertDoesNotThrow(() -> budget.reserve(7 * GB));
+        // pre-reservation fails before anything is written
+        assertThrows(IllegalStateException.class, () -> budget.reserve(9 * GB));
+
+        // bytes written are tracked between samples
+        for (long written = 0; written < 7 * GB; written += 1024 * 1024) {
+            usable.addAndGet(-1024 * 1024);
+            budget.consume(1024 * 1024);
+        }
+
+        // other process uses remaining space, noticed when free space is sampled
+        usable.set(2 * GB);
+        assertThrows(IllegalStateException.class, () -> {
+            while (true) {
+                budget.consume(Tar.DEFAULT_BUFFER_SIZE);
+            }
+        });
+    }
+
+    @Test
+    void testDiskFull() {
+        DiskSpaceBudget budget = new DiskSpaceBudget(() -> GB, 100 * GB, 98);
+        assertThrows(IllegalStateException.class, () -> budget.consume(Tar.DEFAULT_BUFFER_SIZE));
+    }
+}
@@ -2,7 +2,10 @@ package ee.cyber.cdoc2.container;
 
 import ee.cyber.cdoc2.container.recipients.EccRecipient;
 import ee.cyber.cdoc2.container.recipients.EccServerKeyRecipient;
+import ee.cyber.cdoc2.container.recipients.HeaderRecipients;
 import ee.cyber.cdoc2.container.recipients.Recipient;
+import ee.cyber.cdoc2.container.recipients.RecipientBuildTiming;
+import ee.cyber.cdoc2.crypto.ChaChaStream;
 import ee.cyber.cdoc2.crypto.Crypto;
 import ee.cyber.cdoc2.crypto.ECKeys;
 import ee.cyber.cdoc2.crypto.EllipticCurve;
@@ -14,11 +17,25 @@ import ee.cyber.cdoc2.CDocConfiguration;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.model.Capsule;
 import ee.cyber.cdoc2.container.recipients.RSAServerKeyRecipient;
+import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.Header;
+import ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.RecipientRecord;
 import ee.cyber.cdoc2.fbs.recipients.PBKDF2Capsule;
 import ee.cyber.cdoc2.fbs.recipients.RSAPublicKeyCapsule;
 import ee.cyber.cdoc2.fbs.recipients.SymmetricKeyCapsule;
+import ee.cyber.cdoc2.metrics.CDocEvent;
+import ee.cyber.cdoc2.metrics.CDocMetrics;
+import ee.cyber.cdoc2.metrics.CDocMetricsListener;
+import ee.cyber.cdoc2.metrics.CDocOperation;
+import ee.cyber.cdoc2.metrics.ContainerEvent;
+import ee.cyber.cdoc2.metrics.KekDerivationEvent;
+import ee.cyber.cdoc2.metrics.OperationMetrics;
+import ee.cyber.cdoc2.metrics.PayloadEvent;
+import ee.cyber.cdoc2.metrics.Phase;
+import ee.cyber.cdoc2.metrics.PrepareEvent;
+import ee.cyber.cdoc2.metrics.RecipientBuildEvent;
+import ee.cyber.cdoc2.metrics.TarEntryEvent;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -26,8 +43,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -38,21 +57,44 @@ import java.security.SecureRandom;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
+import com.google.flatbuffers.FlatBufferBuilder;
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.io.input.CountingInputStream;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERSequence;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
@@ -62,6 +104,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Isolated;
 import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
@@ -75,11 +119,14 @@ import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams
 import static ee.cyber.cdoc2.container.EnvelopeTestUtils.testContainer;
 import static ee.cyber.cdoc2.fbs.header.Capsule.*;
 import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_PBKDF2Capsule;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -201,6 +248,39 @@ class EnvelopeTest {
         assertEquals(publicKey, publicKeyOut);
     }
 
+    @Test
+    void testFindRecipientWithNonCanonicalRsaKey() throws Exception {
+        KeyPairGenerator generator = getKeyPairRsaInstance();
+        generator.initialize(2048);
+        RSAPublicKey publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+
+        // modulus without leading 0x00 is negative DER INTEGER, decoded to the same key with getPositiveValue()
+        byte[] modulus = publicKey.getModulus().toByteArray();
+        byte[] nonCanonical = new DERSequence(new ASN1Encodable[] {
+            new ASN1Integer(Arrays.copyOfRange(modulus, 1, modulus.length)),
+            new ASN1Integer(publicKey.getPublicExponent())
+        }).getEncoded();
+        assertFalse(Arrays.equals(RsaUtils.encodeRsaPubKey(publicKey), nonCanonical));
+        assertEquals(publicKey, RsaUtils.decodeRsaPubKey(nonCanonical));
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int capsule = RSAPublicKeyCapsule.createRSAPublicKeyCapsule(builder,
+            builder.createByteVector(nonCanonical), builder.createByteVector(new byte[256]));
+        int recipient = RecipientRecord.createRecipientRecord(builder, recipients_RSAPublicKeyCapsule, capsule,
+            builder.createString("rsa"), RecipientRecord.createEncryptedFmkVector(builder, new byte[32]),
+            FMKEncryptionMethod.XOR);
+        int recipients = Header.createRecipientsVector(builder, new int[] {recipient});
+        Header.startHeader(builder);
+        Header.addRecipients(builder, recipients);
+        builder.finish(Header.endHeader(builder));
+
+        HeaderRecipients headerRecipients = HeaderRecipients.of(Header.getRootAsHeader(builder.dataBuffer()));
+        Optional<Recipient> found = headerRecipients.findRecipient(publicKey);
+        assertTrue(found.isPresent());
+        assertEquals(publicKey, found.get().getRecipientId());
+        assertTrue(headerRecipients.findRecipient(generator.generateKeyPair().getPublic()).isEmpty());
+    }
+
     @Test
     void testEccServerSerialization(@TempDir Path tempDir) throws Exception {
         PublicKey publicKey = createPublicKey();
@@ -425,6 +505,58 @@ class EnvelopeTest {
         );
     }
 
+    @Test
+    void testServerCapsulesStoredInBatch(@TempDir Path tempDir) throws Exception {
+        KeyPair ecKeyPair = ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1);
+        KeyPairGenerator generator = getKeyPairRsaInstance();
+        generator.initialize(2048);
+        KeyPair rsaKeyPair = generator.generateKeyPair();
+        SecretKey secretKey = createSecretKey();
+
+        Map<String, Capsule> stored = new HashMap<>();
+        when(capsuleClientMock.getServerIdentifier()).thenReturn("mock_server");
+        when(capsuleClientMock.storeCapsules(any())).thenAnswer(invocation -> {
+            List<Capsule> capsules = invocation.getArgument(0);
+            return capsules.stream().map(capsule -> {
+                String transactionId = "KC" + stored.size();
+                stored.put(transactionId, capsule);
+                return transactionId;
+            }).toList();
+        });
+        when(capsuleClientMock.getCapsule(any())).thenAnswer(
+            invocation -> Optional.ofNullable(stored.get((String) invocation.getArgument(0))));
+
+        List<EncryptionKeyMaterial> recipients = List.of(
+            EncryptionKeyMaterial.fromPublicKey(ecKeyPair.getPublic(), getPublicKeyLabelParams("ec")),
+            EncryptionKeyMaterial.fromSecret(secretKey, "testServerCapsulesStoredInBatch"),
+            EncryptionKeyMaterial.fromPublicKey(rsaKeyPair.getPublic(), getPublicKeyLabelParams("rsa"))
+        );
+        File payloadFile = Files.writeString(tempDir.resolve("payload.txt"), "batch").toFile();
+        Path cdocFile = tempDir.resolve("testServerCapsulesStoredInBatch.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(recipients, capsuleClientMock).encrypt(List.of(payloadFile), os);
+        }
+
+        verify(capsuleClientMock, times(1)).storeCapsules(any());
+        verify(capsuleClientMock, times(0)).storeCapsule(any());
+        assertEquals(Capsule.CapsuleTypeEnum.ECC_SECP384R1, stored.get("KC0").getCapsuleType());
+        assertEquals(Capsule.CapsuleTypeEnum.RSA, stored.get("KC1").getCapsuleType());
+
+        List<Recipient> parsed;
+        try (InputStream is = Files.newInputStream(cdocFile)) {
+            parsed = Envelope.parseHeader(is);
+        }
+        assertInstanceOf(EccServerKeyRecipient.class, parsed.get(0));
+        assertEquals("KC0", ((EccServerKeyRecipient) parsed.get(0)).getTransactionId());
+        assertEquals("testServerCapsulesStoredInBatch", parsed.get(1).getRecipientId());
+        assertInstanceOf(RSAServerKeyRecipient.class, parsed.get(2));
+        assertEquals("KC1", ((RSAServerKeyRecipient) parsed.get(2)).getTransactionId());
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        assertEquals(List.of("payload.txt"), Envelope.decrypt(cdocFile, DecryptionKeyMaterial.fromKeyPair(rsaKeyPair),
+            outDir, null, serverId -> capsuleClientMock));
+    }
+
     @Test
     void testContainerUsingRSAKey(@TempDir Path tempDir) throws Exception {
 
@@ -475,6 +607,836 @@ class EnvelopeTest {
         );
     }
 
+    @Test
+    void testPipelinedEncryption(@TempDir Path tempDir) throws Exception {
+        testEncryptionOptions(tempDir, EncryptionOptions.defaults().withPipelining(true));
+    }
+
+    @Test
+    void testParallelDeflateEncryption(@TempDir Path tempDir) throws Exception {
+        testEncryptionOptions(tempDir, EncryptionOptions.defaults().withDeflateWorkers(3));
+        testEncryptionOptions(tempDir.resolve("pipelined"),
+            EncryptionOptions.defaults().withPipelining(true).withDeflateWorkers(3));
+    }
+
+    @Test
+    void testAdaptiveCompressionEncryption(@TempDir Path tempDir) throws Exception {
+        testEncryptionOptions(tempDir, EncryptionOptions.defaults().withAdaptiveCompression(true)
+            .withCompressionLevel(Deflater.BEST_COMPRESSION).withCompressionStrategy(Deflater.FILTERED));
+    }
+
+    @Test
+    void testChunkedEncryption(@TempDir Path tempDir) throws Exception {
+        testEncryptionOptions(tempDir, EncryptionOptions.defaults().withChunkedEncryption(true));
+        testEncryptionOptions(tempDir.resolve("parallel"), EncryptionOptions.defaults().withChunkedEncryption(true)
+            .withCipherWorkers(3).withPipelining(true).withTableOfContents(true));
+    }
+
+    @Test
+    void testChunkedEncryptionModifiedPayload(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        byte[] data = new byte[4 * ChaChaStream.SEGMENT_SIZE];
+        new Random(19).nextBytes(data);
+        File dataFile = tempDir.resolve("data.bin").toFile();
+        Files.write(dataFile.toPath(), data);
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(dataFile), dst,
+            EncryptionOptions.defaults().withChunkedEncryption(true).withCompressionLevel(Deflater.NO_COMPRESSION));
+        byte[] cdocBytes = dst.toByteArray();
+        int headerLen = ByteBuffer.wrap(cdocBytes, Envelope.FBS_HEADER_OFFSET - Integer.BYTES, Integer.BYTES)
+            .getInt();
+        assertEquals(PayloadEncryptionMethod.CHACHA20POLY1305_STREAM, Envelope.deserializeFBSHeader(
+            Arrays.copyOfRange(cdocBytes, Envelope.FBS_HEADER_OFFSET, Envelope.FBS_HEADER_OFFSET + headerLen))
+            .payloadEncryptionMethod());
+
+        // decryption parallelism is set per call
+        Path parallelOutDir = Files.createDirectories(tempDir.resolve("parallel"));
+        assertEquals(List.of("data.bin"), Envelope.decrypt(new ByteArrayInputStream(cdocBytes), decKM,
+            parallelOutDir, null, null, 3));
+        assertArrayEquals(data, Files.readAllBytes(parallelOutDir.resolve("data.bin")));
+
+        // modify third segment
+        cdocBytes[cdocBytes.length - 2 * ChaChaStream.SEGMENT_SIZE] ^= 0x01;
+        for (int cipherWorkers : new int[] {1, 3}) {
+            Path outDir = Files.createDirectories(tempDir.resolve("out-" + cipherWorkers));
+            IOException e = assertThrows(IOException.class, () -> Envelope.decrypt(
+                new ByteArrayInputStream(cdocBytes), decKM, outDir, null, null, cipherWorkers));
+            assertInstanceOf(AEADBadTagException.class, e.getCause());
+            // partially extracted file is deleted
+            assertFalse(Files.exists(outDir.resolve("data.bin")));
+        }
+    }
+
+    @Test
+    void testDecryptToSink(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        byte[] data = new byte[100_000];
+        new Random(23).nextBytes(data);
+        Path dataFile = tempDir.resolve("data.bin");
+        Files.write(dataFile, data);
+        Path textFile = tempDir.resolve("text.txt");
+        Files.writeString(textFile, "testDecryptToSink");
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(dataFile.toFile(), textFile.toFile()), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        Map<String, ByteArrayOutputStream> streams = new HashMap<>();
+        List<String> decrypted = Envelope.decrypt(new ByteArrayInputStream(cdocBytes), decKM,
+            new DecryptedEntrySink() {
+                @Override
+                public OutputStream openEntry(ArchiveEntry entry) {
+                    return streams.computeIfAbsent(entry.getName(), name -> new ByteArrayOutputStream());
+                }
+
+                @Override
+                public void rollback(List<ArchiveEntry> entries) {
+                    fail("Unexpected rollback");
+                }
+            }, null);
+
+        assertEquals(List.of("data.bin", "text.txt"), decrypted);
+        assertArrayEquals(data, streams.get("data.bin").toByteArray());
+        assertEquals("testDecryptToSink", streams.get("text.txt").toString(StandardCharsets.UTF_8));
+
+        // channels, only text.txt is written
+        Path cdocFile = tempDir.resolve("sink.cdoc");
+        Files.write(cdocFile, cdocBytes);
+        ByteArrayOutputStream textOs = new ByteArrayOutputStream();
+        List<String> fromFile = Envelope.decrypt(cdocFile, decKM, DecryptedEntrySink.ofChannels(
+            entry -> "text.txt".equals(entry.getName()) ? Channels.newChannel(textOs) : null,
+            entries -> fail("Unexpected rollback")), null);
+
+        assertEquals(List.of("text.txt"), fromFile);
+        assertEquals("testDecryptToSink", textOs.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDecryptToSinkRollbackOnWrongMac(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+
+        // files are written to sink, before MAC at the end of payload is checked
+        byte[] data = new byte[64 * 1024];
+        new Random(29).nextBytes(data);
+        Path dataFile = tempDir.resolve("data.bin");
+        Files.write(dataFile, data);
+        Path textFile = tempDir.resolve("text.txt");
+        Files.writeString(textFile, "testDecryptToSinkRollbackOnWrongMac");
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(textFile.toFile(), dataFile.toFile()), dst);
+        byte[] cdocBytes = dst.toByteArray();
+        //last 16 bytes are Poly1305 MAC, corrupt that
+        cdocBytes[cdocBytes.length - 1] ^= 0x01;
+
+        List<String> opened = new LinkedList<>();
+        List<String> rolledBack = new LinkedList<>();
+        DecryptedEntrySink sink = new DecryptedEntrySink() {
+            @Override
+            public OutputStream openEntry(ArchiveEntry entry) {
+                opened.add(entry.getName());
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public void rollback(List<ArchiveEntry> entries) {
+                entries.forEach(entry -> rolledBack.add(entry.getName()));
+            }
+        };
+
+        IOException ex = assertThrows(IOException.class, () -> Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), sink, null));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+
+        assertFalse(opened.isEmpty());
+        assertEquals(opened, rolledBack);
+    }
+
+    @Test
+    void testListFromTableOfContents(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        byte[] data = new byte[256 * 1024 + 5];
+        new Random(17).nextBytes(data);
+        File dataFile = tempDir.resolve("data.bin").toFile();
+        Files.write(dataFile.toPath(), data);
+        File textFile = tempDir.resolve("text.txt").toFile();
+        Files.writeString(textFile.toPath(), "testListFromTableOfContents");
+
+        Path cdocFile = tempDir.resolve("toc.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(List.of(encKM), null).encrypt(List.of(dataFile, textFile), os,
+                EncryptionOptions.defaults().withTableOfContents(true));
+        }
+        byte[] cdocBytes = Files.readAllBytes(cdocFile);
+        int headerLen = ByteBuffer.wrap(cdocBytes, Envelope.FBS_HEADER_OFFSET - Integer.BYTES, Integer.BYTES)
+            .getInt();
+        assertTrue(Envelope.deserializeFBSHeader(Arrays.copyOfRange(cdocBytes, Envelope.FBS_HEADER_OFFSET,
+            Envelope.FBS_HEADER_OFFSET + headerLen)).payloadTocLength() > 0);
+
+        // payload is not needed for listing, replace it with garbage
+        byte[] headerOnly = Arrays.copyOf(cdocBytes,
+            Envelope.FBS_HEADER_OFFSET + headerLen + Crypto.HHK_LEN_BYTES + Envelope.MIN_PAYLOAD_LEN);
+        Path headerOnlyFile = tempDir.resolve("headerOnly.cdoc");
+        Files.write(headerOnlyFile, headerOnly);
+
+        for (List<ArchiveEntry> entries : List.of(
+            Envelope.list(cdocFile, decKM, null),
+            Envelope.list(headerOnlyFile, decKM, null),
+            Envelope.list(new ByteArrayInputStream(headerOnly), decKM, null))) {
+
+            assertEquals(List.of("data.bin", "text.txt"), entries.stream().map(ArchiveEntry::getName).toList());
+            assertEquals(data.length, entries.get(0).getSize());
+            assertEquals("testListFromTableOfContents".length(), entries.get(1).getSize());
+        }
+
+        // streaming list reads payload and checks its MAC, also when header contains table of contents
+        List<String> streamed = new ArrayList<>();
+        assertEquals(2, Envelope.list(cdocFile, decKM, null, entry -> streamed.add(entry.getName())));
+        assertEquals(List.of("data.bin", "text.txt"), streamed);
+        assertThrows(IOException.class, () -> Envelope.list(headerOnlyFile, decKM, null, entry -> { }));
+
+        // payload entries are checked against table of contents when decrypting
+        Path outDir = tempDir.resolve("out");
+        Files.createDirectories(outDir);
+        assertEquals(List.of("data.bin", "text.txt"), Envelope.decrypt(cdocFile, decKM, outDir, null, null));
+        Assertions.assertArrayEquals(data, Files.readAllBytes(outDir.resolve("data.bin")));
+
+        // table of contents that doesn't match payload, first entry is renamed only in table of contents
+        Path mismatchFile = tempDir.resolve("mismatch.cdoc");
+        try (MockedStatic<TableOfContents> toc = Mockito.mockStatic(TableOfContents.class,
+                Mockito.CALLS_REAL_METHODS);
+             OutputStream os = Files.newOutputStream(mismatchFile)) {
+
+            toc.when(() -> TableOfContents.encrypt(any(), any())).thenAnswer(invocation -> {
+                TarArchiveEntry first = invocation.<List<TarArchiveEntry>>getArgument(0).get(0);
+                String name = first.getName();
+                first.setName("other.bin");
+                try {
+                    return invocation.callRealMethod();
+                } finally {
+                    first.setName(name);
+                }
+            });
+            Envelope.prepare(List.of(encKM), null).encrypt(List.of(dataFile, textFile), os,
+                EncryptionOptions.defaults().withTableOfContents(true));
+        }
+        assertEquals(List.of("other.bin", "text.txt"), Envelope.list(mismatchFile, decKM, null).stream()
+            .map(ArchiveEntry::getName).toList());
+
+        assertThrows(IOException.class, () -> Envelope.list(mismatchFile, decKM, null, entry -> { }));
+
+        Path mismatchOutDir = Files.createDirectories(tempDir.resolve("mismatchOut"));
+        assertThrows(IOException.class, () -> Envelope.decrypt(mismatchFile, decKM, mismatchOutDir, null, null));
+        try (Stream<Path> extracted = Files.list(mismatchOutDir)) {
+            assertEquals(0, extracted.count(), "Extracted files must be deleted");
+        }
+    }
+
+    @Test
+    void testListWithoutTableOfContentsReadsPayload(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+        File textFile = tempDir.resolve("text.txt").toFile();
+        Files.writeString(textFile.toPath(), "testListWithoutTableOfContentsReadsPayload");
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(textFile), dst,
+            EncryptionOptions.defaults().withTableOfContents(false));
+        byte[] cdocBytes = dst.toByteArray();
+
+        assertEquals(List.of("text.txt"), Envelope.list(new ByteArrayInputStream(cdocBytes), decKM, null).stream()
+            .map(ArchiveEntry::getName).toList());
+
+        // corrupted payload is detected, when entries are listed from payload
+        cdocBytes[cdocBytes.length - 1] ^= 0x01;
+        assertThrows(IOException.class, () -> Envelope.list(new ByteArrayInputStream(cdocBytes), decKM, null));
+    }
+
+    @Test
+    void testListStreaming(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+        List<File> files = new ArrayList<>();
+        Random random = new Random(31);
+        for (int i = 0; i < 5; i++) {
+            Path file = tempDir.resolve("file-" + i + ".bin");
+            byte[] data = new byte[1000 + i];
+            random.nextBytes(data);
+            Files.write(file, data);
+            files.add(file.toFile());
+        }
+
+        Path cdocFile = tempDir.resolve("streaming.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(List.of(encKM), null).encrypt(files, os);
+        }
+
+        List<String> names = new ArrayList<>();
+        long count = Envelope.list(cdocFile, decKM, null, entry -> names.add(entry.getName()));
+        assertEquals(5, count);
+        assertEquals(files.stream().map(File::getName).toList(), names);
+
+        System.setProperty(CDocConfiguration.COMPACT_TAR_ENTRIES_PROPERTY, "true");
+        try {
+            List<ArchiveEntry> compact = Envelope.list(cdocFile, decKM, null);
+            assertEquals(names, compact.stream().map(ArchiveEntry::getName).toList());
+            assertEquals(1000, compact.get(0).getSize());
+            assertEquals(1004, compact.get(4).getSize());
+        } finally {
+            System.clearProperty(CDocConfiguration.COMPACT_TAR_ENTRIES_PROPERTY);
+        }
+    }
+
+    @Test
+    void testListPublisher(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+        List<File> files = new ArrayList<>();
+        Random random = new Random(37);
+        for (int i = 0; i < 3; i++) {
+            Path file = tempDir.resolve("file-" + i + ".bin");
+            byte[] data = new byte[1000 + i];
+            random.nextBytes(data);
+            Files.write(file, data);
+            files.add(file.toFile());
+        }
+
+        Path cdocFile = tempDir.resolve("publisher.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(List.of(encKM), null).encrypt(files, os);
+        }
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Envelope.listPublisher(cdocFile, decKM, null, null).subscribe(subscriber);
+        Flow.Subscription subscription = subscriber.subscription.get(5, TimeUnit.SECONDS);
+
+        // entries are published only on demand
+        subscription.request(1);
+        assertEquals("file-0.bin", subscriber.signals.poll(5, TimeUnit.SECONDS));
+        assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+
+        subscription.request(Long.MAX_VALUE);
+        assertEquals("file-1.bin", subscriber.signals.poll(5, TimeUnit.SECONDS));
+        assertEquals("file-2.bin", subscriber.signals.poll(5, TimeUnit.SECONDS));
+        assertEquals(RecordingSubscriber.COMPLETE, subscriber.signals.poll(5, TimeUnit.SECONDS));
+
+        // single subscriber only
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        ArchiveEntryPublisher publisher = Envelope.listPublisher(cdocFile, decKM, null, null);
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertInstanceOf(IllegalStateException.class, second.error.get(5, TimeUnit.SECONDS));
+        first.subscription.get(5, TimeUnit.SECONDS).cancel();
+        assertNull(first.signals.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testListPublisherMacCheckFailure(@TempDir Path tempDir) throws Exception {
+        testListPublisherMacCheckFailure(tempDir, EncryptionOptions.defaults().withTableOfContents(false));
+    }
+
+    @Test
+    void testListPublisherMacCheckFailureWithTableOfContents(@TempDir Path tempDir) throws Exception {
+        // payload is read and its MAC checked, entries are not published from table of contents
+        testListPublisherMacCheckFailure(tempDir, EncryptionOptions.defaults().withTableOfContents(true));
+    }
+
+    private void testListPublisherMacCheckFailure(Path tempDir, EncryptionOptions options) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+
+        // MAC at the end of payload is checked, when data.bin is read
+        byte[] data = new byte[64 * 1024];
+        new Random(41).nextBytes(data);
+        Path dataFile = tempDir.resolve("data.bin");
+        Files.write(dataFile, data);
+        Path textFile = tempDir.resolve("text.txt");
+        Files.writeString(textFile, "testListPublisherMacCheckFailure");
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(textFile.toFile(), dataFile.toFile()), dst, options);
+        byte[] cdocBytes = dst.toByteArray();
+        //last 16 bytes are Poly1305 MAC, corrupt that
+        cdocBytes[cdocBytes.length - 1] ^= 0x01;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            Envelope.listPublisher(new ByteArrayInputStream(cdocBytes), DecryptionKeyMaterial.fromKeyPair(bobKeyPair),
+                null, executor).subscribe(subscriber);
+            subscriber.subscription.get(5, TimeUnit.SECONDS).request(Long.MAX_VALUE);
+
+            // entry is published before MAC is checked, MAC check failure is signalled after it
+            assertEquals("text.txt", subscriber.signals.poll(5, TimeUnit.SECONDS));
+            Throwable error = subscriber.error.get(5, TimeUnit.SECONDS);
+            assertTrue(ArchiveEntryPublisher.isMacCheckFailure(error));
+            assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testMetricsListener(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        // compressible payload, compression ratio stays under decryption compression ratio threshold
+        Random random = new Random(43);
+        Path textFile = tempDir.resolve("text.txt");
+        Files.writeString(textFile, random.ints(100_000, 'a', 'z' + 1)
+            .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append));
+        Path dataFile = tempDir.resolve("data.bin");
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        Files.write(dataFile, data);
+        long payloadSize = Files.size(textFile) + data.length;
+
+        BlockingQueue<OperationMetrics> completed = new LinkedBlockingQueue<>();
+        CDocMetricsListener listener = new CDocMetricsListener() {
+            @Override
+            public void onCompleted(OperationMetrics metrics) {
+                completed.add(metrics);
+            }
+        };
+
+        Path cdocFile = tempDir.resolve("metrics.cdoc");
+        Path outDir = Files.createDirectory(tempDir.resolve("out"));
+        try (CDocMetrics.Scope scope = CDocMetrics.useListener(listener)) {
+            assertSame(listener, CDocMetrics.getListener());
+            Envelope envelope = Envelope.prepare(List.of(encKM), null);
+            try (OutputStream os = Files.newOutputStream(cdocFile)) {
+                envelope.encrypt(List.of(textFile.toFile(), dataFile.toFile()), os);
+            }
+            Envelope.decrypt(cdocFile, decKM, outDir, null, null);
+        }
+        assertSame(CDocMetricsListener.NOOP, CDocMetrics.getListener());
+
+        OperationMetrics prepare = completed.poll();
+        assertNotNull(prepare);
+        assertEquals(CDocOperation.PREPARE, prepare.operation());
+        assertTrue(prepare.phaseDurations().containsKey(Phase.KEK_DERIVATION));
+
+        OperationMetrics encrypt = completed.poll();
+        assertNotNull(encrypt);
+        assertEquals(CDocOperation.ENCRYPT, encrypt.operation());
+        assertFalse(encrypt.isFailed());
+        assertEquals(2, encrypt.entryCount());
+        assertEquals(payloadSize, encrypt.entryBytes());
+        assertEquals(Files.size(cdocFile), encrypt.containerBytes());
+        assertTrue(encrypt.compressionRatio() > 1.0, "Compression ratio " + encrypt.compressionRatio());
+        assertTrue(encrypt.phaseDurations().containsKey(Phase.DEFLATE));
+        assertTrue(encrypt.phaseDurations().containsKey(Phase.PAYLOAD_ENCRYPT));
+
+        OperationMetrics decrypt = completed.poll();
+        assertNotNull(decrypt);
+        assertEquals(CDocOperation.DECRYPT, decrypt.operation());
+        assertEquals(2, decrypt.entryCount());
+        assertEquals(payloadSize, decrypt.entryBytes());
+        assertEquals(encrypt.payloadBytes(), decrypt.payloadBytes());
+        assertEquals(Files.size(cdocFile), decrypt.containerBytes());
+        for (Phase phase : List.of(Phase.HEADER_PARSE, Phase.RECIPIENT_MATCH, Phase.KEK_DERIVATION,
+                Phase.PAYLOAD_DECRYPT, Phase.INFLATE, Phase.DISK_WRITE)) {
+            assertTrue(decrypt.phaseDurations().containsKey(phase), "Missing " + phase);
+        }
+        assertFalse(decrypt.phaseDurations().containsKey(Phase.KEY_SERVER));
+        assertNull(completed.poll());
+    }
+
+    @Test
+    void testMetricsListenerMacCheckFailure(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+
+        byte[] data = new byte[64 * 1024];
+        new Random(47).nextBytes(data);
+        Path dataFile = tempDir.resolve("data.bin");
+        Files.write(dataFile, data);
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null).encrypt(List.of(dataFile.toFile()), dst);
+        byte[] cdocBytes = dst.toByteArray();
+        //last 16 bytes are Poly1305 MAC, corrupt that
+        cdocBytes[cdocBytes.length - 1] ^= 0x01;
+
+        CompletableFuture<OperationMetrics> failed = new CompletableFuture<>();
+        CDocMetrics.setGlobalListener(new CDocMetricsListener() {
+            @Override
+            public void onCompleted(OperationMetrics metrics) {
+                fail("Unexpected completion of " + metrics.operation());
+            }
+
+            @Override
+            public void onFailed(OperationMetrics metrics) {
+                failed.complete(metrics);
+            }
+        });
+        try {
+            Path outDir = Files.createDirectory(tempDir.resolve("out"));
+            assertThrows(IOException.class, () -> Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+                DecryptionKeyMaterial.fromKeyPair(bobKeyPair), outDir, null));
+        } finally {
+            CDocMetrics.setGlobalListener(null);
+        }
+
+        OperationMetrics metrics = failed.getNow(null);
+        assertNotNull(metrics);
+        assertEquals(CDocOperation.DECRYPT, metrics.operation());
+        assertTrue(metrics.isFailed());
+        assertEquals(Phase.PAYLOAD_DECRYPT, metrics.failedPhase());
+        assertTrue(ArchiveEntryPublisher.isMacCheckFailure(metrics.failure()));
+        assertEquals(cdocBytes.length, metrics.containerBytes());
+    }
+
+    @Test
+    void testFlightRecorderEvents(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        List<File> files = new ArrayList<>();
+        Random random = new Random(53);
+        for (int i = 0; i < 2; i++) {
+            Path file = tempDir.resolve("file-" + i + ".bin");
+            byte[] data = new byte[2000 + i];
+            random.nextBytes(data);
+            Files.write(file, data);
+            files.add(file.toFile());
+        }
+
+        Path cdocFile = tempDir.resolve("jfr.cdoc");
+        byte[] corrupted;
+        Path recordingFile = tempDir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            for (Class<? extends Event> eventClass : List.of(PrepareEvent.class, RecipientBuildEvent.class,
+                    KekDerivationEvent.class, ContainerEvent.class, PayloadEvent.class, TarEntryEvent.class)) {
+                recording.enable(eventClass);
+            }
+            recording.start();
+
+            try (OutputStream os = Files.newOutputStream(cdocFile)) {
+                Envelope.prepare(List.of(encKM), null).encrypt(files, os);
+            }
+            Envelope.decrypt(cdocFile, decKM, Files.createDirectory(tempDir.resolve("out")), null, null);
+
+            corrupted = Files.readAllBytes(cdocFile);
+            //last 16 bytes are Poly1305 MAC, corrupt that
+            corrupted[corrupted.length - 1] ^= 0x01;
+            assertThrows(IOException.class, () -> Envelope.list(new ByteArrayInputStream(corrupted), decKM, null));
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(recordingFile).stream()
+            .collect(Collectors.groupingBy(e -> e.getEventType().getName()));
+
+        RecordedEvent prepare = events.get("ee.cyber.cdoc2.Prepare").get(0);
+        assertEquals(1, prepare.getInt("recipientCount"));
+        assertEquals("PUBLIC_KEY", prepare.getString("keyOrigins"));
+        assertEquals(CDocEvent.SUCCESS, prepare.getString("outcome"));
+
+        RecordedEvent build = events.get("ee.cyber.cdoc2.RecipientBuild").get(0);
+        assertEquals("EccPubKeyRecipient", build.getString("recipientTypes"));
+        assertFalse(build.getBoolean("keyServer"));
+
+        List<RecordedEvent> kek = events.get("ee.cyber.cdoc2.KekDerivation");
+        assertEquals(2, kek.size());
+        assertEquals("EccPubKeyRecipient", kek.get(0).getString("recipientType"));
+
+        List<RecordedEvent> containers = events.get("ee.cyber.cdoc2.Container");
+        assertEquals(2, containers.size());
+        RecordedEvent decrypt = containers.get(0);
+        assertEquals("DECRYPT", decrypt.getString("operation"));
+        assertEquals("EccPubKeyRecipient", decrypt.getString("recipientType"));
+        assertEquals(Files.size(cdocFile), decrypt.getLong("containerBytes"));
+        assertEquals(2, decrypt.getLong("entryCount"));
+        assertEquals(CDocEvent.SUCCESS, decrypt.getString("outcome"));
+
+        RecordedEvent list = containers.get(1);
+        assertEquals("LIST", list.getString("operation"));
+        assertEquals(CDocEvent.FAILURE, list.getString("outcome"));
+        assertEquals(IOException.class.getName(), list.getString("failure"));
+
+        List<RecordedEvent> payloads = events.get("ee.cyber.cdoc2.Payload");
+        assertEquals(2, payloads.size());
+        assertEquals(2, payloads.get(0).getLong("entryCount"));
+        assertTrue(payloads.get(0).getLong("payloadBytes") > 0);
+        assertEquals(CDocEvent.FAILURE, payloads.get(1).getString("outcome"));
+
+        List<RecordedEvent> entries = events.get("ee.cyber.cdoc2.TarEntry");
+        assertEquals(4, entries.size());
+        assertEquals(2000, entries.get(0).getLong("entrySize"));
+        assertEquals(2000, entries.get(0).getLong("bytesWritten"));
+        assertTrue(entries.get(0).getBoolean("processed"));
+    }
+
+    /**
+     * Records entry names and completion signal to signals queue
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<ArchiveEntry> {
+        static final String COMPLETE = "<complete>";
+
+        final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        final CompletableFuture<Throwable> error = new CompletableFuture<>();
+        final BlockingQueue<String> signals = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription.complete(s);
+        }
+
+        @Override
+        public void onNext(ArchiveEntry entry) {
+            signals.add(entry.getName());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+    }
+
+    @Test
+    void testDecryptFromPath(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+
+        byte[] bigData = new byte[1024 * 1024 + 3];
+        new Random(11).nextBytes(bigData);
+        File bigFile = tempDir.resolve("big.bin").toFile();
+        Files.write(bigFile.toPath(), bigData);
+        File smallFile = tempDir.resolve("small.txt").toFile();
+        Files.writeString(smallFile.toPath(), "testDecryptFromPath");
+
+        Path cdocFile = tempDir.resolve("testDecryptFromPath.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(List.of(encKM), null).encrypt(List.of(bigFile, smallFile), os);
+        }
+
+        List<ArchiveEntry> entries = Envelope.list(cdocFile, decKM, null);
+        assertEquals(List.of("big.bin", "small.txt"), entries.stream().map(ArchiveEntry::getName).toList());
+        assertEquals(bigData.length, entries.get(0).getSize());
+
+        Path outDir = tempDir.resolve("out");
+        Files.createDirectories(outDir);
+        assertEquals(List.of("small.txt"), Envelope.decrypt(cdocFile, decKM, outDir, List.of("small.txt"), null));
+        assertEquals("testDecryptFromPath", Files.readString(outDir.resolve("small.txt")));
+        assertFalse(Files.exists(outDir.resolve("big.bin")));
+
+        Path allDir = tempDir.resolve("all");
+        Files.createDirectories(allDir);
+        assertEquals(List.of("big.bin", "small.txt"), Envelope.decrypt(cdocFile, decKM, allDir, null, null));
+        Assertions.assertArrayEquals(bigData, Files.readAllBytes(allDir.resolve("big.bin")));
+    }
+
+    @Test
+    void testDecryptFromPathInvalidContainer(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(bobKeyPair);
+        File payloadFile = tempDir.resolve("payload.bin").toFile();
+        byte[] payload = new byte[64 * 1024];
+        new Random(13).nextBytes(payload);
+        Files.write(payloadFile.toPath(), payload);
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null).encrypt(List.of(payloadFile), dst);
+        byte[] cdocBytes = dst.toByteArray();
+        Path outDir = tempDir.resolve("out");
+        Files.createDirectories(outDir);
+
+        // too short
+        Path shortFile = tempDir.resolve("short.cdoc");
+        Files.write(shortFile, Arrays.copyOf(cdocBytes, Envelope.MIN_ENVELOPE_SIZE - 1));
+        assertThrows(CDocParseException.class, () -> Envelope.list(shortFile, decKM, null));
+
+        // header length bigger than file
+        Path truncatedFile = tempDir.resolve("truncated.cdoc");
+        int headerLen = ByteBuffer.wrap(cdocBytes, Envelope.FBS_HEADER_OFFSET - Integer.BYTES, Integer.BYTES)
+            .getInt();
+        Files.write(truncatedFile, Arrays.copyOf(cdocBytes, Envelope.FBS_HEADER_OFFSET + headerLen));
+        assertThrows(CDocParseException.class, () -> Envelope.list(truncatedFile, decKM, null));
+
+        // corrupted Poly1305 MAC, extracted files are removed
+        cdocBytes[cdocBytes.length - 1] ^= (byte) 0xff;
+        Path corruptedFile = tempDir.resolve("corrupted.cdoc");
+        Files.write(corruptedFile, cdocBytes);
+        IOException ex = assertThrows(IOException.class,
+            () -> Envelope.decrypt(corruptedFile, decKM, outDir, null, null));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        assertEquals(0, Objects.requireNonNull(outDir.toFile().listFiles()).length);
+    }
+
+    @Test
+    void testParallelRecipientBuild(@TempDir Path tempDir) throws Exception {
+        List<KeyPair> ecKeyPairs = new ArrayList<>();
+        List<EncryptionKeyMaterial> recipients = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            KeyPair keyPair = ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1);
+            ecKeyPairs.add(keyPair);
+            recipients.add(EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(),
+                getPublicKeyLabelParams("ec-" + i)));
+        }
+        String symmetricLabel = "testParallelRecipientBuild";
+        recipients.add(EncryptionKeyMaterial.fromSecret(createSecretKey(), symmetricLabel));
+
+        List<RecipientBuildTiming> timings = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Path cdocFile = tempDir.resolve("testParallelRecipientBuild.cdoc");
+        File payloadFile = Files.writeString(tempDir.resolve("payload.txt"), symmetricLabel).toFile();
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(recipients, null, executor, timings::add).encrypt(List.of(payloadFile), os);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(recipients.size(), timings.size());
+        assertEquals(IntStream.range(0, recipients.size()).boxed().toList(),
+            timings.stream().map(RecipientBuildTiming::index).sorted().toList());
+        assertEquals(recipients.get(recipients.size() - 1).getLabel(), timings.stream()
+            .filter(t -> t.index() == recipients.size() - 1).findFirst().orElseThrow().keyLabel());
+
+        // header order is the same as recipients order
+        List<Recipient> parsed;
+        try (InputStream is = Files.newInputStream(cdocFile)) {
+            parsed = Envelope.parseHeader(is);
+        }
+        assertEquals(recipients.size(), parsed.size());
+        for (int i = 0; i < ecKeyPairs.size(); i++) {
+            assertEquals(ecKeyPairs.get(i).getPublic(), parsed.get(i).getRecipientId());
+        }
+        assertEquals(symmetricLabel, parsed.get(recipients.size() - 1).getRecipientId());
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        assertEquals(List.of("payload.txt"),
+            Envelope.decrypt(cdocFile, DecryptionKeyMaterial.fromKeyPair(ecKeyPairs.get(7)), outDir, null, null));
+    }
+
+    @Test
+    void testLazyHeaderRecipients(@TempDir Path tempDir) throws Exception {
+        int ecRecipientCount = 100;
+        List<KeyPair> ecKeyPairs = new ArrayList<>();
+        List<EncryptionKeyMaterial> recipients = new ArrayList<>();
+        for (int i = 0; i < ecRecipientCount; i++) {
+            KeyPair keyPair = ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1);
+            ecKeyPairs.add(keyPair);
+            recipients.add(EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(),
+                getPublicKeyLabelParams("ec-" + i)));
+        }
+
+        KeyPairGenerator generator = getKeyPairRsaInstance();
+        generator.initialize(2048);
+        KeyPair rsaKeyPair = generator.generateKeyPair();
+        recipients.add(EncryptionKeyMaterial.fromPublicKey(rsaKeyPair.getPublic(), getPublicKeyLabelParams("rsa")));
+
+        String symmetricLabel = "testLazyHeaderRecipients";
+        recipients.add(EncryptionKeyMaterial.fromSecret(createSecretKey(), symmetricLabel));
+
+        File payloadFile = Files.writeString(tempDir.resolve("payload.txt"), "testLazyHeaderRecipients").toFile();
+        Path cdocFile = tempDir.resolve("testLazyHeaderRecipients.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            Envelope.prepare(recipients, null).encrypt(List.of(payloadFile), os);
+        }
+
+        HeaderRecipients headerRecipients;
+        try (InputStream is = Files.newInputStream(cdocFile)) {
+            headerRecipients = Envelope.parseHeaderRecipients(is);
+        }
+        assertEquals(ecRecipientCount + 2, headerRecipients.size());
+        assertEquals(recipients_ECCPublicKeyCapsule, headerRecipients.getCapsuleType(0));
+        assertEquals(recipients_RSAPublicKeyCapsule, headerRecipients.getCapsuleType(ecRecipientCount));
+        assertEquals(recipients_SymmetricKeyCapsule, headerRecipients.getCapsuleType(ecRecipientCount + 1));
+        assertNotNull(headerRecipients.getKeyLabel(0));
+
+        PublicKey ecPublicKey = ecKeyPairs.get(57).getPublic();
+        Optional<Recipient> ecRecipient = headerRecipients.findRecipient(ecPublicKey);
+        assertTrue(ecRecipient.isPresent());
+        assertInstanceOf(EccRecipient.class, ecRecipient.get());
+        assertEquals(ecPublicKey, ecRecipient.get().getRecipientId());
+        assertSame(ecRecipient.get(), headerRecipients.get(57));
+
+        Optional<Recipient> rsaRecipient = headerRecipients.findRecipient(rsaKeyPair.getPublic());
+        assertTrue(rsaRecipient.isPresent());
+        assertEquals(rsaKeyPair.getPublic(), rsaRecipient.get().getRecipientId());
+
+        Optional<Recipient> symmetricRecipient = headerRecipients.findRecipient(symmetricLabel);
+        assertTrue(symmetricRecipient.isPresent());
+        assertEquals(symmetricLabel, symmetricRecipient.get().getRecipientId());
+
+        assertTrue(headerRecipients.findRecipient(createKeyPair().getPublic()).isEmpty());
+        assertTrue(headerRecipients.findRecipient(symmetricLabel + "-other").isEmpty());
+        // recipient id types that are not indexed are matched by deserializing recipients
+        assertTrue(headerRecipients.findRecipient(Boolean.TRUE).isEmpty());
+        assertEquals(ecRecipientCount + 2, headerRecipients.getAll().size());
+
+        DecryptionKeyMaterial decKM = DecryptionKeyMaterial.fromKeyPair(ecKeyPairs.get(ecRecipientCount - 1));
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        assertEquals(List.of("payload.txt"), Envelope.decrypt(cdocFile, decKM, outDir, null, null));
+        assertEquals("testLazyHeaderRecipients", Files.readString(outDir.resolve("payload.txt")));
+    }
+
+    private void testEncryptionOptions(Path tempDir, EncryptionOptions options) throws Exception {
+        Files.createDirectories(tempDir);
+        KeyPair bobKeyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(),
+            bobKeyLabelParams);
+
+        byte[] bigData = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(bigData);
+        File bigFile = tempDir.resolve("big.bin").toFile();
+        Files.write(bigFile.toPath(), bigData);
+        File smallFile = tempDir.resolve("small.txt").toFile();
+        Files.writeString(smallFile.toPath(), "testEncryptionOptions");
+
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(List.of(encKM), null)
+            .encrypt(List.of(bigFile, smallFile), dst, options);
+
+        Path outDir = tempDir.resolve("out");
+        Files.createDirectories(outDir);
+        List<String> decrypted = Envelope.decrypt(new ByteArrayInputStream(dst.toByteArray()),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), outDir, null);
+
+        assertEquals(List.of("big.bin", "small.txt"), decrypted);
+        Assertions.assertArrayEquals(bigData, Files.readAllBytes(outDir.resolve("big.bin")));
+        assertEquals("testEncryptionOptions", Files.readString(outDir.resolve("small.txt")));
+    }
+
     @Test
     void testReEncryptionScenario(@TempDir Path tempDir) throws Exception {
         // encrypt initial cdoc2 document
@@ -1,12 +1,18 @@
 package ee.cyber.cdoc2.container;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import javax.crypto.SecretKey;
 
 import ee.cyber.cdoc2.CDocConfiguration;
+import ee.cyber.cdoc2.crypto.Crypto;
+import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -194,6 +200,139 @@ class TarDeflateTest {
         System.clearProperty(CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY);
     }
 
+    @Test
+    void testListManyEntriesCompact() throws IOException {
+        int entryCount = 20_000;
+        byte[] tarZ = createTarZ(IntStream.range(0, entryCount).mapToObj(i -> "file-" + i).toList());
+
+        //might cause other tests to fail, if tests executed parallel
+        System.setProperty(CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY, String.valueOf(entryCount));
+        System.setProperty(CDocConfiguration.COMPACT_TAR_ENTRIES_PROPERTY, "true");
+        // tar headers of 1 byte files compress well
+        System.setProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY, "100");
+        try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(tarZ))) {
+            List<String> names = new ArrayList<>();
+            long count = tar.process(new ListDelegate(), entry -> {
+                assertInstanceOf(TarEntryRecord.class, entry);
+                assertEquals(1, entry.getSize());
+                names.add(entry.getName());
+            });
+
+            assertEquals(entryCount, count);
+            assertEquals("file-0", names.get(0));
+            assertEquals("file-" + (entryCount - 1), names.get(entryCount - 1));
+        } finally {
+            System.clearProperty(CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY);
+            System.clearProperty(CDocConfiguration.COMPACT_TAR_ENTRIES_PROPERTY);
+            System.clearProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY);
+        }
+    }
+
+    @Test
+    void testDuplicateEntryName() throws IOException {
+        byte[] tarZ = createTarZ(List.of("a", "b", "c", "b"));
+        List<String> listed = new ArrayList<>();
+        System.setProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY, "100");
+        try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(tarZ))) {
+            IOException e = assertThrows(IOException.class,
+                () -> tar.process(new ListDelegate(), entry -> listed.add(entry.getName())));
+            assertEquals("Duplicate tar entry name found: b", e.getMessage());
+        } finally {
+            System.clearProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY);
+        }
+        assertEquals(List.of("a", "b", "c"), listed);
+    }
+
+    @Test
+    void testTableOfContentsMismatch(@TempDir Path tempDir) throws IOException {
+        byte[] tarZ = createTarZ(List.of("a", "b"));
+
+        System.setProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY, "100");
+        try {
+            assertEquals(2, extractVerifying(tarZ, tempDir, tocEntries("a", 1, "b", 1)).size());
+            assertTrue(Files.exists(tempDir.resolve("b")));
+
+            for (List<ArchiveEntry> toc: List.of(
+                tocEntries("a", 1, "x", 1), // different name
+                tocEntries("a", 1, "b", 2), // different size
+                tocEntries("b", 1, "a", 1), // different order
+                tocEntries("a", 1),         // payload has more entries
+                tocEntries("a", 1, "b", 1, "c", 1) // payload has less entries
+            )) {
+                Path outDir = Files.createTempDirectory(tempDir, "out");
+                assertThrows(IOException.class, () -> extractVerifying(tarZ, outDir, toc));
+                try (Stream<Path> files = Files.list(outDir)) {
+                    assertEquals(0, files.count(), "Extracted files must be deleted");
+                }
+            }
+        } finally {
+            System.clearProperty(CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY);
+        }
+    }
+
+    @Test
+    void testTableOfContentsChecks() throws Exception {
+        SecretKey tocKey = Crypto.deriveTocEncryptionKey(Crypto.generateFileMasterKey());
+
+        byte[] duplicates = TableOfContents.encrypt(tarEntries("a", "b", "a"), tocKey).orElseThrow();
+        IOException e = assertThrows(IOException.class,
+            () -> TableOfContents.decrypt(ByteBuffer.wrap(duplicates), tocKey));
+        assertEquals("Duplicate tar entry name found: a", e.getMessage());
+
+        byte[] toc = TableOfContents.encrypt(tarEntries("a", "b"), tocKey).orElseThrow();
+        assertEquals(2, TableOfContents.decrypt(ByteBuffer.wrap(toc), tocKey).size());
+
+        //might cause other tests to fail, if tests executed parallel
+        System.setProperty(CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY, "1");
+        try {
+            assertThrows(IllegalStateException.class, () -> TableOfContents.decrypt(ByteBuffer.wrap(toc), tocKey));
+        } finally {
+            System.clearProperty(CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY);
+        }
+    }
+
+    private static List<TarArchiveEntry> tarEntries(String... names) {
+        List<TarArchiveEntry> entries = new ArrayList<>();
+        for (String name: names) {
+            TarArchiveEntry entry = new TarArchiveEntry(name);
+            entry.setSize(1);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static List<ArchiveEntry> extractVerifying(byte[] tarZ, Path outDir, List<ArchiveEntry> toc)
+        throws IOException {
+
+        try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(tarZ))) {
+            return tar.process(TableOfContents.verifying(new ExtractDelegate(outDir, null), toc));
+        }
+    }
+
+    private static List<ArchiveEntry> tocEntries(Object... nameSizePairs) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        for (int i = 0; i < nameSizePairs.length; i += 2) {
+            TarArchiveEntry entry = new TarArchiveEntry((String) nameSizePairs[i]);
+            entry.setSize((Integer) nameSizePairs[i + 1]);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static byte[] createTarZ(List<String> entryNames) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarOs = Tar.createPosixTarZArchiveOutputStream(bos)) {
+            for (String name: entryNames) {
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(1);
+                tarOs.putArchiveEntry(entry);
+                tarOs.write('x');
+                tarOs.closeArchiveEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
     @Test
     void shouldValidateFileNameWhenCreatingTar(@TempDir Path tempDir) throws IOException {
         tempDir.resolve(TGZ_FILE_NAME).toFile();
@@ -330,6 +469,351 @@ class TarDeflateTest {
         assertTrue(closeWasCalled[0]);
     }
 
+    @Test
+    void testPipelinedArchiveIsSameAsSequential(@TempDir Path tempDir) throws IOException {
+        File textFile = createAndWriteToFile(tempDir, "payload.txt", PAYLOAD);
+        File emptyFile = createAndWriteToFile(tempDir, "empty.txt", "");
+
+        // bigger than pipeline buffers, so that file is split between several hand-off buffers
+        byte[] randomData = new byte[2 * TarPipeline.PIPELINE_BUFFER_SIZE + 123];
+        new Random(42).nextBytes(randomData);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        Files.write(randomFile.toPath(), randomData);
+
+        List<File> files = List.of(textFile, emptyFile, randomFile);
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        Tar.archiveFiles(sequential, files, 1);
+
+        ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+        TarPipeline.archiveFiles(pipelined, files, EncryptionOptions.defaults().withDeflateWorkers(1));
+
+        List<String> names = assertSameArchive(sequential.toByteArray(), pipelined.toByteArray());
+        assertEquals(List.of("payload.txt", "empty.txt", "random.bin"), names);
+    }
+
+    /**
+     * Compare tar zlib archives entry by entry
+     * @return entry names
+     */
+    private static List<String> assertSameArchive(byte[] sequential, byte[] other) throws IOException {
+        // PAX headers contain file access time that is updated by reading, compare everything else
+        try (TarArchiveInputStream expected = new TarArchiveInputStream(new DeflateCompressorInputStream(
+                new ByteArrayInputStream(sequential)));
+             TarArchiveInputStream actual = new TarArchiveInputStream(new DeflateCompressorInputStream(
+                 new ByteArrayInputStream(other)))) {
+
+            List<String> names = new LinkedList<>();
+            TarArchiveEntry expectedEntry;
+            while ((expectedEntry = expected.getNextEntry()) != null) {
+                TarArchiveEntry actualEntry = actual.getNextEntry();
+                assertNotNull(actualEntry);
+                names.add(actualEntry.getName());
+                assertEquals(expectedEntry.getName(), actualEntry.getName());
+                assertEquals(expectedEntry.getSize(), actualEntry.getSize());
+                assertEquals(expectedEntry.getMode(), actualEntry.getMode());
+                assertEquals(expectedEntry.getLastModifiedTime(), actualEntry.getLastModifiedTime());
+                assertEquals(expectedEntry.getCreationTime(), actualEntry.getCreationTime());
+                assertArrayEquals(expected.readAllBytes(), actual.readAllBytes());
+            }
+            assertNull(actual.getNextEntry());
+            return names;
+        }
+    }
+
+    @Test
+    void testPipelinedArchiveFailsForMissingFile(@TempDir Path tempDir) throws IOException {
+        File textFile = createAndWriteToFile(tempDir, "payload.txt", PAYLOAD);
+        File missingFile = tempDir.resolve("missing.txt").toFile();
+
+        ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+        IOException ex = assertThrows(IOException.class,
+            () -> TarPipeline.archiveFiles(pipelined, List.of(textFile, missingFile), EncryptionOptions.defaults()));
+        assertTrue(ex.getMessage().startsWith("Not a file"));
+    }
+
+    @Test
+    void testMetadataWorkersArchiveIsSameAsSequential(@TempDir Path tempDir) throws IOException {
+        // more files than entries created ahead, so that prefetch window is refilled several times
+        int fileCount = 10 * TarEntryPrefetch.ENTRIES_PER_WORKER * 4 + 7;
+        Random random = new Random(42);
+        List<File> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            byte[] data = new byte[random.nextInt(256)];
+            random.nextBytes(data);
+            File file = tempDir.resolve("file-" + i).toFile();
+            Files.write(file.toPath(), data);
+            files.add(file);
+        }
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        Tar.archiveFiles(sequential, files, EncryptionOptions.defaults().withMetadataWorkers(1));
+
+        ByteArrayOutputStream prefetched = new ByteArrayOutputStream();
+        Tar.archiveFiles(prefetched, files, EncryptionOptions.defaults().withMetadataWorkers(4));
+
+        ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+        TarPipeline.archiveFiles(pipelined, files, EncryptionOptions.defaults().withMetadataWorkers(4));
+
+        List<String> expectedNames = files.stream().map(File::getName).toList();
+        assertEquals(expectedNames, assertSameArchive(sequential.toByteArray(), prefetched.toByteArray()));
+        assertEquals(expectedNames, assertSameArchive(sequential.toByteArray(), pipelined.toByteArray()));
+    }
+
+    @Test
+    void testMetadataWorkersFailsForMissingFile(@TempDir Path tempDir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(createAndWriteToFile(tempDir, "payload-" + i + ".txt", PAYLOAD));
+        }
+        files.add(5, tempDir.resolve("missing.txt").toFile());
+
+        EncryptionOptions options = EncryptionOptions.defaults().withMetadataWorkers(4);
+        IOException ex = assertThrows(IOException.class,
+            () -> Tar.archiveFiles(new ByteArrayOutputStream(), files, options));
+        assertTrue(ex.getMessage().startsWith("Not a file"));
+    }
+
+    @Test
+    void testDuplicateFileNames(@TempDir Path tempDir) throws IOException {
+        Files.createDirectory(tempDir.resolve("a"));
+        Files.createDirectory(tempDir.resolve("b"));
+        File first = createAndWriteToFile(tempDir.resolve("a"), "payload.txt", PAYLOAD);
+        File other = createAndWriteToFile(tempDir, "other.txt", PAYLOAD);
+        File second = createAndWriteToFile(tempDir.resolve("b"), "payload.txt", PAYLOAD);
+
+        assertDoesNotThrow(() -> FileNameValidator.ensureNoFileDuplicates(List.of(first, other)));
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+            () -> FileNameValidator.ensureNoFileDuplicates(List.of(first, other, second)));
+        assertEquals("Files with same basename not supported: " + List.of(first, second), ex.getMessage());
+    }
+
+    @Test
+    void testParallelDeflateCanBeInflated() throws IOException {
+        // text is compressible and has repetitions over block boundaries, random is not compressible
+        byte[] text = PAYLOAD.repeat(3 * ParallelDeflateOutputStream.BLOCK_SIZE / PAYLOAD.length())
+            .getBytes(UTF_8);
+        byte[] random = new byte[2 * ParallelDeflateOutputStream.BLOCK_SIZE + 17];
+        new Random(42).nextBytes(random);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(text);
+        data.write(random);
+        data.write(text, 0, 1000);
+        byte[] input = data.toByteArray();
+
+        for (int workers : List.of(1, 2, 4)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (ParallelDeflateOutputStream zOs = new ParallelDeflateOutputStream(compressed, workers)) {
+                // mix single byte and bulk writes
+                zOs.write(input[0]);
+                zOs.write(input, 1, input.length - 1);
+            }
+
+            try (DeflateCompressorInputStream zIs = new DeflateCompressorInputStream(
+                    new ByteArrayInputStream(compressed.toByteArray()))) {
+                assertArrayEquals(input, zIs.readAllBytes(), "workers=" + workers);
+            }
+
+            // dictionary from previous block keeps text compression ratio
+            assertTrue(compressed.size() < random.length + 2 * text.length / 10, "workers=" + workers);
+        }
+    }
+
+    @Test
+    void testParallelDeflateEmptyStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelDeflateOutputStream(compressed, 2).close();
+
+        try (DeflateCompressorInputStream zIs = new DeflateCompressorInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertEquals(0, zIs.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void testParallelDeflateArchive(@TempDir Path tempDir) throws IOException {
+        File textFile = createAndWriteToFile(tempDir, "payload.txt", PAYLOAD.repeat(100_000));
+        byte[] randomData = new byte[3 * ParallelDeflateOutputStream.BLOCK_SIZE + 5];
+        new Random(42).nextBytes(randomData);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        Files.write(randomFile.toPath(), randomData);
+
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        Tar.archiveFiles(parallel, List.of(textFile, randomFile), 4);
+
+        ByteArrayOutputStream pipelinedParallel = new ByteArrayOutputStream();
+        TarPipeline.archiveFiles(pipelinedParallel, List.of(textFile, randomFile),
+            EncryptionOptions.defaults().withDeflateWorkers(4));
+
+        // text payload compresses over TarDeflate compression ratio threshold, read tar directly
+        for (ByteArrayOutputStream archive : List.of(parallel, pipelinedParallel)) {
+            try (TarArchiveInputStream tis = new TarArchiveInputStream(new DeflateCompressorInputStream(
+                    new ByteArrayInputStream(archive.toByteArray())))) {
+                assertEquals("payload.txt", tis.getNextEntry().getName());
+                assertEquals(PAYLOAD.repeat(100_000), new String(tis.readAllBytes(), UTF_8));
+                assertEquals("random.bin", tis.getNextEntry().getName());
+                assertArrayEquals(randomData, tis.readAllBytes());
+                assertNull(tis.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    void testAdaptiveCompressionLevel() {
+        byte[] text = PAYLOAD.repeat(1000).getBytes(UTF_8);
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+            AdaptiveCompression.chooseLevel(text, text.length, Deflater.DEFAULT_COMPRESSION));
+        assertEquals(9, AdaptiveCompression.chooseLevel(text, text.length, 9));
+
+        byte[] random = new byte[AdaptiveCompression.SAMPLE_SIZE];
+        new Random(42).nextBytes(random);
+        assertTrue(AdaptiveCompression.entropy(random, random.length) > AdaptiveCompression.STORE_ENTROPY_THRESHOLD);
+        assertEquals(Deflater.NO_COMPRESSION,
+            AdaptiveCompression.chooseLevel(random, random.length, Deflater.DEFAULT_COMPRESSION));
+
+        byte[] jpeg = Arrays.copyOf(text, text.length);
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[2] = (byte) 0xFF;
+        assertEquals(Deflater.NO_COMPRESSION,
+            AdaptiveCompression.chooseLevel(jpeg, jpeg.length, Deflater.DEFAULT_COMPRESSION));
+
+        byte[] pdf = ("%PDF-1.7\n" + PAYLOAD.repeat(100)).getBytes(UTF_8);
+        assertEquals(Deflater.BEST_SPEED,
+            AdaptiveCompression.chooseLevel(pdf, pdf.length, Deflater.DEFAULT_COMPRESSION));
+
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+            AdaptiveCompression.chooseLevel(new byte[0], 0, Deflater.DEFAULT_COMPRESSION));
+    }
+
+    @Test
+    void testAdaptiveCompressionArchive(@TempDir Path tempDir) throws IOException {
+        String text = PAYLOAD.repeat(50_000);
+        File textFile = createAndWriteToFile(tempDir, "payload.txt", text);
+        File emptyFile = createAndWriteToFile(tempDir, "empty.txt", "");
+        byte[] randomData = new byte[300_000];
+        new Random(42).nextBytes(randomData);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        Files.write(randomFile.toPath(), randomData);
+        List<File> files = List.of(textFile, emptyFile, randomFile);
+
+        ByteArrayOutputStream adaptive = new ByteArrayOutputStream();
+        Tar.archiveFiles(adaptive, files, EncryptionOptions.defaults().withAdaptiveCompression(true));
+
+        ByteArrayOutputStream pipelinedAdaptive = new ByteArrayOutputStream();
+        TarPipeline.archiveFiles(pipelinedAdaptive, files,
+            EncryptionOptions.defaults().withAdaptiveCompression(true).withPipelining(true));
+
+        ByteArrayOutputStream parallelAdaptive = new ByteArrayOutputStream();
+        Tar.archiveFiles(parallelAdaptive, files,
+            EncryptionOptions.defaults().withAdaptiveCompression(true).withDeflateWorkers(2));
+
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        Tar.archiveFiles(stored, files, EncryptionOptions.defaults().withCompressionLevel(Deflater.NO_COMPRESSION));
+
+        // text is still compressed, random is stored
+        assertTrue(adaptive.size() < stored.size() - text.length() / 2);
+        assertTrue(adaptive.size() > randomData.length);
+
+        for (ByteArrayOutputStream archive : List.of(adaptive, pipelinedAdaptive, parallelAdaptive, stored)) {
+            try (TarArchiveInputStream tis = new TarArchiveInputStream(new DeflateCompressorInputStream(
+                    new ByteArrayInputStream(archive.toByteArray())))) {
+                assertEquals("payload.txt", tis.getNextEntry().getName());
+                assertEquals(text, new String(tis.readAllBytes(), UTF_8));
+                assertEquals("empty.txt", tis.getNextEntry().getName());
+                assertEquals(0, tis.readAllBytes().length);
+                assertEquals("random.bin", tis.getNextEntry().getName());
+                assertArrayEquals(randomData, tis.readAllBytes());
+                assertNull(tis.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    void testZlibOutputStreamSameAsDeflateCompressorOutputStream() throws IOException {
+        byte[] data = PAYLOAD.repeat(10_000).getBytes(UTF_8);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (DeflateCompressorOutputStream zOs = new DeflateCompressorOutputStream(expected)) {
+            zOs.write(data);
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (ZlibOutputStream zOs = new ZlibOutputStream(actual, Deflater.DEFAULT_COMPRESSION,
+                Deflater.DEFAULT_STRATEGY)) {
+            zOs.write(data);
+        }
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void testFileChannelInputStream(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        Path file = tempDir.resolve("data.bin");
+        Files.write(file, data);
+
+        // channel read, single mapped window and several mapped windows
+        for (long[] params : new long[][] {{Long.MAX_VALUE, 1024}, {0, 1024 * 1024}, {0, 4096}}) {
+            try (InputStream is = FileChannelInputStream.open(file, params[0], (int) params[1])) {
+                assertEquals(data[0] & 0xFF, is.read());
+                assertEquals(data.length - 1, is.available());
+
+                byte[] buf = new byte[5000];
+                assertEquals(buf.length, is.readNBytes(buf, 0, buf.length));
+                assertArrayEquals(Arrays.copyOfRange(data, 1, 5001), buf);
+
+                assertEquals(999, is.skip(999));
+                ByteArrayOutputStream rest = new ByteArrayOutputStream();
+                assertEquals(data.length - 6000, is.transferTo(rest));
+                assertArrayEquals(Arrays.copyOfRange(data, 6000, data.length), rest.toByteArray());
+                assertEquals(-1, is.read());
+            }
+        }
+
+        Path empty = Files.createFile(tempDir.resolve("empty.bin"));
+        try (InputStream is = FileChannelInputStream.open(empty, 0, 1024)) {
+            assertEquals(-1, is.read());
+            assertEquals(0, is.transferTo(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void testFileChannelReadingArchive(@TempDir Path tempDir) throws IOException {
+        File textFile = createAndWriteToFile(tempDir, "payload.txt", PAYLOAD);
+        File emptyFile = createAndWriteToFile(tempDir, "empty.txt", "");
+        byte[] randomData = new byte[300_000];
+        new Random(42).nextBytes(randomData);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        Files.write(randomFile.toPath(), randomData);
+        List<File> files = List.of(textFile, emptyFile, randomFile);
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        Tar.archiveFiles(sequential, files, EncryptionOptions.defaults().withFileChannelReading(true));
+
+        ByteArrayOutputStream adaptive = new ByteArrayOutputStream();
+        Tar.archiveFiles(adaptive, files,
+            EncryptionOptions.defaults().withFileChannelReading(true).withAdaptiveCompression(true));
+
+        ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+        TarPipeline.archiveFiles(pipelined, files, EncryptionOptions.defaults().withFileChannelReading(true));
+
+        for (ByteArrayOutputStream archive : List.of(sequential, adaptive, pipelined)) {
+            try (TarArchiveInputStream tis = new TarArchiveInputStream(new DeflateCompressorInputStream(
+                    new ByteArrayInputStream(archive.toByteArray())))) {
+                assertEquals("payload.txt", tis.getNextEntry().getName());
+                assertEquals(PAYLOAD, new String(tis.readAllBytes(), UTF_8));
+                assertEquals("empty.txt", tis.getNextEntry().getName());
+                assertEquals(0, tis.readAllBytes().length);
+                assertEquals("random.bin", tis.getNextEntry().getName());
+                assertArrayEquals(randomData, tis.readAllBytes());
+                assertNull(tis.getNextEntry());
+            }
+        }
+    }
+
     private static File createAndWriteToFile(Path path, String fileName, String contents) throws IOException {
         File file = path.resolve(fileName).toFile();
         try (FileOutputStream fos = new FileOutputStream(file)) {
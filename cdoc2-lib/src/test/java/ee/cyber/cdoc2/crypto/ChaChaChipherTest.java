@@ -23,10 +23,14 @@ import java.nio.file.Path;
 import java.security.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ChaChaChipherTest {
@@ -82,6 +86,64 @@ class ChaChaChipherTest {
         assertEquals(payload, decrypted);
     }
 
+    @Test
+    void testChaChaPoly1305StreamsCompatibleWithCipherStreams() throws GeneralSecurityException, IOException {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = Envelope.getAdditionalData(new byte[0], new byte[0]);
+
+        byte[] payload = new byte[3 * 1024 + 7];
+        new Random(1).nextBytes(payload);
+
+        for (int bufferSize : new int[] {1, 64, 1000, ChaChaPoly1305OutputStream.DEFAULT_BUFFER_SIZE}) {
+            // ChaChaPoly1305OutputStream -> CipherInputStream
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (OutputStream os = ChaChaCipher.initChaChaPoly1305OutputStream(bos, cek, additionalData,
+                    bufferSize)) {
+                os.write(payload[0]);
+                os.write(payload, 1, payload.length - 1);
+            }
+            try (InputStream is = ChaChaCipher.initChaChaInputStream(
+                    new ByteArrayInputStream(bos.toByteArray()), cek, additionalData)) {
+                assertArrayEquals(payload, is.readAllBytes(), "bufferSize=" + bufferSize);
+            }
+
+            // CipherOutputStream -> ChaChaPoly1305InputStream
+            bos = new ByteArrayOutputStream();
+            try (OutputStream os = ChaChaCipher.initChaChaOutputStream(bos, cek, additionalData)) {
+                os.write(payload);
+            }
+            try (InputStream is = ChaChaCipher.initChaChaPoly1305InputStream(
+                    new ByteArrayInputStream(bos.toByteArray()), cek, additionalData, bufferSize)) {
+                assertEquals(payload[0] & 0xFF, is.read());
+                assertEquals(10, is.skip(10));
+                byte[] rest = is.readAllBytes();
+                assertArrayEquals(Arrays.copyOfRange(payload, 11, payload.length), rest,
+                    "bufferSize=" + bufferSize);
+                assertEquals(-1, is.read());
+            }
+        }
+    }
+
+    @Test
+    void testChaChaPoly1305InputStreamMacCheck() throws GeneralSecurityException, IOException {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = Envelope.getAdditionalData(new byte[0], new byte[0]);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = ChaChaCipher.initChaChaPoly1305OutputStream(bos, cek, additionalData)) {
+            os.write("secret".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] encrypted = bos.toByteArray();
+        encrypted[encrypted.length - 1] ^= 0x01; // corrupt Poly1305 MAC
+
+        try (InputStream is = ChaChaCipher.initChaChaPoly1305InputStream(new ByteArrayInputStream(encrypted), cek,
+                additionalData)) {
+            // same as CipherInputStream, MAC error is reported when end of stream is reached
+            IOException ex = assertThrows(IOException.class, is::readAllBytes);
+            assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        }
+    }
+
     @Test
     void testTarGZipChaChaCipherStream()
             throws GeneralSecurityException, IOException {
@@ -0,0 +1,219 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class ChaChaStreamTest {
+
+    // Test vectors created with independent implementation (Python cryptography ChaCha20Poly1305):
+    // key 00..1f, nonce prefix a0..a6, segment AAD = SHA-256("CDOC2 chunked payload test vector"), 32 byte
+    // segments, plaintext bytes 00, 01, 02, ...
+    private static final SecretKey VECTOR_KEY = new SecretKeySpec(HexFormat.of().parseHex(
+        "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f"), "ChaCha20");
+    private static final byte[] VECTOR_NONCE_PREFIX = HexFormat.of().parseHex("a0a1a2a3a4a5a6");
+    private static final byte[] VECTOR_AD = "CDOC2 chunked payload test vector".getBytes(StandardCharsets.UTF_8);
+    private static final String VECTOR_SEGMENT_AAD =
+        "18b47cea18930c4c4fb05920fd2de812934fdd4616b947c9c3e6755fea4dab99";
+    private static final int VECTOR_SEGMENT_SIZE = 32;
+
+    // empty plaintext, single empty last segment
+    private static final String VECTOR_0 = "a0a1a2a3a4a5a63a21f97c1362a9cc9617bd6c50166f01";
+    // 64 bytes, two full segments, last segment is full
+    private static final String VECTOR_64 = "a0a1a2a3a4a5a6"
+        + "6c380bbdd4d28f3ede2781d82a70cc871ea33863e15f2dcc782dd7f0ee94dcd1398329ec148afc4948198ff22f35c6a0"
+        + "23812ed60be5ef0663e2ba240826b139169a1229792fad3bf2fae44b28fce17cfca54f6b1c660f74e5b5852aa8d963a6";
+    // 70 bytes, two full segments and 6 byte last segment
+    private static final String VECTOR_70 = "a0a1a2a3a4a5a6"
+        + "6c380bbdd4d28f3ede2781d82a70cc871ea33863e15f2dcc782dd7f0ee94dcd1398329ec148afc4948198ff22f35c6a0"
+        + "6f5f83d4b1f22edb6766c8760f01001a99019e71fcea74deeabe90233f41194ccc1fac9c0e4b3b5f8ac364915427d11a"
+        + "d7dc252e63bbdb4b1c7e1a8846b77ae17bc63f265cde";
+
+    @Test
+    void testVectors() throws Exception {
+        byte[] segmentAad = ChaChaStream.segmentAad(VECTOR_AD);
+        assertEquals(VECTOR_SEGMENT_AAD, HexFormat.of().formatHex(segmentAad));
+
+        for (int workers : new int[] {1, 3}) {
+            assertEquals(VECTOR_0, HexFormat.of().formatHex(encryptVector(plaintext(0), segmentAad, workers)));
+            assertEquals(VECTOR_64, HexFormat.of().formatHex(encryptVector(plaintext(64), segmentAad, workers)));
+            assertEquals(VECTOR_70, HexFormat.of().formatHex(encryptVector(plaintext(70), segmentAad, workers)));
+
+            assertArrayEquals(plaintext(0), decryptVector(VECTOR_0, segmentAad, workers));
+            assertArrayEquals(plaintext(64), decryptVector(VECTOR_64, segmentAad, workers));
+            assertArrayEquals(plaintext(70), decryptVector(VECTOR_70, segmentAad, workers));
+        }
+    }
+
+    @Test
+    void testModifiedStreamFails() throws Exception {
+        byte[] segmentAad = ChaChaStream.segmentAad(VECTOR_AD);
+        byte[] encrypted = HexFormat.of().parseHex(VECTOR_70);
+        int encSegment = ChaChaStream.encryptedSegmentSize(VECTOR_SEGMENT_SIZE);
+        int prefix = ChaChaStream.NONCE_PREFIX_LEN_BYTES;
+
+        // modified segment
+        byte[] modified = encrypted.clone();
+        modified[prefix + encSegment + 3] ^= 0x01;
+        assertDecryptFails(modified, segmentAad);
+
+        // truncated at segment boundary, last segment removed
+        assertDecryptFails(Arrays.copyOf(encrypted, prefix + 2 * encSegment), segmentAad);
+
+        // truncated inside tag
+        assertDecryptFails(Arrays.copyOf(encrypted, encrypted.length - 1), segmentAad);
+
+        // data appended after last segment
+        assertDecryptFails(Arrays.copyOf(encrypted, encrypted.length + ChaChaStream.TAG_LEN_BYTES), segmentAad);
+
+        // segments reordered
+        byte[] reordered = encrypted.clone();
+        System.arraycopy(encrypted, prefix, reordered, prefix + encSegment, encSegment);
+        System.arraycopy(encrypted, prefix + encSegment, reordered, prefix, encSegment);
+        assertDecryptFails(reordered, segmentAad);
+
+        // different AAD
+        assertDecryptFails(encrypted, ChaChaStream.segmentAad("other".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testModifiedSegmentDataNotReturned() throws Exception {
+        byte[] segmentAad = ChaChaStream.segmentAad(VECTOR_AD);
+        byte[] modified = HexFormat.of().parseHex(VECTOR_70);
+        // modify second segment, first segment is authentic
+        modified[ChaChaStream.NONCE_PREFIX_LEN_BYTES + ChaChaStream.encryptedSegmentSize(VECTOR_SEGMENT_SIZE)]
+            ^= 0x01;
+
+        for (int workers : new int[] {1, 2}) {
+            try (InputStream is = new ChaChaStreamInputStream(new ByteArrayInputStream(modified,
+                    ChaChaStream.NONCE_PREFIX_LEN_BYTES, modified.length), VECTOR_KEY, VECTOR_NONCE_PREFIX,
+                    segmentAad, VECTOR_SEGMENT_SIZE, workers)) {
+
+                assertArrayEquals(Arrays.copyOf(plaintext(70), VECTOR_SEGMENT_SIZE),
+                    is.readNBytes(VECTOR_SEGMENT_SIZE));
+                IOException e = assertThrows(IOException.class, is::read);
+                assertInstanceOf(AEADBadTagException.class, e.getCause());
+
+                // failure is terminal, authentic last segment is not returned after failed segment
+                assertThrows(IOException.class, is::read);
+                assertThrows(IOException.class, () -> is.skip(1));
+                assertThrows(IOException.class, is::available);
+                assertThrows(IOException.class, is::readAllBytes);
+            }
+        }
+    }
+
+    @Test
+    void testParallelRoundTrip() throws Exception {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = "testParallelRoundTrip".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[5 * ChaChaStream.SEGMENT_SIZE + 1234];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream os = ChaChaCipher.initChaChaStreamOutputStream(encrypted, cek, additionalData, 4)) {
+            // write in pieces not aligned with segments
+            for (int off = 0; off < data.length; off += 10_000) {
+                os.write(data, off, Math.min(10_000, data.length - off));
+            }
+        }
+        assertEquals(ChaChaStream.NONCE_PREFIX_LEN_BYTES + data.length + 6 * ChaChaStream.TAG_LEN_BYTES,
+            encrypted.size());
+
+        for (int workers : new int[] {1, 4}) {
+            try (InputStream is = ChaChaCipher.initChaChaStreamInputStream(
+                    new ByteArrayInputStream(encrypted.toByteArray()), cek, additionalData, workers)) {
+                assertArrayEquals(data, is.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void testRandomAccessSegment(@TempDir Path tempDir) throws Exception {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = "testRandomAccessSegment".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[3 * ChaChaStream.SEGMENT_SIZE + 100];
+        new Random(7).nextBytes(data);
+
+        byte[] streamPrefix = {1, 2, 3};
+        Path file = tempDir.resolve("segments.bin");
+        try (OutputStream fileOs = Files.newOutputStream(file)) {
+            fileOs.write(streamPrefix);
+            try (OutputStream os = ChaChaCipher.initChaChaStreamOutputStream(fileOs, cek, additionalData, 1)) {
+                os.write(data);
+            }
+        }
+
+        byte[] segmentAad = ChaChaStream.segmentAad(additionalData);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(4, ChaChaStream.segmentCount(channel.size() - streamPrefix.length,
+                ChaChaStream.SEGMENT_SIZE));
+            for (int i : new int[] {3, 1, 0, 2}) {
+                int from = i * ChaChaStream.SEGMENT_SIZE;
+                assertArrayEquals(Arrays.copyOfRange(data, from, Math.min(data.length, from + ChaChaStream
+                    .SEGMENT_SIZE)), ChaChaStream.decryptSegment(channel, streamPrefix.length, cek, segmentAad, i));
+            }
+            assertThrows(IOException.class,
+                () -> ChaChaStream.decryptSegment(channel, streamPrefix.length, cek, segmentAad, 4));
+        }
+    }
+
+    private static byte[] plaintext(int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private static byte[] encryptVector(byte[] plaintext, byte[] segmentAad, int workers) throws IOException {
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        dst.write(VECTOR_NONCE_PREFIX);
+        try (OutputStream os = new ChaChaStreamOutputStream(dst, VECTOR_KEY, VECTOR_NONCE_PREFIX, segmentAad,
+                VECTOR_SEGMENT_SIZE, workers)) {
+            os.write(plaintext);
+        }
+        return dst.toByteArray();
+    }
+
+    private static byte[] decryptVector(String vector, byte[] segmentAad, int workers) throws IOException {
+        return decrypt(HexFormat.of().parseHex(vector), segmentAad, workers);
+    }
+
+    private static byte[] decrypt(byte[] encrypted, byte[] segmentAad, int workers) throws IOException {
+        byte[] prefix = Arrays.copyOf(encrypted, ChaChaStream.NONCE_PREFIX_LEN_BYTES);
+        try (InputStream is = new ChaChaStreamInputStream(new ByteArrayInputStream(encrypted,
+                prefix.length, encrypted.length), VECTOR_KEY, prefix, segmentAad, VECTOR_SEGMENT_SIZE, workers)) {
+            return is.readAllBytes();
+        }
+    }
+
+    private static void assertDecryptFails(byte[] encrypted, byte[] segmentAad) {
+        for (int workers : new int[] {1, 2}) {
+            IOException e = assertThrows(IOException.class, () -> decrypt(encrypted, segmentAad, workers));
+            assertInstanceOf(AEADBadTagException.class, e.getCause());
+        }
+    }
+}
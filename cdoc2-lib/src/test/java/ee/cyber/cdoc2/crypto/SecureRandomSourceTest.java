@@ -0,0 +1,166 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class SecureRandomSourceTest {
+    private static final Logger log = LoggerFactory.getLogger(SecureRandomSourceTest.class);
+
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 2000;
+
+    @Test
+    void testThreadLocalInstances() throws Exception {
+        SecureRandomSource source = SecureRandomSource.create(SecureRandomMode.THREAD_LOCAL, 16);
+        SecureRandom first = source.get();
+        assertSame(first, source.get());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SecureRandom other = executor.submit(source::get).get();
+            assertNotSame(first, other);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testPooledInstancesAreBounded() throws Exception {
+        SecureRandomSource source = SecureRandomSource.create(SecureRandomMode.POOLED, 2, 16);
+        Set<SecureRandom> instances = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    instances.add(source.get());
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(instances.size() <= 2, "Expected at most 2 pooled DRBGs, got " + instances.size());
+    }
+
+    @Test
+    void testSharedInstance() throws Exception {
+        SecureRandomSource source = SecureRandomSource.create(SecureRandomMode.SHARED, 16);
+        assertSame(source.get(), source.get());
+    }
+
+    @Test
+    void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class,
+            () -> SecureRandomSource.create(SecureRandomMode.POOLED, 0, 16));
+        assertThrows(IllegalArgumentException.class,
+            () -> SecureRandomSource.create(SecureRandomMode.POOLED, 0));
+    }
+
+    @Test
+    void testFromConfiguration() {
+        String oldMode = System.getProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY);
+        try {
+            System.setProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY, "thread-local");
+            assertEquals(SecureRandomMode.THREAD_LOCAL, SecureRandomSource.fromConfiguration().getMode());
+
+            System.setProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY, "pooled");
+            assertEquals(SecureRandomMode.POOLED, SecureRandomSource.fromConfiguration().getMode());
+
+            System.setProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY, "invalid");
+            assertEquals(SecureRandomMode.SHARED, SecureRandomSource.fromConfiguration().getMode());
+        } finally {
+            if (oldMode == null) {
+                System.clearProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY);
+            } else {
+                System.setProperty(CDocConfiguration.SECURE_RANDOM_MODE_PROPERTY, oldMode);
+            }
+        }
+    }
+
+    /**
+     * Generate nonces concurrently, check that all generated values are unique and log throughput with 1 and
+     * {@link #THREADS} threads to show how each mode scales
+     */
+    @ParameterizedTest
+    @EnumSource(SecureRandomMode.class)
+    void testConcurrentGeneration(SecureRandomMode mode) throws Exception {
+        // small reseed interval, so that reseeding is also exercised under concurrency
+        SecureRandomSource source = SecureRandomSource.create(mode, THREADS, 64);
+
+        double singleThreaded = generate(source, 1, null);
+        Set<ByteBuffer> generated = ConcurrentHashMap.newKeySet();
+        double multiThreaded = generate(source, THREADS, generated);
+
+        assertEquals(THREADS * OPS_PER_THREAD, generated.size(), "Duplicate random values generated");
+        log.info("{}: 1 thread {} ops/ms, {} threads {} ops/ms, scaling {}",
+            mode, String.format("%.1f", singleThreaded), THREADS, String.format("%.1f", multiThreaded),
+            String.format("%.2f", multiThreaded / singleThreaded));
+    }
+
+    /**
+     * @return throughput in ops/ms
+     */
+    private static double generate(SecureRandomSource source, int threads, Set<ByteBuffer> generated)
+        throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        byte[] nonce = new byte[ChaChaCipher.NONCE_LEN_BYTES];
+                        source.get().nextBytes(nonce);
+                        if (generated != null && !generated.add(ByteBuffer.wrap(nonce))) {
+                            log.error("Duplicate {}", HexFormat.of().formatHex(nonce));
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+            long elapsedNanos = System.nanoTime() - begin;
+            return (double) threads * OPS_PER_THREAD / Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}